@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.benchmarks.codec;
+
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.internal.compiler.CompilerThriftCodecFactory;
+import com.facebook.swift.codec.internal.reflection.ReflectionThriftCodecFactory;
+import org.apache.thrift.TByteArrayOutputStream;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ThriftCodecManager#read} and {@link ThriftCodecManager#write} for each
+ * combination of codec factory, protocol and struct shape.
+ * <p/>
+ * Run with the GC profiler ({@code -prof gc}, which {@link #main} enables by default) to get the
+ * normalized allocation rate ({@code gc.alloc.rate.norm}, in bytes/op) alongside ns/op.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class CodecBenchmark
+{
+    @Param
+    public CodecFactoryType codecFactory;
+
+    @Param
+    public ProtocolType protocol;
+
+    @Param
+    public StructShape shape;
+
+    private ThriftCodecManager codecManager;
+    private Class<Object> structClass;
+    private Object value;
+
+    private byte[] serialized;
+    private TMemoryInputTransport inputTransport;
+    private TProtocol inputProtocol;
+
+    private TByteArrayOutputStream outputBuffer;
+    private TProtocol outputProtocol;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup()
+            throws Exception
+    {
+        codecManager = new ThriftCodecManager(codecFactory.create());
+        structClass = (Class<Object>) shape.getStructClass();
+        value = shape.createValue();
+
+        outputBuffer = new TByteArrayOutputStream();
+        outputProtocol = protocol.getFactory().getProtocol(new TIOStreamTransport(outputBuffer));
+        codecManager.write(structClass, value, outputProtocol);
+        serialized = Arrays.copyOf(outputBuffer.get(), outputBuffer.len());
+
+        inputTransport = new TMemoryInputTransport(serialized);
+        inputProtocol = protocol.getFactory().getProtocol(inputTransport);
+
+        // make sure the round trip actually works before measuring it
+        codecManager.read(structClass, inputProtocol);
+    }
+
+    @Benchmark
+    public Object read()
+            throws Exception
+    {
+        inputTransport.reset(serialized);
+        inputProtocol.reset();
+        return codecManager.read(structClass, inputProtocol);
+    }
+
+    @Benchmark
+    public int write()
+            throws Exception
+    {
+        outputBuffer.reset();
+        outputProtocol.reset();
+        codecManager.write(structClass, value, outputProtocol);
+        return outputBuffer.len();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        Options options = new OptionsBuilder()
+                .include(".*" + CodecBenchmark.class.getSimpleName() + ".*")
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        new Runner(options).run();
+    }
+
+    public enum CodecFactoryType
+    {
+        COMPILER {
+            @Override
+            public ThriftCodecFactory create()
+            {
+                return new CompilerThriftCodecFactory(false);
+            }
+        },
+        REFLECTION {
+            @Override
+            public ThriftCodecFactory create()
+            {
+                return new ReflectionThriftCodecFactory();
+            }
+        };
+
+        public abstract ThriftCodecFactory create();
+    }
+
+    public enum ProtocolType
+    {
+        BINARY(new TBinaryProtocol.Factory()),
+        COMPACT(new TCompactProtocol.Factory());
+
+        private final TProtocolFactory factory;
+
+        ProtocolType(TProtocolFactory factory)
+        {
+            this.factory = factory;
+        }
+
+        public TProtocolFactory getFactory()
+        {
+            return factory;
+        }
+    }
+}
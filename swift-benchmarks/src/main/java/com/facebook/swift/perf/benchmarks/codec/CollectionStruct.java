@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.benchmarks.codec;
+
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftStruct;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@ThriftStruct
+public final class CollectionStruct
+{
+    @ThriftField(1)
+    public List<Integer> integers;
+
+    @ThriftField(2)
+    public List<String> strings;
+
+    @ThriftField(3)
+    public Set<Long> longs;
+
+    @ThriftField(4)
+    public Map<String, FlatStruct> structsByName;
+
+    @ThriftField(5)
+    public List<FlatStruct> structs;
+
+    @ThriftField(6)
+    public int[] intArray;
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.benchmarks.codec;
+
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftStruct;
+
+import static com.facebook.swift.codec.ThriftField.Recursiveness;
+import static com.facebook.swift.codec.ThriftField.Requiredness;
+
+@ThriftStruct
+public final class RecursiveStruct
+{
+    @ThriftField(value = 1, requiredness = Requiredness.OPTIONAL, isRecursive = Recursiveness.TRUE)
+    public RecursiveStruct left;
+
+    @ThriftField(value = 2, requiredness = Requiredness.OPTIONAL, isRecursive = Recursiveness.TRUE)
+    public RecursiveStruct right;
+
+    @ThriftField(3)
+    public long value;
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.benchmarks.codec;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+/**
+ * The struct shapes exercised by the codec benchmarks, along with a representative instance of
+ * each shape.
+ */
+public enum StructShape
+{
+    FLAT(FlatStruct.class) {
+        @Override
+        public Object createValue()
+        {
+            return createFlatStruct(0);
+        }
+    },
+    NESTED(NestedStruct.class) {
+        @Override
+        public Object createValue()
+        {
+            NestedStructLevel3 level3 = new NestedStructLevel3();
+            level3.flat = createFlatStruct(3);
+            level3.sibling = createFlatStruct(4);
+
+            NestedStructLevel2 level2 = new NestedStructLevel2();
+            level2.flat = createFlatStruct(2);
+            level2.child = level3;
+
+            NestedStruct nested = new NestedStruct();
+            nested.flat = createFlatStruct(1);
+            nested.child = level2;
+            return nested;
+        }
+    },
+    COLLECTIONS(CollectionStruct.class) {
+        @Override
+        public Object createValue()
+        {
+            ImmutableList.Builder<Integer> integers = ImmutableList.builder();
+            ImmutableList.Builder<String> strings = ImmutableList.builder();
+            ImmutableSet.Builder<Long> longs = ImmutableSet.builder();
+            ImmutableMap.Builder<String, FlatStruct> structsByName = ImmutableMap.builder();
+            ImmutableList.Builder<FlatStruct> structs = ImmutableList.builder();
+            int[] intArray = new int[COLLECTION_SIZE];
+
+            for (int i = 0; i < COLLECTION_SIZE; i++) {
+                integers.add(i);
+                strings.add("string-" + i);
+                longs.add((long) i << 32);
+                structsByName.put("struct-" + i, createFlatStruct(i));
+                structs.add(createFlatStruct(i));
+                intArray[i] = i;
+            }
+
+            CollectionStruct collections = new CollectionStruct();
+            collections.integers = integers.build();
+            collections.strings = strings.build();
+            collections.longs = longs.build();
+            collections.structsByName = structsByName.build();
+            collections.structs = structs.build();
+            collections.intArray = intArray;
+            return collections;
+        }
+    },
+    UNION(UnionStruct.class) {
+        @Override
+        public Object createValue()
+        {
+            return new UnionStruct(createFlatStruct(0));
+        }
+    },
+    RECURSIVE(RecursiveStruct.class) {
+        @Override
+        public Object createValue()
+        {
+            return createTree(RECURSION_DEPTH, 0);
+        }
+    };
+
+    private static final int COLLECTION_SIZE = 32;
+    private static final int RECURSION_DEPTH = 6;
+
+    private final Class<?> structClass;
+
+    StructShape(Class<?> structClass)
+    {
+        this.structClass = structClass;
+    }
+
+    public Class<?> getStructClass()
+    {
+        return structClass;
+    }
+
+    public abstract Object createValue();
+
+    private static FlatStruct createFlatStruct(int seed)
+    {
+        FlatStruct flat = new FlatStruct();
+        flat.booleanValue = (seed & 1) == 0;
+        flat.byteValue = (byte) seed;
+        flat.shortValue = (short) (seed * 31);
+        flat.intValue = seed * 1_000_003;
+        flat.longValue = seed * 1_000_000_007L;
+        flat.doubleValue = seed * 3.14159;
+        flat.stringValue = "flat struct number " + seed;
+        flat.binaryValue = ByteBuffer.wrap(("binary payload " + seed).getBytes(UTF_8));
+        return flat;
+    }
+
+    private static RecursiveStruct createTree(int depth, long value)
+    {
+        RecursiveStruct node = new RecursiveStruct();
+        node.value = value;
+        if (depth > 0) {
+            node.left = createTree(depth - 1, value * 2 + 1);
+            node.right = createTree(depth - 1, value * 2 + 2);
+        }
+        return node;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.benchmarks.codec;
+
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftUnion;
+import com.facebook.swift.codec.ThriftUnionId;
+
+@ThriftUnion
+public final class UnionStruct
+{
+    @ThriftField(1)
+    public String stringValue;
+
+    @ThriftField(2)
+    public Long longValue;
+
+    @ThriftField(3)
+    public FlatStruct structValue;
+
+    @ThriftUnionId
+    public short id;
+
+    public UnionStruct()
+    {
+    }
+
+    public UnionStruct(FlatStruct structValue)
+    {
+        this.id = 3;
+        this.structValue = structValue;
+    }
+}
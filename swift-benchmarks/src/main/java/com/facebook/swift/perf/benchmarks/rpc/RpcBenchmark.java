@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.benchmarks.rpc;
+
+import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.nifty.client.NiftyClientConnector;
+import com.facebook.nifty.client.UnframedClientConnector;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.service.ThriftClientManager;
+import com.facebook.swift.service.ThriftEventHandler;
+import com.facebook.swift.service.ThriftServer;
+import com.facebook.swift.service.ThriftServerConfig;
+import com.facebook.swift.service.ThriftServiceProcessor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * End-to-end benchmark of the whole request path, from the {@link ThriftClientManager} proxy
+ * through Nifty to {@link ThriftServiceProcessor} and back, against a {@link ThriftServer}
+ * bound to an ephemeral loopback port.
+ * <p/>
+ * The default mode samples the latency of every call, so JMH reports p50/p99/p999 for each
+ * combination of transport, protocol and payload size. Run with {@code -bm thrpt -tu s} (which
+ * {@link #main} also does) to get the maximum QPS instead. The server thread counts are
+ * parameters too, so e.g. {@code -p workerThreads=8,32,200 -t 16} shows how
+ * {@link ThriftServerConfig} sizing behaves under a given client concurrency.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class RpcBenchmark
+{
+    private static final int PIPELINE_DEPTH = 16;
+
+    @Param
+    public ChannelType channel;
+
+    @Param({"16", "1024", "65536"})
+    public int payloadSize;
+
+    @Param({"200"})
+    public int workerThreads;
+
+    // 0 keeps the ThriftServerConfig default
+    @Param({"0"})
+    public int ioThreads;
+
+    private ThriftServer server;
+    private ThriftClientManager clientManager;
+    private ByteBuffer payload;
+
+    @Setup
+    public void startServer()
+    {
+        ThriftServerConfig config = new ThriftServerConfig()
+                .setPort(0)
+                .setProtocolName(channel.getProtocolName())
+                .setWorkerThreads(workerThreads);
+        if (ioThreads > 0) {
+            config.setIoThreadCount(ioThreads);
+        }
+
+        ThriftCodecManager codecManager = new ThriftCodecManager();
+        ThriftServiceProcessor processor = new ThriftServiceProcessor(
+                codecManager,
+                ImmutableList.<ThriftEventHandler>of(),
+                new BenchmarkServiceHandler());
+
+        server = new ThriftServer(processor, config).start();
+        clientManager = new ThriftClientManager(codecManager);
+
+        byte[] bytes = new byte[payloadSize];
+        new Random(payloadSize).nextBytes(bytes);
+        payload = ByteBuffer.wrap(bytes);
+    }
+
+    @TearDown
+    public void stopServer()
+    {
+        clientManager.close();
+        server.close();
+    }
+
+    @Benchmark
+    public ByteBuffer syncEcho(Clients clients)
+            throws Exception
+    {
+        return clients.syncClient.echo(payload);
+    }
+
+    @Benchmark
+    public ByteBuffer asyncEcho(Clients clients)
+            throws Exception
+    {
+        return clients.asyncClient.echo(payload).get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PIPELINE_DEPTH)
+    public List<ByteBuffer> asyncEchoPipelined(Clients clients)
+            throws Exception
+    {
+        List<ListenableFuture<ByteBuffer>> futures = new ArrayList<>(PIPELINE_DEPTH);
+        for (int i = 0; i < PIPELINE_DEPTH; i++) {
+            futures.add(clients.asyncClient.echo(payload));
+        }
+        return Futures.allAsList(futures).get();
+    }
+
+    @Benchmark
+    public void onewayFire(Clients clients)
+            throws Exception
+    {
+        clients.syncClient.fire(payload);
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        String include = ".*" + RpcBenchmark.class.getSimpleName() + ".*";
+
+        Options latency = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.SampleTime)
+                .timeUnit(TimeUnit.MICROSECONDS)
+                .build();
+        new Runner(latency).run();
+
+        Options throughput = new OptionsBuilder()
+                .include(include)
+                .mode(Mode.Throughput)
+                .timeUnit(TimeUnit.SECONDS)
+                .build();
+        new Runner(throughput).run();
+    }
+
+    /**
+     * Each benchmark thread gets its own connections, so the client side never serializes
+     * requests from different threads onto the same channel.
+     */
+    @State(Scope.Thread)
+    public static class Clients
+    {
+        private BenchmarkService syncClient;
+        private AsyncBenchmarkService asyncClient;
+
+        @Setup
+        public void connect(RpcBenchmark benchmark, BenchmarkParams params)
+                throws Exception
+        {
+            // unframed responses can't be matched back to pipelined requests, so fail fast
+            // instead of waiting for the receive timeout
+            checkState(benchmark.channel.isFramed() || !params.getBenchmark().endsWith(".asyncEchoPipelined"),
+                    "%s does not support pipelined requests", benchmark.channel);
+
+            HostAndPort address = HostAndPort.fromParts("localhost", benchmark.server.getPort());
+
+            syncClient = benchmark.clientManager.createClient(
+                    benchmark.channel.createConnector(address),
+                    BenchmarkService.class).get();
+            asyncClient = benchmark.clientManager.createClient(
+                    benchmark.channel.createConnector(address),
+                    AsyncBenchmarkService.class).get();
+        }
+
+        @TearDown
+        public void disconnect()
+        {
+            syncClient.close();
+            asyncClient.close();
+        }
+    }
+
+    /**
+     * Transport and protocol combinations to run. Unframed compact calls never complete over
+     * Nifty's unframed channel, so that combination is left out.
+     */
+    public enum ChannelType
+    {
+        FRAMED_BINARY("binary", true) {
+            @Override
+            public NiftyClientConnector<? extends NiftyClientChannel> createConnector(HostAndPort address)
+            {
+                return new FramedClientConnector(address, getProtocolFactory());
+            }
+        },
+        FRAMED_COMPACT("compact", true) {
+            @Override
+            public NiftyClientConnector<? extends NiftyClientChannel> createConnector(HostAndPort address)
+            {
+                return new FramedClientConnector(address, getProtocolFactory());
+            }
+        },
+        UNFRAMED_BINARY("binary", false) {
+            @Override
+            public NiftyClientConnector<? extends NiftyClientChannel> createConnector(HostAndPort address)
+            {
+                return new UnframedClientConnector(address, getProtocolFactory());
+            }
+        };
+
+        private final String protocolName;
+        private final boolean framed;
+
+        ChannelType(String protocolName, boolean framed)
+        {
+            this.protocolName = protocolName;
+            this.framed = framed;
+        }
+
+        public String getProtocolName()
+        {
+            return protocolName;
+        }
+
+        public boolean isFramed()
+        {
+            return framed;
+        }
+
+        public TDuplexProtocolFactory getProtocolFactory()
+        {
+            return ThriftServer.DEFAULT_PROTOCOL_FACTORIES.get(protocolName);
+        }
+
+        public abstract NiftyClientConnector<? extends NiftyClientChannel> createConnector(HostAndPort address);
+    }
+}
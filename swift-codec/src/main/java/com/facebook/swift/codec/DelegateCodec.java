@@ -26,13 +26,17 @@ import java.lang.reflect.Type;
  * until it is actually used, and then just delegates to that codec.
  *
  * This is used to break the cycle when computing the codec for a recursive type
- * tries to compute codecs for all of its fields.
+ * tries to compute codecs for all of its fields.  The real codec is looked up once,
+ * on first use, and then used directly.
  */
 public class DelegateCodec<T> implements ThriftCodec<T>
 {
     private final ThriftCodecManager codecManager;
     private final TypeToken<T> typeToken;
 
+    // bound on first use, so later calls skip the lookup in the codec manager
+    private volatile ThriftCodec<T> codec;
+
     public DelegateCodec(ThriftCodecManager codecManager, Type javaType)
     {
         this.codecManager = codecManager;
@@ -59,12 +63,22 @@ public class DelegateCodec<T> implements ThriftCodec<T>
 
     private ThriftCodec<T> getCodec()
     {
-        ThriftCodec<T> codec = codecManager.getCachedCodecIfPresent(typeToken);
+        ThriftCodec<T> codec = this.codec;
+        if (codec != null) {
+            return codec;
+        }
+
+        codec = codecManager.getCachedCodecIfPresent(typeToken);
         if (codec == null) {
+            // the codec may have been evicted from a bounded codec manager
+            codec = codecManager.getCodec(typeToken);
+        }
+        if (codec instanceof DelegateCodec) {
             throw new IllegalStateException(
                 "Tried to encodec/decode using a DelegateCodec before the target codec was " +
                 "built (likely a bug in recursive type support)");
         }
+        this.codec = codec;
         return codec;
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import com.facebook.swift.codec.LazyThriftStructCodec.Encoding;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.base.Throwables;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A Thrift struct that is decoded on demand. Reading a lazy struct only records where each
+ * field is in the frame; a field is decoded the first time it is requested, and fields that
+ * have not been replaced are copied verbatim when the struct is written with the same protocol
+ * encoding. Code that only looks at a few fields of a large struct, such as a proxy, can declare
+ * a parameter, return value or field as {@code LazyThriftStruct<Foo>} instead of {@code Foo};
+ * both are encoded the same way.
+ * <p/>
+ * When the transport exposes its buffer, the struct references the frame it was read from
+ * instead of copying it, so the frame stays reachable while the struct is, and the struct must
+ * not be used after the transport reuses the buffer. Frames read by the server are never reused.
+ * <p/>
+ * Decoded values are shared with the struct, so a field must be changed with
+ * {@link #setField}, not by modifying its value.
+ */
+@NotThreadSafe
+public final class LazyThriftStruct<T>
+{
+    private final LazyThriftStructCodec<T> codec;
+    private final Encoding encoding;
+    private final byte[] frame;
+    private final int structOffset;
+    private final int structLength;
+    private final List<LazyField> fields;
+
+    private boolean modified;
+    private T struct;
+
+    LazyThriftStruct(LazyThriftStructCodec<T> codec, Encoding encoding, byte[] frame, int structOffset, int structLength, List<LazyField> fields)
+    {
+        this.codec = codec;
+        this.encoding = encoding;
+        this.frame = frame;
+        this.structOffset = structOffset;
+        this.structLength = structLength;
+        this.fields = fields;
+    }
+
+    public ThriftStructMetadata getMetadata()
+    {
+        return codec.getType().getStructMetadata();
+    }
+
+    /**
+     * Returns the fully decoded struct.
+     */
+    public T get()
+    {
+        if (struct == null) {
+            try {
+                struct = codec.decodeStruct(this);
+            }
+            catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return struct;
+    }
+
+    public boolean isFieldSet(short id)
+    {
+        return findField(id) != null;
+    }
+
+    /**
+     * Returns the value of the field, decoding it if this is the first access. Returns null if the
+     * field is not set, is not a field of the struct, or does not have the type declared by the
+     * struct.
+     */
+    public Object getField(short id)
+    {
+        LazyField field = findField(id);
+        if (field == null) {
+            return null;
+        }
+        if (!field.decoded) {
+            try {
+                field.value = codec.decodeField(encoding, field);
+            }
+            catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+            field.decoded = true;
+        }
+        return field.value;
+    }
+
+    /**
+     * Replaces the value of the field, or removes the field if the value is null.
+     */
+    public void setField(short id, Object value)
+    {
+        byte type = codec.getFieldType(id);
+
+        Iterator<LazyField> iterator = fields.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().id == id) {
+                iterator.remove();
+                break;
+            }
+        }
+        if (value != null) {
+            fields.add(new LazyField(id, type, value));
+        }
+
+        modified = true;
+        struct = null;
+    }
+
+    Encoding getEncoding()
+    {
+        return encoding;
+    }
+
+    byte[] getFrame()
+    {
+        return frame;
+    }
+
+    int getStructOffset()
+    {
+        return structOffset;
+    }
+
+    int getStructLength()
+    {
+        return structLength;
+    }
+
+    List<LazyField> getFields()
+    {
+        return fields;
+    }
+
+    boolean isModified()
+    {
+        return modified;
+    }
+
+    private LazyField findField(short id)
+    {
+        // structs have few fields, so a scan is cheaper than building an index for every read
+        for (LazyField field : fields) {
+            if (field.id == id) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("LazyThriftStruct");
+        sb.append("{struct=").append(getMetadata().getStructName());
+        sb.append(", fields=[");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(fields.get(i).id);
+        }
+        sb.append("], modified=").append(modified);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    static final class LazyField
+    {
+        final short id;
+        final byte type;
+
+        // the encoded value, or null if the field was set to a decoded value
+        final byte[] buffer;
+        final int offset;
+        final int length;
+
+        Object value;
+        boolean decoded;
+
+        LazyField(short id, byte type, byte[] buffer, int offset, int length)
+        {
+            this.id = id;
+            this.type = type;
+            this.buffer = buffer;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        LazyField(short id, byte type, Object value)
+        {
+            this(id, type, null, 0, 0);
+            this.value = value;
+            this.decoded = true;
+        }
+
+        boolean isEncoded()
+        {
+            return buffer != null;
+        }
+
+        TTransport newTransport()
+        {
+            return new TMemoryInputTransport(buffer, offset, length);
+        }
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import com.facebook.swift.codec.LazyThriftStruct.LazyField;
+import com.facebook.swift.codec.internal.TProtocolReader;
+import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.codec.protocol.SwiftBinaryProtocol;
+import com.facebook.swift.codec.protocol.SwiftCompactProtocol;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.facebook.swift.codec.metadata.FieldKind.THRIFT_FIELD;
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Codec for {@link LazyThriftStruct}. Reading records the type and position of each field in
+ * the frame without decoding it, and writing copies the recorded fields verbatim when the
+ * protocol has the encoding they were read with, or transcodes them field by field otherwise.
+ * <p/>
+ * Fields can only be recorded when the protocol is a binary or compact protocol and the
+ * transport reads each frame into an array that it never refills, which is the case for
+ * {@link TMemoryInputTransport}, {@link TFramedTransport} and the Nifty transport. The array must
+ * not be reused while the struct is referenced. With other transports the struct is copied
+ * into a private frame with the same encoding as it is read. For other protocols the known
+ * fields of the struct are copied into a private binary encoded frame, and unknown fields are
+ * dropped as they are by the regular struct codecs. Likewise, unknown fields are dropped when a
+ * struct is written with a protocol other than binary or compact.
+ */
+@Immutable
+public class LazyThriftStructCodec<T>
+        implements ThriftCodec<LazyThriftStruct<T>>
+{
+    // the compact protocol encodes boolean fields in the field header, so boolean fields are
+    // recorded with the encoding of a boolean outside of a field
+    private static final byte[] COMPACT_TRUE = {1};
+    private static final byte[] COMPACT_FALSE = {2};
+
+    // transports that read each frame into a new array, so recorded fields stay valid when the
+    // next frame is read; subclasses could refill the array, so only these classes are matched
+    private static final Set<String> STABLE_BUFFER_TRANSPORTS = ImmutableSet.of(
+            TMemoryInputTransport.class.getName(),
+            TFramedTransport.class.getName(),
+            "com.facebook.nifty.core.TNiftyTransport");
+
+    private final ThriftType type;
+    private final ThriftStructMetadata metadata;
+    private final ThriftCodec<T> structCodec;
+    private final Map<Short, ThriftCodec<?>> fieldCodecs;
+
+    @SuppressWarnings("unchecked")
+    public LazyThriftStructCodec(ThriftCodecManager manager, ThriftType type)
+    {
+        checkArgument(type.isLazyStruct(), "%s is not a lazy struct type", type);
+
+        this.type = type;
+        this.metadata = type.getStructMetadata();
+        this.structCodec = (ThriftCodec<T>) manager.getCodec(metadata.getStructType());
+
+        ImmutableMap.Builder<Short, ThriftCodec<?>> fieldCodecs = ImmutableMap.builder();
+        for (ThriftFieldMetadata fieldMetadata : metadata.getFields(THRIFT_FIELD)) {
+            fieldCodecs.put(fieldMetadata.getId(), manager.getCodec(fieldMetadata.getThriftType()));
+        }
+        this.fieldCodecs = fieldCodecs.build();
+    }
+
+    @Override
+    public ThriftType getType()
+    {
+        return type;
+    }
+
+    @Override
+    public LazyThriftStruct<T> read(TProtocol protocol)
+            throws Exception
+    {
+        Encoding encoding = Encoding.forProtocol(protocol);
+        TTransport transport = protocol.getTransport();
+        if (encoding == null) {
+            TMemoryBuffer copy = new TMemoryBuffer(256);
+            copyStruct(protocol, Encoding.BINARY.createProtocol(copy));
+            return read(Encoding.BINARY.createProtocol(new TMemoryInputTransport(copy.getArray(), 0, copy.length())));
+        }
+        if (!STABLE_BUFFER_TRANSPORTS.contains(transport.getClass().getName()) || transport.getBytesRemainingInBuffer() <= 0) {
+            // the transport may refill its buffer in place, which would change the recorded fields
+            TMemoryBuffer copy = new TMemoryBuffer(256);
+            copyValue(protocol, encoding.createProtocol(copy), TType.STRUCT);
+            return read(encoding.createProtocol(new TMemoryInputTransport(copy.getArray(), 0, copy.length())));
+        }
+
+        byte[] frame = transport.getBuffer();
+        int structOffset = transport.getBufferPosition();
+        List<LazyField> fields = new ArrayList<>();
+
+        TProtocolReader reader = TProtocolReader.forProtocol(protocol);
+        reader.readStructBegin();
+        while (reader.nextField()) {
+            short fieldId = reader.getFieldId();
+            byte fieldType = reader.getFieldType();
+
+            if (fieldType == TType.BOOL && encoding == Encoding.COMPACT) {
+                byte[] value = reader.readBoolField() ? COMPACT_TRUE : COMPACT_FALSE;
+                fields.add(new LazyField(fieldId, fieldType, value, 0, value.length));
+                continue;
+            }
+
+            int offset = transport.getBufferPosition();
+            reader.skipFieldData();
+            if (transport.getBuffer() != frame) {
+                throw new TProtocolException("Transport buffer changed while reading struct " + metadata.getStructName());
+            }
+            fields.add(new LazyField(fieldId, fieldType, frame, offset, transport.getBufferPosition() - offset));
+        }
+        reader.readStructEnd();
+
+        return new LazyThriftStruct<>(this, encoding, frame, structOffset, transport.getBufferPosition() - structOffset, fields);
+    }
+
+    @Override
+    public void write(LazyThriftStruct<T> struct, TProtocol protocol)
+            throws Exception
+    {
+        Encoding encoding = Encoding.forProtocol(protocol);
+
+        TProtocolWriter writer = TProtocolWriter.forProtocol(protocol);
+        writer.writeStructBegin(metadata.getStructName());
+        for (LazyField field : struct.getFields()) {
+            String name = getFieldName(field.id);
+            @SuppressWarnings("unchecked")
+            ThriftCodec<Object> codec = (ThriftCodec<Object>) fieldCodecs.get(field.id);
+
+            if (!field.isEncoded()) {
+                writer.writeField(name, field.id, codec, field.value);
+            }
+            else if (encoding == struct.getEncoding() && field.type != TType.BOOL) {
+                writer.writeEncodedField(name, field.id, field.type, field.buffer, field.offset, field.length);
+            }
+            else if (encoding != null) {
+                // transcode the value without decoding it into java objects
+                protocol.writeFieldBegin(new TField(name, field.type, field.id));
+                copyValue(struct.getEncoding().createProtocol(field.newTransport()), protocol, field.type);
+                protocol.writeFieldEnd();
+            }
+            else if (codec != null) {
+                // other protocols, such as JSON, encode strings and binary differently, so the
+                // value must be decoded to be written with the type declared by the struct
+                writer.writeField(name, field.id, codec, decodeField(struct.getEncoding(), field));
+            }
+        }
+        writer.writeStructEnd();
+    }
+
+    T decodeStruct(LazyThriftStruct<T> struct)
+            throws Exception
+    {
+        if (!struct.isModified()) {
+            TTransport transport = new TMemoryInputTransport(struct.getFrame(), struct.getStructOffset(), struct.getStructLength());
+            return structCodec.read(struct.getEncoding().createProtocol(transport));
+        }
+
+        TMemoryBuffer buffer = new TMemoryBuffer(256);
+        write(struct, Encoding.BINARY.createProtocol(buffer));
+        return structCodec.read(Encoding.BINARY.createProtocol(buffer));
+    }
+
+    Object decodeField(Encoding encoding, LazyField field)
+            throws Exception
+    {
+        // like the struct codecs, ignore unknown fields and fields with an unexpected type
+        ThriftCodec<?> codec = fieldCodecs.get(field.id);
+        if (codec == null || codec.getType().getProtocolType().getType() != field.type) {
+            return null;
+        }
+        return codec.read(encoding.createProtocol(field.newTransport()));
+    }
+
+    byte getFieldType(short id)
+    {
+        ThriftCodec<?> codec = fieldCodecs.get(id);
+        checkArgument(codec != null, "Struct %s does not have a field %s", metadata.getStructName(), id);
+        return codec.getType().getProtocolType().getType();
+    }
+
+    private String getFieldName(short id)
+    {
+        ThriftFieldMetadata field = metadata.getField(id);
+        return (field != null) ? field.getName() : "";
+    }
+
+    private void copyStruct(TProtocol in, TProtocol out)
+            throws Exception
+    {
+        TProtocolReader reader = TProtocolReader.forProtocol(in);
+        TProtocolWriter writer = TProtocolWriter.forProtocol(out);
+
+        reader.readStructBegin();
+        writer.writeStructBegin(metadata.getStructName());
+        while (reader.nextField()) {
+            short fieldId = reader.getFieldId();
+
+            // unknown fields are dropped, because their strings and binaries can't be told apart
+            @SuppressWarnings("unchecked")
+            ThriftCodec<Object> codec = (ThriftCodec<Object>) fieldCodecs.get(fieldId);
+            if (codec == null) {
+                reader.skipFieldData();
+                continue;
+            }
+            writer.writeField(getFieldName(fieldId), fieldId, codec, reader.readField(codec));
+        }
+        reader.readStructEnd();
+        writer.writeStructEnd();
+    }
+
+    /**
+     * Copies a value between protocols with an {@link Encoding}, which encode strings and binary
+     * values the same way.
+     */
+    private static void copyValue(TProtocol in, TProtocol out, byte type)
+            throws TException
+    {
+        switch (type) {
+            case TType.BOOL:
+                out.writeBool(in.readBool());
+                break;
+            case TType.BYTE:
+                out.writeByte(in.readByte());
+                break;
+            case TType.I16:
+                out.writeI16(in.readI16());
+                break;
+            case TType.I32:
+                out.writeI32(in.readI32());
+                break;
+            case TType.I64:
+                out.writeI64(in.readI64());
+                break;
+            case TType.DOUBLE:
+                out.writeDouble(in.readDouble());
+                break;
+            case TType.STRING:
+                out.writeBinary(in.readBinary());
+                break;
+            case TType.STRUCT:
+                out.writeStructBegin(in.readStructBegin());
+                while (true) {
+                    TField field = in.readFieldBegin();
+                    if (field.type == TType.STOP) {
+                        break;
+                    }
+                    out.writeFieldBegin(field);
+                    copyValue(in, out, field.type);
+                    in.readFieldEnd();
+                    out.writeFieldEnd();
+                }
+                out.writeFieldStop();
+                in.readStructEnd();
+                out.writeStructEnd();
+                break;
+            case TType.MAP:
+                TMap map = in.readMapBegin();
+                out.writeMapBegin(map);
+                for (int i = 0; i < map.size; i++) {
+                    copyValue(in, out, map.keyType);
+                    copyValue(in, out, map.valueType);
+                }
+                in.readMapEnd();
+                out.writeMapEnd();
+                break;
+            case TType.SET:
+                TSet set = in.readSetBegin();
+                out.writeSetBegin(set);
+                for (int i = 0; i < set.size; i++) {
+                    copyValue(in, out, set.elemType);
+                }
+                in.readSetEnd();
+                out.writeSetEnd();
+                break;
+            case TType.LIST:
+                TList list = in.readListBegin();
+                out.writeListBegin(list);
+                for (int i = 0; i < list.size; i++) {
+                    copyValue(in, out, list.elemType);
+                }
+                in.readListEnd();
+                out.writeListEnd();
+                break;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Unknown field type " + type);
+        }
+    }
+
+    /**
+     * Protocol encodings whose encoded fields can be recorded and copied verbatim.
+     */
+    enum Encoding
+    {
+        BINARY {
+            @Override
+            TProtocol createProtocol(TTransport transport)
+            {
+                return new SwiftBinaryProtocol(transport);
+            }
+        },
+        COMPACT {
+            @Override
+            TProtocol createProtocol(TTransport transport)
+            {
+                return new SwiftCompactProtocol(transport);
+            }
+        };
+
+        abstract TProtocol createProtocol(TTransport transport);
+
+        static Encoding forProtocol(TProtocol protocol)
+        {
+            // subclasses could change the encoding, so only the known classes are matched
+            Class<?> protocolClass = protocol.getClass();
+            if (protocolClass == TBinaryProtocol.class || protocolClass == SwiftBinaryProtocol.class) {
+                return BINARY;
+            }
+            if (protocolClass == TCompactProtocol.class || protocolClass == SwiftCompactProtocol.class) {
+                return COMPACT;
+            }
+            return null;
+        }
+    }
+}
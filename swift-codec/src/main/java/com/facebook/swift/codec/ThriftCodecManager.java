@@ -34,7 +34,6 @@ import com.facebook.swift.codec.internal.builtin.ShortArrayThriftCodec;
 import com.facebook.swift.codec.internal.builtin.ShortThriftCodec;
 import com.facebook.swift.codec.internal.builtin.StringThriftCodec;
 import com.facebook.swift.codec.internal.builtin.VoidThriftCodec;
-import com.facebook.swift.codec.internal.coercion.CoercionThriftCodec;
 import com.facebook.swift.codec.internal.compiler.CompilerThriftCodecFactory;
 import com.facebook.swift.codec.metadata.ThriftCatalog;
 import com.facebook.swift.codec.metadata.ThriftType;
@@ -45,6 +44,7 @@ import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.reflect.TypeToken;
 import com.google.inject.Inject;
@@ -60,8 +60,10 @@ import java.lang.reflect.Type;
 import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
@@ -75,6 +77,11 @@ public class ThriftCodecManager
     private final ThriftCatalog catalog;
     private final LoadingCache<ThriftType, ThriftCodec<?>> typeCodecs;
 
+    /**
+     * The types of the builtin codecs and of the codecs added explicitly, which are never evicted
+     */
+    private final Set<ThriftType> pinnedTypes = ConcurrentHashMap.newKeySet();
+
     /**
      * This stack tracks the java Types for which building a ThriftCodec is in progress (used to
      * detect recursion)
@@ -123,14 +130,46 @@ public class ThriftCodecManager
     }
 
     @Inject
-    public ThriftCodecManager(final ThriftCodecFactory factory, final ThriftCatalog catalog, @InternalThriftCodec Set<ThriftCodec<?>> codecs)
+    public ThriftCodecManager(ThriftCodecFactory factory, ThriftCatalog catalog, @InternalThriftCodec Set<ThriftCodec<?>> codecs)
+    {
+        this(factory, catalog, codecs, -1);
+    }
+
+    /**
+     * Creates a codec manager that keeps at most {@code maximumCreatedCodecs} of the codecs it
+     * creates, evicting the least recently used ones.  Evicted codecs are created again when they
+     * are next requested, so the factory must be able to create the same codec more than once
+     * (see {@link ThriftCodecFactory#canRecreateCodecs}), for example a
+     * {@link CompilerThriftCodecFactory} that defines each codec in its own class loader.  Builtin
+     * codecs and codecs added explicitly are never evicted.
+     *
+     * @param maximumCreatedCodecs the maximum number of created codecs to keep, or -1 for no limit
+     */
+    public ThriftCodecManager(final ThriftCodecFactory factory, final ThriftCatalog catalog, Set<ThriftCodec<?>> codecs, long maximumCreatedCodecs)
     {
         Preconditions.checkNotNull(factory, "factory is null");
         Preconditions.checkNotNull(catalog, "catalog is null");
+        checkArgument(maximumCreatedCodecs >= -1, "maximumCreatedCodecs is negative");
+        checkArgument(maximumCreatedCodecs == -1 || factory.canRecreateCodecs(),
+                "Codec factory %s can not create a codec again after it is evicted; use a factory that defines each codec in its own class loader",
+                factory.getClass().getName());
 
         this.catalog = catalog;
 
-        typeCodecs = CacheBuilder.newBuilder().build(new CacheLoader<ThriftType, ThriftCodec<?>>()
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+        if (maximumCreatedCodecs >= 0) {
+            cacheBuilder.maximumWeight(maximumCreatedCodecs).weigher(new Weigher<ThriftType, ThriftCodec<?>>()
+            {
+                @Override
+                public int weigh(ThriftType type, ThriftCodec<?> codec)
+                {
+                    // entries with no weight are never evicted
+                    return pinnedTypes.contains(type) ? 0 : 1;
+                }
+            });
+        }
+
+        typeCodecs = cacheBuilder.build(new CacheLoader<ThriftType, ThriftCodec<?>>()
         {
             public ThriftCodec<?> load(ThriftType type)
                     throws Exception
@@ -143,6 +182,9 @@ public class ThriftCodecManager
 
                     switch (type.getProtocolType()) {
                         case STRUCT: {
+                            if (type.isLazyStruct()) {
+                                return new LazyThriftStructCodec<>(ThriftCodecManager.this, type);
+                            }
                             return factory.generateThriftTypeCodec(ThriftCodecManager.this, type.getStructMetadata());
                         }
                         case MAP: {
@@ -161,7 +203,7 @@ public class ThriftCodecManager
                             if (type.isCoerced()) {
                                 ThriftCodec<?> codec = getCodec(type.getUncoercedType());
                                 TypeCoercion coercion = catalog.getDefaultCoercion(type.getJavaType());
-                                return new CoercionThriftCodec<>(codec, coercion);
+                                return factory.generateCoercionCodec(codec, coercion);
                             }
                             throw new IllegalArgumentException("Unsupported Thrift type " + type);
                     }
@@ -282,6 +324,7 @@ public class ThriftCodecManager
     public void addCodec(ThriftCodec<?> codec)
     {
         catalog.addThriftType(codec.getType());
+        pinnedTypes.add(codec.getType());
         typeCodecs.put(codec.getType(), codec);
     }
 
@@ -291,6 +334,7 @@ public class ThriftCodecManager
      */
     private void addBuiltinCodec(ThriftCodec<?> codec)
     {
+        pinnedTypes.add(codec.getType());
         typeCodecs.put(codec.getType(), codec);
     }
 
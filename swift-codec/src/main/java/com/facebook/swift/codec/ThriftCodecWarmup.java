@@ -0,0 +1,440 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import com.facebook.swift.codec.metadata.FieldKind;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Builds the metadata and codecs of a set of types, and of every type reachable from them,
+ * before they are first used.
+ * <p>
+ * The work runs in parallel on a fork-join pool.  Codec generation for a struct needs the codecs
+ * of the structs it references, and {@link ThriftCodecManager} must not build the codecs of
+ * mutually recursive structs on different threads.  The structs are therefore grouped into
+ * strongly connected components of the reference graph; each group is built by a single task
+ * once the groups it references are done.
+ */
+@ThreadSafe
+public class ThriftCodecWarmup
+{
+    private final ThriftCodecManager codecManager;
+    private final ForkJoinPool pool;
+
+    public ThriftCodecWarmup(ThriftCodecManager codecManager)
+    {
+        this(codecManager, ForkJoinPool.commonPool());
+    }
+
+    public ThriftCodecWarmup(ThriftCodecManager codecManager, ForkJoinPool pool)
+    {
+        this.codecManager = checkNotNull(codecManager, "codecManager is null");
+        this.pool = checkNotNull(pool, "pool is null");
+    }
+
+    /**
+     * Builds the metadata and codecs of the specified Java types and of all types reachable
+     * from them, and waits for the work to complete.
+     *
+     * @throws IllegalArgumentException if the metadata of a type is invalid
+     */
+    public Report warmUp(Iterable<? extends Type> javaTypes)
+    {
+        long start = System.nanoTime();
+
+        // metadata: one task per requested type, the catalog tolerates concurrent extraction
+        Map<Type, Future<ThriftType>> metadataTasks = new LinkedHashMap<>();
+        final Map<Type, Long> metadataNanos = new ConcurrentHashMap<>();
+        for (final Type javaType : javaTypes) {
+            if (metadataTasks.containsKey(javaType)) {
+                continue;
+            }
+            metadataTasks.put(javaType, pool.submit(new Callable<ThriftType>()
+            {
+                @Override
+                public ThriftType call()
+                {
+                    long typeStart = System.nanoTime();
+                    ThriftType thriftType = codecManager.getCatalog().getThriftType(javaType);
+                    metadataNanos.put(javaType, System.nanoTime() - typeStart);
+                    return thriftType;
+                }
+            }));
+        }
+
+        List<ThriftType> thriftTypes = new ArrayList<>();
+        Map<Type, Long> typeMetadataNanos = new LinkedHashMap<>();
+        for (Map.Entry<Type, Future<ThriftType>> entry : metadataTasks.entrySet()) {
+            thriftTypes.add(getUnchecked(entry.getValue()));
+            typeMetadataNanos.put(entry.getKey(), metadataNanos.get(entry.getKey()));
+        }
+        long metadataEnd = System.nanoTime();
+
+        // codecs: struct groups in dependency order, then the remaining requested types
+        Map<Type, Long> codecNanos = buildStructCodecs(thriftTypes);
+        for (ThriftType thriftType : thriftTypes) {
+            codecManager.getCodec(thriftType);
+        }
+        long end = System.nanoTime();
+
+        return new Report(metadataEnd - start, end - metadataEnd, typeMetadataNanos, codecNanos);
+    }
+
+    private Map<Type, Long> buildStructCodecs(List<ThriftType> roots)
+    {
+        List<StructGroup> groups = new StructGraph(roots).getGroups();
+        if (groups.isEmpty()) {
+            return ImmutableMap.of();
+        }
+
+        Map<Type, Long> codecNanos = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(groups.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (StructGroup group : groups) {
+            group.task = new BuildGroupTask(group, codecNanos, done, failure);
+        }
+
+        // find the groups with no dependencies before starting any, as a running group
+        // schedules its dependents itself, and they must not be started twice
+        List<StructGroup> readyGroups = new ArrayList<>();
+        for (StructGroup group : groups) {
+            if (group.pendingDependencies.get() == 0) {
+                readyGroups.add(group);
+            }
+        }
+        for (StructGroup group : readyGroups) {
+            pool.execute(group.task);
+        }
+
+        try {
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+
+        if (failure.get() != null) {
+            throw Throwables.propagate(failure.get());
+        }
+        return codecNanos;
+    }
+
+    /**
+     * Builds the codecs of a struct group and then schedules the groups that were only waiting
+     * for this one.
+     */
+    private class BuildGroupTask
+            implements Runnable
+    {
+        private final StructGroup group;
+        private final Map<Type, Long> codecNanos;
+        private final CountDownLatch done;
+        private final AtomicReference<Throwable> failure;
+
+        private BuildGroupTask(StructGroup group, Map<Type, Long> codecNanos, CountDownLatch done, AtomicReference<Throwable> failure)
+        {
+            this.group = group;
+            this.codecNanos = codecNanos;
+            this.done = done;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run()
+        {
+            try {
+                if (failure.get() == null) {
+                    for (ThriftType type : group.types) {
+                        long start = System.nanoTime();
+                        codecManager.getCodec(type);
+                        codecNanos.put(type.getJavaType(), System.nanoTime() - start);
+                    }
+                }
+            }
+            catch (Throwable e) {
+                failure.compareAndSet(null, e);
+            }
+            finally {
+                for (StructGroup dependent : group.dependents) {
+                    if (dependent.pendingDependencies.decrementAndGet() == 0) {
+                        pool.execute(dependent.task);
+                    }
+                }
+                done.countDown();
+            }
+        }
+    }
+
+    private static <T> T getUnchecked(Future<T> future)
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * A strongly connected component of the struct reference graph, built by a single task.
+     */
+    private static class StructGroup
+    {
+        private final List<ThriftType> types;
+        private final Set<StructGroup> dependents = new LinkedHashSet<>();
+        private final AtomicInteger pendingDependencies = new AtomicInteger();
+        private Runnable task;
+
+        private StructGroup(List<ThriftType> types)
+        {
+            this.types = types;
+        }
+    }
+
+    /**
+     * The structs reachable from a set of types, where a struct references the structs used by
+     * its fields directly or through containers and coercions.
+     */
+    private static class StructGraph
+    {
+        private final Map<ThriftType, Set<ThriftType>> references = new LinkedHashMap<>();
+
+        // Tarjan's strongly connected components
+        private final Map<ThriftType, Integer> index = new HashMap<>();
+        private final Map<ThriftType, Integer> lowLink = new HashMap<>();
+        private final Deque<ThriftType> stack = new ArrayDeque<>();
+        private final Set<ThriftType> onStack = new LinkedHashSet<>();
+        private final Map<ThriftType, StructGroup> groupOf = new HashMap<>();
+        private final List<StructGroup> groups = new ArrayList<>();
+
+        private StructGraph(List<ThriftType> roots)
+        {
+            Deque<ThriftType> workList = new ArrayDeque<>();
+            for (ThriftType root : roots) {
+                addReferencedStructs(root, workList);
+            }
+            while (!workList.isEmpty()) {
+                ThriftType struct = workList.pop();
+                if (references.containsKey(struct)) {
+                    continue;
+                }
+                Deque<ThriftType> fieldStructs = new ArrayDeque<>();
+                for (ThriftFieldMetadata field : struct.getStructMetadata().getFields(FieldKind.THRIFT_FIELD)) {
+                    addReferencedStructs(field.getThriftType(), fieldStructs);
+                }
+                references.put(struct, new LinkedHashSet<>(fieldStructs));
+                workList.addAll(fieldStructs);
+            }
+
+            for (ThriftType struct : references.keySet()) {
+                if (!index.containsKey(struct)) {
+                    connect(struct);
+                }
+            }
+
+            for (StructGroup group : groups) {
+                Set<StructGroup> dependencies = newIdentitySet();
+                for (ThriftType struct : group.types) {
+                    for (ThriftType reference : references.get(struct)) {
+                        StructGroup dependency = groupOf.get(reference);
+                        if (dependency != group) {
+                            dependencies.add(dependency);
+                        }
+                    }
+                }
+                group.pendingDependencies.set(dependencies.size());
+                for (StructGroup dependency : dependencies) {
+                    dependency.dependents.add(group);
+                }
+            }
+        }
+
+        public List<StructGroup> getGroups()
+        {
+            return groups;
+        }
+
+        private static void addReferencedStructs(ThriftType type, Deque<ThriftType> structs)
+        {
+            if (type.isCoerced()) {
+                addReferencedStructs(type.getUncoercedType(), structs);
+                return;
+            }
+            switch (type.getProtocolType()) {
+                case STRUCT:
+                    // void and lazy structs have no generated codec
+                    if (!type.equals(ThriftType.VOID) && !type.isLazyStruct()) {
+                        structs.add(type);
+                    }
+                    break;
+                case MAP:
+                    addReferencedStructs(type.getKeyTypeReference().get(), structs);
+                    addReferencedStructs(type.getValueTypeReference().get(), structs);
+                    break;
+                case SET:
+                case LIST:
+                    addReferencedStructs(type.getValueTypeReference().get(), structs);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void connect(ThriftType struct)
+        {
+            index.put(struct, index.size());
+            lowLink.put(struct, index.get(struct));
+            stack.push(struct);
+            onStack.add(struct);
+
+            for (ThriftType reference : references.get(struct)) {
+                if (!index.containsKey(reference)) {
+                    connect(reference);
+                    lowLink.put(struct, Math.min(lowLink.get(struct), lowLink.get(reference)));
+                }
+                else if (onStack.contains(reference)) {
+                    lowLink.put(struct, Math.min(lowLink.get(struct), index.get(reference)));
+                }
+            }
+
+            if (lowLink.get(struct).equals(index.get(struct))) {
+                ImmutableList.Builder<ThriftType> members = ImmutableList.builder();
+                ThriftType member;
+                do {
+                    member = stack.pop();
+                    onStack.remove(member);
+                    members.add(member);
+                }
+                while (!member.equals(struct));
+
+                StructGroup group = new StructGroup(members.build().reverse());
+                for (ThriftType type : group.types) {
+                    groupOf.put(type, group);
+                }
+                groups.add(group);
+            }
+        }
+
+        private static Set<StructGroup> newIdentitySet()
+        {
+            return Collections.newSetFromMap(new IdentityHashMap<StructGroup, Boolean>());
+        }
+    }
+
+    /**
+     * The time spent building the metadata and codecs.
+     */
+    @Immutable
+    public static class Report
+    {
+        private final long metadataNanos;
+        private final long codecNanos;
+        private final Map<Type, Long> typeMetadataNanos;
+        private final Map<Type, Long> typeCodecNanos;
+
+        public Report(long metadataNanos, long codecNanos, Map<Type, Long> typeMetadataNanos, Map<Type, Long> typeCodecNanos)
+        {
+            this.metadataNanos = metadataNanos;
+            this.codecNanos = codecNanos;
+            this.typeMetadataNanos = ImmutableMap.copyOf(typeMetadataNanos);
+            this.typeCodecNanos = ImmutableMap.copyOf(typeCodecNanos);
+        }
+
+        /**
+         * Wall time spent building the metadata of all types.
+         */
+        public long getMetadataNanos()
+        {
+            return metadataNanos;
+        }
+
+        /**
+         * Wall time spent building the codecs of all types.
+         */
+        public long getCodecNanos()
+        {
+            return codecNanos;
+        }
+
+        /**
+         * Time spent building the metadata of each requested type, including the types it
+         * references that were not built yet.
+         */
+        public Map<Type, Long> getTypeMetadataNanos()
+        {
+            return typeMetadataNanos;
+        }
+
+        /**
+         * Time spent building the codec of each struct.  The first struct of a group of mutually
+         * recursive structs includes the time spent on the rest of the group.
+         */
+        public Map<Type, Long> getTypeCodecNanos()
+        {
+            return typeCodecNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("Report");
+            sb.append("{metadataMillis=").append(NANOSECONDS.toMillis(metadataNanos));
+            sb.append(", codecMillis=").append(NANOSECONDS.toMillis(codecNanos));
+            sb.append(", types=").append(typeMetadataNanos.size());
+            sb.append(", structs=").append(typeCodecNanos.size());
+            sb.append('}');
+            return sb.toString();
+        }
+    }
+}
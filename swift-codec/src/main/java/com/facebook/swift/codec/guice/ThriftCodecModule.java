@@ -27,11 +27,14 @@ import com.google.inject.Module;
 import com.google.inject.Scopes;
 import com.google.inject.TypeLiteral;
 
+import java.io.File;
+
 import static com.google.inject.multibindings.Multibinder.newSetBinder;
 
 public class ThriftCodecModule implements Module
 {
     private final ClassLoader parent;
+    private final File codecCacheDirectory;
 
     public ThriftCodecModule()
     {
@@ -39,14 +42,29 @@ public class ThriftCodecModule implements Module
     }
 
     public ThriftCodecModule(ClassLoader parent)
+    {
+        this(parent, null);
+    }
+
+    /**
+     * @param codecCacheDirectory directory in which the byte code of generated codecs is kept
+     * across restarts, or null to generate every codec at runtime
+     */
+    public ThriftCodecModule(ClassLoader parent, File codecCacheDirectory)
     {
         this.parent = parent;
+        this.codecCacheDirectory = codecCacheDirectory;
     }
 
     @Override
     public void configure(Binder binder)
     {
-        binder.bind(ThriftCodecFactory.class).to(CompilerThriftCodecFactory.class).in(Scopes.SINGLETON);
+        if (codecCacheDirectory == null) {
+            binder.bind(ThriftCodecFactory.class).to(CompilerThriftCodecFactory.class).in(Scopes.SINGLETON);
+        }
+        else {
+            binder.bind(ThriftCodecFactory.class).toInstance(new CompilerThriftCodecFactory(false, parent, codecCacheDirectory));
+        }
         binder.bind(ThriftCatalog.class).in(Scopes.SINGLETON);
         binder.bind(ThriftCodecManager.class).in(Scopes.SINGLETON);
         newSetBinder(binder, new TypeLiteral<ThriftCodec<?>>() {}, InternalThriftCodec.class).permitDuplicates();
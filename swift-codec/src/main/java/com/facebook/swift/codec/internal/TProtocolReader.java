@@ -16,16 +16,15 @@
 package com.facebook.swift.codec.internal;
 
 import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.protocol.TPrimitiveHeaderProtocol;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TField;
-import org.apache.thrift.protocol.TList;
-import org.apache.thrift.protocol.TMap;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolUtil;
-import org.apache.thrift.protocol.TSet;
 import org.apache.thrift.protocol.TType;
 
 import javax.annotation.concurrent.NotThreadSafe;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -40,12 +39,41 @@ import static com.google.common.base.Preconditions.checkState;
 @NotThreadSafe
 public class TProtocolReader
 {
+    // weakly held, so a thread that goes idle doesn't pin the last protocol and its buffers
+    private static final ThreadLocal<WeakReference<TProtocolReader>> THREAD_READER = new ThreadLocal<>();
+
+    // marks that there is no current field; thrift types are never negative
+    private static final byte NO_FIELD = -1;
+
     private final TProtocol protocol;
-    private TField currentField;
+    private final TPrimitiveHeaderProtocol headerProtocol;
+    private byte currentFieldType = NO_FIELD;
+    private short currentFieldId;
 
     public TProtocolReader(TProtocol protocol)
     {
         this.protocol = protocol;
+        this.headerProtocol = (protocol instanceof TPrimitiveHeaderProtocol) ? (TPrimitiveHeaderProtocol) protocol : null;
+    }
+
+    /**
+     * Returns a reader for the protocol, reusing the reader last returned on this thread if it
+     * wraps the same protocol. This saves allocating a reader for every struct and collection
+     * when decoding a nested message.
+     * <p/>
+     * Sharing the reader between the levels of a nested read is safe, because the current field
+     * is always consumed before a nested value is read, and {@link #readStructBegin} and
+     * {@link #readStructEnd} reset it.
+     */
+    public static TProtocolReader forProtocol(TProtocol protocol)
+    {
+        WeakReference<TProtocolReader> reference = THREAD_READER.get();
+        TProtocolReader reader = (reference != null) ? reference.get() : null;
+        if (reader == null || reader.protocol != protocol) {
+            reader = new TProtocolReader(protocol);
+            THREAD_READER.set(new WeakReference<>(reader));
+        }
+        return reader;
     }
 
     public TProtocol getProtocol()
@@ -57,17 +85,17 @@ public class TProtocolReader
             throws TException
     {
         protocol.readStructBegin();
-        currentField = null;
+        currentFieldType = NO_FIELD;
     }
 
     public void readStructEnd()
             throws TException
     {
-        if (currentField == null || currentField.id != TType.STOP) {
+        if (currentFieldType != TType.STOP) {
             throw new IllegalStateException("Some fields have not been consumed");
         }
 
-        currentField = null;
+        currentFieldType = NO_FIELD;
         protocol.readStructEnd();
     }
 
@@ -75,35 +103,43 @@ public class TProtocolReader
             throws TException
     {
         // if the current field is a stop record, the caller must call readStructEnd.
-        if (currentField != null && currentField.id == TType.STOP) {
+        if (currentFieldType == TType.STOP) {
             throw new NoSuchElementException();
         }
-        checkState(currentField == null, "Current field was not read");
+        checkState(currentFieldType == NO_FIELD, "Current field was not read");
 
         // advance to the next field
-        currentField = protocol.readFieldBegin();
+        if (headerProtocol != null) {
+            currentFieldType = headerProtocol.readFieldType();
+            currentFieldId = headerProtocol.readFieldId();
+        }
+        else {
+            TField field = protocol.readFieldBegin();
+            currentFieldType = field.type;
+            currentFieldId = field.id;
+        }
 
-        return currentField.type != TType.STOP;
+        return currentFieldType != TType.STOP;
     }
 
     public short getFieldId()
     {
-        checkState(currentField != null, "No current field");
-        return currentField.id;
+        checkState(currentFieldType != NO_FIELD, "No current field");
+        return currentFieldId;
     }
 
     public byte getFieldType()
     {
-        checkState(currentField != null, "No current field");
-        return currentField.type;
+        checkState(currentFieldType != NO_FIELD, "No current field");
+        return currentFieldType;
     }
 
     public void skipFieldData()
             throws TException
     {
-        TProtocolUtil.skip(protocol, currentField.type);
+        TProtocolUtil.skip(protocol, currentFieldType);
         protocol.readFieldEnd();
-        currentField = null;
+        currentFieldType = NO_FIELD;
     }
 
     public Object readField(ThriftCodec<?> codec)
@@ -112,7 +148,7 @@ public class TProtocolReader
         if (!checkReadState(codec.getType().getProtocolType().getType())) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         Object fieldValue = codec.read(protocol);
         protocol.readFieldEnd();
         return fieldValue;
@@ -124,7 +160,7 @@ public class TProtocolReader
         if (!checkReadState(TType.STRING)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         ByteBuffer fieldValue = protocol.readBinary();
         protocol.readFieldEnd();
         return fieldValue;
@@ -136,7 +172,7 @@ public class TProtocolReader
         if (!checkReadState(TType.BOOL)) {
             return false;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         boolean fieldValue = protocol.readBool();
         protocol.readFieldEnd();
         return fieldValue;
@@ -148,7 +184,7 @@ public class TProtocolReader
         if (!checkReadState(TType.BYTE)) {
             return 0;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         byte fieldValue = protocol.readByte();
         protocol.readFieldEnd();
         return fieldValue;
@@ -160,7 +196,7 @@ public class TProtocolReader
         if (!checkReadState(TType.DOUBLE)) {
             return 0;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         double fieldValue = protocol.readDouble();
         protocol.readFieldEnd();
         return fieldValue;
@@ -172,7 +208,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I16)) {
             return 0;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         short fieldValue = protocol.readI16();
         protocol.readFieldEnd();
         return fieldValue;
@@ -184,7 +220,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I32)) {
             return 0;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         int fieldValue = protocol.readI32();
         protocol.readFieldEnd();
         return fieldValue;
@@ -196,7 +232,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I64)) {
             return 0;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         long fieldValue = protocol.readI64();
         protocol.readFieldEnd();
         return fieldValue;
@@ -208,7 +244,7 @@ public class TProtocolReader
         if (!checkReadState(TType.STRING)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         String fieldValue = protocol.readString();
         protocol.readFieldEnd();
         return fieldValue;
@@ -220,19 +256,41 @@ public class TProtocolReader
         if (!checkReadState(TType.STRUCT)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         T fieldValue = codec.read(protocol);
         protocol.readFieldEnd();
         return fieldValue;
     }
 
+    /**
+     * Starts reading the current field as a struct which the caller reads with this reader, and
+     * must be followed by {@link #readStructFieldEnd}.  Returns false, after skipping the field,
+     * if the field is not a struct.  Generated codecs use this to read nested structs with the
+     * concrete codec directly instead of through {@link #readStructField}.
+     */
+    public boolean readStructFieldBegin()
+            throws TException
+    {
+        if (!checkReadState(TType.STRUCT)) {
+            return false;
+        }
+        currentFieldType = NO_FIELD;
+        return true;
+    }
+
+    public void readStructFieldEnd()
+            throws TException
+    {
+        protocol.readFieldEnd();
+    }
+
     public boolean[] readBoolArrayField()
             throws TException
     {
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         boolean[] fieldValue = readBoolArray();
         protocol.readFieldEnd();
         return fieldValue;
@@ -244,7 +302,7 @@ public class TProtocolReader
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         short[] fieldValue = readI16Array();
         protocol.readFieldEnd();
         return fieldValue;
@@ -256,7 +314,7 @@ public class TProtocolReader
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         int[] fieldValue = readI32Array();
         protocol.readFieldEnd();
         return fieldValue;
@@ -268,7 +326,7 @@ public class TProtocolReader
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         long[] fieldValue = readI64Array();
         protocol.readFieldEnd();
         return fieldValue;
@@ -280,7 +338,7 @@ public class TProtocolReader
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         double[] fieldValue = readDoubleArray();
         protocol.readFieldEnd();
         return fieldValue;
@@ -292,7 +350,7 @@ public class TProtocolReader
         if (!checkReadState(TType.SET)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         Set<E> fieldValue = setCodec.read(protocol);
         protocol.readFieldEnd();
         return fieldValue;
@@ -304,7 +362,7 @@ public class TProtocolReader
         if (!checkReadState(TType.LIST)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         List<E> read = listCodec.read(protocol);
         protocol.readFieldEnd();
         return read;
@@ -316,7 +374,7 @@ public class TProtocolReader
         if (!checkReadState(TType.MAP)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         Map<K, V> fieldValue = mapCodec.read(protocol);
         protocol.readFieldEnd();
         return fieldValue;
@@ -328,7 +386,7 @@ public class TProtocolReader
         if (!checkReadState(TType.I32)) {
             return null;
         }
-        currentField = null;
+        currentFieldType = NO_FIELD;
         T fieldValue = null;
         try {
             fieldValue = enumCodec.read(protocol);
@@ -390,9 +448,9 @@ public class TProtocolReader
     public boolean[] readBoolArray()
             throws TException
     {
-        TList list = protocol.readListBegin();
-        boolean[] array = new boolean[list.size];
-        for (int i = 0; i < list.size; i++) {
+        int size = readListBegin();
+        boolean[] array = new boolean[size];
+        for (int i = 0; i < size; i++) {
             array[i] = readBool();
         }
         protocol.readListEnd();
@@ -402,9 +460,9 @@ public class TProtocolReader
     public short[] readI16Array()
             throws TException
     {
-        TList list = protocol.readListBegin();
-        short[] array = new short[list.size];
-        for (int i = 0; i < list.size; i++) {
+        int size = readListBegin();
+        short[] array = new short[size];
+        for (int i = 0; i < size; i++) {
             array[i] = readI16();
         }
         protocol.readListEnd();
@@ -414,9 +472,9 @@ public class TProtocolReader
     public int[] readI32Array()
             throws TException
     {
-        TList list = protocol.readListBegin();
-        int[] array = new int[list.size];
-        for (int i = 0; i < list.size; i++) {
+        int size = readListBegin();
+        int[] array = new int[size];
+        for (int i = 0; i < size; i++) {
             array[i] = readI32();
         }
         protocol.readListEnd();
@@ -426,9 +484,9 @@ public class TProtocolReader
     public long[] readI64Array()
             throws TException
     {
-        TList list = protocol.readListBegin();
-        long[] array = new long[list.size];
-        for (int i = 0; i < list.size; i++) {
+        int size = readListBegin();
+        long[] array = new long[size];
+        for (int i = 0; i < size; i++) {
             array[i] = readI64();
         }
         protocol.readListEnd();
@@ -438,9 +496,9 @@ public class TProtocolReader
     public double[] readDoubleArray()
             throws TException
     {
-        TList list = protocol.readListBegin();
-        double[] array = new double[list.size];
-        for (int i = 0; i < list.size; i++) {
+        int size = readListBegin();
+        double[] array = new double[size];
+        for (int i = 0; i < size; i++) {
             array[i] = readDouble();
         }
         protocol.readListEnd();
@@ -450,9 +508,9 @@ public class TProtocolReader
     public <E> Set<E> readSet(ThriftCodec<E> elementCodec)
             throws Exception
     {
-        TSet tSet = protocol.readSetBegin();
+        int size = readSetBegin();
         Set<E> set = new HashSet<>();
-        for (int i = 0; i < tSet.size; i++) {
+        for (int i = 0; i < size; i++) {
             try {
                 E element = elementCodec.read(protocol);
                 set.add(element);
@@ -467,9 +525,9 @@ public class TProtocolReader
     public <E> List<E> readList(ThriftCodec<E> elementCodec)
             throws Exception
     {
-        TList tList = protocol.readListBegin();
+        int size = readListBegin();
         List<E> list = new ArrayList<>();
-        for (int i = 0; i < tList.size; i++) {
+        for (int i = 0; i < size; i++) {
             try {
                 E element = elementCodec.read(protocol);
                 list.add(element);
@@ -485,10 +543,9 @@ public class TProtocolReader
     public <K, V> Map<K, V> readMap(ThriftCodec<K> keyCodec, ThriftCodec<V> valueCodec)
             throws Exception
     {
-
-        TMap tMap = protocol.readMapBegin();
+        int size = readMapBegin();
         Map<K, V> map = new HashMap<>();
-        for (int i = 0; i < tMap.size; i++) {
+        for (int i = 0; i < size; i++) {
             try {
                 K key = keyCodec.read(protocol);
                 V value = valueCodec.read(protocol);
@@ -501,15 +558,42 @@ public class TProtocolReader
         return map;
     }
 
+    private int readListBegin()
+            throws TException
+    {
+        if (headerProtocol != null) {
+            return headerProtocol.readListSize();
+        }
+        return protocol.readListBegin().size;
+    }
+
+    private int readSetBegin()
+            throws TException
+    {
+        if (headerProtocol != null) {
+            return headerProtocol.readSetSize();
+        }
+        return protocol.readSetBegin().size;
+    }
+
+    private int readMapBegin()
+            throws TException
+    {
+        if (headerProtocol != null) {
+            return headerProtocol.readMapSize();
+        }
+        return protocol.readMapBegin().size;
+    }
+
     private boolean checkReadState(byte expectedType)
             throws TException
     {
-        checkState(currentField != null, "No current field");
+        checkState(currentFieldType != NO_FIELD, "No current field");
 
-        if (currentField.type != expectedType) {
-            TProtocolUtil.skip(protocol, currentField.type);
+        if (currentFieldType != expectedType) {
+            TProtocolUtil.skip(protocol, currentFieldType);
             protocol.readFieldEnd();
-            currentField = null;
+            currentFieldType = NO_FIELD;
             return false;
         }
 
@@ -521,7 +605,8 @@ public class TProtocolReader
     {
         final StringBuilder sb = new StringBuilder();
         sb.append("TProtocolReader");
-        sb.append("{currentField=").append(currentField);
+        sb.append("{currentFieldType=").append(currentFieldType);
+        sb.append(", currentFieldId=").append(currentFieldId);
         sb.append('}');
         return sb.toString();
     }
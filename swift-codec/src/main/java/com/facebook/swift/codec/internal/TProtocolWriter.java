@@ -16,6 +16,7 @@
 package com.facebook.swift.codec.internal;
 
 import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.protocol.TPrimitiveHeaderProtocol;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TField;
 import org.apache.thrift.protocol.TList;
@@ -26,19 +27,43 @@ import org.apache.thrift.protocol.TStruct;
 import org.apache.thrift.protocol.TType;
 
 import javax.annotation.concurrent.NotThreadSafe;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 @NotThreadSafe
 public class TProtocolWriter
 {
+    // weakly held, so a thread that goes idle doesn't pin the last protocol and its buffers
+    private static final ThreadLocal<WeakReference<TProtocolWriter>> THREAD_WRITER = new ThreadLocal<>();
+
     private final TProtocol protocol;
+    private final TPrimitiveHeaderProtocol headerProtocol;
 
     public TProtocolWriter(TProtocol protocol)
     {
         this.protocol = protocol;
+        this.headerProtocol = (protocol instanceof TPrimitiveHeaderProtocol) ? (TPrimitiveHeaderProtocol) protocol : null;
+    }
+
+    /**
+     * Returns a writer for the protocol, reusing the writer last returned on this thread if it
+     * wraps the same protocol. The writer keeps no state besides the protocol, so it can be
+     * shared by every struct and collection written during a call.
+     */
+    public static TProtocolWriter forProtocol(TProtocol protocol)
+    {
+        WeakReference<TProtocolWriter> reference = THREAD_WRITER.get();
+        TProtocolWriter writer = (reference != null) ? reference.get() : null;
+        if (writer == null || writer.protocol != protocol) {
+            writer = new TProtocolWriter(protocol);
+            THREAD_WRITER.set(new WeakReference<>(writer));
+        }
+        return writer;
     }
 
     public void writeStructBegin(String name)
@@ -61,7 +86,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, codec.getType().getProtocolType().getType(), id));
+        writeFieldBegin(name, codec.getType().getProtocolType().getType(), id);
         codec.write(value, protocol);
         protocol.writeFieldEnd();
     }
@@ -72,7 +97,7 @@ public class TProtocolWriter
         if (buf == null) {
             return;
         }
-        protocol.writeFieldBegin(new TField(name, TType.STRING, id));
+        writeFieldBegin(name, TType.STRING, id);
         protocol.writeBinary(buf);
         protocol.writeFieldEnd();
     }
@@ -80,7 +105,7 @@ public class TProtocolWriter
     public void writeBoolField(String name, short id, boolean b)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.BOOL, id));
+        writeFieldBegin(name, TType.BOOL, id);
         protocol.writeBool(b);
         protocol.writeFieldEnd();
     }
@@ -88,7 +113,7 @@ public class TProtocolWriter
     public void writeByteField(String name, short id, byte b)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.BYTE, id));
+        writeFieldBegin(name, TType.BYTE, id);
         protocol.writeByte(b);
         protocol.writeFieldEnd();
     }
@@ -96,7 +121,7 @@ public class TProtocolWriter
     public void writeDoubleField(String name, short id, double dub)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.DOUBLE, id));
+        writeFieldBegin(name, TType.DOUBLE, id);
         protocol.writeDouble(dub);
         protocol.writeFieldEnd();
     }
@@ -104,7 +129,7 @@ public class TProtocolWriter
     public void writeI16Field(String name, short id, short i16)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.I16, id));
+        writeFieldBegin(name, TType.I16, id);
         protocol.writeI16(i16);
         protocol.writeFieldEnd();
     }
@@ -112,7 +137,7 @@ public class TProtocolWriter
     public void writeI32Field(String name, short id, int i32)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.I32, id));
+        writeFieldBegin(name, TType.I32, id);
         protocol.writeI32(i32);
         protocol.writeFieldEnd();
     }
@@ -120,7 +145,7 @@ public class TProtocolWriter
     public void writeI64Field(String name, short id, long i64)
             throws TException
     {
-        protocol.writeFieldBegin(new TField(name, TType.I64, id));
+        writeFieldBegin(name, TType.I64, id);
         protocol.writeI64(i64);
         protocol.writeFieldEnd();
     }
@@ -132,7 +157,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.STRING, id));
+        writeFieldBegin(name, TType.STRING, id);
         protocol.writeString(string);
         protocol.writeFieldEnd();
     }
@@ -144,11 +169,43 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.STRUCT, id));
+        writeFieldBegin(name, TType.STRUCT, id);
         codec.write(struct, protocol);
         protocol.writeFieldEnd();
     }
 
+    /**
+     * Starts a struct field which the caller writes with this writer, and must be followed by
+     * {@link #writeStructFieldEnd}.  Generated codecs use this to write nested structs with the
+     * concrete codec directly instead of through {@link #writeStructField}.
+     */
+    public void writeStructFieldBegin(String name, short id)
+            throws TException
+    {
+        writeFieldBegin(name, TType.STRUCT, id);
+    }
+
+    public void writeStructFieldEnd()
+            throws TException
+    {
+        protocol.writeFieldEnd();
+    }
+
+    /**
+     * Writes a field whose value is already encoded in the format of this protocol, such as a
+     * field copied verbatim from a frame read with the same protocol. Boolean fields can not be
+     * written this way, because some protocols encode the value in the field header.
+     */
+    public void writeEncodedField(String name, short id, byte type, byte[] value, int offset, int length)
+            throws TException
+    {
+        checkArgument(type != TType.BOOL, "boolean fields can not be written encoded");
+
+        writeFieldBegin(name, type, id);
+        protocol.getTransport().write(value, offset, length);
+        protocol.writeFieldEnd();
+    }
+
     public void writeBoolArrayField(String name, short id, boolean[] array)
             throws Exception
     {
@@ -156,7 +213,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         writeBoolArray(array);
         protocol.writeFieldEnd();
     }
@@ -168,7 +225,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         writeI16Array(array);
         protocol.writeFieldEnd();
     }
@@ -180,7 +237,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         writeI32Array(array);
         protocol.writeFieldEnd();
     }
@@ -192,7 +249,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         writeI64Array(array);
         protocol.writeFieldEnd();
     }
@@ -204,7 +261,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         writeDoubleArray(array);
         protocol.writeFieldEnd();
     }
@@ -216,7 +273,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.SET, id));
+        writeFieldBegin(name, TType.SET, id);
         codec.write(set, protocol);
         protocol.writeFieldEnd();
     }
@@ -228,7 +285,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.LIST, id));
+        writeFieldBegin(name, TType.LIST, id);
         codec.write(list, protocol);
         protocol.writeFieldEnd();
     }
@@ -240,7 +297,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.MAP, id));
+        writeFieldBegin(name, TType.MAP, id);
         codec.write(map, protocol);
         protocol.writeFieldEnd();
     }
@@ -253,7 +310,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeFieldBegin(new TField(name, TType.I32, id));
+        writeFieldBegin(name, TType.I32, id);
         codec.write(enumValue, protocol);
         protocol.writeFieldEnd();
     }
@@ -315,7 +372,7 @@ public class TProtocolWriter
     public void writeBoolArray(boolean[] array)
             throws TException
     {
-        protocol.writeListBegin(new TList(TType.BOOL, array.length));
+        writeListBegin(TType.BOOL, array.length);
         for (boolean booleanValue : array) {
             writeBool(booleanValue);
         }
@@ -325,9 +382,9 @@ public class TProtocolWriter
     public void writeI16Array(short[] array)
             throws TException
     {
-        protocol.writeListBegin(new TList(TType.I16, array.length));
-        for (int i16 : array) {
-            writeI32(i16);
+        writeListBegin(TType.I16, array.length);
+        for (short i16 : array) {
+            writeI16(i16);
         }
         protocol.writeListEnd();
     }
@@ -335,7 +392,7 @@ public class TProtocolWriter
     public void writeI32Array(int[] array)
             throws TException
     {
-        protocol.writeListBegin(new TList(TType.I32, array.length));
+        writeListBegin(TType.I32, array.length);
         for (int i32 : array) {
             writeI32(i32);
         }
@@ -345,7 +402,7 @@ public class TProtocolWriter
     public void writeI64Array(long[] array)
             throws TException
     {
-        protocol.writeListBegin(new TList(TType.I64, array.length));
+        writeListBegin(TType.I64, array.length);
         for (long i64 : array) {
             writeI64(i64);
         }
@@ -355,7 +412,7 @@ public class TProtocolWriter
     public void writeDoubleArray(double[] array)
             throws TException
     {
-        protocol.writeListBegin(new TList(TType.DOUBLE, array.length));
+        writeListBegin(TType.DOUBLE, array.length);
         for (double doubleValue : array) {
             writeDouble(doubleValue);
         }
@@ -369,7 +426,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeSetBegin(new TSet(elementCodec.getType().getProtocolType().getType(), set.size()));
+        writeSetBegin(elementCodec.getType().getProtocolType().getType(), set.size());
 
         for (T element : set) {
             elementCodec.write(element, protocol);
@@ -385,7 +442,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeListBegin(new TList(elementCodec.getType().getProtocolType().getType(), list.size()));
+        writeListBegin(elementCodec.getType().getProtocolType().getType(), list.size());
 
         for (T element : list) {
             elementCodec.write(element, protocol);
@@ -402,7 +459,7 @@ public class TProtocolWriter
             return;
         }
 
-        protocol.writeMapBegin(new TMap(keyCodec.getType().getProtocolType().getType(), valueCodec.getType().getProtocolType().getType(), map.size()));
+        writeMapBegin(keyCodec.getType().getProtocolType().getType(), valueCodec.getType().getProtocolType().getType(), map.size());
 
         for (Map.Entry<K, V> entry : map.entrySet()) {
             keyCodec.write(entry.getKey(), protocol);
@@ -411,4 +468,48 @@ public class TProtocolWriter
 
         protocol.writeMapEnd();
     }
+
+    private void writeFieldBegin(String name, byte type, short id)
+            throws TException
+    {
+        if (headerProtocol != null) {
+            headerProtocol.writeFieldHeader(type, id);
+        }
+        else {
+            protocol.writeFieldBegin(new TField(name, type, id));
+        }
+    }
+
+    private void writeListBegin(byte elementType, int size)
+            throws TException
+    {
+        if (headerProtocol != null) {
+            headerProtocol.writeListHeader(elementType, size);
+        }
+        else {
+            protocol.writeListBegin(new TList(elementType, size));
+        }
+    }
+
+    private void writeSetBegin(byte elementType, int size)
+            throws TException
+    {
+        if (headerProtocol != null) {
+            headerProtocol.writeSetHeader(elementType, size);
+        }
+        else {
+            protocol.writeSetBegin(new TSet(elementType, size));
+        }
+    }
+
+    private void writeMapBegin(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        if (headerProtocol != null) {
+            headerProtocol.writeMapHeader(keyType, valueType, size);
+        }
+        else {
+            protocol.writeMapBegin(new TMap(keyType, valueType, size));
+        }
+    }
 }
@@ -17,7 +17,9 @@ package com.facebook.swift.codec.internal;
 
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.coercion.CoercionThriftCodec;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.TypeCoercion;
 
 /**
  * Implementations of this interface are expected to be thread safe.
@@ -25,4 +27,22 @@ import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 public interface ThriftCodecFactory
 {
     ThriftCodec<?> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata metadata);
+
+    /**
+     * Returns true if the factory can create the codec for a struct again after a bounded
+     * {@link ThriftCodecManager} evicted the first one.
+     */
+    default boolean canRecreateCodecs()
+    {
+        return false;
+    }
+
+    /**
+     * Creates a codec that converts the values of the codec for the uncoerced type with the
+     * coercion.
+     */
+    default ThriftCodec<?> generateCoercionCodec(ThriftCodec<?> codec, TypeCoercion coercion)
+    {
+        return new CoercionThriftCodec<>(codec, coercion);
+    }
 }
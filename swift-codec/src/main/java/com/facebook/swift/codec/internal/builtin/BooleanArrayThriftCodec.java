@@ -40,7 +40,7 @@ public class BooleanArrayThriftCodec
             throws Exception
     {
         checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readBoolArray();
+        return TProtocolReader.forProtocol(protocol).readBoolArray();
     }
 
     @Override
@@ -49,6 +49,6 @@ public class BooleanArrayThriftCodec
     {
         checkNotNull(value, "value is null");
         checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeBoolArray(value);
+        TProtocolWriter.forProtocol(protocol).writeBoolArray(value);
     }
 }
@@ -40,7 +40,7 @@ public class DoubleArrayThriftCodec
             throws Exception
     {
         checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readDoubleArray();
+        return TProtocolReader.forProtocol(protocol).readDoubleArray();
     }
 
     @Override
@@ -49,6 +49,6 @@ public class DoubleArrayThriftCodec
     {
         checkNotNull(value, "value is null");
         checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeDoubleArray(value);
+        TProtocolWriter.forProtocol(protocol).writeDoubleArray(value);
     }
 }
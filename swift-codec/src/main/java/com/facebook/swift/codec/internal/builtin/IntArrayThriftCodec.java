@@ -40,7 +40,7 @@ public class IntArrayThriftCodec
             throws Exception
     {
         checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readI32Array();
+        return TProtocolReader.forProtocol(protocol).readI32Array();
     }
 
     @Override
@@ -49,6 +49,6 @@ public class IntArrayThriftCodec
     {
         checkNotNull(value, "value is null");
         checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeI32Array(value);
+        TProtocolWriter.forProtocol(protocol).writeI32Array(value);
     }
 }
@@ -51,7 +51,7 @@ public class ListThriftCodec<T> implements ThriftCodec<List<T>>
             throws Exception
     {
         Preconditions.checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readList(elementCodec);
+        return TProtocolReader.forProtocol(protocol).readList(elementCodec);
     }
 
     @Override
@@ -60,6 +60,6 @@ public class ListThriftCodec<T> implements ThriftCodec<List<T>>
     {
         Preconditions.checkNotNull(value, "value is null");
         Preconditions.checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeList(elementCodec, value);
+        TProtocolWriter.forProtocol(protocol).writeList(elementCodec, value);
     }
 }
@@ -40,7 +40,7 @@ public class LongArrayThriftCodec
             throws Exception
     {
         checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readI64Array();
+        return TProtocolReader.forProtocol(protocol).readI64Array();
     }
 
     @Override
@@ -49,6 +49,6 @@ public class LongArrayThriftCodec
     {
         checkNotNull(value, "value is null");
         checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeI64Array(value);
+        TProtocolWriter.forProtocol(protocol).writeI64Array(value);
     }
 }
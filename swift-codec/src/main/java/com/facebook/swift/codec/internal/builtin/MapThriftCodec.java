@@ -54,7 +54,7 @@ public class MapThriftCodec<K, V> implements ThriftCodec<Map<K, V>>
             throws Exception
     {
         Preconditions.checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readMap(keyCodec, valueCodec);
+        return TProtocolReader.forProtocol(protocol).readMap(keyCodec, valueCodec);
     }
 
     @Override
@@ -63,6 +63,6 @@ public class MapThriftCodec<K, V> implements ThriftCodec<Map<K, V>>
     {
         Preconditions.checkNotNull(value, "value is null");
         Preconditions.checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeMap(keyCodec, valueCodec, value);
+        TProtocolWriter.forProtocol(protocol).writeMap(keyCodec, valueCodec, value);
     }
 }
@@ -51,7 +51,7 @@ public class SetThriftCodec<T> implements ThriftCodec<Set<T>>
             throws Exception
     {
         Preconditions.checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readSet(elementCodec);
+        return TProtocolReader.forProtocol(protocol).readSet(elementCodec);
     }
 
     @Override
@@ -60,6 +60,6 @@ public class SetThriftCodec<T> implements ThriftCodec<Set<T>>
     {
         Preconditions.checkNotNull(value, "value is null");
         Preconditions.checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeSet(elementCodec, value);
+        TProtocolWriter.forProtocol(protocol).writeSet(elementCodec, value);
     }
 }
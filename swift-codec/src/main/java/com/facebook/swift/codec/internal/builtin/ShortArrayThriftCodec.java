@@ -40,7 +40,7 @@ public class ShortArrayThriftCodec
             throws Exception
     {
         checkNotNull(protocol, "protocol is null");
-        return new TProtocolReader(protocol).readI16Array();
+        return TProtocolReader.forProtocol(protocol).readI16Array();
     }
 
     @Override
@@ -49,6 +49,6 @@ public class ShortArrayThriftCodec
     {
         checkNotNull(value, "value is null");
         checkNotNull(protocol, "protocol is null");
-        new TProtocolWriter(protocol).writeI16Array(value);
+        TProtocolWriter.forProtocol(protocol).writeI16Array(value);
     }
 }
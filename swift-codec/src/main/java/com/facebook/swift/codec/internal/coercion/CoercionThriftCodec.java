@@ -18,25 +18,34 @@ package com.facebook.swift.codec.internal.coercion;
 import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.metadata.ThriftType;
 import com.facebook.swift.codec.metadata.TypeCoercion;
+import com.google.common.base.Throwables;
 import org.apache.thrift.protocol.TProtocol;
 
 import javax.annotation.concurrent.Immutable;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
 /**
  * CoercionThriftCodec encapsulates a ThriftCodec and coerces the values to another type using
- * the supplied ThriftCoercion.
+ * the supplied ThriftCoercion.  The coercion methods are bound to method handles once, rather
+ * than invoked reflectively for every value.
  */
 @Immutable
 public class CoercionThriftCodec<T> implements ThriftCodec<T>
 {
     private final ThriftCodec<Object> codec;
-    private final TypeCoercion typeCoercion;
+    private final MethodHandle fromThrift;
+    private final MethodHandle toThrift;
     private final ThriftType thriftType;
 
     public CoercionThriftCodec(ThriftCodec<?> codec, TypeCoercion typeCoercion)
     {
         this.codec = (ThriftCodec<Object>) codec;
-        this.typeCoercion = typeCoercion;
+        this.fromThrift = toMethodHandle(typeCoercion.getFromThrift());
+        this.toThrift = toMethodHandle(typeCoercion.getToThrift());
         this.thriftType = typeCoercion.getThriftType();
     }
 
@@ -51,15 +60,42 @@ public class CoercionThriftCodec<T> implements ThriftCodec<T>
             throws Exception
     {
         Object thriftValue = codec.read(protocol);
-        T javaValue = (T) typeCoercion.getFromThrift().invoke(null, thriftValue);
-        return javaValue;
+        try {
+            return (T) (Object) fromThrift.invokeExact(thriftValue);
+        }
+        catch (Throwable e) {
+            Throwables.propagateIfPossible(e, Exception.class);
+            throw Throwables.propagate(e);
+        }
     }
 
     @Override
     public void write(T javaValue, TProtocol protocol)
             throws Exception
     {
-        Object thriftValue = typeCoercion.getToThrift().invoke(null, javaValue);
+        Object thriftValue;
+        try {
+            thriftValue = (Object) toThrift.invokeExact((Object) javaValue);
+        }
+        catch (Throwable e) {
+            Throwables.propagateIfPossible(e, Exception.class);
+            throw Throwables.propagate(e);
+        }
         codec.write(thriftValue, protocol);
     }
+
+    /**
+     * Adapts a static single argument method to (Object)Object, boxing and casting as needed.
+     */
+    private static MethodHandle toMethodHandle(Method method)
+    {
+        try {
+            return MethodHandles.publicLookup()
+                    .unreflect(method)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Coercion method " + method.toGenericString() + " is not accessible", e);
+        }
+    }
 }
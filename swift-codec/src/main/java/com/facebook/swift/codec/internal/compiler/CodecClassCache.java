@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A directory of codec byte code generated by earlier runs.
+ * <p>
+ * Entries are keyed by a hash of everything the generated byte code depends on: the codec
+ * generator itself, the struct class files, the coercions of the fields and the classes of the
+ * delegate codecs.  A changed struct therefore maps to a new entry; the entries of the previous
+ * version of the struct are deleted when the new entry is written.  Each entry carries a checksum
+ * so a damaged file is treated as a miss instead of being defined.
+ */
+@ThreadSafe
+class CodecClassCache
+{
+    private static final int MAGIC = 0x53574343;
+    private static final String SUFFIX = ".codec";
+
+    static final String GENERATOR_FINGERPRINT = generatorFingerprint();
+
+    private final File directory;
+
+    CodecClassCache(File directory)
+    {
+        this.directory = checkNotNull(directory, "directory is null");
+    }
+
+    /**
+     * Returns the cache key for the codec of the struct, or null if the codec can not be cached
+     * because a class file is not available.
+     */
+    public String getKey(ThriftStructMetadata metadata, List<Object> constructorArguments)
+    {
+        String structFingerprint = PrecompiledCodecRegistry.fingerprint(metadata);
+        if (structFingerprint.isEmpty() || GENERATOR_FINGERPRINT.isEmpty()) {
+            return null;
+        }
+
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(GENERATOR_FINGERPRINT, UTF_8)
+                .putString(structFingerprint, UTF_8);
+        for (ThriftFieldMetadata field : metadata.getFields()) {
+            if (field.getCoercion().isPresent()) {
+                hasher.putString(field.getCoercion().get().toString(), UTF_8);
+            }
+        }
+        for (Object argument : constructorArguments) {
+            hasher.putString(argument.getClass().getName(), UTF_8);
+        }
+        return metadata.getStructClass().getName() + "-" + hasher.hash();
+    }
+
+    /**
+     * Returns the cached byte code for the key, or null if there is no usable entry.
+     */
+    public byte[] get(String key)
+    {
+        File file = new File(directory, key + SUFFIX);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readInt() != MAGIC) {
+                return null;
+            }
+            byte[] byteCode = new byte[in.readInt()];
+            in.readFully(byteCode);
+            if (in.readLong() != checksum(byteCode)) {
+                return null;
+            }
+            return byteCode;
+        }
+        catch (IOException | RuntimeException e) {
+            // a truncated or damaged entry is simply regenerated
+            return null;
+        }
+    }
+
+    /**
+     * Stores the byte code for the key, and deletes the entries for other versions of the same
+     * struct.  Failures are ignored, since the cache only saves time.
+     */
+    public void put(String key, byte[] byteCode)
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(byteCode.length + 16);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeInt(byteCode.length);
+            out.write(byteCode);
+            out.writeLong(checksum(byteCode));
+            out.flush();
+
+            Files.createDirectories(directory.toPath());
+            File file = new File(directory, key + SUFFIX);
+            File temp = File.createTempFile(key, ".tmp", directory);
+            try {
+                Files.write(temp.toPath(), bytes.toByteArray());
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                temp.delete();
+            }
+
+            deleteOtherVersions(key);
+        }
+        catch (IOException | RuntimeException ignored) {
+        }
+    }
+
+    private void deleteOtherVersions(final String key)
+    {
+        final String prefix = key.substring(0, key.lastIndexOf('-') + 1);
+        File[] stale = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith(prefix) &&
+                        name.endsWith(SUFFIX) &&
+                        name.indexOf('-', prefix.length()) < 0 &&
+                        !name.equals(key + SUFFIX);
+            }
+        });
+        if (stale != null) {
+            for (File file : stale) {
+                file.delete();
+            }
+        }
+    }
+
+    private static long checksum(byte[] byteCode)
+    {
+        return Hashing.murmur3_128().hashBytes(byteCode).asLong();
+    }
+
+    /**
+     * Identifies the codec generator, so that entries written by a different version of swift
+     * are never used.
+     */
+    private static String generatorFingerprint()
+    {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        String version = ThriftCodecByteCodeGenerator.class.getPackage().getImplementationVersion();
+        hasher.putString(String.valueOf(version), UTF_8);
+
+        String resource = ThriftCodecByteCodeGenerator.class.getSimpleName() + ".class";
+        try (InputStream in = ThriftCodecByteCodeGenerator.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                return "";
+            }
+            hasher.putBytes(ByteStreams.toByteArray(in));
+        }
+        catch (IOException e) {
+            return "";
+        }
+        return hasher.hash().toString();
+    }
+}
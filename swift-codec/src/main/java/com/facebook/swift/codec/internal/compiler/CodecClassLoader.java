@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A class loader that holds the class of a single generated codec, so the class can be unloaded
+ * as soon as the codec is no longer referenced.
+ * <p>
+ * A generated codec refers to the classes of its delegate codecs, which may have been defined by
+ * other codec class loaders, and to its target class (the struct class, or the class declaring
+ * the coercion methods), which may not be visible from the parent class loader.  Both are
+ * resolved here before the class loader gives up.
+ */
+class CodecClassLoader
+        extends DynamicClassLoader
+{
+    private final Map<String, Class<?>> dependencies;
+    private final ClassLoader targetClassLoader;
+
+    CodecClassLoader(ClassLoader parent, Class<?> targetClass, List<Object> constructorArguments)
+    {
+        super(parent);
+
+        Map<String, Class<?>> dependencies = new HashMap<>();
+        dependencies.put(targetClass.getName(), targetClass);
+        for (Object argument : constructorArguments) {
+            dependencies.put(argument.getClass().getName(), argument.getClass());
+        }
+        this.dependencies = ImmutableMap.copyOf(dependencies);
+        this.targetClassLoader = targetClass.getClassLoader();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve)
+            throws ClassNotFoundException
+    {
+        Class<?> type = dependencies.get(name);
+        if (type != null) {
+            return type;
+        }
+
+        try {
+            return super.loadClass(name, resolve);
+        }
+        catch (ClassNotFoundException e) {
+            if (targetClassLoader == null || targetClassLoader == getParent()) {
+                throw e;
+            }
+            return targetClassLoader.loadClass(name);
+        }
+    }
+}
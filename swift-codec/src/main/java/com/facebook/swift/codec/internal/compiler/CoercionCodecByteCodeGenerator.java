@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.internal.builtin.BooleanThriftCodec;
+import com.facebook.swift.codec.internal.builtin.ByteThriftCodec;
+import com.facebook.swift.codec.internal.builtin.DoubleThriftCodec;
+import com.facebook.swift.codec.internal.builtin.IntegerThriftCodec;
+import com.facebook.swift.codec.internal.builtin.LongThriftCodec;
+import com.facebook.swift.codec.internal.builtin.ShortThriftCodec;
+import com.facebook.swift.codec.internal.compiler.byteCode.ClassDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.FieldDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.MethodDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.codec.metadata.TypeCoercion;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Primitives;
+import org.apache.thrift.protocol.TProtocol;
+import org.objectweb.asm.ClassWriter;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.FINAL;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PRIVATE;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PUBLIC;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.SUPER;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.a;
+import static com.facebook.swift.codec.internal.compiler.byteCode.NamedParameterDefinition.arg;
+import static com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType.type;
+
+/**
+ * Generates a codec that coerces the values of the codec for the uncoerced type with static calls
+ * to the {@link TypeCoercion} methods, instead of invoking them reflectively like
+ * {@link com.facebook.swift.codec.internal.coercion.CoercionThriftCodec}.
+ * <p>
+ * When the uncoerced codec is a builtin primitive codec, the value is read from and written to
+ * the protocol directly, so coercions such as the default ones for the boxed primitives only box
+ * once, in the coercion method itself.
+ */
+@NotThreadSafe
+public class CoercionCodecByteCodeGenerator
+{
+    private static final String PACKAGE = "$wift/coercion";
+
+    // generated classes are not shared, so a counter is enough to make their names unique
+    private static final AtomicLong NEXT_CLASS_ID = new AtomicLong();
+
+    private static final Map<Class<?>, ProtocolMethods> PRIMITIVE_CODECS;
+
+    private static final Method CODEC_READ;
+    private static final Method CODEC_WRITE;
+
+    private final TypeCoercion coercion;
+    private final ProtocolMethods protocolMethods;
+
+    private final ClassDefinition classDefinition;
+    private final ParameterizedType codecType;
+    private final FieldDefinition typeField;
+    private final FieldDefinition codecField;
+
+    private final ThriftCodec<?> thriftCodec;
+
+    public CoercionCodecByteCodeGenerator(ThriftCodec<?> codec, TypeCoercion coercion, DynamicClassLoader classLoader)
+    {
+        this.coercion = coercion;
+
+        ProtocolMethods protocolMethods = PRIMITIVE_CODECS.get(codec.getClass());
+        if (protocolMethods != null && !protocolMethods.matches(coercion)) {
+            protocolMethods = null;
+        }
+        this.protocolMethods = protocolMethods;
+
+        codecType = type(PACKAGE + "/" + Primitives.wrap(coercion.getFromThrift().getReturnType()).getSimpleName() + "Codec$" + NEXT_CLASS_ID.incrementAndGet());
+        classDefinition = new ClassDefinition(
+                a(PUBLIC, FINAL, SUPER),
+                codecType.getClassName(),
+                type(Object.class),
+                type(ThriftCodec.class)
+        );
+
+        typeField = new FieldDefinition(a(PRIVATE, FINAL), "type", type(ThriftType.class));
+        classDefinition.addField(typeField);
+        codecField = new FieldDefinition(a(PRIVATE, FINAL), "codec", type(ThriftCodec.class));
+        classDefinition.addField(codecField);
+
+        defineConstructor();
+        defineGetTypeMethod();
+        defineReadMethod();
+        defineWriteMethod();
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classDefinition.getClassNode().accept(cw);
+        byte[] byteCode = cw.toByteArray();
+
+        Class<?> codecClass = classLoader.defineClass(codecType.getClassName().replace('/', '.'), byteCode);
+        try {
+            thriftCodec = (ThriftCodec<?>) codecClass.getConstructor(ThriftType.class, ThriftCodec.class).newInstance(coercion.getThriftType(), codec);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Generated class is invalid", e);
+        }
+    }
+
+    public ThriftCodec<?> getThriftCodec()
+    {
+        return thriftCodec;
+    }
+
+    private void defineConstructor()
+    {
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC), "<init>", type(void.class), arg("type", ThriftType.class), arg("codec", ThriftCodec.class))
+                        .loadThis()
+                        .invokeConstructor(type(Object.class))
+                        .loadThis()
+                        .loadVariable("type")
+                        .putField(codecType, typeField)
+                        .loadThis()
+                        .loadVariable("codec")
+                        .putField(codecType, codecField)
+                        .ret()
+        );
+    }
+
+    private void defineGetTypeMethod()
+    {
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC), "getType", type(ThriftType.class))
+                        .loadThis()
+                        .getField(codecType, typeField)
+                        .retObject()
+        );
+    }
+
+    /**
+     * Defines {@code read}, which reads the thrift value and returns {@code fromThrift(value)}.
+     */
+    private void defineReadMethod()
+    {
+        MethodDefinition read = new MethodDefinition(a(PUBLIC), "read", type(Object.class), arg("protocol", TProtocol.class))
+                .addException(Exception.class);
+
+        Method fromThrift = coercion.getFromThrift();
+        if (protocolMethods != null) {
+            // protocol.readI32()
+            read.loadVariable("protocol").invokeVirtual(protocolMethods.read);
+        }
+        else {
+            // (Integer) this.codec.read(protocol)
+            read.loadThis()
+                    .getField(codecType, codecField)
+                    .loadVariable("protocol")
+                    .invokeInterface(CODEC_READ);
+            unbox(read, fromThrift.getParameterTypes()[0]);
+        }
+
+        read.invokeStatic(fromThrift);
+        box(read, fromThrift.getReturnType());
+        read.retObject();
+
+        classDefinition.addMethod(read);
+    }
+
+    /**
+     * Defines {@code write}, which writes {@code toThrift(value)}.
+     */
+    private void defineWriteMethod()
+    {
+        MethodDefinition write = new MethodDefinition(a(PUBLIC), "write", null, arg("value", Object.class), arg("protocol", TProtocol.class))
+                .addException(Exception.class);
+
+        Method toThrift = coercion.getToThrift();
+        if (protocolMethods != null) {
+            // protocol.writeI32(toThrift((Integer) value))
+            write.loadVariable("protocol")
+                    .loadVariable("value");
+            unbox(write, toThrift.getParameterTypes()[0]);
+            write.invokeStatic(toThrift)
+                    .invokeVirtual(protocolMethods.write);
+        }
+        else {
+            // this.codec.write(toThrift((Integer) value), protocol)
+            write.loadThis()
+                    .getField(codecType, codecField)
+                    .loadVariable("value");
+            unbox(write, toThrift.getParameterTypes()[0]);
+            write.invokeStatic(toThrift);
+            box(write, toThrift.getReturnType());
+            write.loadVariable("protocol")
+                    .invokeInterface(CODEC_WRITE);
+        }
+        write.ret();
+
+        classDefinition.addMethod(write);
+    }
+
+    /**
+     * Converts the object on the stack to the specified type, unboxing it if it is a primitive.
+     */
+    private static void unbox(MethodDefinition method, Class<?> type)
+    {
+        if (type.isPrimitive()) {
+            Class<?> wrapper = Primitives.wrap(type);
+            method.checkCast(type(wrapper))
+                    .invokeVirtual(wrapper, type.getName() + "Value", type);
+        }
+        else if (type != Object.class) {
+            method.checkCast(type(type));
+        }
+    }
+
+    /**
+     * Boxes the value on the stack if it is a primitive.
+     */
+    private static void box(MethodDefinition method, Class<?> type)
+    {
+        if (type.isPrimitive()) {
+            Class<?> wrapper = Primitives.wrap(type);
+            method.invokeStatic(wrapper, "valueOf", wrapper, type);
+        }
+    }
+
+    /**
+     * The protocol methods used by a builtin codec for a primitive type.
+     */
+    private static class ProtocolMethods
+    {
+        private final Class<?> type;
+        private final Method read;
+        private final Method write;
+
+        private ProtocolMethods(Class<?> type, String readMethod, String writeMethod)
+                throws NoSuchMethodException
+        {
+            this.type = type;
+            this.read = TProtocol.class.getMethod(readMethod);
+            this.write = TProtocol.class.getMethod(writeMethod, type);
+        }
+
+        private boolean matches(TypeCoercion coercion)
+        {
+            return coercion.getFromThrift().getParameterTypes()[0] == type &&
+                    coercion.getToThrift().getReturnType() == type;
+        }
+    }
+
+    static {
+        try {
+            CODEC_READ = ThriftCodec.class.getMethod("read", TProtocol.class);
+            CODEC_WRITE = ThriftCodec.class.getMethod("write", Object.class, TProtocol.class);
+
+            PRIMITIVE_CODECS = ImmutableMap.<Class<?>, ProtocolMethods>builder()
+                    .put(BooleanThriftCodec.class, new ProtocolMethods(boolean.class, "readBool", "writeBool"))
+                    .put(ByteThriftCodec.class, new ProtocolMethods(byte.class, "readByte", "writeByte"))
+                    .put(ShortThriftCodec.class, new ProtocolMethods(short.class, "readI16", "writeI16"))
+                    .put(IntegerThriftCodec.class, new ProtocolMethods(int.class, "readI32", "writeI32"))
+                    .put(LongThriftCodec.class, new ProtocolMethods(long.class, "readI64", "writeI64"))
+                    .put(DoubleThriftCodec.class, new ProtocolMethods(double.class, "readDouble", "writeDouble"))
+                    .build();
+        }
+        catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
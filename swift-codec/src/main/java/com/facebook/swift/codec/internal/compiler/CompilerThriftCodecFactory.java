@@ -19,22 +19,47 @@ import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.codec.internal.ForCompiler;
 import com.facebook.swift.codec.internal.ThriftCodecFactory;
+import com.facebook.swift.codec.internal.coercion.CoercionThriftCodec;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.TypeCoercion;
+import com.google.common.collect.ImmutableList;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.inject.Inject;
 
+import java.io.File;
+import java.lang.reflect.Method;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.List;
 
 import javax.annotation.concurrent.Immutable;
 
+import static java.lang.reflect.Modifier.isPublic;
+
 /**
  * Creates Thrift codecs directly in byte code.
+ * <p>
+ * Codecs generated ahead of time by {@link ThriftCodecPrecompiler} and visible to the parent
+ * class loader are used in preference to compiling a new codec.  When a cache directory is
+ * configured, the byte code of compiled codecs is saved there and reused by later processes as
+ * long as the struct classes and the codec generator are unchanged.
+ * <p>
+ * By default all codecs are defined in one class loader which lives as long as the factory.
+ * Applications that load and discard many versions of their types can instead define each codec
+ * in its own class loader, so the codec class is unloaded once the codec is no longer referenced
+ * (see {@link com.facebook.swift.codec.ThriftCodecManager#ThriftCodecManager(ThriftCodecFactory,
+ * com.facebook.swift.codec.metadata.ThriftCatalog, java.util.Set, long)} for evicting codecs).
  */
 @Immutable
 public class CompilerThriftCodecFactory implements ThriftCodecFactory
 {
     private final boolean debug;
     private final DynamicClassLoader classLoader;
+    private final Supplier<PrecompiledCodecRegistry> precompiledCodecs;
+    private final CodecClassCache codecClassCache;
+    private final boolean classLoaderPerCodec;
+    private final boolean precompiling;
 
     @Inject
     public CompilerThriftCodecFactory(@ForCompiler ClassLoader parent)
@@ -48,23 +73,219 @@ public class CompilerThriftCodecFactory implements ThriftCodecFactory
     }
 
     public CompilerThriftCodecFactory(boolean debug, ClassLoader parent)
+    {
+        this(debug, getPriviledgedClassLoader(parent), false, null, false);
+    }
+
+    public CompilerThriftCodecFactory(boolean debug, ClassLoader parent, File cacheDirectory)
+    {
+        this(debug, parent, cacheDirectory, false);
+    }
+
+    /**
+     * @param cacheDirectory directory in which generated byte code is kept across restarts, or null
+     * @param classLoaderPerCodec define each codec in its own class loader, so codec classes can be
+     * unloaded individually
+     */
+    public CompilerThriftCodecFactory(boolean debug, ClassLoader parent, File cacheDirectory, boolean classLoaderPerCodec)
+    {
+        this(debug, getPriviledgedClassLoader(parent), false, cacheDirectory, classLoaderPerCodec);
+    }
+
+    /**
+     * @param precompiling whether the codecs are generated for {@link ThriftCodecPrecompiler}, in
+     * which case precompiled codecs are not used and the codec class names include the fingerprint
+     * of the struct
+     */
+    CompilerThriftCodecFactory(boolean debug, DynamicClassLoader classLoader, boolean precompiling)
+    {
+        this(debug, classLoader, precompiling, null, false);
+    }
+
+    private CompilerThriftCodecFactory(
+            boolean debug,
+            final DynamicClassLoader classLoader,
+            boolean precompiling,
+            File cacheDirectory,
+            boolean classLoaderPerCodec)
     {
         this.debug = debug;
-        this.classLoader = getPriviledgedClassLoader(parent);
+        this.classLoader = classLoader;
+        this.codecClassCache = cacheDirectory == null ? null : new CodecClassCache(cacheDirectory);
+        this.classLoaderPerCodec = classLoaderPerCodec;
+        this.precompiling = precompiling;
+        if (!precompiling && classLoader.getParent() != null) {
+            this.precompiledCodecs = Suppliers.memoize(new Supplier<PrecompiledCodecRegistry>()
+            {
+                @Override
+                public PrecompiledCodecRegistry get()
+                {
+                    return PrecompiledCodecRegistry.load(classLoader.getParent());
+                }
+            });
+        }
+        else {
+            this.precompiledCodecs = null;
+        }
     }
 
     @Override
     public ThriftCodec<?> generateThriftTypeCodec(ThriftCodecManager codecManager, ThriftStructMetadata metadata)
     {
+        if (precompiledCodecs != null) {
+            PrecompiledCodecRegistry registry = precompiledCodecs.get();
+            if (!registry.isEmpty()) {
+                ThriftCodec<?> codec = registry.getCodec(codecManager, metadata);
+                if (codec != null) {
+                    return codec;
+                }
+            }
+        }
+
+        // the delegate codecs are looked up once, since a bounded codec manager may recreate them
+        List<Object> arguments = ThriftCodecByteCodeGenerator.getConstructorArguments(codecManager, metadata);
+
+        String cacheKey = null;
+        if (codecClassCache != null && metadata.getStructClass().getTypeParameters().length == 0) {
+            cacheKey = codecClassCache.getKey(metadata, arguments);
+            if (cacheKey != null) {
+                ThriftCodec<?> codec = loadCachedCodec(cacheKey, metadata, arguments);
+                if (codec != null) {
+                    return codec;
+                }
+            }
+        }
+
         ThriftCodecByteCodeGenerator<?> generator = new ThriftCodecByteCodeGenerator<>(
                 codecManager,
                 metadata,
-                classLoader,
+                arguments,
+                getCodecClassName(metadata),
+                getCodecClassLoader(metadata.getStructClass(), arguments),
                 debug
         );
+        if (cacheKey != null) {
+            codecClassCache.put(cacheKey, generator.getByteCode());
+        }
+        return generator.getThriftCodec();
+    }
+
+    private String getCodecClassName(ThriftStructMetadata metadata)
+    {
+        Class<?> structClass = metadata.getStructClass();
+        if (precompiling && structClass.getTypeParameters().length == 0) {
+            String fingerprint = PrecompiledCodecRegistry.fingerprint(metadata);
+            if (!fingerprint.isEmpty()) {
+                return ThriftCodecByteCodeGenerator.getCodecClassName(structClass, fingerprint);
+            }
+        }
+        return ThriftCodecByteCodeGenerator.getCodecClassName(structClass);
+    }
+
+    private ThriftCodec<?> loadCachedCodec(String cacheKey, ThriftStructMetadata metadata, List<Object> arguments)
+    {
+        byte[] byteCode = codecClassCache.get(cacheKey);
+        if (byteCode == null) {
+            return null;
+        }
+
+        Class<?> codecClass;
+        try {
+            codecClass = getCodecClassLoader(metadata.getStructClass(), arguments).defineClass(ThriftCodecByteCodeGenerator.getCodecClassName(metadata.getStructClass()), byteCode);
+        }
+        catch (LinkageError e) {
+            // the entry is damaged, or the codec was already defined in this class loader
+            return null;
+        }
+
+        try {
+            return ThriftCodecByteCodeGenerator.newCodec(codecClass, arguments);
+        }
+        catch (IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Codecs can only be created again when each one has its own class loader, because the shared
+     * class loader can not define a second class with the same name.
+     */
+    @Override
+    public boolean canRecreateCodecs()
+    {
+        return classLoaderPerCodec;
+    }
+
+    /**
+     * Creates a codec that calls the coercion methods directly, unless they are not accessible
+     * from generated code or the codec class loader can not see the classes they use.
+     */
+    @Override
+    public ThriftCodec<?> generateCoercionCodec(ThriftCodec<?> codec, TypeCoercion coercion)
+    {
+        if (!isAccessible(coercion.getFromThrift()) || !isAccessible(coercion.getToThrift())) {
+            return new CoercionThriftCodec<>(codec, coercion);
+        }
+
+        Class<?> coercionClass = coercion.getFromThrift().getDeclaringClass();
+        DynamicClassLoader codecClassLoader = getCodecClassLoader(coercionClass, ImmutableList.<Object>of());
+        if (!isVisible(codecClassLoader, coercion.getFromThrift()) || !isVisible(codecClassLoader, coercion.getToThrift())) {
+            return new CoercionThriftCodec<>(codec, coercion);
+        }
+
+        CoercionCodecByteCodeGenerator generator = new CoercionCodecByteCodeGenerator(
+                codec,
+                coercion,
+                codecClassLoader
+        );
         return generator.getThriftCodec();
     }
 
+    private static boolean isAccessible(Method method)
+    {
+        return isPublic(method.getModifiers()) && isPublic(method.getDeclaringClass().getModifiers());
+    }
+
+    private static boolean isVisible(ClassLoader classLoader, Method method)
+    {
+        if (!isVisible(classLoader, method.getDeclaringClass()) || !isVisible(classLoader, method.getReturnType())) {
+            return false;
+        }
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            if (!isVisible(classLoader, parameterType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVisible(ClassLoader classLoader, Class<?> type)
+    {
+        // the generated codec links against these classes by name, so the codec class loader
+        // must resolve each name to the class used by the coercion
+        if (type.isPrimitive()) {
+            return true;
+        }
+        try {
+            return Class.forName(type.getName(), false, classLoader) == type;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private DynamicClassLoader getCodecClassLoader(final Class<?> targetClass, final List<Object> constructorArguments)
+    {
+        if (!classLoaderPerCodec) {
+            return classLoader;
+        }
+        return AccessController.doPrivileged(new PrivilegedAction<DynamicClassLoader>() {
+            public DynamicClassLoader run() {
+                return new CodecClassLoader(classLoader.getParent(), targetClass, constructorArguments);
+            }
+        });
+    }
+
     private static DynamicClassLoader getPriviledgedClassLoader(final ClassLoader parent)
     {
         return AccessController.doPrivileged(new PrivilegedAction<DynamicClassLoader>() {
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import javax.annotation.concurrent.Immutable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Index of the codec classes generated ahead of time by {@link ThriftCodecPrecompiler}.
+ * <p>
+ * Each entry of the registry maps a struct class to its codec class, a fingerprint of the
+ * struct class files the codec was generated from and a fingerprint of the codec generator.
+ * A codec is only used when the struct classes on the class path still match the fingerprint,
+ * the codec was generated by this version of Swift, and the codec constructor accepts the
+ * delegate codecs provided by the codec manager; otherwise the caller falls back to compiling
+ * the codec at runtime.
+ */
+@Immutable
+class PrecompiledCodecRegistry
+{
+    static final String REGISTRY_RESOURCE = "META-INF/swift/codecs";
+
+    private final ClassLoader classLoader;
+    private final Map<String, Entry> entries;
+
+    PrecompiledCodecRegistry(ClassLoader classLoader, Map<String, Entry> entries)
+    {
+        this.classLoader = classLoader;
+        this.entries = ImmutableMap.copyOf(entries);
+    }
+
+    /**
+     * Loads the registries of every class path entry visible to the specified class loader.
+     */
+    static PrecompiledCodecRegistry load(ClassLoader classLoader)
+    {
+        Map<String, Entry> entries = new HashMap<>();
+        try {
+            Enumeration<URL> resources = classLoader.getResources(REGISTRY_RESOURCE);
+            while (resources.hasMoreElements()) {
+                try (InputStream in = resources.nextElement().openStream()) {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        Entry entry = Entry.parse(line);
+                        if (entry != null && !entries.containsKey(entry.getStructClassName())) {
+                            entries.put(entry.getStructClassName(), entry);
+                        }
+                    }
+                }
+            }
+        }
+        catch (IOException ignored) {
+            // an unreadable registry only means the codecs are compiled at runtime
+        }
+        return new PrecompiledCodecRegistry(classLoader, entries);
+    }
+
+    public boolean isEmpty()
+    {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Creates the precompiled codec for the struct, or returns null if there is no usable
+     * precompiled codec.
+     */
+    public ThriftCodec<?> getCodec(ThriftCodecManager codecManager, ThriftStructMetadata metadata)
+    {
+        Class<?> structClass = metadata.getStructClass();
+        if (structClass.getTypeParameters().length > 0) {
+            return null;
+        }
+
+        Entry entry = entries.get(structClass.getName());
+        if (entry == null || !entry.getFingerprint().equals(fingerprint(metadata))) {
+            return null;
+        }
+        if (!entry.getGeneratorFingerprint().equals(CodecClassCache.GENERATOR_FINGERPRINT)) {
+            // the codec may call methods that other versions of Swift do not have
+            return null;
+        }
+
+        Class<?> codecClass;
+        try {
+            codecClass = Class.forName(entry.getCodecClassName(), true, classLoader);
+        }
+        catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+
+        List<Object> arguments = ThriftCodecByteCodeGenerator.getConstructorArguments(codecManager, metadata);
+        try {
+            // null if a delegate codec is not the one the codec was generated against
+            return ThriftCodecByteCodeGenerator.newCodec(codecClass, arguments);
+        }
+        catch (IllegalStateException e) {
+            throw new IllegalStateException("Precompiled codec " + entry.getCodecClassName() + " is invalid", e);
+        }
+    }
+
+    /**
+     * Computes a fingerprint of the class files that determine the layout of a struct codec:
+     * the struct class with its super classes, and the builder class if there is one.
+     * Returns an empty string if a class file is not available.
+     */
+    static String fingerprint(ThriftStructMetadata metadata)
+    {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        try {
+            for (Class<?> type = metadata.getStructClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+                if (!putClassFile(hasher, type)) {
+                    return "";
+                }
+            }
+            if (metadata.getBuilderClass() != null && !putClassFile(hasher, metadata.getBuilderClass())) {
+                return "";
+            }
+        }
+        catch (IOException e) {
+            return "";
+        }
+        return hasher.hash().toString();
+    }
+
+    private static boolean putClassFile(Hasher hasher, Class<?> type)
+            throws IOException
+    {
+        ClassLoader classLoader = type.getClassLoader();
+        if (classLoader == null) {
+            // bootstrap classes can not change underneath the codec
+            return true;
+        }
+
+        try (InputStream in = classLoader.getResourceAsStream(type.getName().replace('.', '/') + ".class")) {
+            if (in == null) {
+                return false;
+            }
+            hasher.putString(type.getName(), UTF_8);
+            hasher.putBytes(ByteStreams.toByteArray(in));
+        }
+        return true;
+    }
+
+    @Immutable
+    static class Entry
+    {
+        private final String structClassName;
+        private final String codecClassName;
+        private final String fingerprint;
+        private final String generatorFingerprint;
+
+        Entry(String structClassName, String codecClassName, String fingerprint, String generatorFingerprint)
+        {
+            this.structClassName = structClassName;
+            this.codecClassName = codecClassName;
+            this.fingerprint = fingerprint;
+            this.generatorFingerprint = generatorFingerprint;
+        }
+
+        /**
+         * Parses a registry line of the form
+         * {@code struct-class codec-class fingerprint generator-fingerprint}.  Blank lines, lines
+         * starting with {@code #} and lines written by versions of Swift that did not record
+         * the generator are ignored.
+         */
+        static Entry parse(String line)
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                return null;
+            }
+            List<String> parts = Splitter.on(' ').omitEmptyStrings().splitToList(line);
+            if (parts.size() != 4) {
+                return null;
+            }
+            return new Entry(parts.get(0), parts.get(1), parts.get(2), parts.get(3));
+        }
+
+        public String getStructClassName()
+        {
+            return structClassName;
+        }
+
+        public String getCodecClassName()
+        {
+            return codecClassName;
+        }
+
+        public String getFingerprint()
+        {
+            return fingerprint;
+        }
+
+        public String getGeneratorFingerprint()
+        {
+            return generatorFingerprint;
+        }
+
+        @Override
+        public String toString()
+        {
+            return structClassName + " " + codecClassName + " " + fingerprint + " " + generatorFingerprint;
+        }
+    }
+}
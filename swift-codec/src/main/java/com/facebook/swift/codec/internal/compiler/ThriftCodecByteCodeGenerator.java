@@ -61,10 +61,14 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static com.facebook.swift.codec.ThriftProtocolType.BINARY;
 import static com.facebook.swift.codec.ThriftProtocolType.BOOL;
@@ -98,6 +102,7 @@ import static java.lang.String.format;
 public class ThriftCodecByteCodeGenerator<T>
 {
     private static final String PACKAGE = "$wift";
+    private static final Pattern CODEC_CLASS_NAME = Pattern.compile("\\$wift\\.(.+?)Codec(?:\\$[0-9a-f]{32})?");
 
     private static final Map<ThriftProtocolType, Method> READ_METHODS;
     private static final Map<ThriftProtocolType, Method> WRITE_METHODS;
@@ -117,13 +122,39 @@ public class ThriftCodecByteCodeGenerator<T>
     private final FieldDefinition typeField;
     private final Map<Short, FieldDefinition> codecFields;
 
+    /**
+     * The ids of the struct fields whose delegate codec is a generated codec, which are read and
+     * written by calling the delegate codec directly with the reader or writer of this codec
+     */
+    private final Set<Short> directStructFields = new HashSet<>();
+
+    private final byte[] byteCode;
     private final ThriftCodec<T> thriftCodec;
 
+    public ThriftCodecByteCodeGenerator(
+            ThriftCodecManager codecManager,
+            ThriftStructMetadata metadata,
+            DynamicClassLoader classLoader,
+            boolean debug
+    )
+    {
+        this(codecManager, metadata, getConstructorArguments(codecManager, metadata), getCodecClassName(metadata.getStructClass()), classLoader, debug);
+    }
+
+    /**
+     * Generates the codec against constructor arguments that were already looked up with
+     * {@link #getConstructorArguments}, so that the delegate codecs are exactly the ones the
+     * caller prepared the class loader for.
+     *
+     * @param codecClassName the binary name of the codec class, see {@link #getCodecClassName}
+     */
     @SuppressWarnings("unchecked")
     @SuppressFBWarnings("DM_DEFAULT_ENCODING")
-    public ThriftCodecByteCodeGenerator(
+    ThriftCodecByteCodeGenerator(
             ThriftCodecManager codecManager,
             ThriftStructMetadata metadata,
+            List<Object> constructorArguments,
+            String codecClassName,
             DynamicClassLoader classLoader,
             boolean debug
     )
@@ -132,7 +163,7 @@ public class ThriftCodecByteCodeGenerator<T>
         this.metadata = metadata;
 
         structType = type(metadata.getStructClass());
-        codecType = toCodecType(metadata);
+        codecType = type(codecClassName.replace('.', '/'));
 
         classDefinition = new ClassDefinition(
                 a(PUBLIC, SUPER),
@@ -143,7 +174,7 @@ public class ThriftCodecByteCodeGenerator<T>
 
         // declare the class fields
         typeField = declareTypeField();
-        codecFields = declareCodecFields();
+        codecFields = declareCodecFields(constructorArguments.subList(1, constructorArguments.size()));
 
         // declare methods
         defineConstructor();
@@ -169,7 +200,7 @@ public class ThriftCodecByteCodeGenerator<T>
         // generate the byte code
         ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         classDefinition.getClassNode().accept(cw);
-        byte[] byteCode = cw.toByteArray();
+        byteCode = cw.toByteArray();
 
         // Run the asm verifier only in debug mode (prints a ton of info)
         if (debug) {
@@ -194,6 +225,54 @@ public class ThriftCodecByteCodeGenerator<T>
         return thriftCodec;
     }
 
+    byte[] getByteCode()
+    {
+        return byteCode;
+    }
+
+    /**
+     * Returns the arguments for the constructor of the codec generated for the struct: the
+     * struct type followed by the delegate codec of each field that needs one.
+     */
+    static List<Object> getConstructorArguments(ThriftCodecManager codecManager, ThriftStructMetadata metadata)
+    {
+        List<Object> arguments = new ArrayList<>();
+        arguments.add(ThriftType.struct(metadata));
+        for (ThriftFieldMetadata fieldMetadata : metadata.getFields()) {
+            if (needsCodec(fieldMetadata)) {
+                arguments.add(codecManager.getCodec(fieldMetadata.getThriftType()));
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Creates an instance of a codec class generated earlier, or returns null if the codec class
+     * was generated against different delegate codec classes.
+     */
+    static ThriftCodec<?> newCodec(Class<?> codecClass, List<Object> arguments)
+    {
+        Class<?>[] types = new Class<?>[arguments.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = arguments.get(i).getClass();
+        }
+
+        Constructor<?> constructor;
+        try {
+            constructor = codecClass.getConstructor(types);
+        }
+        catch (NoSuchMethodException e) {
+            return null;
+        }
+
+        try {
+            return (ThriftCodec<?>) constructor.newInstance(arguments.toArray());
+        }
+        catch (Exception | LinkageError e) {
+            throw new IllegalStateException("Generated class is invalid", e);
+        }
+    }
+
     /**
      * Declares the private ThriftType field type.
      */
@@ -213,13 +292,14 @@ public class ThriftCodecByteCodeGenerator<T>
      *
      * @return a map from field id to the codec for the field
      */
-    private Map<Short, FieldDefinition> declareCodecFields()
+    private Map<Short, FieldDefinition> declareCodecFields(List<Object> delegateCodecs)
     {
+        Iterator<Object> delegateCodecIterator = delegateCodecs.iterator();
         Map<Short, FieldDefinition> codecFields = new TreeMap<>();
         for (ThriftFieldMetadata fieldMetadata : metadata.getFields()) {
             if (needsCodec(fieldMetadata)) {
 
-                ThriftCodec<?> codec = codecManager.getCodec(fieldMetadata.getThriftType());
+                ThriftCodec<?> codec = (ThriftCodec<?>) delegateCodecIterator.next();
                 String fieldName = fieldMetadata.getName() + "Codec";
 
                 FieldDefinition codecField = new FieldDefinition(a(PRIVATE, FINAL), fieldName, type(codec.getClass()));
@@ -227,6 +307,10 @@ public class ThriftCodecByteCodeGenerator<T>
                 codecFields.put(fieldMetadata.getId(), codecField);
 
                 parameters.add(codecField, codec);
+
+                if (hasDirectMethods(fieldMetadata, codec)) {
+                    directStructFields.add(fieldMetadata.getId());
+                }
             }
         }
         return codecFields;
@@ -281,21 +365,15 @@ public class ThriftCodecByteCodeGenerator<T>
      */
     private void defineReadStructMethod()
     {
+        defineReadProtocolMethod();
+
         MethodDefinition read = new MethodDefinition(
                 a(PUBLIC),
                 "read",
                 structType,
-                arg("protocol", TProtocol.class)
+                arg("reader", TProtocolReader.class)
         ).addException(Exception.class);
 
-        // TProtocolReader reader = new TProtocolReader(protocol);
-        read.addLocalVariable(type(TProtocolReader.class), "reader");
-        read.newObject(TProtocolReader.class);
-        read.dup();
-        read.loadVariable("protocol");
-        read.invokeConstructor(type(TProtocolReader.class), type(TProtocol.class));
-        read.storeVariable("reader");
-
         // read all of the data in to local variables
         Map<Short, LocalVariableDefinition> structData = readFieldValues(read);
 
@@ -349,31 +427,11 @@ public class ThriftCodecByteCodeGenerator<T>
             // case field.id:
             read.visitLabel(field.getName() + "-field");
 
-            // push protocol
-            read.loadVariable(protocol);
-
-            // push ThriftTypeCodec for this field
-            FieldDefinition codecField = codecFields.get(field.getId());
-            if (codecField != null) {
-                read.loadThis().getField(codecType, codecField);
-            }
-
-            // read value
-            Method readMethod = getReadMethod(field.getThriftType());
-            if (readMethod == null) {
-                throw new IllegalArgumentException("Unsupported field type " + field.getThriftType().getProtocolType());
-            }
-            read.invokeVirtual(readMethod);
-
-            // todo this cast should be based on readMethod return type and fieldType (or coercion type)
-            // add cast if necessary
-            if (needsCastAfterRead(field, readMethod)) {
-                read.checkCast(toParameterizedType(field.getThriftType()));
+            if (directStructFields.contains(field.getId())) {
+                readDirectStructField(read, protocol, field);
             }
-
-            // coerce the type
-            if (field.getCoercion().isPresent()) {
-                read.invokeStatic(field.getCoercion().get().getFromThrift());
+            else {
+                readField(read, protocol, field);
             }
 
             // store protocol value
@@ -398,6 +456,70 @@ public class ThriftCodecByteCodeGenerator<T>
         return structData;
     }
 
+    /**
+     * Defines the code to read the value of the current field and push it on the stack.
+     */
+    private void readField(MethodDefinition read, LocalVariableDefinition protocol, ThriftFieldMetadata field)
+    {
+        // push protocol
+        read.loadVariable(protocol);
+
+        // push ThriftTypeCodec for this field
+        FieldDefinition codecField = codecFields.get(field.getId());
+        if (codecField != null) {
+            read.loadThis().getField(codecType, codecField);
+        }
+
+        // read value
+        Method readMethod = getReadMethod(field.getThriftType());
+        if (readMethod == null) {
+            throw new IllegalArgumentException("Unsupported field type " + field.getThriftType().getProtocolType());
+        }
+        read.invokeVirtual(readMethod);
+
+        // todo this cast should be based on readMethod return type and fieldType (or coercion type)
+        // add cast if necessary
+        if (needsCastAfterRead(field, readMethod)) {
+            read.checkCast(toParameterizedType(field.getThriftType()));
+        }
+
+        // coerce the type
+        if (field.getCoercion().isPresent()) {
+            read.invokeStatic(field.getCoercion().get().getFromThrift());
+        }
+    }
+
+    /**
+     * Defines the code to read a nested struct by calling the read method of its generated codec
+     * with the reader of this codec, and push it on the stack.  Unlike
+     * {@link TProtocolReader#readStructField}, this call is bound to the concrete codec class.
+     */
+    private void readDirectStructField(MethodDefinition read, LocalVariableDefinition protocol, ThriftFieldMetadata field)
+    {
+        FieldDefinition codecField = codecFields.get(field.getId());
+        Class<?> fieldStructClass = field.getThriftType().getStructMetadata().getStructClass();
+
+        // if (protocol.readStructFieldBegin())
+        read.loadVariable(protocol)
+                .invokeVirtual(TProtocolReader.class, "readStructFieldBegin", boolean.class)
+                .ifZeroGoto(field.getName() + "-not-struct");
+
+        // value = this.fieldCodec.read(protocol); protocol.readStructFieldEnd();
+        read.loadThis()
+                .getField(codecType, codecField)
+                .loadVariable(protocol)
+                .invokeVirtual(codecField.getType(), "read", type(fieldStructClass), type(TProtocolReader.class))
+                .loadVariable(protocol)
+                .invokeVirtual(TProtocolReader.class, "readStructFieldEnd", void.class)
+                .gotoLabel(field.getName() + "-struct-read");
+
+        // else value = null (the field was skipped)
+        read.visitLabel(field.getName() + "-not-struct")
+                .loadNull();
+
+        read.visitLabel(field.getName() + "-struct-read");
+    }
+
     /**
      * Defines the code to build the struct instance using the data in the local variables.
      */
@@ -471,21 +593,15 @@ public class ThriftCodecByteCodeGenerator<T>
      */
     private void defineReadUnionMethod()
     {
+        defineReadProtocolMethod();
+
         MethodDefinition read = new MethodDefinition(
                 a(PUBLIC),
                 "read",
                 structType,
-                arg("protocol", TProtocol.class)
+                arg("reader", TProtocolReader.class)
         ).addException(Exception.class);
 
-        // TProtocolReader reader = new TProtocolReader(protocol);
-        read.addLocalVariable(type(TProtocolReader.class), "reader");
-        read.newObject(TProtocolReader.class);
-        read.dup();
-        read.loadVariable("protocol");
-        read.invokeConstructor(type(TProtocolReader.class), type(TProtocol.class));
-        read.storeVariable("reader");
-
         // field id field.
         read.addInitializedLocalVariable(type(short.class), "fieldId");
 
@@ -547,31 +663,11 @@ public class ThriftCodecByteCodeGenerator<T>
             // case field.id:
             read.visitLabel(field.getName() + "-field");
 
-            // push protocol
-            read.loadVariable(protocol);
-
-            // push ThriftTypeCodec for this field
-            FieldDefinition codecField = codecFields.get(field.getId());
-            if (codecField != null) {
-                read.loadThis().getField(codecType, codecField);
-            }
-
-            // read value
-            Method readMethod = getReadMethod(field.getThriftType());
-            if (readMethod == null) {
-                throw new IllegalArgumentException("Unsupported field type " + field.getThriftType().getProtocolType());
-            }
-            read.invokeVirtual(readMethod);
-
-            // todo this cast should be based on readMethod return type and fieldType (or coercion type)
-            // add cast if necessary
-            if (needsCastAfterRead(field, readMethod)) {
-                read.checkCast(toParameterizedType(field.getThriftType()));
+            if (directStructFields.contains(field.getId())) {
+                readDirectStructField(read, protocol, field);
             }
-
-            // coerce the type
-            if (field.getCoercion().isPresent()) {
-                read.invokeStatic(field.getCoercion().get().getFromThrift());
+            else {
+                readField(read, protocol, field);
             }
 
             // store protocol value
@@ -813,24 +909,18 @@ public class ThriftCodecByteCodeGenerator<T>
      */
     private void defineWriteStructMethod()
     {
+        defineWriteProtocolMethod();
+
         MethodDefinition write = new MethodDefinition(
                 a(PUBLIC),
                 "write",
                 null,
                 arg("struct", structType),
-                arg("protocol", TProtocol.class)
-        );
+                arg("writer", TProtocolWriter.class)
+        ).addException(Exception.class);
 
         classDefinition.addMethod(write);
 
-        // TProtocolReader reader = new TProtocolReader(protocol);
-        write.addLocalVariable(type(TProtocolWriter.class), "writer");
-        write.newObject(TProtocolWriter.class);
-        write.dup();
-        write.loadVariable("protocol");
-        write.invokeConstructor(type(TProtocolWriter.class), type(TProtocol.class));
-        write.storeVariable("writer");
-
         LocalVariableDefinition protocol = write.getLocalVariable("writer");
 
         // protocol.writeStructBegin("bonk");
@@ -854,24 +944,18 @@ public class ThriftCodecByteCodeGenerator<T>
      */
     private void defineWriteUnionMethod()
     {
+        defineWriteProtocolMethod();
+
         MethodDefinition write = new MethodDefinition(
                 a(PUBLIC),
                 "write",
                 null,
                 arg("struct", structType),
-                arg("protocol", TProtocol.class)
-        );
+                arg("writer", TProtocolWriter.class)
+        ).addException(Exception.class);
 
         classDefinition.addMethod(write);
 
-        // TProtocolWriter writer = new TProtocolWriter(protocol);
-        write.addLocalVariable(type(TProtocolWriter.class), "writer");
-        write.newObject(TProtocolWriter.class);
-        write.dup();
-        write.loadVariable("protocol");
-        write.invokeConstructor(type(TProtocolWriter.class), type(TProtocol.class));
-        write.storeVariable("writer");
-
         LocalVariableDefinition protocol = write.getLocalVariable("writer");
 
         // protocol.writeStructBegin("bonk");
@@ -908,6 +992,11 @@ public class ThriftCodecByteCodeGenerator<T>
 
     private void writeField(MethodDefinition write, LocalVariableDefinition protocol, ThriftFieldMetadata field)
     {
+        if (directStructFields.contains(field.getId())) {
+            writeDirectStructField(write, protocol, field);
+            return;
+        }
+
         // push protocol
         write.loadVariable(protocol);
 
@@ -977,6 +1066,47 @@ public class ThriftCodecByteCodeGenerator<T>
         }
     }
 
+    /**
+     * Defines the code to write a nested struct by calling the write method of its generated codec
+     * with the writer of this codec.  Unlike {@link TProtocolWriter#writeStructField}, this call is
+     * bound to the concrete codec class.
+     */
+    private void writeDirectStructField(MethodDefinition write, LocalVariableDefinition protocol, ThriftFieldMetadata field)
+    {
+        FieldDefinition codecField = codecFields.get(field.getId());
+        ParameterizedType fieldStructType = type(field.getThriftType().getStructMetadata().getStructClass());
+
+        // push field value, and skip the field if it is null
+        loadFieldValue(write, field);
+        write.dup();
+        write.ifNullGoto("field_is_null_" + field.getName());
+        write.checkCast(fieldStructType);
+
+        // protocol.writeStructFieldBegin(name, id);
+        write.loadVariable(protocol)
+                .loadConstant(field.getName())
+                .loadConstant(field.getId())
+                .invokeVirtual(TProtocolWriter.class, "writeStructFieldBegin", void.class, String.class, short.class);
+
+        // this.fieldCodec.write(value, protocol);
+        write.loadThis()
+                .getField(codecType, codecField)
+                .swap()
+                .loadVariable(protocol)
+                .invokeVirtual(codecField.getType(), "write", type(void.class), fieldStructType, type(TProtocolWriter.class));
+
+        // protocol.writeStructFieldEnd();
+        write.loadVariable(protocol)
+                .invokeVirtual(TProtocolWriter.class, "writeStructFieldEnd", void.class)
+                .gotoLabel("field_end_" + field.getName());
+
+        // pop the null value
+        write.visitLabel("field_is_null_" + field.getName())
+                .pop();
+
+        write.visitLabel("field_end_" + field.getName());
+    }
+
     private void loadFieldValue(MethodDefinition write, ThriftFieldMetadata field)
     {
         write.loadVariable("struct");
@@ -999,6 +1129,43 @@ public class ThriftCodecByteCodeGenerator<T>
         }
     }
 
+    /**
+     * Defines the read method of the codec interface, which gets the reader for the protocol and
+     * delegates to the read method that takes the reader.  Generated codecs of enclosing structs
+     * call the reader method directly.
+     */
+    private void defineReadProtocolMethod()
+    {
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC), "read", structType, arg("protocol", TProtocol.class))
+                        .addException(Exception.class)
+                        .loadThis()
+                        .loadVariable("protocol")
+                        .invokeStatic(TProtocolReader.class, "forProtocol", TProtocolReader.class, TProtocol.class)
+                        .invokeVirtual(codecType, "read", structType, type(TProtocolReader.class))
+                        .retObject()
+        );
+    }
+
+    /**
+     * Defines the write method of the codec interface, which gets the writer for the protocol and
+     * delegates to the write method that takes the writer.  Generated codecs of enclosing structs
+     * call the writer method directly.
+     */
+    private void defineWriteProtocolMethod()
+    {
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC), "write", null, arg("struct", structType), arg("protocol", TProtocol.class))
+                        .addException(Exception.class)
+                        .loadThis()
+                        .loadVariable("struct")
+                        .loadVariable("protocol")
+                        .invokeStatic(TProtocolWriter.class, "forProtocol", TProtocolWriter.class, TProtocol.class)
+                        .invokeVirtual(codecType, "write", type(void.class), structType, type(TProtocolWriter.class))
+                        .ret()
+        );
+    }
+
     /**
      * Defines the generics bridge method with untyped args to the type specific read method.
      */
@@ -1077,7 +1244,7 @@ public class ThriftCodecByteCodeGenerator<T>
         return needsCast;
     }
 
-    private boolean needsCodec(ThriftFieldMetadata fieldMetadata)
+    static boolean needsCodec(ThriftFieldMetadata fieldMetadata)
     {
         if (ReflectionHelper.isArray(fieldMetadata.getThriftType().getJavaType())) {
             return false;
@@ -1091,9 +1258,65 @@ public class ThriftCodecByteCodeGenerator<T>
                 protocolType == MAP;
     }
 
-    private ParameterizedType toCodecType(ThriftStructMetadata metadata)
+    /**
+     * Checks if the delegate codec for a struct field is a codec generated by this class with the
+     * read and write methods that take a reader and writer.  Lazy and recursive fields are
+     * excluded, since their codecs are wrappers.
+     */
+    private static boolean hasDirectMethods(ThriftFieldMetadata field, ThriftCodec<?> codec)
+    {
+        ThriftType type = field.getThriftType();
+        if (type.getProtocolType() != STRUCT || field.getCoercion().isPresent()) {
+            return false;
+        }
+
+        Class<?> codecClass = codec.getClass();
+        if (getStructClassName(codecClass.getName()) == null) {
+            return false;
+        }
+
+        Class<?> fieldStructClass = type.getStructMetadata().getStructClass();
+        try {
+            Method read = codecClass.getMethod("read", TProtocolReader.class);
+            codecClass.getMethod("write", fieldStructClass, TProtocolWriter.class);
+            return read.getReturnType() == fieldStructClass;
+        }
+        catch (NoSuchMethodException e) {
+            // generated by a version of this class without the methods
+            return false;
+        }
+    }
+
+    /**
+     * Returns the binary name of the codec class generated for the specified struct class.
+     */
+    static String getCodecClassName(Class<?> structClass)
+    {
+        return PACKAGE + "." + structClass.getName() + "Codec";
+    }
+
+    /**
+     * Returns the binary name of the codec class precompiled for the specified struct class.  The
+     * name includes the fingerprint of the struct class files, so codecs of the same name are
+     * always generated from the same struct, even when several artifacts ship a codec for a
+     * struct declared by a library they share.
+     */
+    static String getCodecClassName(Class<?> structClass, String fingerprint)
     {
-        return type(PACKAGE + "/" + type(metadata.getStructClass()).getClassName() + "Codec");
+        return getCodecClassName(structClass) + "$" + fingerprint;
+    }
+
+    /**
+     * Returns the binary name of the struct class for a codec class name produced by
+     * {@link #getCodecClassName}, or null if the name does not belong to a generated codec.
+     */
+    static String getStructClassName(String codecClassName)
+    {
+        Matcher matcher = CODEC_CLASS_NAME.matcher(codecClassName);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return matcher.group(1);
     }
 
     private static class ConstructorParameters
@@ -1162,9 +1385,11 @@ public class ThriftCodecByteCodeGenerator<T>
             case I64:
             case STRING:
             case BINARY:
-            case STRUCT:
             case ENUM:
                 return type((Class<?>) typeRef.getJavaType());
+            case STRUCT:
+                // lazy structs are parameterized, but the codec casts to the raw type
+                return type(TypeToken.of(typeRef.getJavaType()).getRawType());
             case MAP:
                 return type(Map.class, toParameterizedType(typeRef.get().getKeyTypeReference()), toParameterizedType(typeRef.get().getValueTypeReference()));
             case SET:
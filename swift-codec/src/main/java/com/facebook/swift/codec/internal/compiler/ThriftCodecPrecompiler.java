@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates struct and union codecs ahead of time.  The codec classes are written as class
+ * files together with a registry, so that {@link CompilerThriftCodecFactory} can load them
+ * from the class path instead of generating them when they are first used.
+ * <p>
+ * The codecs for all structs reachable from the compiled types are generated, including the
+ * structs declared by libraries.  The codec class names include the fingerprint of the struct
+ * class files, so artifacts built against the same library ship interchangeable codecs for
+ * its structs rather than different classes of the same name.
+ */
+@NotThreadSafe
+public class ThriftCodecPrecompiler
+{
+    private final ClassLoader classLoader;
+    private final ThriftCodecManager codecManager;
+    private final Map<String, byte[]> codecClasses = new TreeMap<>();
+
+    /**
+     * @param classLoader the class loader of the types passed to {@link #compile}
+     */
+    public ThriftCodecPrecompiler(ClassLoader classLoader)
+    {
+        this(classLoader, new ThriftCatalog());
+    }
+
+    /**
+     * @param classLoader the class loader of the types passed to {@link #compile}
+     * @param catalog the catalog holding the coercions used by the types at runtime
+     */
+    public ThriftCodecPrecompiler(ClassLoader classLoader, ThriftCatalog catalog)
+    {
+        this.classLoader = checkNotNull(classLoader, "classLoader is null");
+        checkNotNull(catalog, "catalog is null");
+
+        // never reuse codecs precompiled by an earlier run, they may be stale
+        RecordingClassLoader recordingClassLoader = new RecordingClassLoader(classLoader);
+        this.codecManager = new ThriftCodecManager(
+                new CompilerThriftCodecFactory(false, recordingClassLoader, true),
+                catalog,
+                ImmutableSet.<ThriftCodec<?>>of());
+    }
+
+    /**
+     * Generates the codec of a {@code @ThriftStruct} or {@code @ThriftUnion} class, and the
+     * codecs of the structs it references.
+     */
+    public void compile(Class<?> type)
+    {
+        checkArgument(ThriftCatalog.isStructType(type), "%s is not a Thrift struct or union", type.getName());
+        checkArgument(type.getTypeParameters().length == 0, "%s is generic", type.getName());
+        codecManager.getCodec(type);
+    }
+
+    /**
+     * Returns the generated codec class files keyed by the codec class name.
+     */
+    public Map<String, byte[]> getCodecClasses()
+    {
+        return ImmutableMap.copyOf(codecClasses);
+    }
+
+    /**
+     * Writes the codec class files and the codec registry below the specified directory,
+     * replacing any registry written by an earlier run.
+     *
+     * @return the number of codecs written
+     */
+    public int write(File outputDirectory)
+            throws IOException
+    {
+        Map<String, PrecompiledCodecRegistry.Entry> entries = new TreeMap<>();
+        String generatorFingerprint = CodecClassCache.GENERATOR_FINGERPRINT;
+        for (Map.Entry<String, byte[]> entry : codecClasses.entrySet()) {
+            String codecClassName = entry.getKey();
+            Class<?> structClass = getStructClass(codecClassName);
+            if (structClass.getTypeParameters().length > 0) {
+                // one codec class can not serve every parameterization of a generic struct
+                continue;
+            }
+
+            ThriftStructMetadata metadata = codecManager.getCatalog().getThriftStructMetadata(structClass);
+            String fingerprint = PrecompiledCodecRegistry.fingerprint(metadata);
+            if (fingerprint.isEmpty() || generatorFingerprint.isEmpty()) {
+                // a class file is not available, so the codec could never be validated
+                continue;
+            }
+
+            File classFile = new File(outputDirectory, codecClassName.replace('.', '/') + ".class");
+            Files.createParentDirs(classFile);
+            Files.write(entry.getValue(), classFile);
+
+            entries.put(structClass.getName(), new PrecompiledCodecRegistry.Entry(structClass.getName(), codecClassName, fingerprint, generatorFingerprint));
+        }
+
+        File registryFile = new File(outputDirectory, PrecompiledCodecRegistry.REGISTRY_RESOURCE);
+        Files.createParentDirs(registryFile);
+        try (Writer writer = Files.newWriter(registryFile, UTF_8)) {
+            writer.write("# struct-class codec-class fingerprint generator-fingerprint\n");
+            for (PrecompiledCodecRegistry.Entry entry : entries.values()) {
+                writer.write(entry.toString());
+                writer.write('\n');
+            }
+        }
+        return entries.size();
+    }
+
+    private Class<?> getStructClass(String codecClassName)
+    {
+        String structClassName = ThriftCodecByteCodeGenerator.getStructClassName(codecClassName);
+        checkArgument(structClassName != null, "%s is not a generated codec", codecClassName);
+        try {
+            return Class.forName(structClassName, false, classLoader);
+        }
+        catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Struct class for codec " + codecClassName + " not found", e);
+        }
+    }
+
+    /**
+     * Keeps the byte code of every struct codec class defined while compiling.  Coercion codecs
+     * are cheap to generate and are not precompiled.
+     */
+    private class RecordingClassLoader
+            extends DynamicClassLoader
+    {
+        private RecordingClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        @Override
+        public Class<?> defineClass(String name, byte[] byteCode)
+                throws ClassFormatError
+        {
+            Class<?> type = super.defineClass(name, byteCode);
+            if (ThriftCodecByteCodeGenerator.getStructClassName(name) != null) {
+                codecClasses.put(name, byteCode.clone());
+            }
+            return type;
+        }
+    }
+}
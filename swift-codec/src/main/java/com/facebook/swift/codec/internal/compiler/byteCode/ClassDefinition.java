@@ -17,6 +17,7 @@ package com.facebook.swift.codec.internal.compiler.byteCode;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
+import org.objectweb.asm.ClassWriter;
 import org.objectweb.asm.tree.ClassNode;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -81,6 +82,13 @@ public class ClassDefinition
         return classNode;
     }
 
+    public byte[] toByteCode()
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        getClassNode().accept(cw);
+        return cw.toByteArray();
+    }
+
     public ClassDefinition addField(EnumSet<Access> access, String name, ParameterizedType type)
     {
         fields.add(new FieldDefinition(access, name, type));
@@ -56,6 +56,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.Iterables.any;
 import static com.google.common.collect.Iterables.transform;
 
+import static org.objectweb.asm.Opcodes.AALOAD;
 import static org.objectweb.asm.Opcodes.ACONST_NULL;
 import static org.objectweb.asm.Opcodes.ALOAD;
 import static org.objectweb.asm.Opcodes.ARETURN;
@@ -78,6 +79,7 @@ import static org.objectweb.asm.Opcodes.IFEQ;
 import static org.objectweb.asm.Opcodes.IFNONNULL;
 import static org.objectweb.asm.Opcodes.IFNULL;
 import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
 import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
 import static org.objectweb.asm.Opcodes.INVOKESTATIC;
 import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
@@ -380,6 +382,24 @@ public class MethodDefinition
         return this;
     }
 
+    public MethodDefinition invokeStatic(
+            Class<?> type,
+            String name,
+            Class<?> returnType,
+            Class<?>... parameterTypes
+    )
+    {
+        instructionList.add(
+                new MethodInsnNode(
+                        INVOKESTATIC,
+                        type(type).getClassName(),
+                        name,
+                        methodDescription(returnType, parameterTypes)
+                )
+        );
+        return this;
+    }
+
     public MethodDefinition invokeVirtual(Method method)
     {
         instructionList.add(
@@ -393,6 +413,19 @@ public class MethodDefinition
         return this;
     }
 
+    public MethodDefinition invokeInterface(Method method)
+    {
+        instructionList.add(
+                new MethodInsnNode(
+                        INVOKEINTERFACE,
+                        Type.getInternalName(method.getDeclaringClass()),
+                        method.getName(),
+                        Type.getMethodDescriptor(method)
+                )
+        );
+        return this;
+    }
+
     public MethodDefinition invokeVirtual(
             Class<?> type,
             String name,
@@ -603,6 +636,12 @@ public class MethodDefinition
         return this;
     }
 
+    public MethodDefinition loadObjectArrayElement()
+    {
+        instructionList.add(new InsnNode(AALOAD));
+        return this;
+    }
+
     public MethodDefinition addInstruction(AbstractInsnNode node)
     {
         instructionList.add(node);
@@ -42,4 +42,10 @@ public class ReflectionThriftCodecFactory implements ThriftCodecFactory
                 throw new IllegalStateException(format("encountered type %s", metadata.getMetadataType()));
         }
     }
+
+    @Override
+    public boolean canRecreateCodecs()
+    {
+        return true;
+    }
 }
@@ -54,7 +54,7 @@ public class ReflectionThriftStructCodec<T> extends AbstractReflectionThriftCode
     public T read(TProtocol protocol)
             throws Exception
     {
-        TProtocolReader reader = new TProtocolReader(protocol);
+        TProtocolReader reader = TProtocolReader.forProtocol(protocol);
         reader.readStructBegin();
 
         Map<Short, Object> data = new HashMap<>(metadata.getFields().size());
@@ -97,7 +97,7 @@ public class ReflectionThriftStructCodec<T> extends AbstractReflectionThriftCode
     public void write(T instance, TProtocol protocol)
             throws Exception
     {
-        TProtocolWriter writer = new TProtocolWriter(protocol);
+        TProtocolWriter writer = TProtocolWriter.forProtocol(protocol);
         writer.writeStructBegin(metadata.getStructName());
 
         for (ThriftFieldMetadata fieldMetadata : metadata.getFields(THRIFT_FIELD)) {
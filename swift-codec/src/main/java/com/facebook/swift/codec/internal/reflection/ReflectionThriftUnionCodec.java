@@ -65,7 +65,7 @@ public class ReflectionThriftUnionCodec<T> extends AbstractReflectionThriftCodec
     public T read(TProtocol protocol)
             throws Exception
     {
-        TProtocolReader reader = new TProtocolReader(protocol);
+        TProtocolReader reader = TProtocolReader.forProtocol(protocol);
         reader.readStructBegin();
 
         Map.Entry<Short, Object> data = null;
@@ -108,7 +108,7 @@ public class ReflectionThriftUnionCodec<T> extends AbstractReflectionThriftCodec
     public void write(T instance, TProtocol protocol)
             throws Exception
     {
-        TProtocolWriter writer = new TProtocolWriter(protocol);
+        TProtocolWriter writer = TProtocolWriter.forProtocol(protocol);
 
         Short idValue = (Short) getFieldValue(instance, idField.getKey());
 
@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.codec.metadata;
 
+import com.facebook.swift.codec.LazyThriftStruct;
 import com.facebook.swift.codec.ThriftField;
 import com.google.common.base.Function;
 import com.google.common.base.Throwables;
@@ -60,6 +61,7 @@ public final class ReflectionHelper
     private static final Type ITERATOR_TYPE;
     private static final Type ITERATOR_ELEMENT_TYPE;
     private static final Type FUTURE_RETURN_TYPE;
+    private static final Type LAZY_STRUCT_TYPE;
 
     static {
         try {
@@ -72,6 +74,8 @@ public final class ReflectionHelper
 
             Method futureGetMethod = Future.class.getMethod("get");
             FUTURE_RETURN_TYPE = futureGetMethod.getGenericReturnType();
+
+            LAZY_STRUCT_TYPE = LazyThriftStruct.class.getMethod("get").getGenericReturnType();
         }
         catch (Exception e) {
             throw Throwables.propagate(e);
@@ -110,6 +114,11 @@ public final class ReflectionHelper
         return TypeToken.of(type).resolveType(FUTURE_RETURN_TYPE).getType();
     }
 
+    public static Type getLazyStructType(Type type)
+    {
+        return TypeToken.of(type).resolveType(LAZY_STRUCT_TYPE).getType();
+    }
+
     public static <T extends Annotation> Set<T> getEffectiveClassAnnotations(Class<?> type, Class<T> annotation)
     {
         // if the class is directly annotated, it is considered the only annotation
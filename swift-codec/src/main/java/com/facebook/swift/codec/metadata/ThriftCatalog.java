@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.codec.metadata;
 
+import com.facebook.swift.codec.LazyThriftStruct;
 import com.facebook.swift.codec.ThriftDocumentation;
 import com.facebook.swift.codec.ThriftOrder;
 import com.facebook.swift.codec.ThriftProtocolType;
@@ -49,6 +50,7 @@ import java.util.concurrent.ConcurrentMap;
 
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getFutureReturnType;
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getIterableType;
+import static com.facebook.swift.codec.metadata.ReflectionHelper.getLazyStructType;
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getMapKeyType;
 import static com.facebook.swift.codec.metadata.ReflectionHelper.getMapValueType;
 import static com.facebook.swift.codec.metadata.ThriftType.BINARY;
@@ -62,6 +64,7 @@ import static com.facebook.swift.codec.metadata.ThriftType.STRING;
 import static com.facebook.swift.codec.metadata.ThriftType.VOID;
 import static com.facebook.swift.codec.metadata.ThriftType.array;
 import static com.facebook.swift.codec.metadata.ThriftType.enumType;
+import static com.facebook.swift.codec.metadata.ThriftType.lazyStruct;
 import static com.facebook.swift.codec.metadata.ThriftType.list;
 import static com.facebook.swift.codec.metadata.ThriftType.map;
 import static com.facebook.swift.codec.metadata.ThriftType.set;
@@ -329,6 +332,10 @@ public class ThriftCatalog
         if (void.class.isAssignableFrom(rawType) || Void.class.isAssignableFrom(rawType)) {
             return VOID;
         }
+        if (LazyThriftStruct.class == rawType) {
+            ThriftStructMetadata structMetadata = getThriftStructMetadata(getLazyStructType(javaType));
+            return lazyStruct(javaType, structMetadata);
+        }
         if (isStructType(rawType)) {
             ThriftStructMetadata structMetadata = getThriftStructMetadata(javaType);
             // Unions are covered because a union looks like a struct with a single field.
@@ -492,7 +499,7 @@ public class ThriftCatalog
                 return ThriftProtocolType.LIST;
             }
         }
-        if (isStructType(rawType)) {
+        if (isStructType(rawType) || LazyThriftStruct.class == rawType) {
             return ThriftProtocolType.STRUCT;
         }
 
@@ -15,6 +15,7 @@
  */
 package com.facebook.swift.codec.metadata;
 
+import com.facebook.swift.codec.LazyThriftStruct;
 import com.facebook.swift.codec.ThriftProtocolType;
 import com.google.common.base.Preconditions;
 import com.google.common.reflect.TypeParameter;
@@ -64,6 +65,17 @@ public class ThriftType
         return new ThriftType(structMetadata);
     }
 
+    /**
+     * Returns the type of a {@link com.facebook.swift.codec.LazyThriftStruct} java type, which is
+     * encoded exactly like the struct it wraps.
+     */
+    public static ThriftType lazyStruct(Type javaType, ThriftStructMetadata structMetadata)
+    {
+        checkNotNull(javaType, "javaType is null");
+        checkNotNull(structMetadata, "structMetadata is null");
+        return new ThriftType(javaType, structMetadata);
+    }
+
     public static <K, V> ThriftType map(ThriftType keyType, ThriftType valueType)
     {
         checkNotNull(keyType, "keyType is null");
@@ -196,6 +208,17 @@ public class ThriftType
         this.uncoercedType = null;
     }
 
+    private ThriftType(Type javaType, ThriftStructMetadata structMetadata)
+    {
+        this.protocolType = STRUCT;
+        this.javaType = javaType;
+        keyTypeReference = null;
+        valueTypeReference = null;
+        this.structMetadata = structMetadata;
+        this.enumMetadata = null;
+        this.uncoercedType = null;
+    }
+
     private ThriftType(ThriftEnumMetadata<?> enumMetadata)
     {
         Preconditions.checkNotNull(enumMetadata, "enumMetadata is null");
@@ -255,6 +278,11 @@ public class ThriftType
         return enumMetadata;
     }
 
+    public boolean isLazyStruct()
+    {
+        return protocolType == STRUCT && TypeToken.of(javaType).getRawType() == LazyThriftStruct.class;
+    }
+
     public boolean isCoerced()
     {
         return uncoercedType != null;
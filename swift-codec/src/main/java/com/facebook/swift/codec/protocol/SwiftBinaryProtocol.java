@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.protocol;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Binary protocol, wire compatible with {@link TBinaryProtocol}, that implements
+ * {@link TPrimitiveHeaderProtocol} and decodes strings that are not available in the transport
+ * buffer through a reusable scratch array.
+ * <p/>
+ * With zero-copy binary enabled, binary values are read as read-only views over the frame
+ * being decoded (see {@link ZeroCopyInputTransport}), and large binary values are written by
+ * reference (see {@link ZeroCopyOutputTransport}). A value read this way is only guaranteed to
+ * be valid for the request that decoded it, and keeps the whole frame reachable while it is
+ * referenced, so callers that keep it longer should copy it.
+ */
+@NotThreadSafe
+public class SwiftBinaryProtocol
+        extends TBinaryProtocol
+        implements TPrimitiveHeaderProtocol
+{
+    // strings larger than this are read into a new array, so one huge string doesn't pin memory
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private final boolean zeroCopyBinary;
+
+    private short fieldId;
+    private byte[] scratch = new byte[256];
+
+    public SwiftBinaryProtocol(TTransport transport)
+    {
+        this(transport, false, true);
+    }
+
+    public SwiftBinaryProtocol(TTransport transport, boolean strictRead, boolean strictWrite)
+    {
+        this(transport, strictRead, strictWrite, false);
+    }
+
+    public SwiftBinaryProtocol(TTransport transport, boolean strictRead, boolean strictWrite, boolean zeroCopyBinary)
+    {
+        super(transport, strictRead, strictWrite);
+        this.zeroCopyBinary = zeroCopyBinary;
+    }
+
+    @Override
+    public byte readFieldType()
+            throws TException
+    {
+        byte type = readByte();
+        fieldId = (type == TType.STOP) ? 0 : readI16();
+        return type;
+    }
+
+    @Override
+    public short readFieldId()
+    {
+        return fieldId;
+    }
+
+    @Override
+    public int readListSize()
+            throws TException
+    {
+        readByte();
+        return checkSize(readI32());
+    }
+
+    @Override
+    public int readSetSize()
+            throws TException
+    {
+        readByte();
+        return checkSize(readI32());
+    }
+
+    @Override
+    public int readMapSize()
+            throws TException
+    {
+        readByte();
+        readByte();
+        return checkSize(readI32());
+    }
+
+    @Override
+    public void writeFieldHeader(byte type, short id)
+            throws TException
+    {
+        writeByte(type);
+        writeI16(id);
+    }
+
+    @Override
+    public void writeListHeader(byte elementType, int size)
+            throws TException
+    {
+        writeByte(elementType);
+        writeI32(size);
+    }
+
+    @Override
+    public void writeSetHeader(byte elementType, int size)
+            throws TException
+    {
+        writeByte(elementType);
+        writeI32(size);
+    }
+
+    @Override
+    public void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        writeByte(keyType);
+        writeByte(valueType);
+        writeI32(size);
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        int size = checkSize(readI32());
+
+        if (trans_.getBytesRemainingInBuffer() >= size) {
+            String value = new String(trans_.getBuffer(), trans_.getBufferPosition(), size, UTF_8);
+            trans_.consumeBuffer(size);
+            return value;
+        }
+
+        if (size > MAX_SCRATCH_SIZE) {
+            return readStringBody(size);
+        }
+        if (scratch.length < size) {
+            scratch = new byte[Math.max(size, Math.min(scratch.length * 2, MAX_SCRATCH_SIZE))];
+        }
+        trans_.readAll(scratch, 0, size);
+        return new String(scratch, 0, size, UTF_8);
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        if (!zeroCopyBinary) {
+            return super.readBinary();
+        }
+        return ZeroCopyBinary.readBinary(trans_, checkSize(readI32()), true);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer value)
+            throws TException
+    {
+        writeI32(value.remaining());
+        ZeroCopyBinary.writeBinary(trans_, value, zeroCopyBinary);
+    }
+
+    private static int checkSize(int size)
+            throws TProtocolException
+    {
+        if (size < 0) {
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: " + size);
+        }
+        return size;
+    }
+
+    public static class Factory
+            implements TProtocolFactory
+    {
+        private final boolean strictRead;
+        private final boolean strictWrite;
+        private final boolean zeroCopyBinary;
+
+        public Factory()
+        {
+            this(false, true);
+        }
+
+        public Factory(boolean strictRead, boolean strictWrite)
+        {
+            this(strictRead, strictWrite, false);
+        }
+
+        public Factory(boolean strictRead, boolean strictWrite, boolean zeroCopyBinary)
+        {
+            this.strictRead = strictRead;
+            this.strictWrite = strictWrite;
+            this.zeroCopyBinary = zeroCopyBinary;
+        }
+
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new SwiftBinaryProtocol(transport, strictRead, strictWrite, zeroCopyBinary);
+        }
+    }
+}
@@ -0,0 +1,785 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.protocol;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TTransport;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compact protocol, wire compatible with {@link org.apache.thrift.protocol.TCompactProtocol},
+ * that implements {@link TPrimitiveHeaderProtocol}. The libthrift implementation keeps its field
+ * id state private, so this is a complete implementation rather than a subclass.
+ * <p/>
+ * Zero-copy binary works as described in {@link SwiftBinaryProtocol}.
+ */
+@NotThreadSafe
+public class SwiftCompactProtocol
+        extends TProtocol
+        implements TPrimitiveHeaderProtocol
+{
+    private static final TStruct ANONYMOUS_STRUCT = new TStruct("");
+    private static final TField STOP_FIELD = new TField("", TType.STOP, (short) 0);
+
+    private static final byte PROTOCOL_ID = (byte) 0x82;
+    private static final byte VERSION = 1;
+    private static final byte VERSION_MASK = 0x1f;
+    private static final byte TYPE_MASK = (byte) 0xE0;
+    private static final byte TYPE_BITS = 0x07;
+    private static final int TYPE_SHIFT_AMOUNT = 5;
+
+    private static final byte COMPACT_STOP = 0x00;
+    private static final byte COMPACT_BOOLEAN_TRUE = 0x01;
+    private static final byte COMPACT_BOOLEAN_FALSE = 0x02;
+    private static final byte COMPACT_BYTE = 0x03;
+    private static final byte COMPACT_I16 = 0x04;
+    private static final byte COMPACT_I32 = 0x05;
+    private static final byte COMPACT_I64 = 0x06;
+    private static final byte COMPACT_DOUBLE = 0x07;
+    private static final byte COMPACT_BINARY = 0x08;
+    private static final byte COMPACT_LIST = 0x09;
+    private static final byte COMPACT_SET = 0x0A;
+    private static final byte COMPACT_MAP = 0x0B;
+    private static final byte COMPACT_STRUCT = 0x0C;
+
+    // strings larger than this are read into a new array, so one huge string doesn't pin memory
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private static final byte NO_BOOLEAN = -1;
+
+    // field ids of the enclosing structs, used to encode field id deltas
+    private short[] fieldIdStack = new short[16];
+    private int fieldIdStackSize;
+    private short lastFieldId;
+
+    // read side: id of the last field header, and the value of a bool field encoded in its header
+    private short fieldId;
+    private byte booleanValue = NO_BOOLEAN;
+
+    // write side: a bool field header is written along with its value
+    private boolean booleanFieldPending;
+    private short booleanFieldId;
+
+    private final boolean zeroCopyBinary;
+
+    private final byte[] buffer = new byte[10];
+    private byte[] scratch = new byte[256];
+
+    public SwiftCompactProtocol(TTransport transport)
+    {
+        this(transport, false);
+    }
+
+    public SwiftCompactProtocol(TTransport transport, boolean zeroCopyBinary)
+    {
+        super(transport);
+        this.zeroCopyBinary = zeroCopyBinary;
+    }
+
+    @Override
+    public void reset()
+    {
+        fieldIdStackSize = 0;
+        lastFieldId = 0;
+        booleanValue = NO_BOOLEAN;
+        booleanFieldPending = false;
+    }
+
+    //
+    // Primitive headers
+    //
+
+    @Override
+    public byte readFieldType()
+            throws TException
+    {
+        byte header = readByte();
+        if (header == COMPACT_STOP) {
+            fieldId = 0;
+            return TType.STOP;
+        }
+
+        byte compactType = (byte) (header & 0x0f);
+        int delta = (header & 0xf0) >> 4;
+        fieldId = (delta == 0) ? readI16() : (short) (lastFieldId + delta);
+        lastFieldId = fieldId;
+
+        if (compactType == COMPACT_BOOLEAN_TRUE) {
+            booleanValue = 1;
+        }
+        else if (compactType == COMPACT_BOOLEAN_FALSE) {
+            booleanValue = 0;
+        }
+        return toTType(compactType);
+    }
+
+    @Override
+    public short readFieldId()
+    {
+        return fieldId;
+    }
+
+    @Override
+    public int readListSize()
+            throws TException
+    {
+        byte sizeAndType = readByte();
+        int size = (sizeAndType >> 4) & 0x0f;
+        if (size == 15) {
+            size = checkSize(readVarint32());
+        }
+        return size;
+    }
+
+    @Override
+    public int readSetSize()
+            throws TException
+    {
+        return readListSize();
+    }
+
+    @Override
+    public int readMapSize()
+            throws TException
+    {
+        int size = checkSize(readVarint32());
+        if (size != 0) {
+            // key and value types
+            readByte();
+        }
+        return size;
+    }
+
+    @Override
+    public void writeFieldHeader(byte type, short id)
+            throws TException
+    {
+        if (type == TType.BOOL) {
+            booleanFieldPending = true;
+            booleanFieldId = id;
+        }
+        else {
+            writeCompactFieldHeader(toCompactType(type), id);
+        }
+    }
+
+    @Override
+    public void writeListHeader(byte elementType, int size)
+            throws TException
+    {
+        if (size <= 14) {
+            writeByte((byte) (size << 4 | toCompactType(elementType)));
+        }
+        else {
+            writeByte((byte) (0xf0 | toCompactType(elementType)));
+            writeVarint32(size);
+        }
+    }
+
+    @Override
+    public void writeSetHeader(byte elementType, int size)
+            throws TException
+    {
+        writeListHeader(elementType, size);
+    }
+
+    @Override
+    public void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException
+    {
+        if (size == 0) {
+            writeByte((byte) 0);
+        }
+        else {
+            writeVarint32(size);
+            writeByte((byte) (toCompactType(keyType) << 4 | toCompactType(valueType)));
+        }
+    }
+
+    private void writeCompactFieldHeader(byte compactType, short id)
+            throws TException
+    {
+        if (id > lastFieldId && id - lastFieldId <= 15) {
+            writeByte((byte) ((id - lastFieldId) << 4 | compactType));
+        }
+        else {
+            writeByte(compactType);
+            writeI16(id);
+        }
+        lastFieldId = id;
+    }
+
+    //
+    // TProtocol write
+    //
+
+    @Override
+    public void writeMessageBegin(TMessage message)
+            throws TException
+    {
+        writeByte(PROTOCOL_ID);
+        writeByte((byte) ((VERSION & VERSION_MASK) | ((message.type << TYPE_SHIFT_AMOUNT) & TYPE_MASK)));
+        writeVarint32(message.seqid);
+        writeString(message.name);
+    }
+
+    @Override
+    public void writeMessageEnd()
+    {
+    }
+
+    @Override
+    public void writeStructBegin(TStruct struct)
+    {
+        pushFieldId();
+    }
+
+    @Override
+    public void writeStructEnd()
+    {
+        popFieldId();
+    }
+
+    @Override
+    public void writeFieldBegin(TField field)
+            throws TException
+    {
+        writeFieldHeader(field.type, field.id);
+    }
+
+    @Override
+    public void writeFieldEnd()
+    {
+    }
+
+    @Override
+    public void writeFieldStop()
+            throws TException
+    {
+        writeByte(COMPACT_STOP);
+    }
+
+    @Override
+    public void writeMapBegin(TMap map)
+            throws TException
+    {
+        writeMapHeader(map.keyType, map.valueType, map.size);
+    }
+
+    @Override
+    public void writeMapEnd()
+    {
+    }
+
+    @Override
+    public void writeListBegin(TList list)
+            throws TException
+    {
+        writeListHeader(list.elemType, list.size);
+    }
+
+    @Override
+    public void writeListEnd()
+    {
+    }
+
+    @Override
+    public void writeSetBegin(TSet set)
+            throws TException
+    {
+        writeSetHeader(set.elemType, set.size);
+    }
+
+    @Override
+    public void writeSetEnd()
+    {
+    }
+
+    @Override
+    public void writeBool(boolean value)
+            throws TException
+    {
+        byte compactType = value ? COMPACT_BOOLEAN_TRUE : COMPACT_BOOLEAN_FALSE;
+        if (booleanFieldPending) {
+            booleanFieldPending = false;
+            writeCompactFieldHeader(compactType, booleanFieldId);
+        }
+        else {
+            writeByte(compactType);
+        }
+    }
+
+    @Override
+    public void writeByte(byte value)
+            throws TException
+    {
+        buffer[0] = value;
+        trans_.write(buffer, 0, 1);
+    }
+
+    @Override
+    public void writeI16(short value)
+            throws TException
+    {
+        writeVarint32(intToZigZag(value));
+    }
+
+    @Override
+    public void writeI32(int value)
+            throws TException
+    {
+        writeVarint32(intToZigZag(value));
+    }
+
+    @Override
+    public void writeI64(long value)
+            throws TException
+    {
+        writeVarint64(longToZigZag(value));
+    }
+
+    @Override
+    public void writeDouble(double value)
+            throws TException
+    {
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[i] = (byte) (bits >> (8 * i));
+        }
+        trans_.write(buffer, 0, 8);
+    }
+
+    @Override
+    public void writeString(String value)
+            throws TException
+    {
+        byte[] bytes = value.getBytes(UTF_8);
+        writeVarint32(bytes.length);
+        trans_.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void writeBinary(ByteBuffer value)
+            throws TException
+    {
+        writeVarint32(value.remaining());
+        ZeroCopyBinary.writeBinary(trans_, value, zeroCopyBinary);
+    }
+
+    //
+    // TProtocol read
+    //
+
+    @Override
+    public TMessage readMessageBegin()
+            throws TException
+    {
+        byte protocolId = readByte();
+        if (protocolId != PROTOCOL_ID) {
+            throw new TProtocolException(String.format("Expected protocol id %x but got %x", PROTOCOL_ID, protocolId));
+        }
+        byte versionAndType = readByte();
+        byte version = (byte) (versionAndType & VERSION_MASK);
+        if (version != VERSION) {
+            throw new TProtocolException(String.format("Expected version %s but got %s", VERSION, version));
+        }
+        byte type = (byte) ((versionAndType >> TYPE_SHIFT_AMOUNT) & TYPE_BITS);
+        int sequenceId = readVarint32();
+        String name = readString();
+        return new TMessage(name, type, sequenceId);
+    }
+
+    @Override
+    public void readMessageEnd()
+    {
+    }
+
+    @Override
+    public TStruct readStructBegin()
+    {
+        pushFieldId();
+        return ANONYMOUS_STRUCT;
+    }
+
+    @Override
+    public void readStructEnd()
+    {
+        popFieldId();
+    }
+
+    @Override
+    public TField readFieldBegin()
+            throws TException
+    {
+        byte type = readFieldType();
+        if (type == TType.STOP) {
+            return STOP_FIELD;
+        }
+        return new TField("", type, fieldId);
+    }
+
+    @Override
+    public void readFieldEnd()
+    {
+    }
+
+    @Override
+    public TMap readMapBegin()
+            throws TException
+    {
+        int size = checkSize(readVarint32());
+        byte keyAndValueType = (size == 0) ? 0 : readByte();
+        return new TMap(toTType((byte) (keyAndValueType >> 4)), toTType((byte) (keyAndValueType & 0x0f)), size);
+    }
+
+    @Override
+    public void readMapEnd()
+    {
+    }
+
+    @Override
+    public TList readListBegin()
+            throws TException
+    {
+        byte sizeAndType = readByte();
+        int size = (sizeAndType >> 4) & 0x0f;
+        if (size == 15) {
+            size = checkSize(readVarint32());
+        }
+        return new TList(toTType(sizeAndType), size);
+    }
+
+    @Override
+    public void readListEnd()
+    {
+    }
+
+    @Override
+    public TSet readSetBegin()
+            throws TException
+    {
+        TList list = readListBegin();
+        return new TSet(list.elemType, list.size);
+    }
+
+    @Override
+    public void readSetEnd()
+    {
+    }
+
+    @Override
+    public boolean readBool()
+            throws TException
+    {
+        if (booleanValue != NO_BOOLEAN) {
+            boolean value = booleanValue == 1;
+            booleanValue = NO_BOOLEAN;
+            return value;
+        }
+        return readByte() == COMPACT_BOOLEAN_TRUE;
+    }
+
+    @Override
+    public byte readByte()
+            throws TException
+    {
+        if (trans_.getBytesRemainingInBuffer() > 0) {
+            byte value = trans_.getBuffer()[trans_.getBufferPosition()];
+            trans_.consumeBuffer(1);
+            return value;
+        }
+        trans_.readAll(buffer, 0, 1);
+        return buffer[0];
+    }
+
+    @Override
+    public short readI16()
+            throws TException
+    {
+        return (short) zigZagToInt(readVarint32());
+    }
+
+    @Override
+    public int readI32()
+            throws TException
+    {
+        return zigZagToInt(readVarint32());
+    }
+
+    @Override
+    public long readI64()
+            throws TException
+    {
+        return zigZagToLong(readVarint64());
+    }
+
+    @Override
+    public double readDouble()
+            throws TException
+    {
+        trans_.readAll(buffer, 0, 8);
+        long bits = 0;
+        for (int i = 7; i >= 0; i--) {
+            bits = (bits << 8) | (buffer[i] & 0xff);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    @Override
+    public String readString()
+            throws TException
+    {
+        int size = checkSize(readVarint32());
+        if (size == 0) {
+            return "";
+        }
+
+        if (trans_.getBytesRemainingInBuffer() >= size) {
+            String value = new String(trans_.getBuffer(), trans_.getBufferPosition(), size, UTF_8);
+            trans_.consumeBuffer(size);
+            return value;
+        }
+
+        if (size > MAX_SCRATCH_SIZE) {
+            byte[] bytes = new byte[size];
+            trans_.readAll(bytes, 0, size);
+            return new String(bytes, UTF_8);
+        }
+        if (scratch.length < size) {
+            scratch = new byte[Math.max(size, Math.min(scratch.length * 2, MAX_SCRATCH_SIZE))];
+        }
+        trans_.readAll(scratch, 0, size);
+        return new String(scratch, 0, size, UTF_8);
+    }
+
+    @Override
+    public ByteBuffer readBinary()
+            throws TException
+    {
+        return ZeroCopyBinary.readBinary(trans_, checkSize(readVarint32()), zeroCopyBinary);
+    }
+
+    //
+    // Encoding helpers
+    //
+
+    private void pushFieldId()
+    {
+        if (fieldIdStackSize == fieldIdStack.length) {
+            fieldIdStack = Arrays.copyOf(fieldIdStack, fieldIdStack.length * 2);
+        }
+        fieldIdStack[fieldIdStackSize++] = lastFieldId;
+        lastFieldId = 0;
+    }
+
+    private void popFieldId()
+    {
+        lastFieldId = fieldIdStack[--fieldIdStackSize];
+    }
+
+    private void writeVarint32(int value)
+            throws TException
+    {
+        int index = 0;
+        while ((value & ~0x7F) != 0) {
+            buffer[index++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[index++] = (byte) value;
+        trans_.write(buffer, 0, index);
+    }
+
+    private void writeVarint64(long value)
+            throws TException
+    {
+        int index = 0;
+        while ((value & ~0x7FL) != 0) {
+            buffer[index++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[index++] = (byte) value;
+        trans_.write(buffer, 0, index);
+    }
+
+    private int readVarint32()
+            throws TException
+    {
+        int result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = readByte();
+            result |= (b & 0x7f) << shift;
+            if ((b & 0x80) != 0x80) {
+                return result;
+            }
+            shift += 7;
+            if (shift > 28) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length int is too long");
+            }
+        }
+    }
+
+    private long readVarint64()
+            throws TException
+    {
+        long result = 0;
+        int shift = 0;
+        while (true) {
+            byte b = readByte();
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) != 0x80) {
+                return result;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Variable length long is too long");
+            }
+        }
+    }
+
+    private static int intToZigZag(int value)
+    {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long longToZigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int zigZagToInt(int value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigZagToLong(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int checkSize(int size)
+            throws TProtocolException
+    {
+        if (size < 0) {
+            throw new TProtocolException(TProtocolException.NEGATIVE_SIZE, "Negative length: " + size);
+        }
+        return size;
+    }
+
+    private static byte toTType(byte compactType)
+            throws TProtocolException
+    {
+        switch ((byte) (compactType & 0x0f)) {
+            case COMPACT_STOP:
+                return TType.STOP;
+            case COMPACT_BOOLEAN_TRUE:
+            case COMPACT_BOOLEAN_FALSE:
+                return TType.BOOL;
+            case COMPACT_BYTE:
+                return TType.BYTE;
+            case COMPACT_I16:
+                return TType.I16;
+            case COMPACT_I32:
+                return TType.I32;
+            case COMPACT_I64:
+                return TType.I64;
+            case COMPACT_DOUBLE:
+                return TType.DOUBLE;
+            case COMPACT_BINARY:
+                return TType.STRING;
+            case COMPACT_LIST:
+                return TType.LIST;
+            case COMPACT_SET:
+                return TType.SET;
+            case COMPACT_MAP:
+                return TType.MAP;
+            case COMPACT_STRUCT:
+                return TType.STRUCT;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Unknown compact type: " + (compactType & 0x0f));
+        }
+    }
+
+    private static byte toCompactType(byte type)
+            throws TProtocolException
+    {
+        switch (type) {
+            case TType.STOP:
+                return COMPACT_STOP;
+            case TType.BOOL:
+                return COMPACT_BOOLEAN_TRUE;
+            case TType.BYTE:
+                return COMPACT_BYTE;
+            case TType.I16:
+                return COMPACT_I16;
+            case TType.I32:
+                return COMPACT_I32;
+            case TType.I64:
+                return COMPACT_I64;
+            case TType.DOUBLE:
+                return COMPACT_DOUBLE;
+            case TType.STRING:
+                return COMPACT_BINARY;
+            case TType.LIST:
+                return COMPACT_LIST;
+            case TType.SET:
+                return COMPACT_SET;
+            case TType.MAP:
+                return COMPACT_MAP;
+            case TType.STRUCT:
+                return COMPACT_STRUCT;
+            default:
+                throw new TProtocolException(TProtocolException.INVALID_DATA, "Unknown type: " + type);
+        }
+    }
+
+    public static class Factory
+            implements TProtocolFactory
+    {
+        private final boolean zeroCopyBinary;
+
+        public Factory()
+        {
+            this(false);
+        }
+
+        public Factory(boolean zeroCopyBinary)
+        {
+            this.zeroCopyBinary = zeroCopyBinary;
+        }
+
+        @Override
+        public TProtocol getProtocol(TTransport transport)
+        {
+            return new SwiftCompactProtocol(transport, zeroCopyBinary);
+        }
+    }
+}
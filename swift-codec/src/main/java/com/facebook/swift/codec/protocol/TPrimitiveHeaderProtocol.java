@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.protocol;
+
+import org.apache.thrift.TException;
+
+/**
+ * Header operations for a {@link org.apache.thrift.protocol.TProtocol} that pass primitives
+ * instead of {@link org.apache.thrift.protocol.TField}, {@link org.apache.thrift.protocol.TList},
+ * {@link org.apache.thrift.protocol.TSet} and {@link org.apache.thrift.protocol.TMap} objects.
+ * {@link com.facebook.swift.codec.internal.TProtocolReader} and
+ * {@link com.facebook.swift.codec.internal.TProtocolWriter} use these methods when the protocol
+ * implements this interface, so decoding and encoding a struct allocates no header objects.
+ * <p/>
+ * Each method is interchangeable with its TProtocol counterpart; for example a field header
+ * written with {@link #writeFieldHeader} must be ended with
+ * {@link org.apache.thrift.protocol.TProtocol#writeFieldEnd}.
+ */
+public interface TPrimitiveHeaderProtocol
+{
+    /**
+     * Reads the next field header and returns the field type, or
+     * {@link org.apache.thrift.protocol.TType#STOP} at the end of the struct.
+     */
+    byte readFieldType()
+            throws TException;
+
+    /**
+     * Returns the id of the field header last read by {@link #readFieldType}. This does not read
+     * from the transport.
+     */
+    short readFieldId();
+
+    /**
+     * Reads a list header and returns the number of elements.
+     */
+    int readListSize()
+            throws TException;
+
+    /**
+     * Reads a set header and returns the number of elements.
+     */
+    int readSetSize()
+            throws TException;
+
+    /**
+     * Reads a map header and returns the number of entries.
+     */
+    int readMapSize()
+            throws TException;
+
+    void writeFieldHeader(byte type, short id)
+            throws TException;
+
+    void writeListHeader(byte elementType, int size)
+            throws TException;
+
+    void writeSetHeader(byte elementType, int size)
+            throws TException;
+
+    void writeMapHeader(byte keyType, byte valueType, int size)
+            throws TException;
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.protocol;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Binary body reads and writes shared by the Swift protocols.
+ */
+final class ZeroCopyBinary
+{
+    // smaller buffers are cheaper to copy than to carry as a separate piece of the frame
+    static final int MIN_APPEND_SIZE = 4 * 1024;
+
+    private ZeroCopyBinary()
+    {
+    }
+
+    /**
+     * Reads a binary body of the given size, as a read-only view over the transport's frame if
+     * {@code zeroCopy} is set and the transport allows it, and otherwise as a copy.
+     */
+    static ByteBuffer readBinary(TTransport transport, int size, boolean zeroCopy)
+            throws TException
+    {
+        if (zeroCopy) {
+            if (transport instanceof ZeroCopyInputTransport) {
+                ByteBuffer slice = ((ZeroCopyInputTransport) transport).readSlice(size);
+                if (slice != null) {
+                    return slice;
+                }
+            }
+            if (transport.getBytesRemainingInBuffer() >= size) {
+                ByteBuffer slice = ByteBuffer.wrap(transport.getBuffer(), transport.getBufferPosition(), size).slice().asReadOnlyBuffer();
+                transport.consumeBuffer(size);
+                return slice;
+            }
+        }
+
+        byte[] bytes = new byte[size];
+        if (size > 0) {
+            transport.readAll(bytes, 0, size);
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Writes the remaining bytes of the buffer without changing its position. If {@code zeroCopy}
+     * is set and the buffer is large enough, it is appended to the frame by reference.
+     */
+    static void writeBinary(TTransport transport, ByteBuffer value, boolean zeroCopy)
+            throws TException
+    {
+        int length = value.remaining();
+        if (zeroCopy && length >= MIN_APPEND_SIZE && transport instanceof ZeroCopyOutputTransport) {
+            ((ZeroCopyOutputTransport) transport).writeBuffer(value);
+        }
+        else if (value.hasArray()) {
+            transport.write(value.array(), value.arrayOffset() + value.position(), length);
+        }
+        else {
+            byte[] bytes = new byte[length];
+            value.duplicate().get(bytes);
+            transport.write(bytes, 0, length);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.protocol;
+
+import org.apache.thrift.transport.TTransportException;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An input transport that can return binary data as a view over the frame it is reading,
+ * instead of copying it. Used by the Swift protocols when zero-copy binary is enabled.
+ */
+public interface ZeroCopyInputTransport
+{
+    /**
+     * Consumes the next {@code length} bytes and returns them as a read-only buffer that shares
+     * memory with the frame being read, or returns {@code null}, without consuming anything, if
+     * the bytes can't be sliced.
+     */
+    ByteBuffer readSlice(int length)
+            throws TTransportException;
+}
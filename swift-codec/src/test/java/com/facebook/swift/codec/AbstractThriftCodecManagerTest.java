@@ -27,6 +27,8 @@ import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
 import com.facebook.swift.codec.metadata.ThriftCatalog;
 import com.facebook.swift.codec.metadata.ThriftStructMetadata;
 import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.codec.protocol.SwiftBinaryProtocol;
+import com.facebook.swift.codec.protocol.SwiftCompactProtocol;
 import com.facebook.swift.codec.recursion.*;
 import com.google.common.collect.HashBiMap;
 import com.google.common.collect.ImmutableList;
@@ -34,16 +36,21 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.reflect.TypeToken;
+import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.protocol.TJSONProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TFastFramedTransport;
 import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.lang.reflect.Type;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -274,6 +281,8 @@ public abstract class AbstractThriftCodecManagerTest
 
         testRoundTripSerialize(arrayField, new TCompactProtocol.Factory());
         testRoundTripSerialize(arrayField, new TJSONProtocol.Factory());
+        testRoundTripSerialize(arrayField, new SwiftBinaryProtocol.Factory());
+        testRoundTripSerialize(arrayField, new SwiftCompactProtocol.Factory());
     }
 
     @Test
@@ -283,6 +292,87 @@ public abstract class AbstractThriftCodecManagerTest
         OneOfEverything one = createOneOfEverything();
         testRoundTripSerialize(one, new TCompactProtocol.Factory());
         testRoundTripSerialize(one, new TJSONProtocol.Factory());
+        testRoundTripSerialize(one, new SwiftBinaryProtocol.Factory());
+        testRoundTripSerialize(one, new SwiftCompactProtocol.Factory());
+    }
+
+    @Test
+    public void testSwiftProtocolsWireCompatible()
+            throws Exception
+    {
+        OneOfEverything one = createOneOfEverything();
+        testWireCompatible(one, new TBinaryProtocol.Factory(), new SwiftBinaryProtocol.Factory());
+        testWireCompatible(one, new TCompactProtocol.Factory(), new SwiftCompactProtocol.Factory());
+
+        OneOfEverything empty = new OneOfEverything();
+        testWireCompatible(empty, new TBinaryProtocol.Factory(), new SwiftBinaryProtocol.Factory());
+        testWireCompatible(empty, new TCompactProtocol.Factory(), new SwiftCompactProtocol.Factory());
+    }
+
+    @Test
+    public void testLazyStruct()
+            throws Exception
+    {
+        OneOfEverything one = createOneOfEverything();
+        testLazyStruct(one, new SwiftBinaryProtocol.Factory(), new TBinaryProtocol.Factory(), true);
+        testLazyStruct(one, new TCompactProtocol.Factory(), new SwiftCompactProtocol.Factory(), true);
+        testLazyStruct(one, new TBinaryProtocol.Factory(), new TCompactProtocol.Factory(), false);
+        testLazyStruct(one, new SwiftCompactProtocol.Factory(), new TJSONProtocol.Factory(), false);
+        testLazyStruct(one, new TJSONProtocol.Factory(), new TBinaryProtocol.Factory(), false);
+        testLazyStruct(new OneOfEverything(), new TCompactProtocol.Factory(), new TCompactProtocol.Factory(), true);
+    }
+
+    @Test
+    public void testLazyStructOnRefilledTransport()
+            throws Exception
+    {
+        OneOfEverything first = createOneOfEverything();
+        OneOfEverything second = createOneOfEverything();
+        second.aString = "changed";
+        second.aStruct = new BonkField("banana", 77);
+
+        // each frame starts with a sequence number, like the message header of a call
+        TMemoryBuffer frames = new TMemoryBuffer(10 * 1024);
+        TProtocol output = new TCompactProtocol(new TFastFramedTransport(frames));
+        output.writeI32(1);
+        writeCodecManager.getCodec(OneOfEverything.class).write(first, output);
+        output.getTransport().flush();
+        output.writeI32(2);
+        writeCodecManager.getCodec(OneOfEverything.class).write(second, output);
+        output.getTransport().flush();
+
+        // the fast framed transport reads each frame into the same array
+        ThriftCodec<LazyThriftStruct<OneOfEverything>> lazyCodec = readCodecManager.getCodec(new TypeToken<LazyThriftStruct<OneOfEverything>>() {});
+        TProtocol input = new TCompactProtocol(new TFastFramedTransport(frames));
+        assertEquals(input.readI32(), 1);
+        LazyThriftStruct<OneOfEverything> firstLazy = lazyCodec.read(input);
+        assertEquals(input.readI32(), 2);
+        LazyThriftStruct<OneOfEverything> secondLazy = lazyCodec.read(input);
+
+        assertEquals(firstLazy.getField((short) 7), first.aString);
+        assertEquals(firstLazy.get(), first);
+        assertEquals(secondLazy.get(), second);
+    }
+
+    @Test
+    public void testLazyStructField()
+            throws Exception
+    {
+        OneOfEverything one = createOneOfEverything();
+
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        writeCodecManager.getCodec(OneOfEverything.class).write(one, new TCompactProtocol(transport));
+        TMemoryInputTransport input = new TMemoryInputTransport(Arrays.copyOf(transport.getArray(), transport.length()));
+        LazyStructField lazy = readCodecManager.getCodec(LazyStructField.class).read(new TCompactProtocol(input));
+
+        assertEquals(lazy.aString, one.aString);
+        assertEquals(lazy.aStruct.get(), one.aStruct);
+
+        TMemoryBuffer output = new TMemoryBuffer(10 * 1024);
+        readCodecManager.getCodec(LazyStructField.class).write(lazy, new TCompactProtocol(output));
+        OneOfEverything copy = readCodecManager.getCodec(OneOfEverything.class).read(new TCompactProtocol(output));
+        assertEquals(copy.aString, one.aString);
+        assertEquals(copy.aStruct, one.aStruct);
     }
 
     @Test
@@ -329,6 +419,7 @@ public abstract class AbstractThriftCodecManagerTest
         OneOfEverything one = new OneOfEverything();
         testRoundTripSerialize(one, new TCompactProtocol.Factory());
         testRoundTripSerialize(one, new TJSONProtocol.Factory());
+        testRoundTripSerialize(one, new SwiftCompactProtocol.Factory());
     }
 
     @Test
@@ -661,6 +752,71 @@ public abstract class AbstractThriftCodecManagerTest
         return copy;
     }
 
+    private <T> void testWireCompatible(T value, TProtocolFactory thriftProtocolFactory, TProtocolFactory swiftProtocolFactory)
+            throws Exception
+    {
+        ThriftCodec<T> writeCodec = (ThriftCodec<T>) writeCodecManager.getCodec(value.getClass());
+        ThriftCodec<T> readCodec = (ThriftCodec<T>) readCodecManager.getCodec(value.getClass());
+
+        TMemoryBuffer thriftTransport = new TMemoryBuffer(10 * 1024);
+        writeCodec.write(value, thriftProtocolFactory.getProtocol(thriftTransport));
+        TMemoryBuffer swiftTransport = new TMemoryBuffer(10 * 1024);
+        writeCodec.write(value, swiftProtocolFactory.getProtocol(swiftTransport));
+
+        // both protocols must produce the same bytes...
+        assertEquals(
+                Arrays.copyOf(swiftTransport.getArray(), swiftTransport.length()),
+                Arrays.copyOf(thriftTransport.getArray(), thriftTransport.length()));
+
+        // ...and each must read what the other wrote
+        assertEquals(readCodec.read(swiftProtocolFactory.getProtocol(thriftTransport)), value);
+        assertEquals(readCodec.read(thriftProtocolFactory.getProtocol(swiftTransport)), value);
+    }
+
+    private void testLazyStruct(OneOfEverything value, TProtocolFactory readProtocolFactory, TProtocolFactory writeProtocolFactory, boolean sameEncoding)
+            throws Exception
+    {
+        ThriftCodec<OneOfEverything> writeCodec = writeCodecManager.getCodec(OneOfEverything.class);
+        ThriftCodec<OneOfEverything> readCodec = readCodecManager.getCodec(OneOfEverything.class);
+        ThriftCodec<LazyThriftStruct<OneOfEverything>> lazyCodec = readCodecManager.getCodec(new TypeToken<LazyThriftStruct<OneOfEverything>>() {});
+
+        TMemoryBuffer transport = new TMemoryBuffer(10 * 1024);
+        writeCodec.write(value, readProtocolFactory.getProtocol(transport));
+        byte[] encoded = Arrays.copyOf(transport.getArray(), transport.length());
+
+        // a memory buffer does not expose its buffer, so the lazy codec must copy the struct
+        TTransport input = (readProtocolFactory instanceof TJSONProtocol.Factory) ? transport : new TMemoryInputTransport(encoded);
+        LazyThriftStruct<OneOfEverything> lazy = lazyCodec.read(readProtocolFactory.getProtocol(input));
+
+        assertEquals(lazy.isFieldSet((short) 7), value.aString != null);
+        assertEquals(lazy.getField((short) 1), value.aBoolean);
+        assertEquals(lazy.getField((short) 7), value.aString);
+        assertEquals(lazy.getField((short) 8), value.aStruct);
+        assertEquals(lazy.get(), value);
+
+        // unchanged fields are copied verbatim when the encoding is the same, and transcoded otherwise
+        TMemoryBuffer output = new TMemoryBuffer(10 * 1024);
+        lazyCodec.write(lazy, writeProtocolFactory.getProtocol(output));
+        assertEquals(readCodec.read(writeProtocolFactory.getProtocol(output)), value);
+        if (sameEncoding) {
+            assertEquals(Arrays.copyOf(output.getArray(), output.length()), encoded);
+        }
+
+        // changed fields are encoded from their new value
+        OneOfEverything expected = lazy.get();
+        expected.aString = "changed";
+        expected.aStruct = null;
+        lazy.setField((short) 7, "changed");
+        lazy.setField((short) 8, null);
+        assertEquals(lazy.getField((short) 7), "changed");
+        assertEquals(lazy.isFieldSet((short) 8), false);
+        assertEquals(lazy.get(), expected);
+
+        output = new TMemoryBuffer(10 * 1024);
+        lazyCodec.write(lazy, writeProtocolFactory.getProtocol(output));
+        assertEquals(readCodec.read(writeProtocolFactory.getProtocol(output)), expected);
+    }
+
     private OneOfEverything createOneOfEverything()
     {
         OneOfEverything one = new OneOfEverything();
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec;
+
+import com.facebook.swift.codec.recursion.CoRecursive;
+import com.facebook.swift.codec.recursion.CoRecursiveHelper;
+import com.facebook.swift.codec.recursion.CoRecursiveTree;
+import com.facebook.swift.codec.recursion.CoRecursiveTreeHelper;
+import com.facebook.swift.codec.recursion.RecursiveUnion;
+import com.facebook.swift.codec.recursion.ViaListElementType;
+import com.google.common.collect.ImmutableList;
+import com.google.common.reflect.TypeToken;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestThriftCodecWarmup
+{
+    private ForkJoinPool pool;
+    private ThriftCodecManager codecManager;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        pool = new ForkJoinPool(4);
+        codecManager = new ThriftCodecManager();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void testReachableTypesAreBuilt()
+    {
+        Type bonkFields = new TypeToken<List<BonkField>>() {}.getType();
+        ThriftCodecWarmup.Report report = new ThriftCodecWarmup(codecManager, pool).warmUp(ImmutableList.of(
+                OneOfEverything.class,
+                bonkFields,
+                void.class));
+
+        assertEquals(report.getTypeMetadataNanos().keySet(), ImmutableList.of(OneOfEverything.class, bonkFields, void.class));
+        for (Type type : ImmutableList.of(OneOfEverything.class, BonkField.class, UnionField.class, bonkFields)) {
+            assertNotNull(codecManager.getCachedCodecIfPresent(type), type.toString());
+        }
+        assertTrue(report.getTypeCodecNanos().containsKey(BonkField.class));
+        assertTrue(report.getTypeCodecNanos().containsKey(OneOfEverything.class));
+    }
+
+    @Test
+    public void testRecursiveTypes()
+            throws Exception
+    {
+        // warm up every member of the recursive groups concurrently
+        new ThriftCodecWarmup(codecManager, pool).warmUp(ImmutableList.<Type>of(
+                CoRecursive.class,
+                CoRecursiveHelper.class,
+                CoRecursiveTree.class,
+                CoRecursiveTreeHelper.class,
+                ViaListElementType.class,
+                RecursiveUnion.class));
+
+        for (Class<?> type : ImmutableList.of(CoRecursive.class, CoRecursiveHelper.class, CoRecursiveTree.class, CoRecursiveTreeHelper.class, ViaListElementType.class, RecursiveUnion.class)) {
+            assertNotNull(codecManager.getCachedCodecIfPresent(type), type.getName());
+        }
+
+        CoRecursive value = new CoRecursive();
+        value.data = "parent";
+        value.child = new CoRecursiveHelper();
+        value.child.data = "helper";
+        value.child.child = new CoRecursive();
+        value.child.child.data = "child";
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codecManager.write(value, out, new TCompactProtocol.Factory());
+        assertEquals(codecManager.read(out.toByteArray(), CoRecursive.class, new TCompactProtocol.Factory()), value);
+    }
+
+    @Test
+    public void testInvalidType()
+    {
+        try {
+            new ThriftCodecWarmup(codecManager, pool).warmUp(ImmutableList.of(Object.class));
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
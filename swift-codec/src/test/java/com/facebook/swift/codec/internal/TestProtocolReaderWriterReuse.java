@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal;
+
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class TestProtocolReaderWriterReuse
+{
+    @Test
+    public void testReaderReusedForSameProtocol()
+    {
+        TProtocol protocol = new TBinaryProtocol(new TMemoryBuffer(16));
+        TProtocolReader reader = TProtocolReader.forProtocol(protocol);
+        assertSame(reader.getProtocol(), protocol);
+        assertSame(TProtocolReader.forProtocol(protocol), reader);
+
+        TProtocol otherProtocol = new TBinaryProtocol(new TMemoryBuffer(16));
+        TProtocolReader otherReader = TProtocolReader.forProtocol(otherProtocol);
+        assertNotSame(otherReader, reader);
+        assertSame(otherReader.getProtocol(), otherProtocol);
+    }
+
+    @Test
+    public void testWriterReusedForSameProtocol()
+    {
+        TProtocol protocol = new TBinaryProtocol(new TMemoryBuffer(16));
+        TProtocolWriter writer = TProtocolWriter.forProtocol(protocol);
+        assertSame(TProtocolWriter.forProtocol(protocol), writer);
+
+        TProtocol otherProtocol = new TBinaryProtocol(new TMemoryBuffer(16));
+        assertNotSame(TProtocolWriter.forProtocol(otherProtocol), writer);
+    }
+
+    @Test
+    public void testReaderNotSharedAcrossThreads()
+            throws Exception
+    {
+        final TProtocol protocol = new TBinaryProtocol(new TMemoryBuffer(16));
+        final TProtocolReader reader = TProtocolReader.forProtocol(protocol);
+        final TProtocolReader[] otherThreadReader = new TProtocolReader[1];
+
+        Thread thread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                otherThreadReader[0] = TProtocolReader.forProtocol(protocol);
+            }
+        };
+        thread.start();
+        thread.join();
+
+        assertNotSame(otherThreadReader[0], reader);
+    }
+}
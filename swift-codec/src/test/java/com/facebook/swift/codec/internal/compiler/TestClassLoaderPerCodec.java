@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.AbstractThriftCodecManagerTest;
+import com.facebook.swift.codec.BonkBean;
+import com.facebook.swift.codec.BonkField;
+import com.facebook.swift.codec.BonkMethod;
+import com.facebook.swift.codec.OneOfEverything;
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
+import com.facebook.swift.codec.internal.reflection.ReflectionThriftCodecFactory;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.Test;
+
+import java.lang.ref.WeakReference;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class TestClassLoaderPerCodec extends AbstractThriftCodecManagerTest
+{
+    // a tiny bound, so the inherited round trips constantly evict and recreate codecs
+    @Override
+    public ThriftCodecManager createReadCodecManager()
+    {
+        return newCodecManager(2);
+    }
+
+    @Override
+    public ThriftCodecManager createWriteCodecManager()
+    {
+        return newCodecManager(2);
+    }
+
+    @Test
+    public void testCodecsHaveSeparateClassLoaders()
+    {
+        ThriftCodecManager manager = newCodecManager(-1);
+        ThriftCodec<OneOfEverything> outer = manager.getCodec(OneOfEverything.class);
+        ThriftCodec<BonkField> inner = manager.getCodec(BonkField.class);
+
+        assertTrue(outer.getClass().getClassLoader() instanceof CodecClassLoader);
+        assertTrue(inner.getClass().getClassLoader() instanceof CodecClassLoader);
+        assertNotEquals(outer.getClass().getClassLoader(), inner.getClass().getClassLoader());
+    }
+
+    @Test
+    public void testEvictedCodecIsRecreated()
+            throws Exception
+    {
+        ThriftCodecManager manager = newCodecManager(1);
+        ThriftCodec<BonkField> codec = manager.getCodec(BonkField.class);
+        manager.getCodec(BonkBean.class);
+        manager.getCodec(BonkMethod.class);
+
+        assertNull(manager.getCachedCodecIfPresent(BonkField.class));
+        assertNotNull(manager.getCachedCodecIfPresent(String.class));
+
+        ThriftCodec<BonkField> recreated = manager.getCodec(BonkField.class);
+        assertNotEquals(recreated.getClass(), codec.getClass());
+        assertEquals(recreated.getClass().getName(), codec.getClass().getName());
+    }
+
+    @Test
+    public void testAddedCodecIsNotEvicted()
+    {
+        ThriftCodecManager source = newCodecManager(-1);
+        ThriftCodec<BonkField> codec = source.getCodec(BonkField.class);
+
+        ThriftCodecManager manager = newCodecManager(1);
+        manager.addCodec(codec);
+        manager.getCodec(BonkBean.class);
+        manager.getCodec(BonkMethod.class);
+
+        assertSame(manager.getCachedCodecIfPresent(BonkField.class), codec);
+    }
+
+    @Test
+    public void testEvictedCodecClassIsUnloaded()
+            throws Exception
+    {
+        ThriftCodecManager manager = newCodecManager(1);
+        WeakReference<ClassLoader> classLoader = createCodecClassLoaderReference(manager);
+        manager.getCodec(BonkBean.class);
+        manager.getCodec(BonkMethod.class);
+
+        for (int i = 0; i < 20 && classLoader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        assertNull(classLoader.get(), "codec class loader was not collected");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSharedClassLoaderIsRejected()
+    {
+        // the shared class loader can not define a second BonkField codec after eviction
+        new ThriftCodecManager(
+                new CompilerThriftCodecFactory(false),
+                new ThriftCatalog(),
+                ImmutableSet.<ThriftCodec<?>>of(),
+                1);
+    }
+
+    @Test
+    public void testSharedClassLoaderIsAllowedWithoutBound()
+    {
+        ThriftCodecManager manager = new ThriftCodecManager(
+                new CompilerThriftCodecFactory(false),
+                new ThriftCatalog(),
+                ImmutableSet.<ThriftCodec<?>>of(),
+                -1);
+        assertNotNull(manager.getCodec(BonkField.class));
+    }
+
+    @Test
+    public void testReflectionCodecIsRecreated()
+    {
+        ThriftCodecManager manager = new ThriftCodecManager(
+                new ReflectionThriftCodecFactory(),
+                new ThriftCatalog(),
+                ImmutableSet.<ThriftCodec<?>>of(),
+                1);
+        ThriftCodec<BonkField> codec = manager.getCodec(BonkField.class);
+        manager.getCodec(BonkBean.class);
+        manager.getCodec(BonkMethod.class);
+
+        assertNull(manager.getCachedCodecIfPresent(BonkField.class));
+        ThriftCodec<BonkField> recreated = manager.getCodec(BonkField.class);
+        assertNotSame(recreated, codec);
+        assertEquals(recreated.getType(), codec.getType());
+    }
+
+    private static WeakReference<ClassLoader> createCodecClassLoaderReference(ThriftCodecManager manager)
+    {
+        return new WeakReference<>(manager.getCodec(BonkField.class).getClass().getClassLoader());
+    }
+
+    private ThriftCodecManager newCodecManager(long maximumCreatedCodecs)
+    {
+        ThriftCatalog catalog = new ThriftCatalog();
+        catalog.addDefaultCoercions(DefaultJavaCoercions.class);
+        return new ThriftCodecManager(
+                new CompilerThriftCodecFactory(false, getClass().getClassLoader(), null, true),
+                catalog,
+                ImmutableSet.<ThriftCodec<?>>of(),
+                maximumCreatedCodecs);
+    }
+}
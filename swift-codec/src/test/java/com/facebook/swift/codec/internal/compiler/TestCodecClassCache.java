@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.AbstractThriftCodecManagerTest;
+import com.facebook.swift.codec.BonkField;
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class TestCodecClassCache extends AbstractThriftCodecManagerTest
+{
+    private File cacheDirectory;
+
+    @BeforeClass
+    public void createCacheDirectory()
+    {
+        cacheDirectory = Files.createTempDir();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void deleteCacheDirectory()
+    {
+        deleteDirectory(cacheDirectory);
+    }
+
+    // the read and write managers share the cache, so most of the inherited round trips
+    // read with a codec loaded from the cache
+    @Override
+    public ThriftCodecManager createReadCodecManager()
+    {
+        return new ThriftCodecManager(new CompilerThriftCodecFactory(false, getClass().getClassLoader(), cacheDirectory));
+    }
+
+    @Override
+    public ThriftCodecManager createWriteCodecManager()
+    {
+        return new ThriftCodecManager(new CompilerThriftCodecFactory(false, getClass().getClassLoader(), cacheDirectory));
+    }
+
+    @Test
+    public void testCachedCodecIsUsed()
+            throws Exception
+    {
+        File directory = Files.createTempDir();
+        try {
+            ThriftCodec<BonkField> compiled = newCodecManager(directory).getCodec(BonkField.class);
+            File entry = getEntry(directory, BonkField.class);
+            assertTrue(entry.setLastModified(0));
+
+            // a cache hit does not rewrite the entry
+            ThriftCodec<BonkField> cached = newCodecManager(directory).getCodec(BonkField.class);
+            assertEquals(entry.lastModified(), 0);
+            assertEquals(cached.getClass().getName(), compiled.getClass().getName());
+            assertNotEquals(cached.getClass(), compiled.getClass());
+        }
+        finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testDamagedEntryIsRegenerated()
+            throws Exception
+    {
+        File directory = Files.createTempDir();
+        try {
+            newCodecManager(directory).getCodec(BonkField.class);
+            File entry = getEntry(directory, BonkField.class);
+            try (RandomAccessFile file = new RandomAccessFile(entry, "rw")) {
+                file.seek(file.length() / 2);
+                int value = file.read();
+                file.seek(file.length() / 2);
+                file.write(~value);
+            }
+            assertTrue(entry.setLastModified(0));
+
+            ThriftCodec<BonkField> codec = newCodecManager(directory).getCodec(BonkField.class);
+            assertNotNull(codec);
+            assertNotEquals(entry.lastModified(), 0);
+        }
+        finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testKeyCoversDelegateCodecs()
+    {
+        ThriftStructMetadata metadata = new ThriftCatalog().getThriftStructMetadata(BonkField.class);
+        CodecClassCache cache = new CodecClassCache(new File("unused"));
+
+        String key = cache.getKey(metadata, ImmutableList.<Object>of("type"));
+        assertNotNull(key);
+        assertTrue(key.startsWith(BonkField.class.getName() + "-"));
+        assertEquals(cache.getKey(metadata, ImmutableList.<Object>of("type")), key);
+        assertNotEquals(cache.getKey(metadata, ImmutableList.<Object>of("type", 1)), key);
+    }
+
+    @Test
+    public void testNewEntryReplacesOtherVersions()
+    {
+        File directory = Files.createTempDir();
+        try {
+            CodecClassCache cache = new CodecClassCache(directory);
+            cache.put("a.B-1", new byte[] {1, 2, 3});
+            cache.put("a.BC-1", new byte[] {4});
+            assertEquals(cache.get("a.B-1"), new byte[] {1, 2, 3});
+
+            cache.put("a.B-2", new byte[] {5, 6});
+            assertNull(cache.get("a.B-1"));
+            assertEquals(cache.get("a.B-2"), new byte[] {5, 6});
+            assertEquals(cache.get("a.BC-1"), new byte[] {4});
+            assertNull(cache.get("a.B-3"));
+            assertEquals(directory.list().length, 2);
+        }
+        finally {
+            deleteDirectory(directory);
+        }
+    }
+
+    private ThriftCodecManager newCodecManager(File directory)
+    {
+        return new ThriftCodecManager(new CompilerThriftCodecFactory(false, getClass().getClassLoader(), directory));
+    }
+
+    private static File getEntry(File directory, Class<?> structClass)
+    {
+        File[] entries = directory.listFiles();
+        assertNotNull(entries);
+        File match = null;
+        for (File entry : entries) {
+            if (entry.getName().startsWith(structClass.getName() + "-")) {
+                assertFalse(match != null, "more than one entry for " + structClass.getName());
+                match = entry;
+            }
+        }
+        assertNotNull(match, "no entry for " + structClass.getName());
+        return match;
+    }
+
+    private static void deleteDirectory(File directory)
+    {
+        if (directory == null) {
+            return;
+        }
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -16,9 +16,38 @@
 package com.facebook.swift.codec.internal.compiler;
 
 import com.facebook.swift.codec.AbstractThriftCodecManagerTest;
+import com.facebook.swift.codec.BonkField;
+import com.facebook.swift.codec.OneOfEverything;
+import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.internal.TProtocolReader;
+import com.facebook.swift.codec.internal.TProtocolWriter;
+import com.facebook.swift.codec.internal.coercion.CoercionThriftCodec;
+import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.reflect.TypeToken;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
 import org.testng.annotations.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.objectweb.asm.Opcodes.ASM5;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertTrue;
+
 @Test
 public class TestCompilerThriftCodecFactory extends AbstractThriftCodecManagerTest
 {
@@ -35,4 +64,117 @@ public class TestCompilerThriftCodecFactory extends AbstractThriftCodecManagerTe
     {
         return manager;
     }
+
+    @Test
+    public void testCoercionCodecsAreGenerated()
+            throws Exception
+    {
+        ThriftCodecManager codecManager = new ThriftCodecManager(new CompilerThriftCodecFactory(false));
+        codecManager.getCatalog().addDefaultCoercions(DefaultJavaCoercions.class);
+
+        ThriftCodec<Integer> integerCodec = codecManager.getCodec(Integer.class);
+        assertFalse(integerCodec instanceof CoercionThriftCodec);
+
+        ThriftCodec<List<Float>> listCodec = codecManager.getCodec(new TypeToken<List<Float>>() {});
+        List<Float> floats = ImmutableList.of(1.5f, -2.25f);
+
+        TProtocol protocol = new TCompactProtocol(new TMemoryBuffer(64));
+        integerCodec.write(42, protocol);
+        listCodec.write(floats, protocol);
+        assertEquals(integerCodec.read(protocol), (Integer) 42);
+        assertEquals(listCodec.read(protocol), floats);
+    }
+
+    @Test
+    public void testCoercionClassNotVisibleFromParent()
+            throws Exception
+    {
+        // a copy of the coercions defined in a loader the codec factory does not use
+        ClassLoader isolatingClassLoader = new IsolatingClassLoader(getClass().getClassLoader(), DefaultJavaCoercions.class);
+        Class<?> coercions = isolatingClassLoader.loadClass(DefaultJavaCoercions.class.getName());
+        assertNotSame(coercions, DefaultJavaCoercions.class);
+
+        ThriftCodecManager codecManager = new ThriftCodecManager(new CompilerThriftCodecFactory(false));
+        codecManager.getCatalog().addDefaultCoercions(coercions);
+
+        ThriftCodec<Integer> integerCodec = codecManager.getCodec(Integer.class);
+        assertTrue(integerCodec instanceof CoercionThriftCodec);
+
+        TProtocol protocol = new TCompactProtocol(new TMemoryBuffer(64));
+        integerCodec.write(42, protocol);
+        assertEquals(integerCodec.read(protocol), (Integer) 42);
+    }
+
+    @Test
+    public void testNestedStructCodecIsCalledDirectly()
+    {
+        ThriftCodecManager codecManager = new ThriftCodecManager(new CompilerThriftCodecFactory(false));
+        codecManager.getCatalog().addDefaultCoercions(DefaultJavaCoercions.class);
+        ThriftStructMetadata metadata = codecManager.getCatalog().getThriftStructMetadata(OneOfEverything.class);
+        ThriftCodecByteCodeGenerator<?> generator = new ThriftCodecByteCodeGenerator<>(
+                codecManager,
+                metadata,
+                new CodecClassLoader(
+                        getClass().getClassLoader(),
+                        OneOfEverything.class,
+                        ThriftCodecByteCodeGenerator.getConstructorArguments(codecManager, metadata)),
+                false);
+
+        final Set<String> calls = new HashSet<>();
+        new ClassReader(generator.getByteCode()).accept(new ClassVisitor(ASM5)
+        {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions)
+            {
+                return new MethodVisitor(ASM5)
+                {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf)
+                    {
+                        calls.add(owner.replace('/', '.') + "." + name);
+                    }
+                };
+            }
+        }, 0);
+
+        String nestedCodecClass = codecManager.getCodec(BonkField.class).getClass().getName();
+        assertTrue(calls.contains(nestedCodecClass + ".read"), calls.toString());
+        assertTrue(calls.contains(nestedCodecClass + ".write"), calls.toString());
+        assertFalse(calls.contains(TProtocolReader.class.getName() + ".readStructField"), calls.toString());
+        assertFalse(calls.contains(TProtocolWriter.class.getName() + ".writeStructField"), calls.toString());
+    }
+
+    private static class IsolatingClassLoader
+            extends ClassLoader
+    {
+        private final Class<?> isolatedClass;
+
+        private IsolatingClassLoader(ClassLoader parent, Class<?> isolatedClass)
+        {
+            super(parent);
+            this.isolatedClass = isolatedClass;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve)
+                throws ClassNotFoundException
+        {
+            if (!name.equals(isolatedClass.getName())) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null) {
+                    try (InputStream in = isolatedClass.getResourceAsStream(isolatedClass.getSimpleName() + ".class")) {
+                        byte[] byteCode = ByteStreams.toByteArray(in);
+                        type = defineClass(name, byteCode, 0, byteCode.length);
+                    }
+                    catch (IOException e) {
+                        throw new ClassNotFoundException(name, e);
+                    }
+                }
+                return type;
+            }
+        }
+    }
 }
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.codec.internal.compiler;
+
+import com.facebook.swift.codec.AbstractThriftCodecManagerTest;
+import com.facebook.swift.codec.BonkBean;
+import com.facebook.swift.codec.BonkBuilder;
+import com.facebook.swift.codec.BonkConstructor;
+import com.facebook.swift.codec.BonkField;
+import com.facebook.swift.codec.BonkMethod;
+import com.facebook.swift.codec.CoercionBean;
+import com.facebook.swift.codec.IsSetBean;
+import com.facebook.swift.codec.OneOfEverything;
+import com.facebook.swift.codec.ThriftCodec;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.UnionBean;
+import com.facebook.swift.codec.UnionConstructor;
+import com.facebook.swift.codec.UnionField;
+import com.facebook.swift.codec.generics.ConcreteDerivedFromGeneric;
+import com.facebook.swift.codec.generics.GenericThriftStruct;
+import com.facebook.swift.codec.internal.coercion.DefaultJavaCoercions;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.facebook.swift.codec.recursion.CoRecursive;
+import com.facebook.swift.codec.recursion.RecursiveUnion;
+import com.facebook.swift.codec.recursion.ViaListElementType;
+import com.facebook.swift.codec.recursion.WithSwiftRecursiveAnnotation;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test
+public class TestPrecompiledThriftCodecFactory extends AbstractThriftCodecManagerTest
+{
+    private static final Class<?>[] PRECOMPILED_TYPES = {
+            BonkField.class,
+            BonkBean.class,
+            BonkMethod.class,
+            BonkConstructor.class,
+            BonkBuilder.class,
+            OneOfEverything.class,
+            CoercionBean.class,
+            IsSetBean.class,
+            UnionField.class,
+            UnionBean.class,
+            UnionConstructor.class,
+            ConcreteDerivedFromGeneric.class,
+            WithSwiftRecursiveAnnotation.class,
+            CoRecursive.class,
+            ViaListElementType.class,
+            RecursiveUnion.class,
+    };
+
+    private File outputDirectory;
+    private URLClassLoader precompiledClassLoader;
+
+    @BeforeClass
+    public void precompile()
+            throws IOException
+    {
+        ThriftCatalog catalog = new ThriftCatalog();
+        catalog.addDefaultCoercions(DefaultJavaCoercions.class);
+
+        ThriftCodecPrecompiler precompiler = new ThriftCodecPrecompiler(getClass().getClassLoader(), catalog);
+        for (Class<?> type : PRECOMPILED_TYPES) {
+            precompiler.compile(type);
+        }
+
+        outputDirectory = Files.createTempDir();
+        assertEquals(precompiler.write(outputDirectory), precompiler.getCodecClasses().size());
+        precompiledClassLoader = newClassLoader(outputDirectory);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void cleanup()
+            throws IOException
+    {
+        if (precompiledClassLoader != null) {
+            precompiledClassLoader.close();
+        }
+        deleteRecursively(outputDirectory);
+    }
+
+    @Override
+    public ThriftCodecManager createReadCodecManager()
+    {
+        return new ThriftCodecManager(new CompilerThriftCodecFactory(false, precompiledClassLoader));
+    }
+
+    @Override
+    public ThriftCodecManager createWriteCodecManager()
+    {
+        return new ThriftCodecManager(new CompilerThriftCodecFactory(false, precompiledClassLoader));
+    }
+
+    @Test
+    public void testPrecompiledCodecsAreUsed()
+    {
+        ThriftCodecManager manager = createCodecManager();
+        for (Class<?> type : PRECOMPILED_TYPES) {
+            ThriftCodec<?> codec = manager.getCodec(type);
+            assertEquals(codec.getClass().getClassLoader(), precompiledClassLoader, type.getName());
+        }
+    }
+
+    @Test
+    public void testGenericStructIsCompiledAtRuntime()
+    {
+        ThriftCodecPrecompiler precompiler = new ThriftCodecPrecompiler(getClass().getClassLoader());
+        try {
+            precompiler.compile(GenericThriftStruct.class);
+            throw new AssertionError("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        assertTrue(precompiler.getCodecClasses().isEmpty());
+    }
+
+    @Test
+    public void testStaleCodecIsIgnored()
+            throws IOException
+    {
+        // simulate a struct class that changed after its codec was generated
+        assertPrecompiledCodecIgnored(new Function<PrecompiledCodecRegistry.Entry, PrecompiledCodecRegistry.Entry>()
+        {
+            @Override
+            public PrecompiledCodecRegistry.Entry apply(PrecompiledCodecRegistry.Entry entry)
+            {
+                return new PrecompiledCodecRegistry.Entry(entry.getStructClassName(), entry.getCodecClassName(), "0", entry.getGeneratorFingerprint());
+            }
+        });
+    }
+
+    @Test
+    public void testCodecFromOtherGeneratorIsIgnored()
+            throws IOException
+    {
+        // simulate a codec generated by another version of Swift
+        assertPrecompiledCodecIgnored(new Function<PrecompiledCodecRegistry.Entry, PrecompiledCodecRegistry.Entry>()
+        {
+            @Override
+            public PrecompiledCodecRegistry.Entry apply(PrecompiledCodecRegistry.Entry entry)
+            {
+                return new PrecompiledCodecRegistry.Entry(entry.getStructClassName(), entry.getCodecClassName(), entry.getFingerprint(), "0");
+            }
+        });
+    }
+
+    private void assertPrecompiledCodecIgnored(Function<PrecompiledCodecRegistry.Entry, PrecompiledCodecRegistry.Entry> registryChange)
+            throws IOException
+    {
+        File staleDirectory = Files.createTempDir();
+        try {
+            ThriftCodecPrecompiler precompiler = new ThriftCodecPrecompiler(getClass().getClassLoader());
+            precompiler.compile(BonkField.class);
+            precompiler.write(staleDirectory);
+
+            File registry = new File(staleDirectory, PrecompiledCodecRegistry.REGISTRY_RESOURCE);
+            List<String> lines = new ArrayList<>();
+            for (String line : Files.readLines(registry, UTF_8)) {
+                PrecompiledCodecRegistry.Entry entry = PrecompiledCodecRegistry.Entry.parse(line);
+                if (entry != null) {
+                    line = registryChange.apply(entry).toString();
+                }
+                lines.add(line);
+            }
+            Files.write(Joiner.on('\n').join(lines), registry, UTF_8);
+
+            try (URLClassLoader staleClassLoader = newClassLoader(staleDirectory)) {
+                ThriftCodecManager manager = new ThriftCodecManager(new CompilerThriftCodecFactory(false, staleClassLoader));
+                ThriftCodec<BonkField> codec = manager.getCodec(BonkField.class);
+                assertNotEquals(codec.getClass().getClassLoader(), staleClassLoader);
+                assertTrue(codec.getClass().getClassLoader() instanceof DynamicClassLoader);
+            }
+        }
+        finally {
+            deleteRecursively(staleDirectory);
+        }
+    }
+
+    @Test
+    public void testCodecClassNameIncludesFingerprint()
+    {
+        ThriftCodecPrecompiler precompiler = new ThriftCodecPrecompiler(getClass().getClassLoader());
+        precompiler.compile(OneOfEverything.class);
+
+        // the referenced struct codecs are named after the struct class files they were generated from
+        String fingerprint = PrecompiledCodecRegistry.fingerprint(new ThriftCatalog().getThriftStructMetadata(BonkField.class));
+        String codecClassName = ThriftCodecByteCodeGenerator.getCodecClassName(BonkField.class, fingerprint);
+        assertTrue(precompiler.getCodecClasses().containsKey(codecClassName), precompiler.getCodecClasses().keySet().toString());
+        assertNotEquals(codecClassName, ThriftCodecByteCodeGenerator.getCodecClassName(BonkField.class));
+
+        // the precompiled codec is loaded by its name, and a codec generated at runtime does not clash with it
+        assertEquals(createCodecManager().getCodec(BonkField.class).getClass().getName(), codecClassName);
+        ThriftCodecManager manager = new ThriftCodecManager(new CompilerThriftCodecFactory(false));
+        assertEquals(manager.getCodec(BonkField.class).getClass().getName(), ThriftCodecByteCodeGenerator.getCodecClassName(BonkField.class));
+    }
+
+    @Test
+    public void testStructClassName()
+    {
+        String fingerprint = "0123456789abcdef0123456789abcdef";
+        assertEquals(ThriftCodecByteCodeGenerator.getStructClassName("$wift.a.BCodec"), "a.B");
+        assertEquals(ThriftCodecByteCodeGenerator.getStructClassName("$wift.a.BCodec$" + fingerprint), "a.B");
+        assertEquals(ThriftCodecByteCodeGenerator.getStructClassName("$wift.a.BCodecCodec"), "a.BCodec");
+        assertNull(ThriftCodecByteCodeGenerator.getStructClassName("$wift.coercion.BooleanCodec$624"));
+        assertNull(ThriftCodecByteCodeGenerator.getStructClassName("a.BCodec"));
+    }
+
+    @Test
+    public void testRegistryEntryParsing()
+    {
+        PrecompiledCodecRegistry.Entry entry = PrecompiledCodecRegistry.Entry.parse("a.B $wift.a.BCodec 1234 5678");
+        assertEquals(entry.getStructClassName(), "a.B");
+        assertEquals(entry.getCodecClassName(), "$wift.a.BCodec");
+        assertEquals(entry.getFingerprint(), "1234");
+        assertEquals(entry.getGeneratorFingerprint(), "5678");
+
+        assertNull(PrecompiledCodecRegistry.Entry.parse("# comment"));
+        assertNull(PrecompiledCodecRegistry.Entry.parse(""));
+        assertNull(PrecompiledCodecRegistry.Entry.parse("a.B $wift.a.BCodec"));
+        assertNull(PrecompiledCodecRegistry.Entry.parse("a.B $wift.a.BCodec 1234"));
+    }
+
+    private ThriftCodecManager createCodecManager()
+    {
+        ThriftCodecManager manager = createReadCodecManager();
+        manager.getCatalog().addDefaultCoercions(DefaultJavaCoercions.class);
+        return manager;
+    }
+
+    private URLClassLoader newClassLoader(File directory)
+            throws IOException
+    {
+        return new URLClassLoader(new URL[] {directory.toURI().toURL()}, getClass().getClassLoader());
+    }
+
+    private static void deleteRecursively(File file)
+    {
+        if (file == null) {
+            return;
+        }
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -21,6 +21,8 @@ import com.google.common.net.HostAndPort;
 
 import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
 
 public abstract class AbstractClientWorker implements Runnable
 {
@@ -30,6 +32,8 @@ public abstract class AbstractClientWorker implements Runnable
     protected AtomicLong requestsProcessed = new AtomicLong(0);
     protected AtomicLong requestsFailed = new AtomicLong(0);
     protected AtomicLong requestsPending = new AtomicLong(0);
+    protected final OperationLatencies latencies = new OperationLatencies();
+    private final ArrivalSchedule arrivalSchedule;
     private final int totalWeight;
 
     public AbstractClientWorker(LoadGeneratorCommandLineConfig config)
@@ -55,6 +59,13 @@ public abstract class AbstractClientWorker implements Runnable
                 config.weightBadSleep +
                 config.weightOnewayBurn +
                 config.weightBurn;
+
+        if (config.targetQps > 0) {
+            this.arrivalSchedule = new ArrivalSchedule(config.arrivals, config.targetQps / config.numThreads);
+        }
+        else {
+            this.arrivalSchedule = null;
+        }
     }
 
     public long collectSuccessfulOperationCount()
@@ -67,6 +78,35 @@ public abstract class AbstractClientWorker implements Runnable
         return requestsFailed.getAndSet(0);
     }
 
+    public OperationLatencies getLatencies()
+    {
+        return latencies;
+    }
+
+    public boolean isOpenLoop()
+    {
+        return arrivalSchedule != null;
+    }
+
+    /**
+     * Returns the start time of the next request. In closed-loop mode that is now. In open-loop
+     * mode, this waits for the next arrival and returns the time it was scheduled for, so a
+     * latency measured from it includes the time the request was delayed by earlier requests.
+     */
+    protected long awaitNextRequestTime()
+    {
+        if (arrivalSchedule == null) {
+            return System.nanoTime();
+        }
+
+        long time = arrivalSchedule.next();
+        long delay;
+        while ((delay = time - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(delay);
+        }
+        return time;
+    }
+
     public long getOperationsPerConnection()
     {
         return config.operationsPerConnection;
@@ -211,8 +251,17 @@ public abstract class AbstractClientWorker implements Runnable
         return 1;
     }
 
-    protected double logNormalSample(double mean, double sigma) {
-        // TODO: find a good LogNormal sampler for java
-        return mean;
+    /**
+     * Samples a LogNormal distribution with the given mean and sigma, or returns the mean if
+     * sigma is not positive
+     */
+    protected static double logNormalSample(double mean, double sigma)
+    {
+        if (sigma <= 0 || mean <= 0) {
+            return mean;
+        }
+        // the mean of the distribution is exp(mu + sigma^2 / 2)
+        double mu = Math.log(mean) - sigma * sigma / 2;
+        return Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
     }
 }
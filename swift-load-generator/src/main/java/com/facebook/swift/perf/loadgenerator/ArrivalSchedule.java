@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The times at which an open-loop worker starts its requests, independent of how long earlier
+ * requests took. Requests arrive either at a fixed interval, or with exponentially distributed
+ * intervals, as a Poisson process, at the same average rate.
+ */
+public class ArrivalSchedule
+{
+    private final ArrivalDistribution distribution;
+    private final double averageIntervalNanos;
+    private final Random random = new Random();
+    private double nextTime;
+
+    public ArrivalSchedule(ArrivalDistribution distribution, double requestsPerSecond)
+    {
+        checkArgument(requestsPerSecond > 0, "requestsPerSecond must be positive");
+        this.distribution = distribution;
+        this.averageIntervalNanos = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+    }
+
+    /**
+     * Returns the start time of the next request, in {@link System#nanoTime()} units. The first
+     * request starts when this is first called.
+     */
+    public long next()
+    {
+        if (nextTime == 0) {
+            nextTime = System.nanoTime();
+        }
+        long time = (long) nextTime;
+        switch (distribution) {
+            case UNIFORM:
+                nextTime += averageIntervalNanos;
+                break;
+            case POISSON:
+                nextTime += -Math.log(1.0 - random.nextDouble()) * averageIntervalNanos;
+                break;
+            default:
+                throw new IllegalStateException("Unknown arrival distribution");
+        }
+        return time;
+    }
+}
@@ -24,13 +24,17 @@ import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.airlift.log.Logger;
 import org.apache.thrift.TException;
 
 import javax.annotation.Nullable;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -48,8 +52,10 @@ public final class AsyncClientWorker extends AbstractClientWorker
     private final long pendingOperationsLowWaterMark;
     private final long pendingOperationsHighWaterMark;
     private final Executor simpleExecutor;
+    private final AtomicBoolean arrivalsStarted = new AtomicBoolean();
+    private final Queue<Long> heldArrivals = new ConcurrentLinkedQueue<>();
     private NiftyClientConnector<? extends NiftyClientChannel> connector;
-    private ClientWrapper clientWrapper;
+    private volatile ClientWrapper clientWrapper;
 
     @Override
     public void shutdown()
@@ -112,6 +118,12 @@ public final class AsyncClientWorker extends AbstractClientWorker
                     logger.debug("Worker connected");
 
                     clientWrapper = result;
+                    if (isOpenLoop()) {
+                        startArrivals();
+                        sendHeldArrivals(clientWrapper);
+                        return;
+                    }
+
                     NiftyClientChannel channel = clientManager.getNiftyChannel(clientWrapper.getClient());
 
                     // Thrift clients are not thread-safe, and for maximum efficiency, new requests are made
@@ -152,7 +164,85 @@ public final class AsyncClientWorker extends AbstractClientWorker
         run();
     }
 
-    protected long sendRequest(ClientWrapper clientWrapper)
+    /**
+     * In open-loop mode, sends requests at the scheduled arrival times from a thread of its own,
+     * on the most recently connected client, regardless of how many requests are pending.
+     * Arrivals while the worker reconnects are held until the next client is connected, and
+     * their latency is still measured from the scheduled time.
+     */
+    private void startArrivals()
+    {
+        if (!arrivalsStarted.compareAndSet(false, true)) {
+            return;
+        }
+
+        new ThreadFactoryBuilder()
+                .setNameFormat("load-generator-arrivals-%s")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        while (!shutdownRequested) {
+                            // the arrival is held before the client is read, so a client
+                            // connected in between sends it when it starts
+                            heldArrivals.add(awaitNextRequestTime());
+                            sendHeldArrivals(clientWrapper);
+                        }
+                    }
+                })
+                .start();
+    }
+
+    private void sendHeldArrivals(final ClientWrapper currentClientWrapper)
+    {
+        // Thrift clients are not thread-safe, so requests are sent on the channel thread
+        currentClientWrapper.getChannel().executeInIoThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!currentClientWrapper.isClosed() && !currentClientWrapper.shouldStopSending()) {
+                    if (currentClientWrapper.hasError()) {
+                        closeAfterError(currentClientWrapper);
+                        return;
+                    }
+
+                    Long startTime = heldArrivals.poll();
+                    if (startTime == null) {
+                        return;
+                    }
+
+                    try {
+                        sendRequest(currentClientWrapper, startTime);
+                        currentClientWrapper.recordRequestSent();
+                        if (currentClientWrapper.shouldStopSending()) {
+                            reconnect();
+                        }
+                    }
+                    catch (TException ex) {
+                        logger.error("Async client request failed: %s",
+                                     Throwables.getRootCause(ex).getMessage());
+                        requestsFailed.incrementAndGet();
+                        closeAfterError(currentClientWrapper);
+                    }
+                }
+            }
+        });
+    }
+
+    private void closeAfterError(ClientWrapper clientWrapper)
+    {
+        // in open-loop mode arrivals are held until a client is connected, so a client that
+        // fails is replaced, unless reaching its request limit has already replaced it
+        if (clientWrapper.close() && isOpenLoop() && !clientWrapper.shouldStopSending()) {
+            reconnect();
+        }
+    }
+
+    protected long sendRequest(ClientWrapper clientWrapper, long startTime)
             throws TException
     {
         final AsyncLoadTest client = clientWrapper.getClient();
@@ -223,7 +313,7 @@ public final class AsyncClientWorker extends AbstractClientWorker
         }
 
         long pending = requestsPending.incrementAndGet();
-        Futures.addCallback(future, new RequestCallback(clientWrapper), simpleExecutor);
+        Futures.addCallback(future, new RequestCallback(clientWrapper, operation, startTime), simpleExecutor);
         return pending;
     }
 
@@ -239,7 +329,7 @@ public final class AsyncClientWorker extends AbstractClientWorker
                     throw clientWrapper.getError();
                 }
 
-                long pendingCount = sendRequest(clientWrapper);
+                long pendingCount = sendRequest(clientWrapper, System.nanoTime());
 
                 clientWrapper.recordRequestSent();
                 if (clientWrapper.shouldStopSending()) {
@@ -266,6 +356,7 @@ public final class AsyncClientWorker extends AbstractClientWorker
         private final long requestLimit;
         private final int clientId;
         private final ThriftClientManager clientManager;
+        private final AtomicBoolean closed = new AtomicBoolean();
         private AsyncLoadTest client;
 
         public ClientWrapper(ThriftClientManager clientManager, AsyncLoadTest client, long requestLimit)
@@ -296,9 +387,18 @@ public final class AsyncClientWorker extends AbstractClientWorker
             return getError() != null;
         }
 
-        public void close()
+        /**
+         * Returns true if this call closed the client
+         */
+        public boolean close()
         {
             getClient().close();
+            return closed.compareAndSet(false, true);
+        }
+
+        public boolean isClosed()
+        {
+            return closed.get();
         }
 
         public long recordRequestSent()
@@ -330,15 +430,20 @@ public final class AsyncClientWorker extends AbstractClientWorker
     private class RequestCallback implements FutureCallback<Object>
     {
         private final ClientWrapper clientWrapper;
+        private final Operation operation;
+        private final long startTime;
 
-        public RequestCallback(ClientWrapper clientWrapper)
+        public RequestCallback(ClientWrapper clientWrapper, Operation operation, long startTime)
         {
             this.clientWrapper = clientWrapper;
+            this.operation = operation;
+            this.startTime = startTime;
         }
 
         @Override
         public void onSuccess(@Nullable Object result)
         {
+            latencies.record(operation, startTime);
             clientWrapper.recordResponseReceived();
             if (clientWrapper.isFinishedReceivingResponses())
             {
@@ -347,7 +452,7 @@ public final class AsyncClientWorker extends AbstractClientWorker
 
             requestsProcessed.incrementAndGet();
 
-            if (requestsPending.decrementAndGet() < pendingOperationsLowWaterMark) {
+            if (requestsPending.decrementAndGet() < pendingOperationsLowWaterMark && !isOpenLoop()) {
                 fillCurrentClientPipeline();
             }
         }
@@ -367,14 +472,14 @@ public final class AsyncClientWorker extends AbstractClientWorker
             }
 
             if (t instanceof TException) {
-                clientWrapper.close();
+                closeAfterError(clientWrapper);
                 logger.error("Async client received failure response: %s",
                              Throwables.getRootCause(t).getMessage());
             }
 
             requestsFailed.incrementAndGet();
 
-            if (requestsPending.decrementAndGet() < pendingOperationsLowWaterMark) {
+            if (requestsPending.decrementAndGet() < pendingOperationsLowWaterMark && !isOpenLoop()) {
                 fillCurrentClientPipeline();
             }
         }
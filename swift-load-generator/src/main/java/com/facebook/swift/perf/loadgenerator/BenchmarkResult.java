@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.json.JsonCodec;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.json.JsonCodec.jsonCodec;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The results of a load generator run, written with {@code -results_json} for
+ * {@link CompareResults} to check against a baseline. Latencies are in microseconds. The GC and
+ * allocation figures are those of the load generator process, which includes the Swift client.
+ */
+public class BenchmarkResult
+{
+    private static final JsonCodec<BenchmarkResult> CODEC = jsonCodec(BenchmarkResult.class);
+
+    private final Map<String, String> config;
+    private final Map<String, String> environment;
+    private final long startTimeMillis;
+    private final double durationSeconds;
+    private final long completed;
+    private final long failed;
+    private final List<Sample> timeline;
+    private final Map<String, LatencySummary> latencies;
+    private final RuntimeStats runtime;
+
+    @JsonCreator
+    public BenchmarkResult(
+            @JsonProperty("config") Map<String, String> config,
+            @JsonProperty("environment") Map<String, String> environment,
+            @JsonProperty("startTimeMillis") long startTimeMillis,
+            @JsonProperty("durationSeconds") double durationSeconds,
+            @JsonProperty("completed") long completed,
+            @JsonProperty("failed") long failed,
+            @JsonProperty("timeline") List<Sample> timeline,
+            @JsonProperty("latencies") Map<String, LatencySummary> latencies,
+            @JsonProperty("runtime") RuntimeStats runtime)
+    {
+        this.config = ImmutableMap.copyOf(checkNotNull(config, "config is null"));
+        this.environment = ImmutableMap.copyOf(checkNotNull(environment, "environment is null"));
+        this.startTimeMillis = startTimeMillis;
+        this.durationSeconds = durationSeconds;
+        this.completed = completed;
+        this.failed = failed;
+        this.timeline = ImmutableList.copyOf(checkNotNull(timeline, "timeline is null"));
+        this.latencies = ImmutableMap.copyOf(checkNotNull(latencies, "latencies is null"));
+        this.runtime = checkNotNull(runtime, "runtime is null");
+    }
+
+    public static BenchmarkResult readJson(File file)
+            throws IOException
+    {
+        return CODEC.fromJson(new String(Files.readAllBytes(file.toPath()), UTF_8));
+    }
+
+    public void writeJson(File file)
+            throws IOException
+    {
+        Files.write(file.toPath(), CODEC.toJson(this).getBytes(UTF_8));
+    }
+
+    /**
+     * Writes the timeline, one row per second
+     */
+    public void writeCsv(File file)
+            throws IOException
+    {
+        StringBuilder csv = new StringBuilder("elapsed_s,qps,completed,failed,p50_us,p99_us,max_us\n");
+        for (Sample sample : timeline) {
+            csv.append(String.format("%.3f,%d,%d,%d,%d,%d,%d%n",
+                                     sample.getElapsedSeconds(),
+                                     sample.getQps(),
+                                     sample.getCompleted(),
+                                     sample.getFailed(),
+                                     sample.getP50(),
+                                     sample.getP99(),
+                                     sample.getMax()));
+        }
+        Files.write(file.toPath(), csv.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Returns the command line options of the run
+     */
+    @JsonProperty
+    public Map<String, String> getConfig()
+    {
+        return config;
+    }
+
+    /**
+     * Returns the JVM and machine the run was on
+     */
+    @JsonProperty
+    public Map<String, String> getEnvironment()
+    {
+        return environment;
+    }
+
+    @JsonProperty
+    public long getStartTimeMillis()
+    {
+        return startTimeMillis;
+    }
+
+    @JsonProperty
+    public double getDurationSeconds()
+    {
+        return durationSeconds;
+    }
+
+    @JsonProperty
+    public long getCompleted()
+    {
+        return completed;
+    }
+
+    @JsonProperty
+    public long getFailed()
+    {
+        return failed;
+    }
+
+    public double getAverageQps()
+    {
+        return durationSeconds > 0 ? completed / durationSeconds : 0;
+    }
+
+    public double getFailureRate()
+    {
+        return completed + failed > 0 ? (double) failed / (completed + failed) : 0;
+    }
+
+    @JsonProperty
+    public List<Sample> getTimeline()
+    {
+        return timeline;
+    }
+
+    /**
+     * Returns the latency distribution of each operation over the whole run
+     */
+    @JsonProperty
+    public Map<String, LatencySummary> getLatencies()
+    {
+        return latencies;
+    }
+
+    @JsonProperty
+    public RuntimeStats getRuntime()
+    {
+        return runtime;
+    }
+
+    /**
+     * The requests of one reporting interval
+     */
+    public static class Sample
+    {
+        private final double elapsedSeconds;
+        private final long qps;
+        private final long completed;
+        private final long failed;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        @JsonCreator
+        public Sample(
+                @JsonProperty("elapsedSeconds") double elapsedSeconds,
+                @JsonProperty("qps") long qps,
+                @JsonProperty("completed") long completed,
+                @JsonProperty("failed") long failed,
+                @JsonProperty("p50") long p50,
+                @JsonProperty("p99") long p99,
+                @JsonProperty("max") long max)
+        {
+            this.elapsedSeconds = elapsedSeconds;
+            this.qps = qps;
+            this.completed = completed;
+            this.failed = failed;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        @JsonProperty
+        public double getElapsedSeconds()
+        {
+            return elapsedSeconds;
+        }
+
+        @JsonProperty
+        public long getQps()
+        {
+            return qps;
+        }
+
+        @JsonProperty
+        public long getCompleted()
+        {
+            return completed;
+        }
+
+        @JsonProperty
+        public long getFailed()
+        {
+            return failed;
+        }
+
+        @JsonProperty
+        public long getP50()
+        {
+            return p50;
+        }
+
+        @JsonProperty
+        public long getP99()
+        {
+            return p99;
+        }
+
+        @JsonProperty
+        public long getMax()
+        {
+            return max;
+        }
+    }
+
+    public static class LatencySummary
+    {
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        public LatencySummary(Histogram histogram)
+        {
+            this(histogram.getTotalCount(),
+                 histogram.getMean(),
+                 histogram.getValueAtPercentile(50),
+                 histogram.getValueAtPercentile(90),
+                 histogram.getValueAtPercentile(99),
+                 histogram.getValueAtPercentile(99.9),
+                 histogram.getMaxValue());
+        }
+
+        @JsonCreator
+        public LatencySummary(
+                @JsonProperty("count") long count,
+                @JsonProperty("mean") double mean,
+                @JsonProperty("p50") long p50,
+                @JsonProperty("p90") long p90,
+                @JsonProperty("p99") long p99,
+                @JsonProperty("p999") long p999,
+                @JsonProperty("max") long max)
+        {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        @JsonProperty
+        public long getCount()
+        {
+            return count;
+        }
+
+        @JsonProperty
+        public double getMean()
+        {
+            return mean;
+        }
+
+        @JsonProperty
+        public long getP50()
+        {
+            return p50;
+        }
+
+        @JsonProperty
+        public long getP90()
+        {
+            return p90;
+        }
+
+        @JsonProperty
+        public long getP99()
+        {
+            return p99;
+        }
+
+        @JsonProperty
+        public long getP999()
+        {
+            return p999;
+        }
+
+        @JsonProperty
+        public long getMax()
+        {
+            return max;
+        }
+    }
+}
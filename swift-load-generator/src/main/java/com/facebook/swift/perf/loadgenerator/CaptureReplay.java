@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.facebook.nifty.core.TChannelBufferOutputTransport;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
+import com.facebook.swift.service.CapturedRequest;
+import com.facebook.swift.service.RequestCaptureReader;
+import com.google.common.collect.ImmutableList;
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.Math.max;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * The requests of a capture file written by a server with {@code thrift.capture.file} set, in
+ * the order the workers replay them, with the time each is due. At a speed of 1, requests are
+ * due at their original intervals; at higher speeds the intervals shrink in proportion. At a
+ * speed of 0 there is no schedule, and workers send requests as fast as the server answers.
+ */
+public class CaptureReplay
+{
+    private static final Logger logger = Logger.get(CaptureReplay.class);
+
+    private final List<ReplayRequest> requests;
+    private final TDuplexProtocolFactory protocolFactory;
+    private final double speed;
+    private final int loops;
+    private final long loopMicros;
+    private final CountDownLatch workersFinished;
+    private long startTime;
+    private int nextIndex;
+
+    @Inject
+    public CaptureReplay(LoadGeneratorCommandLineConfig config)
+            throws IOException, TException
+    {
+        checkArgument(config.replaySpeed >= 0, "replay speed must not be negative");
+        checkArgument(config.replayLoops >= 0, "replay loops must not be negative");
+        this.speed = config.replaySpeed;
+        this.loops = config.replayLoops;
+        this.workersFinished = new CountDownLatch(config.numThreads);
+
+        ImmutableList.Builder<ReplayRequest> requests = ImmutableList.builder();
+        try (RequestCaptureReader reader = new RequestCaptureReader(new File(config.replayFile))) {
+            protocolFactory = getProtocolFactory(reader.getProtocolName());
+            TProtocolFactory inputProtocolFactory = protocolFactory.getInputProtocolFactory();
+
+            // A capture appended to by several server runs may go back in time; requests of
+            // a later run are replayed right after those of the earlier one
+            long offsetMicros = 0;
+            long lastTimestampMicros = 0;
+            for (CapturedRequest request = reader.read(); request != null; request = reader.read()) {
+                if (lastTimestampMicros != 0) {
+                    offsetMicros += max(request.getTimestampMicros() - lastTimestampMicros, 0);
+                }
+                lastTimestampMicros = request.getTimestampMicros();
+                requests.add(new ReplayRequest(request, offsetMicros, inputProtocolFactory));
+            }
+        }
+        this.requests = requests.build();
+        checkArgument(!this.requests.isEmpty(), "Capture file %s holds no requests", config.replayFile);
+
+        // the next loop starts one average interval after the last request
+        long captureMicros = this.requests.get(this.requests.size() - 1).offsetMicros;
+        this.loopMicros = captureMicros + captureMicros / max(this.requests.size() - 1, 1);
+
+        logger.info("Loaded %s requests spanning %s from %s",
+                    this.requests.size(),
+                    new Duration(captureMicros, MICROSECONDS).convertToMostSuccinctTimeUnit(),
+                    config.replayFile);
+    }
+
+    private static TDuplexProtocolFactory getProtocolFactory(String protocolName)
+    {
+        switch (protocolName) {
+            case "binary":
+                return TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory());
+            case "compact":
+                return TDuplexProtocolFactory.fromSingleFactory(new TCompactProtocol.Factory());
+            default:
+                throw new IllegalArgumentException("Cannot replay requests of protocol " + protocolName);
+        }
+    }
+
+    /**
+     * Returns the protocol of the captured requests, which the workers must connect with
+     */
+    public TDuplexProtocolFactory getProtocolFactory()
+    {
+        return protocolFactory;
+    }
+
+    public boolean isTimed()
+    {
+        return speed > 0;
+    }
+
+    /**
+     * Returns the next request to replay, or null once every loop of the capture was replayed.
+     * The schedule starts when this is first called.
+     */
+    public synchronized ScheduledRequest next()
+    {
+        int loop = nextIndex / requests.size();
+        if (loops > 0 && loop >= loops) {
+            return null;
+        }
+        if (startTime == 0) {
+            startTime = System.nanoTime();
+        }
+
+        ReplayRequest request = requests.get(nextIndex % requests.size());
+        nextIndex++;
+
+        long dueTime = 0;
+        if (isTimed()) {
+            double offsetMicros = (double) loop * loopMicros + request.offsetMicros;
+            dueTime = startTime + (long) (MICROSECONDS.toNanos(1) * offsetMicros / speed);
+        }
+        return new ScheduledRequest(request, dueTime);
+    }
+
+    /**
+     * Called by each worker when it has no more requests to replay and all of its requests
+     * have completed
+     */
+    public void workerFinished()
+    {
+        workersFinished.countDown();
+    }
+
+    /**
+     * Waits until every worker finished replaying the capture
+     */
+    public void awaitCompletion()
+            throws InterruptedException
+    {
+        workersFinished.await();
+    }
+
+    private static class ReplayRequest
+    {
+        private final String methodName;
+        private final byte type;
+        private final byte[] frame;
+        private final int bodyOffset;
+        private final long offsetMicros;
+
+        private ReplayRequest(CapturedRequest request, long offsetMicros, TProtocolFactory protocolFactory)
+                throws TException
+        {
+            TMemoryInputTransport transport = new TMemoryInputTransport(request.getFrame());
+            TMessage message = protocolFactory.getProtocol(transport).readMessageBegin();
+
+            this.methodName = message.name;
+            this.type = message.type;
+            this.frame = request.getFrame();
+            this.bodyOffset = transport.getBufferPosition();
+            this.offsetMicros = offsetMicros;
+        }
+    }
+
+    public class ScheduledRequest
+    {
+        private final ReplayRequest request;
+        private final long dueTime;
+
+        private ScheduledRequest(ReplayRequest request, long dueTime)
+        {
+            this.request = request;
+            this.dueTime = dueTime;
+        }
+
+        public String getMethodName()
+        {
+            return request.methodName;
+        }
+
+        /**
+         * Returns the {@link System#nanoTime()} the request is due at, if the replay is timed
+         */
+        public long getDueTime()
+        {
+            return dueTime;
+        }
+
+        public boolean isOneway()
+        {
+            return request.type == TMessageType.ONEWAY;
+        }
+
+        /**
+         * Returns the captured frame with its sequence id replaced, as requests from different
+         * captured connections may share a sequence id
+         */
+        public ChannelBuffer toFrame(int sequenceId)
+                throws TException
+        {
+            TChannelBufferOutputTransport transport = new TChannelBufferOutputTransport(request.frame.length + 16);
+            TProtocol protocol = protocolFactory.getOutputProtocolFactory().getProtocol(transport);
+            protocol.writeMessageBegin(new TMessage(request.methodName, request.type, sequenceId));
+            transport.write(request.frame, request.bodyOffset, request.frame.length - request.bodyOffset);
+            return transport.getOutputBuffer();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.facebook.swift.perf.loadgenerator.BenchmarkResult.LatencySummary;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Compares the results of two load generator runs written with {@code -results_json}, and exits
+ * with status 1 if the candidate regressed from the baseline by more than the threshold, so a
+ * CI build can be gated on it.
+ * <p>
+ * Throughput, failure rate, the latency percentiles of each operation run by both, GC time per
+ * second and allocation per request are compared. Latency changes of less than
+ * {@code -min_latency_delta_us} and GC time changes of less than 1ms per second are within the
+ * noise of a run, and are not flagged.
+ * <p>
+ * The results of two JMH runs written with {@code -rf json} can be compared the same way. The
+ * score of each benchmark run by both is compared, along with its allocation per operation if
+ * the GC profiler was enabled. Score changes within the error of the two scores are not flagged.
+ */
+@Parameters(separators = " =")
+public class CompareResults
+{
+    private static final double MIN_GC_DELTA_MILLIS_PER_SECOND = 1;
+
+    @Parameter(description = "<baseline results> <candidate results>")
+    public List<String> files = new ArrayList<>();
+
+    @Parameter(names = "-help", description = "Display this message")
+    public boolean displayUsage = false;
+
+    @Parameter(names = "-threshold", description = "Change in percent beyond which a metric that got worse is a regression")
+    public double thresholdPercent = 5;
+
+    @Parameter(names = "-min_latency_delta_us", description = "Smallest latency change in microseconds that can be a regression")
+    public long minLatencyDeltaMicros = 50;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        CompareResults compareResults = new CompareResults();
+        JCommander jCommander = new JCommander(compareResults, args);
+        if (compareResults.displayUsage || compareResults.files.size() != 2) {
+            jCommander.setProgramName(CompareResults.class.getSimpleName());
+            jCommander.usage();
+            System.exit(2);
+        }
+
+        File baselineFile = new File(compareResults.files.get(0));
+        File candidateFile = new File(compareResults.files.get(1));
+        if (JmhResult.isJmhResult(baselineFile) != JmhResult.isJmhResult(candidateFile)) {
+            System.err.println("Can not compare JMH results with load generator results");
+            System.exit(2);
+        }
+
+        boolean regressed;
+        if (JmhResult.isJmhResult(baselineFile)) {
+            regressed = compareResults.compareJmh(JmhResult.readJson(baselineFile), JmhResult.readJson(candidateFile));
+        }
+        else {
+            regressed = compareResults.compare(BenchmarkResult.readJson(baselineFile), BenchmarkResult.readJson(candidateFile));
+        }
+        System.exit(regressed ? 1 : 0);
+    }
+
+    /**
+     * Prints the differences between the runs, and returns whether the candidate regressed
+     */
+    public boolean compare(BenchmarkResult baseline, BenchmarkResult candidate)
+    {
+        for (String option : new TreeSet<>(Sets.union(baseline.getConfig().keySet(), candidate.getConfig().keySet()))) {
+            String baselineValue = baseline.getConfig().get(option);
+            String candidateValue = candidate.getConfig().get(option);
+            if (!Objects.equal(baselineValue, candidateValue)) {
+                System.out.printf("Option %s differs: %s -> %s%n", option, baselineValue, candidateValue);
+            }
+        }
+
+        int regressions = printMetrics(getMetrics(baseline, candidate));
+
+        for (String operation : Sets.symmetricDifference(baseline.getLatencies().keySet(), candidate.getLatencies().keySet())) {
+            System.out.printf("Operation %s was only run by the %s%n", operation, baseline.getLatencies().containsKey(operation) ? "baseline" : "candidate");
+        }
+
+        return printSummary(regressions);
+    }
+
+    /**
+     * Prints the differences between the JMH runs, and returns whether the candidate regressed
+     */
+    public boolean compareJmh(List<JmhResult> baseline, List<JmhResult> candidate)
+    {
+        Map<String, JmhResult> baselineResults = indexByName(baseline);
+        Map<String, JmhResult> candidateResults = indexByName(candidate);
+
+        int regressions = printMetrics(getJmhMetrics(baselineResults, candidateResults));
+
+        for (String benchmark : Sets.symmetricDifference(baselineResults.keySet(), candidateResults.keySet())) {
+            System.out.printf("Benchmark %s was only run by the %s%n", benchmark, baselineResults.containsKey(benchmark) ? "baseline" : "candidate");
+        }
+
+        return printSummary(regressions);
+    }
+
+    private int printMetrics(List<Metric> metrics)
+    {
+        int regressions = 0;
+        System.out.printf("%-32s %14s %14s %9s%n", "metric", "baseline", "candidate", "change");
+        for (Metric metric : metrics) {
+            boolean regression = metric.isRegression(thresholdPercent);
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-32s %14.1f %14.1f %8.1f%%%s%n",
+                              metric.name,
+                              metric.baseline,
+                              metric.candidate,
+                              metric.getChangePercent(),
+                              regression ? "  REGRESSION" : "");
+        }
+        return regressions;
+    }
+
+    private boolean printSummary(int regressions)
+    {
+        if (regressions == 0) {
+            System.out.printf("No regressions beyond %.1f%%%n", thresholdPercent);
+        }
+        else {
+            System.out.printf("%d regressions beyond %.1f%%%n", regressions, thresholdPercent);
+        }
+        return regressions > 0;
+    }
+
+    private List<Metric> getMetrics(BenchmarkResult baseline, BenchmarkResult candidate)
+    {
+        ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+        metrics.add(new Metric("throughput (QPS)", baseline.getAverageQps(), candidate.getAverageQps(), true, 0));
+        metrics.add(new Metric("failure rate (%)", baseline.getFailureRate() * 100, candidate.getFailureRate() * 100, false, 0));
+
+        for (Map.Entry<String, LatencySummary> entry : baseline.getLatencies().entrySet()) {
+            LatencySummary candidateLatency = candidate.getLatencies().get(entry.getKey());
+            if (candidateLatency == null) {
+                continue;
+            }
+            LatencySummary baselineLatency = entry.getValue();
+            metrics.add(new Metric(entry.getKey() + " p50 (us)", baselineLatency.getP50(), candidateLatency.getP50(), false, minLatencyDeltaMicros));
+            metrics.add(new Metric(entry.getKey() + " p90 (us)", baselineLatency.getP90(), candidateLatency.getP90(), false, minLatencyDeltaMicros));
+            metrics.add(new Metric(entry.getKey() + " p99 (us)", baselineLatency.getP99(), candidateLatency.getP99(), false, minLatencyDeltaMicros));
+        }
+
+        metrics.add(new Metric("GC time (ms/s)",
+                               baseline.getRuntime().getGcTimeMillis() / baseline.getDurationSeconds(),
+                               candidate.getRuntime().getGcTimeMillis() / candidate.getDurationSeconds(),
+                               false,
+                               MIN_GC_DELTA_MILLIS_PER_SECOND));
+
+        long baselineAllocated = baseline.getRuntime().getAllocatedBytes();
+        long candidateAllocated = candidate.getRuntime().getAllocatedBytes();
+        if (baselineAllocated >= 0 && candidateAllocated >= 0 && baseline.getCompleted() > 0 && candidate.getCompleted() > 0) {
+            metrics.add(new Metric("allocation (bytes/request)",
+                                   (double) baselineAllocated / baseline.getCompleted(),
+                                   (double) candidateAllocated / candidate.getCompleted(),
+                                   false,
+                                   0));
+        }
+        return metrics.build();
+    }
+
+    private static List<Metric> getJmhMetrics(Map<String, JmhResult> baseline, Map<String, JmhResult> candidate)
+    {
+        ImmutableList.Builder<Metric> metrics = ImmutableList.builder();
+        for (Map.Entry<String, JmhResult> entry : baseline.entrySet()) {
+            JmhResult candidateResult = candidate.get(entry.getKey());
+            if (candidateResult == null) {
+                continue;
+            }
+            JmhResult baselineResult = entry.getValue();
+            metrics.add(getJmhMetric(
+                    entry.getKey() + " (" + baselineResult.getPrimaryMetric().getScoreUnit() + ")",
+                    baselineResult.getPrimaryMetric(),
+                    candidateResult.getPrimaryMetric(),
+                    baselineResult.isHigherBetter()));
+
+            JmhResult.Score baselineAllocation = baselineResult.getAllocationPerOperation();
+            JmhResult.Score candidateAllocation = candidateResult.getAllocationPerOperation();
+            if (baselineAllocation != null && candidateAllocation != null) {
+                metrics.add(getJmhMetric(entry.getKey() + " allocation (B/op)", baselineAllocation, candidateAllocation, false));
+            }
+        }
+        return metrics.build();
+    }
+
+    private static Metric getJmhMetric(String name, JmhResult.Score baseline, JmhResult.Score candidate, boolean higherIsBetter)
+    {
+        // a change within the error of the scores is noise
+        return new Metric(name, baseline.getScore(), candidate.getScore(), higherIsBetter, errorOf(baseline) + errorOf(candidate));
+    }
+
+    private static double errorOf(JmhResult.Score score)
+    {
+        return Double.isNaN(score.getScoreError()) ? 0 : score.getScoreError();
+    }
+
+    private static Map<String, JmhResult> indexByName(List<JmhResult> results)
+    {
+        Map<String, JmhResult> index = new TreeMap<>();
+        for (JmhResult result : results) {
+            index.put(result.getName() + " " + result.getMode(), result);
+        }
+        return index;
+    }
+
+    static class Metric
+    {
+        private final String name;
+        private final double baseline;
+        private final double candidate;
+        private final boolean higherIsBetter;
+        private final double minDelta;
+
+        Metric(String name, double baseline, double candidate, boolean higherIsBetter, double minDelta)
+        {
+            this.name = name;
+            this.baseline = baseline;
+            this.candidate = candidate;
+            this.higherIsBetter = higherIsBetter;
+            this.minDelta = minDelta;
+        }
+
+        public double getChangePercent()
+        {
+            if (baseline == 0) {
+                return candidate == 0 ? 0 : Math.copySign(Double.POSITIVE_INFINITY, candidate);
+            }
+            return (candidate - baseline) / Math.abs(baseline) * 100;
+        }
+
+        public boolean isRegression(double thresholdPercent)
+        {
+            double worsening = higherIsBetter ? baseline - candidate : candidate - baseline;
+            if (worsening <= minDelta) {
+                return false;
+            }
+            double changePercent = Math.abs(getChangePercent());
+            return changePercent > thresholdPercent;
+        }
+    }
+}
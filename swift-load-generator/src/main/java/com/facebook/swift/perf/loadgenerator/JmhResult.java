@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.json.JsonCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.json.JsonCodec.listJsonCodec;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * One benchmark of the results written by JMH with {@code -rf json}, such as the swift-benchmarks
+ * suites, for {@link CompareResults} to check against a baseline. Only the fields needed for the
+ * comparison are read.
+ */
+public class JmhResult
+{
+    private static final JsonCodec<List<JmhResult>> CODEC = listJsonCodec(JmhResult.class);
+
+    private final String benchmark;
+    private final String mode;
+    private final Map<String, String> params;
+    private final Score primaryMetric;
+    private final Map<String, Score> secondaryMetrics;
+
+    @JsonCreator
+    public JmhResult(
+            @JsonProperty("benchmark") String benchmark,
+            @JsonProperty("mode") String mode,
+            @JsonProperty("params") Map<String, String> params,
+            @JsonProperty("primaryMetric") Score primaryMetric,
+            @JsonProperty("secondaryMetrics") Map<String, Score> secondaryMetrics)
+    {
+        this.benchmark = checkNotNull(benchmark, "benchmark is null");
+        this.mode = checkNotNull(mode, "mode is null");
+        this.params = params == null ? ImmutableMap.<String, String>of() : ImmutableMap.copyOf(params);
+        this.primaryMetric = checkNotNull(primaryMetric, "primaryMetric is null");
+        this.secondaryMetrics = secondaryMetrics == null ? ImmutableMap.<String, Score>of() : ImmutableMap.copyOf(secondaryMetrics);
+    }
+
+    /**
+     * Returns whether the file holds JMH results, which are a JSON array, rather than a
+     * {@link BenchmarkResult}
+     */
+    public static boolean isJmhResult(File file)
+            throws IOException
+    {
+        return new String(Files.readAllBytes(file.toPath()), UTF_8).trim().startsWith("[");
+    }
+
+    public static List<JmhResult> readJson(File file)
+            throws IOException
+    {
+        return CODEC.fromJson(new String(Files.readAllBytes(file.toPath()), UTF_8));
+    }
+
+    /**
+     * Returns the benchmark method and its parameters, which identify the benchmark across runs
+     */
+    public String getName()
+    {
+        String name = benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1);
+        return params.isEmpty() ? name : name + params;
+    }
+
+    public String getBenchmark()
+    {
+        return benchmark;
+    }
+
+    /**
+     * Returns the JMH mode: thrpt, avgt, sample or ss
+     */
+    public String getMode()
+    {
+        return mode;
+    }
+
+    public boolean isHigherBetter()
+    {
+        return "thrpt".equals(mode);
+    }
+
+    public Map<String, String> getParams()
+    {
+        return params;
+    }
+
+    public Score getPrimaryMetric()
+    {
+        return primaryMetric;
+    }
+
+    /**
+     * Returns the normalized allocation rate of the GC profiler, or null if it was not enabled
+     */
+    public Score getAllocationPerOperation()
+    {
+        for (Map.Entry<String, Score> entry : secondaryMetrics.entrySet()) {
+            // JMH 1.21 prefixes the profiler metrics with a middle dot
+            if (entry.getKey().endsWith("gc.alloc.rate.norm")) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    public static class Score
+    {
+        private final double score;
+        private final double scoreError;
+        private final String scoreUnit;
+
+        @JsonCreator
+        public Score(
+                @JsonProperty("score") double score,
+                @JsonProperty("scoreError") double scoreError,
+                @JsonProperty("scoreUnit") String scoreUnit)
+        {
+            this.score = score;
+            this.scoreError = scoreError;
+            this.scoreUnit = scoreUnit;
+        }
+
+        public double getScore()
+        {
+            return score;
+        }
+
+        /**
+         * Returns the half width of the 99.9% confidence interval, or NaN if JMH could not compute
+         * it, for example for a single iteration
+         */
+        public double getScoreError()
+        {
+            return scoreError;
+        }
+
+        public String getScoreUnit()
+        {
+            return scoreUnit;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import io.airlift.bootstrap.LifeCycleModule;
 import io.airlift.configuration.ConfigurationFactory;
 import io.airlift.configuration.ConfigurationModule;
 import io.airlift.jmx.JmxModule;
+import io.airlift.log.Logger;
 import io.airlift.node.NodeModule;
 import org.weakref.jmx.guice.MBeanModule;
 
@@ -39,11 +40,14 @@ import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.facebook.swift.service.guice.ThriftClientBinder.thriftClientBinder;
 
 public class LoadGenerator
 {
+    private static final Logger logger = Logger.get(LoadGenerator.class);
+
     private final Provider<AbstractClientWorker> clientWorkerProvider;
     private final LoadGeneratorCommandLineConfig config;
     private static Injector injector;
@@ -81,7 +85,13 @@ public class LoadGenerator
                             binder.bind(LoadGeneratorCommandLineConfig.class).toInstance(config);
                             binder.bind(LoadGenerator.class).in(Singleton.class);
 
-                            if (!config.asyncMode) {
+                            if (config.replayFile != null) {
+                                binder.bind(CaptureReplay.class).in(Singleton.class);
+                                binder.bind(AbstractClientWorker.class).to(ReplayClientWorker.class);
+                            } else if (config.serviceClass != null) {
+                                binder.bind(ServiceRequestGenerator.class).in(Singleton.class);
+                                binder.bind(AbstractClientWorker.class).to(ServiceClientWorker.class);
+                            } else if (!config.asyncMode) {
                                 binder.bind(AbstractClientWorker.class).to(SyncClientWorker.class);
                             } else {
                                 binder.bind(AbstractClientWorker.class).to(AsyncClientWorker.class);
@@ -104,7 +114,19 @@ public class LoadGenerator
                         }
                     }
             );
-            injector.getInstance(LifeCycleManager.class).start();
+            LifeCycleManager lifeCycleManager = injector.getInstance(LifeCycleManager.class);
+            lifeCycleManager.start();
+
+            if (config.runTimeSeconds > 0) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(config.runTimeSeconds));
+                lifeCycleManager.stop();
+                System.exit(0);
+            }
+            else if (config.replayFile != null && config.replayLoops > 0) {
+                injector.getInstance(CaptureReplay.class).awaitCompletion();
+                lifeCycleManager.stop();
+                System.exit(0);
+            }
         }
     }
 
@@ -122,6 +144,8 @@ public class LoadGenerator
     private static Map<String, String> buildConfigMap(LoadGeneratorCommandLineConfig config)
     {
         ImmutableMap.Builder<String, String> builder = ImmutableMap.builder();
+        // NodeModule requires an environment, without which the injector cannot be created
+        builder.put("node.environment", "loadgenerator");
         if (config.connectTimeoutMilliseconds > 0) {
             addParam(builder, "connect-timeout", config.connectTimeoutMilliseconds + "ms");
         }
@@ -144,13 +168,25 @@ public class LoadGenerator
     public void start()
             throws Exception
     {
+        if (config.replayFile != null) {
+            logger.info("Replaying %s at %s", config.replayFile,
+                        config.replaySpeed > 0 ? config.replaySpeed + "x the captured rate; latencies are measured from the captured start of each request" : "the maximum rate");
+        }
+        else if (config.targetQps > 0) {
+            logger.info("Open-loop load at %s QPS with %s arrivals; latencies are measured from the scheduled start of each request",
+                        config.targetQps, config.arrivals);
+        }
+        else {
+            logger.info("Closed-loop load; each worker sends a request when the last one completes");
+        }
+
         clientWorkers = new AbstractClientWorker[config.numThreads];
 
         for (int i = 0; i < config.numThreads; i++) {
             clientWorkers[i] = clientWorkerProvider.get();
         }
 
-        loadStatsThread = new LoadStatsThread(clientWorkers);
+        loadStatsThread = new LoadStatsThread(clientWorkers, config);
         loadStatsThread.start();
 
         // For fair measurement, start the client workers *after* the monitor has already started
@@ -17,6 +17,13 @@ package com.facebook.swift.perf.loadgenerator;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 @Parameters(separators = " =")
 public class LoadGeneratorCommandLineConfig
@@ -45,6 +52,15 @@ public class LoadGeneratorCommandLineConfig
     @Parameter(names = "-async_ops", description = "Target number of pipelined asynchronous requests")
     public int targetAsyncOperationsPending = 1;
 
+    @Parameter(names = "-target_qps", description = "Total request rate of open-loop load, or 0 to send each request when the last completes")
+    public double targetQps = 0;
+
+    @Parameter(names = "-arrivals", description = "Distribution of request arrivals in open-loop mode")
+    public ArrivalDistribution arrivals = ArrivalDistribution.POISSON;
+
+    @Parameter(names = "-run_time_s", description = "Seconds to run before stopping and reporting latencies, or 0 to run until killed")
+    public long runTimeSeconds = 0;
+
     @Parameter(names = "-connect_timeout_ms", description = "Connect timeout in milliseconds")
     public double connectTimeoutMilliseconds = 0;
 
@@ -54,6 +70,42 @@ public class LoadGeneratorCommandLineConfig
     @Parameter(names = "-recv_timeout_ms", description = "Receive timeout in milliseconds")
     public long receiveTimeoutMilliseconds = 0;
 
+    @Parameter(names = "-service", description = "Fully qualified name of a @ThriftService interface on the classpath to load test instead of the built-in load test service")
+    public String serviceClass;
+
+    @Parameter(names = "-method_weight", description = "Weight of a method of the service as name=weight; may be repeated. All methods have weight 1 unless any weight is given, then the others have weight 0")
+    public List<String> methodWeights = new ArrayList<>();
+
+    @Parameter(names = "-corpus", description = "File of calls to the service, one per line, as the method name, a tab, and the arguments struct in TJSONProtocol encoding")
+    public String corpusFile;
+
+    @Parameter(names = "-argument_sets", description = "Number of random argument sets to generate for each method of the service not in the corpus")
+    public int argumentSets = 100;
+
+    @Parameter(names = "-payload_avg", description = "Average length of generated strings and binaries")
+    public double payloadAverage = 64;
+
+    @Parameter(names = "-payload_sigma", description = "Sigma for generated string and binary length LogNormal distribution")
+    public double payloadSigma = -1;
+
+    @Parameter(names = "-container_avg", description = "Average number of elements of generated lists, sets and maps")
+    public double containerAverage = 4;
+
+    @Parameter(names = "-replay", description = "Request capture file written by a server with thrift.capture.file set, to replay instead of generating requests")
+    public String replayFile;
+
+    @Parameter(names = "-replay_speed", description = "Rate of the replay relative to the captured request rate, or 0 to replay as fast as the server answers -async_ops pending requests per worker")
+    public double replaySpeed = 1;
+
+    @Parameter(names = "-replay_loops", description = "Number of times to replay the capture, or 0 to repeat it until stopped")
+    public int replayLoops = 1;
+
+    @Parameter(names = "-results_json", description = "File to write the results of the run to as JSON, for comparison with CompareResults")
+    public String resultsJsonFile;
+
+    @Parameter(names = "-results_csv", description = "File to write the QPS and latency of each second of the run to as CSV")
+    public String resultsCsvFile;
+
     @Parameter(names = "-weight_noop")
     public int weightNoop = 0;
 
@@ -131,4 +183,25 @@ public class LoadGeneratorCommandLineConfig
 
     @Parameter(names = "-recv_sigma", description = "Sigma for receive buffer size LogNormal distribution")
     public double receiveSigma = -1;
+
+    /**
+     * Returns the value of each option, by option name, as recorded in the results of a run
+     */
+    public Map<String, String> toMap()
+    {
+        ImmutableMap.Builder<String, String> options = ImmutableMap.builder();
+        for (Field field : getClass().getFields()) {
+            Parameter parameter = field.getAnnotation(Parameter.class);
+            if (parameter == null || field.getName().equals("displayUsage")) {
+                continue;
+            }
+            try {
+                options.put(parameter.names()[0], String.valueOf(field.get(this)));
+            }
+            catch (IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return options.build();
+    }
 }
@@ -15,20 +15,38 @@
  */
 package com.facebook.swift.perf.loadgenerator;
 
+import com.facebook.swift.perf.loadgenerator.BenchmarkResult.LatencySummary;
+import com.facebook.swift.perf.loadgenerator.BenchmarkResult.Sample;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import io.airlift.log.Logger;
+import org.HdrHistogram.Histogram;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 
 public class LoadStatsThread extends Thread
 {
     private static final Logger logger = Logger.get(LoadStatsThread.class);
 
+    // open-loop load that completes less than this fraction of the target rate is reported
+    private static final double MIN_TARGET_QPS_FRACTION = 0.9;
+
     private final AbstractClientWorker[] clientWorkers;
+    private final LoadGeneratorCommandLineConfig config;
+    private final Map<String, Histogram> totalLatencies = new TreeMap<>();
+    private final ImmutableList.Builder<Sample> timeline = ImmutableList.builder();
     private volatile boolean shutdown = false;
 
-    public LoadStatsThread(AbstractClientWorker[] clientWorkers)
+    public LoadStatsThread(AbstractClientWorker[] clientWorkers, LoadGeneratorCommandLineConfig config)
     {
         this.clientWorkers = clientWorkers.clone();
+        this.config = config;
     }
 
     @Override
@@ -36,8 +54,10 @@ public class LoadStatsThread extends Thread
     {
         long operations = 0;
         long failedOperations = 0;
+        long startTimeMillis = System.currentTimeMillis();
         long startTime = System.nanoTime();
         long lastTime = startTime;
+        RuntimeStats startRuntimeStats = RuntimeStats.snapshot();
 
         while (!shutdown) {
             try {
@@ -52,6 +72,7 @@ public class LoadStatsThread extends Thread
                     deltaSuccessfulOperations += worker.collectSuccessfulOperationCount();
                     deltaFailedOperations += worker.collectFailedOperationCount();
                 }
+                Histogram latencies = collectLatencies();
 
                 operations += deltaSuccessfulOperations;
                 failedOperations += deltaFailedOperations;
@@ -61,18 +82,164 @@ public class LoadStatsThread extends Thread
                 logger.info(
                         "QPS: " + currentQps + " Delta completed: " + deltaSuccessfulOperations +
                         " Average QPS: " + averageQps + " Total completed: " + operations +
-                        " Total failed: " + failedOperations);
+                        " Total failed: " + failedOperations +
+                        " Latency p50: " + latencies.getValueAtPercentile(50) + "us" +
+                        " p99: " + latencies.getValueAtPercentile(99) + "us" +
+                        " max: " + latencies.getMaxValue() + "us" +
+                        (config.targetQps > 0 ? " Target QPS: " + (long) config.targetQps : ""));
+
+                // synchronous workers can not start a request before the last one completes,
+                // so they silently fall behind a target rate that is too high for them
+                long completedQps = (deltaSuccessfulOperations + deltaFailedOperations) * TimeUnit.SECONDS.toNanos(1) / (currentTime - lastTime);
+                if (config.targetQps > 0 && completedQps < config.targetQps * MIN_TARGET_QPS_FRACTION) {
+                    logger.warn("Completed %s requests per second, less than %s%% of the target of %s. " +
+                                    "Use more threads or asynchronous workers to reach the target rate.",
+                            completedQps,
+                            (long) (MIN_TARGET_QPS_FRACTION * 100),
+                            (long) config.targetQps);
+                }
+
+                timeline.add(new Sample(
+                        (currentTime - startTime) / (double) TimeUnit.SECONDS.toNanos(1),
+                        currentQps,
+                        deltaSuccessfulOperations,
+                        deltaFailedOperations,
+                        latencies.getValueAtPercentile(50),
+                        latencies.getValueAtPercentile(99),
+                        latencies.getMaxValue()));
 
                 lastTime = currentTime;
             }
             catch (InterruptedException e) {
-                logger.error("Stats thread was interrupted");
+                if (!shutdown) {
+                    logger.error("Stats thread was interrupted");
+                }
             }
         }
+
+        // include the requests completed since the last report in the totals
+        for (AbstractClientWorker worker : clientWorkers) {
+            operations += worker.collectSuccessfulOperationCount();
+            failedOperations += worker.collectFailedOperationCount();
+        }
+        collectLatencies();
+        reportLatencies();
+
+        if (config.resultsJsonFile != null || config.resultsCsvFile != null) {
+            writeResults(new BenchmarkResult(
+                    config.toMap(),
+                    getEnvironment(),
+                    startTimeMillis,
+                    (System.nanoTime() - startTime) / (double) TimeUnit.SECONDS.toNanos(1),
+                    operations,
+                    failedOperations,
+                    timeline.build(),
+                    summarizeLatencies(),
+                    RuntimeStats.snapshot().since(startRuntimeStats)));
+        }
     }
 
+    /**
+     * Stops reporting, and waits for the final latency report
+     */
     public void shutdown()
     {
         shutdown = true;
+        interrupt();
+        try {
+            join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds the latencies recorded by the workers since the last collection to the totals of each
+     * operation, and returns them merged across operations
+     */
+    private Histogram collectLatencies()
+    {
+        Histogram latencies = new Histogram(OperationLatencies.SIGNIFICANT_DIGITS);
+        for (AbstractClientWorker worker : clientWorkers) {
+            OperationLatencies workerLatencies = worker.getLatencies();
+            for (String operation : workerLatencies.getOperations()) {
+                Histogram total = totalLatencies.get(operation);
+                if (total == null) {
+                    total = new Histogram(OperationLatencies.SIGNIFICANT_DIGITS);
+                    totalLatencies.put(operation, total);
+                }
+                Histogram operationLatencies = new Histogram(OperationLatencies.SIGNIFICANT_DIGITS);
+                workerLatencies.collect(operation, operationLatencies);
+                total.add(operationLatencies);
+                latencies.add(operationLatencies);
+            }
+        }
+        return latencies;
+    }
+
+    private Map<String, LatencySummary> summarizeLatencies()
+    {
+        ImmutableMap.Builder<String, LatencySummary> summaries = ImmutableMap.builder();
+        for (Map.Entry<String, Histogram> entry : totalLatencies.entrySet()) {
+            if (entry.getValue().getTotalCount() > 0) {
+                summaries.put(entry.getKey(), new LatencySummary(entry.getValue()));
+            }
+        }
+        return summaries.build();
+    }
+
+    private static Map<String, String> getEnvironment()
+    {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        return ImmutableMap.<String, String>builder()
+                .put("java.version", System.getProperty("java.version"))
+                .put("java.vm.name", runtime.getVmName())
+                .put("java.vm.version", runtime.getVmVersion())
+                .put("jvm.arguments", runtime.getInputArguments().toString())
+                .put("os.name", System.getProperty("os.name"))
+                .put("os.arch", System.getProperty("os.arch"))
+                .put("processors", String.valueOf(Runtime.getRuntime().availableProcessors()))
+                .put("max.heap.bytes", String.valueOf(Runtime.getRuntime().maxMemory()))
+                .build();
+    }
+
+    private void writeResults(BenchmarkResult result)
+    {
+        try {
+            if (config.resultsJsonFile != null) {
+                result.writeJson(new File(config.resultsJsonFile));
+                logger.info("Wrote results to %s", config.resultsJsonFile);
+            }
+            if (config.resultsCsvFile != null) {
+                result.writeCsv(new File(config.resultsCsvFile));
+                logger.info("Wrote timeline to %s", config.resultsCsvFile);
+            }
+        }
+        catch (IOException e) {
+            logger.error(e, "Could not write results");
+        }
+    }
+
+    private void reportLatencies()
+    {
+        logger.info("Latency in microseconds of completed requests, per operation:");
+        for (Map.Entry<String, Histogram> entry : totalLatencies.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            logger.info(
+                    "%-24s count: %d mean: %.1f p50: %d p90: %d p99: %d p99.9: %d p99.99: %d max: %d",
+                    entry.getKey(),
+                    histogram.getTotalCount(),
+                    histogram.getMean(),
+                    histogram.getValueAtPercentile(50),
+                    histogram.getValueAtPercentile(90),
+                    histogram.getValueAtPercentile(99),
+                    histogram.getValueAtPercentile(99.9),
+                    histogram.getValueAtPercentile(99.99),
+                    histogram.getMaxValue());
+        }
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Latencies of the requests of one worker, per operation, in microseconds. Any thread may record
+ * a latency; the stats thread collects the latencies recorded since it last collected.
+ */
+public class OperationLatencies
+{
+    public static final int SIGNIFICANT_DIGITS = 3;
+
+    private final ConcurrentMap<String, Recorder> recorders = new ConcurrentHashMap<>();
+
+    /**
+     * Records the latency of a request that started at the given {@link System#nanoTime()}
+     * and completed now
+     */
+    public void record(Operation operation, long startTime)
+    {
+        record(operation.name(), startTime);
+    }
+
+    /**
+     * Records the latency of a request of the named operation, such as a method of the service
+     * under test
+     */
+    public void record(String operation, long startTime)
+    {
+        Recorder recorder = recorders.get(operation);
+        if (recorder == null) {
+            recorders.putIfAbsent(operation, new Recorder(SIGNIFICANT_DIGITS));
+            recorder = recorders.get(operation);
+        }
+
+        long latency = NANOSECONDS.toMicros(System.nanoTime() - startTime);
+        recorder.recordValue(Math.max(latency, 0));
+    }
+
+    public Set<String> getOperations()
+    {
+        return recorders.keySet();
+    }
+
+    /**
+     * Adds the latencies of the operation recorded since the last collection to the histogram
+     */
+    public void collect(String operation, Histogram histogram)
+    {
+        histogram.add(recorders.get(operation).getIntervalHistogram());
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.nifty.client.NiftyClientConnector;
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.client.UnframedClientConnector;
+import com.facebook.nifty.core.TChannelBufferInputTransport;
+import com.facebook.swift.perf.loadgenerator.CaptureReplay.ScheduledRequest;
+import com.facebook.swift.service.ThriftClientManager;
+import com.google.common.base.Throwables;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.lang.Math.max;
+
+/**
+ * Replays the requests of a capture file given with {@code -replay}, sending the captured frames
+ * on a connection of its own without decoding them. Timed replays send each request when it is
+ * due, whether or not earlier requests have completed, and measure latency from the due time.
+ * Untimed replays keep {@code -async_ops} requests pending.
+ */
+public class ReplayClientWorker extends AbstractClientWorker
+{
+    private static final Logger logger = Logger.get(ReplayClientWorker.class);
+    private final ThriftClientManager clientManager;
+    private final CaptureReplay replay;
+    private final NiftyClientConnector<? extends NiftyClientChannel> connector;
+    private final Semaphore pendingPermits;
+    private volatile boolean shutdownRequested = false;
+    private int sequenceId;
+
+    @Inject
+    public ReplayClientWorker(
+            LoadGeneratorCommandLineConfig config,
+            ThriftClientManager clientManager,
+            CaptureReplay replay)
+    {
+        super(config);
+        this.clientManager = clientManager;
+        this.replay = replay;
+
+        // the captured frames can only be sent with the protocol they were captured in
+        HostAndPort address = HostAndPort.fromParts(config.serverAddress, config.serverPort);
+        switch (config.transport) {
+            case FRAMED:
+                connector = new FramedClientConnector(address, replay.getProtocolFactory());
+                break;
+            case UNFRAMED:
+                connector = new UnframedClientConnector(address, replay.getProtocolFactory());
+                break;
+            default:
+                throw new IllegalStateException("Unknown transport");
+        }
+
+        if (replay.isTimed()) {
+            pendingPermits = null;
+        }
+        else {
+            pendingPermits = new Semaphore(max(config.targetAsyncOperationsPending, 1));
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        this.shutdownRequested = true;
+    }
+
+    @Override
+    public void run()
+    {
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                boolean finished = false;
+                while (!finished && !shutdownRequested) {
+                    NiftyClientChannel channel = null;
+                    try {
+                        channel = connect();
+                        logger.debug("Worker connected");
+                        for (int i = 0; i < getOperationsPerConnection() && !shutdownRequested; i++) {
+                            ScheduledRequest request = replay.next();
+                            if (request == null) {
+                                finished = true;
+                                break;
+                            }
+                            sendRequest(channel, request);
+                        }
+                    }
+                    catch (Exception ex) {
+                        logger.error("Connection failed: %s", Throwables.getRootCause(ex).getMessage());
+                        Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+                    }
+                    finally {
+                        awaitPendingRequests();
+                        if (channel != null) {
+                            channel.close();
+                        }
+                    }
+                }
+                replay.workerFinished();
+            }
+        }).start();
+    }
+
+    private NiftyClientChannel connect()
+            throws Exception
+    {
+        NiftyClientChannel channel = clientManager.createChannel(connector).get();
+        if (config.receiveTimeoutMilliseconds > 0) {
+            channel.setReceiveTimeout(new Duration(config.receiveTimeoutMilliseconds, TimeUnit.MILLISECONDS));
+        }
+        if (config.sendTimeoutMilliseconds > 0) {
+            channel.setSendTimeout(new Duration(config.sendTimeoutMilliseconds, TimeUnit.MILLISECONDS));
+        }
+        return channel;
+    }
+
+    private void sendRequest(RequestChannel channel, ScheduledRequest request)
+            throws TException
+    {
+        long startTime;
+        if (replay.isTimed()) {
+            startTime = request.getDueTime();
+            long delay;
+            while ((delay = startTime - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+        else {
+            pendingPermits.acquireUninterruptibly();
+            startTime = System.nanoTime();
+        }
+
+        requestsPending.incrementAndGet();
+        ReplayListener listener = new ReplayListener(request, startTime);
+        try {
+            channel.sendAsynchronousRequest(request.toFrame(sequenceId++), request.isOneway(), listener);
+        }
+        catch (TException | RuntimeException e) {
+            listener.complete(false);
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the responses to the requests sent on a connection before it is closed, which
+     * would otherwise fail them
+     */
+    private void awaitPendingRequests()
+    {
+        while (requestsPending.get() > 0) {
+            Uninterruptibles.sleepUninterruptibly(1, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private class ReplayListener
+            implements RequestChannel.Listener
+    {
+        private final ScheduledRequest request;
+        private final long startTime;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        public ReplayListener(ScheduledRequest request, long startTime)
+        {
+            this.request = request;
+            this.startTime = startTime;
+        }
+
+        @Override
+        public void onRequestSent()
+        {
+            if (request.isOneway()) {
+                complete(true);
+            }
+        }
+
+        @Override
+        public void onResponseReceived(ChannelBuffer message)
+        {
+            // declared exceptions are replies; only failures to run the method are exceptions
+            boolean succeeded;
+            try {
+                TMessage response = replay.getProtocolFactory()
+                        .getInputProtocolFactory()
+                        .getProtocol(new TChannelBufferInputTransport(message))
+                        .readMessageBegin();
+                succeeded = response.type != TMessageType.EXCEPTION;
+            }
+            catch (TException e) {
+                succeeded = false;
+            }
+            complete(succeeded);
+        }
+
+        @Override
+        public void onChannelError(TException cause)
+        {
+            logger.error("%s failed: %s", request.getMethodName(), Throwables.getRootCause(cause).getMessage());
+            complete(false);
+        }
+
+        private void complete(boolean succeeded)
+        {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+
+            if (succeeded) {
+                latencies.record(request.getMethodName(), startTime);
+                requestsProcessed.incrementAndGet();
+            }
+            else {
+                requestsFailed.incrementAndGet();
+            }
+            requestsPending.decrementAndGet();
+            if (pendingPermits != null) {
+                pendingPermits.release();
+            }
+        }
+    }
+}
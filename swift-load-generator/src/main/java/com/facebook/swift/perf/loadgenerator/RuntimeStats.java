@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableMap;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.Math.max;
+import static java.lang.Math.min;
+
+/**
+ * Garbage collection and allocation of this JVM, either since it started, as taken by
+ * {@link #snapshot()}, or over an interval, as returned by {@link #since}.
+ */
+public class RuntimeStats
+{
+    private final Map<String, GcStats> garbageCollectors;
+    private final long allocatedBytes;
+    private final long heapUsedBytes;
+    private final Map<Long, Long> threadAllocatedBytes;
+
+    @JsonCreator
+    public RuntimeStats(
+            @JsonProperty("garbageCollectors") Map<String, GcStats> garbageCollectors,
+            @JsonProperty("allocatedBytes") long allocatedBytes,
+            @JsonProperty("heapUsedBytes") long heapUsedBytes)
+    {
+        this.garbageCollectors = ImmutableMap.copyOf(checkNotNull(garbageCollectors, "garbageCollectors is null"));
+        this.allocatedBytes = allocatedBytes;
+        this.heapUsedBytes = heapUsedBytes;
+        this.threadAllocatedBytes = null;
+    }
+
+    private RuntimeStats(Map<String, GcStats> garbageCollectors, Map<Long, Long> threadAllocatedBytes, long heapUsedBytes)
+    {
+        this.garbageCollectors = ImmutableMap.copyOf(garbageCollectors);
+        this.threadAllocatedBytes = threadAllocatedBytes;
+        this.heapUsedBytes = heapUsedBytes;
+
+        long allocatedBytes = -1;
+        if (threadAllocatedBytes != null) {
+            allocatedBytes = 0;
+            for (long bytes : threadAllocatedBytes.values()) {
+                allocatedBytes += bytes;
+            }
+        }
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    public static RuntimeStats snapshot()
+    {
+        ImmutableMap.Builder<String, GcStats> garbageCollectors = ImmutableMap.builder();
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            garbageCollectors.put(collector.getName(), new GcStats(collector.getCollectionCount(), collector.getCollectionTime()));
+        }
+
+        return new RuntimeStats(
+                garbageCollectors.build(),
+                measureThreadAllocatedBytes(),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    }
+
+    /**
+     * Returns the bytes allocated by each live thread, or null if the JVM cannot measure it.
+     * The count of a thread that is starting or exiting can be garbage, so each thread is
+     * measured twice and the lower count is used.
+     */
+    private static Map<Long, Long> measureThreadAllocatedBytes()
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        if (!allocations.isThreadAllocatedMemorySupported() || !allocations.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+
+        long[] threadIds = threads.getAllThreadIds();
+        long[] first = allocations.getThreadAllocatedBytes(threadIds);
+        long[] second = allocations.getThreadAllocatedBytes(threadIds);
+
+        ImmutableMap.Builder<Long, Long> allocatedBytes = ImmutableMap.builder();
+        for (int i = 0; i < threadIds.length; i++) {
+            // a thread that has exited is -1
+            if (first[i] >= 0 && second[i] >= 0) {
+                allocatedBytes.put(threadIds[i], min(first[i], second[i]));
+            }
+        }
+        return allocatedBytes.build();
+    }
+
+    /**
+     * Returns the collections and allocations between the given snapshot and this one, with
+     * the heap usage of this one. Only the allocations of the threads still running are
+     * included.
+     */
+    public RuntimeStats since(RuntimeStats start)
+    {
+        ImmutableMap.Builder<String, GcStats> garbageCollectors = ImmutableMap.builder();
+        for (Map.Entry<String, GcStats> entry : this.garbageCollectors.entrySet()) {
+            GcStats startStats = start.garbageCollectors.get(entry.getKey());
+            GcStats endStats = entry.getValue();
+            if (startStats == null) {
+                garbageCollectors.put(entry);
+            }
+            else {
+                garbageCollectors.put(entry.getKey(), new GcStats(
+                        endStats.getCollections() - startStats.getCollections(),
+                        endStats.getTimeMillis() - startStats.getTimeMillis()));
+            }
+        }
+
+        Map<Long, Long> threadAllocatedBytes = null;
+        if (this.threadAllocatedBytes != null && start.threadAllocatedBytes != null) {
+            ImmutableMap.Builder<Long, Long> builder = ImmutableMap.builder();
+            for (Map.Entry<Long, Long> entry : this.threadAllocatedBytes.entrySet()) {
+                Long startBytes = start.threadAllocatedBytes.get(entry.getKey());
+                builder.put(entry.getKey(), max(entry.getValue() - (startBytes == null ? 0 : startBytes), 0));
+            }
+            threadAllocatedBytes = builder.build();
+        }
+        return new RuntimeStats(garbageCollectors.build(), threadAllocatedBytes, heapUsedBytes);
+    }
+
+    @JsonProperty
+    public Map<String, GcStats> getGarbageCollectors()
+    {
+        return garbageCollectors;
+    }
+
+    public long getGcTimeMillis()
+    {
+        long timeMillis = 0;
+        for (GcStats stats : garbageCollectors.values()) {
+            timeMillis += stats.getTimeMillis();
+        }
+        return timeMillis;
+    }
+
+    /**
+     * Returns the bytes allocated, or -1 if the JVM cannot measure allocation
+     */
+    @JsonProperty
+    public long getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    @JsonProperty
+    public long getHeapUsedBytes()
+    {
+        return heapUsedBytes;
+    }
+
+    public static class GcStats
+    {
+        private final long collections;
+        private final long timeMillis;
+
+        @JsonCreator
+        public GcStats(
+                @JsonProperty("collections") long collections,
+                @JsonProperty("timeMillis") long timeMillis)
+        {
+            this.collections = collections;
+            this.timeMillis = timeMillis;
+        }
+
+        @JsonProperty
+        public long getCollections()
+        {
+            return collections;
+        }
+
+        @JsonProperty
+        public long getTimeMillis()
+        {
+            return timeMillis;
+        }
+    }
+}
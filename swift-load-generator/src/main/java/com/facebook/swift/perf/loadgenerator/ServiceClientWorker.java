@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.facebook.nifty.client.NiftyClientChannel;
+import com.facebook.nifty.client.NiftyClientConnector;
+import com.facebook.swift.perf.loadgenerator.ServiceRequestGenerator.ServiceMethod;
+import com.facebook.swift.service.ThriftClient;
+import com.facebook.swift.service.ThriftClientManager;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+import org.apache.thrift.transport.TTransportException;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load tests the service given with {@code -service}, calling its methods synchronously on a
+ * thread of its own. Methods returning a future are waited on.
+ */
+public class ServiceClientWorker extends AbstractClientWorker
+{
+    private static final Logger logger = Logger.get(ServiceClientWorker.class);
+    private final ThriftClient<?> client;
+    private final ServiceRequestGenerator requestGenerator;
+    private final NiftyClientConnector<? extends NiftyClientChannel> connector;
+    private volatile boolean shutdownRequested = false;
+
+    @Inject
+    public ServiceClientWorker(
+            LoadGeneratorCommandLineConfig config,
+            ThriftClientManager clientManager,
+            ServiceRequestGenerator requestGenerator,
+            NiftyClientConnector<? extends NiftyClientChannel> connector)
+    {
+        super(config);
+        this.requestGenerator = requestGenerator;
+        this.connector = connector;
+
+        ThriftClient<?> client = new ThriftClient<>(clientManager, requestGenerator.getServiceType());
+        if (config.connectTimeoutMilliseconds > 0) {
+            client = client.withConnectTimeout(new Duration(config.connectTimeoutMilliseconds, TimeUnit.MILLISECONDS));
+        }
+        if (config.receiveTimeoutMilliseconds > 0) {
+            client = client.withReadTimeout(new Duration(config.receiveTimeoutMilliseconds, TimeUnit.MILLISECONDS));
+        }
+        if (config.sendTimeoutMilliseconds > 0) {
+            client = client.withWriteTimeout(new Duration(config.sendTimeoutMilliseconds, TimeUnit.MILLISECONDS));
+        }
+        this.client = client;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        this.shutdownRequested = true;
+    }
+
+    @Override
+    public void run()
+    {
+        new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while (!shutdownRequested) {
+                    try (Closeable service = (Closeable) client.open(connector).get()) {
+                        logger.debug("Worker connected");
+                        for (int i = 0; i < getOperationsPerConnection() && !shutdownRequested; i++) {
+                            sendRequest(service, awaitNextRequestTime());
+                        }
+                    }
+                    catch (Exception ex) {
+                        logger.error("Connection failed: %s", Throwables.getRootCause(ex).getMessage());
+                        Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+                    }
+                }
+            }
+        }).start();
+    }
+
+    private void sendRequest(Object service, long startTime)
+            throws TTransportException
+    {
+        ServiceMethod method = requestGenerator.nextMethod();
+        try {
+            Object result = method.getMethod().invoke(service, method.nextArguments());
+            if (result instanceof Future) {
+                ((Future<?>) result).get();
+            }
+        }
+        catch (InvocationTargetException | ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (!method.isDeclaredException(cause)) {
+                requestsFailed.incrementAndGet();
+
+                // The connection cannot be used after a transport error
+                TTransportException transportException = findTransportException(cause);
+                if (transportException != null) {
+                    throw transportException;
+                }
+                logger.error("%s failed: %s", method.getName(), Throwables.getRootCause(cause).getMessage());
+                return;
+            }
+        }
+        catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            requestsFailed.incrementAndGet();
+            return;
+        }
+
+        latencies.record(method.getName(), startTime);
+        requestsProcessed.incrementAndGet();
+    }
+
+    private static TTransportException findTransportException(Throwable t)
+    {
+        for (Throwable cause : Throwables.getCausalChain(t)) {
+            if (cause instanceof TTransportException) {
+                return (TTransportException) cause;
+            }
+        }
+        return null;
+    }
+}
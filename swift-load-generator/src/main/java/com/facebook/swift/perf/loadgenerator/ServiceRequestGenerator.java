@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.ThriftField.Requiredness;
+import com.facebook.swift.codec.ThriftProtocolType;
+import com.facebook.swift.codec.metadata.FieldKind;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftStructMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.service.metadata.ThriftMethodMetadata;
+import com.facebook.swift.service.metadata.ThriftServiceMetadata;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
+import com.google.inject.Inject;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMap;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Generates the requests of a load test of any {@link com.facebook.swift.service.ThriftService}
+ * interface. Each request calls a method chosen by weight, with arguments taken from a corpus, or
+ * from argument sets generated at random from the metadata of the method's parameters. Random
+ * values are written to a protocol according to their {@link ThriftType}, and read back with the
+ * codec of the parameter, so any type the codecs can read can be generated.
+ */
+public class ServiceRequestGenerator
+{
+    private static final int MAX_DEPTH = 4;
+
+    private final ThriftCodecManager codecManager;
+    private final Class<?> serviceType;
+    private final List<ServiceMethod> methods;
+    private final int totalWeight;
+    private final Random random = new Random();
+    private final double payloadAverage;
+    private final double payloadSigma;
+    private final double containerAverage;
+
+    @Inject
+    public ServiceRequestGenerator(LoadGeneratorCommandLineConfig config, ThriftCodecManager codecManager)
+            throws Exception
+    {
+        this.codecManager = codecManager;
+        this.serviceType = Class.forName(config.serviceClass);
+        this.payloadAverage = config.payloadAverage;
+        this.payloadSigma = config.payloadSigma;
+        this.containerAverage = config.containerAverage;
+
+        ThriftServiceMetadata serviceMetadata = new ThriftServiceMetadata(serviceType, codecManager.getCatalog());
+        Map<String, Integer> weights = parseWeights(config.methodWeights, serviceMetadata);
+        ListMultimap<String, Object[]> corpus = ArrayListMultimap.create();
+        if (config.corpusFile != null) {
+            readCorpus(new File(config.corpusFile), serviceMetadata, corpus);
+        }
+
+        ImmutableList.Builder<ServiceMethod> methods = ImmutableList.builder();
+        int totalWeight = 0;
+        for (ThriftMethodMetadata method : serviceMetadata.getMethods().values()) {
+            Integer weight = weights.get(method.getName());
+            if (weight == null) {
+                weight = weights.isEmpty() ? 1 : 0;
+            }
+            if (weight == 0) {
+                continue;
+            }
+
+            List<Object[]> arguments = corpus.get(method.getName());
+            if (arguments.isEmpty()) {
+                arguments = new ArrayList<>();
+                for (int i = 0; i < config.argumentSets; i++) {
+                    arguments.add(randomArguments(method));
+                }
+            }
+            methods.add(new ServiceMethod(method, weight, arguments));
+            totalWeight += weight;
+        }
+        this.methods = methods.build();
+        this.totalWeight = totalWeight;
+        checkArgument(totalWeight > 0, "No methods of %s have a weight", serviceType.getName());
+    }
+
+    public Class<?> getServiceType()
+    {
+        return serviceType;
+    }
+
+    /**
+     * Chooses the method of the next request by weight
+     */
+    public ServiceMethod nextMethod()
+    {
+        int remaining = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (ServiceMethod method : methods) {
+            remaining -= method.getWeight();
+            if (remaining < 0) {
+                return method;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private static Map<String, Integer> parseWeights(List<String> methodWeights, ThriftServiceMetadata service)
+    {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String methodWeight : methodWeights) {
+            List<String> parts = Splitter.on('=').trimResults().splitToList(methodWeight);
+            checkArgument(parts.size() == 2, "Method weight is not name=weight: %s", methodWeight);
+            checkArgument(service.getMethod(parts.get(0)) != null, "Service %s has no method %s", service.getName(), parts.get(0));
+            Integer weight = Ints.tryParse(parts.get(1));
+            checkArgument(weight != null && weight >= 0, "Invalid weight for method %s: %s", parts.get(0), parts.get(1));
+            weights.put(parts.get(0), weight);
+        }
+        return weights;
+    }
+
+    /**
+     * Reads a corpus file, with one call per line: the method name, a tab, and the arguments
+     * struct of the call in {@link TJSONProtocol} encoding, such as {@code {"1":{"i64":5}}}.
+     * Arguments missing from a call are generated at random. Blank lines and lines starting
+     * with '#' are ignored.
+     */
+    private void readCorpus(File file, ThriftServiceMetadata service, ListMultimap<String, Object[]> corpus)
+            throws Exception
+    {
+        for (String line : Files.readLines(file, UTF_8)) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            int tab = line.indexOf('\t');
+            checkArgument(tab > 0, "Corpus line is not a method name and arguments separated by a tab: %s", line);
+            String name = line.substring(0, tab);
+            ThriftMethodMetadata method = service.getMethod(name);
+            checkArgument(method != null, "Service %s has no method %s", service.getName(), name);
+
+            TProtocol protocol = new TJSONProtocol(new TMemoryInputTransport(line.substring(tab + 1).getBytes(UTF_8)));
+            corpus.put(name, readArguments(method, protocol));
+        }
+    }
+
+    private Object[] readArguments(ThriftMethodMetadata method, TProtocol protocol)
+            throws Exception
+    {
+        List<ThriftFieldMetadata> parameters = method.getParameters();
+        Object[] arguments = new Object[parameters.size()];
+        boolean[] present = new boolean[parameters.size()];
+
+        protocol.readStructBegin();
+        while (true) {
+            TField field = protocol.readFieldBegin();
+            if (field.type == TType.STOP) {
+                break;
+            }
+
+            int index = getParameterIndex(parameters, field.id);
+            if (index < 0) {
+                TProtocolUtil.skip(protocol, field.type);
+            }
+            else {
+                arguments[index] = codecManager.read(parameters.get(index).getThriftType(), protocol);
+                present[index] = true;
+            }
+            protocol.readFieldEnd();
+        }
+        protocol.readStructEnd();
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (!present[i]) {
+                arguments[i] = randomValue(parameters.get(i).getThriftType());
+            }
+        }
+        return arguments;
+    }
+
+    private static int getParameterIndex(List<ThriftFieldMetadata> parameters, short id)
+    {
+        for (int i = 0; i < parameters.size(); i++) {
+            if (parameters.get(i).getId() == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private Object[] randomArguments(ThriftMethodMetadata method)
+            throws Exception
+    {
+        List<ThriftFieldMetadata> parameters = method.getParameters();
+        Object[] arguments = new Object[parameters.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = randomValue(parameters.get(i).getThriftType());
+        }
+        return arguments;
+    }
+
+    private Object randomValue(ThriftType type)
+            throws Exception
+    {
+        TMemoryBuffer buffer = new TMemoryBuffer(1024);
+        TProtocol protocol = new TBinaryProtocol(buffer);
+        writeRandomValue(type, protocol, 0);
+        return codecManager.read(type, protocol);
+    }
+
+    private void writeRandomValue(ThriftType type, TProtocol protocol, int depth)
+            throws Exception
+    {
+        switch (type.getProtocolType()) {
+            case BOOL:
+                protocol.writeBool(random.nextBoolean());
+                break;
+            case BYTE:
+                protocol.writeByte((byte) random.nextInt());
+                break;
+            case I16:
+                protocol.writeI16((short) random.nextInt());
+                break;
+            case I32:
+                protocol.writeI32(random.nextInt());
+                break;
+            case I64:
+                protocol.writeI64(random.nextLong());
+                break;
+            case DOUBLE:
+                protocol.writeDouble(random.nextDouble());
+                break;
+            case STRING:
+                protocol.writeString(randomString(nextPayloadSize()));
+                break;
+            case BINARY:
+                byte[] bytes = new byte[nextPayloadSize()];
+                random.nextBytes(bytes);
+                protocol.writeBinary(ByteBuffer.wrap(bytes));
+                break;
+            case ENUM:
+                protocol.writeI32(randomEnumValue(type));
+                break;
+            case STRUCT:
+                writeRandomStruct(type.getStructMetadata(), protocol, depth);
+                break;
+            case LIST: {
+                ThriftType elementType = type.getValueTypeReference().get();
+                int size = nextContainerSize(depth);
+                protocol.writeListBegin(new TList(elementType.getProtocolType().getType(), size));
+                for (int i = 0; i < size; i++) {
+                    writeRandomValue(elementType, protocol, depth + 1);
+                }
+                protocol.writeListEnd();
+                break;
+            }
+            case SET: {
+                ThriftType elementType = type.getValueTypeReference().get();
+                int size = nextContainerSize(depth);
+                protocol.writeSetBegin(new TSet(elementType.getProtocolType().getType(), size));
+                for (int i = 0; i < size; i++) {
+                    writeRandomValue(elementType, protocol, depth + 1);
+                }
+                protocol.writeSetEnd();
+                break;
+            }
+            case MAP: {
+                ThriftType keyType = type.getKeyTypeReference().get();
+                ThriftType valueType = type.getValueTypeReference().get();
+                int size = nextContainerSize(depth);
+                protocol.writeMapBegin(new TMap(keyType.getProtocolType().getType(), valueType.getProtocolType().getType(), size));
+                for (int i = 0; i < size; i++) {
+                    writeRandomValue(keyType, protocol, depth + 1);
+                    writeRandomValue(valueType, protocol, depth + 1);
+                }
+                protocol.writeMapEnd();
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot generate values of type " + type);
+        }
+    }
+
+    /**
+     * Writes every field of a struct, or one field of a union. Beyond the maximum depth, only
+     * required fields are written, so recursive structs end.
+     */
+    private void writeRandomStruct(ThriftStructMetadata struct, TProtocol protocol, int depth)
+            throws Exception
+    {
+        List<ThriftFieldMetadata> fields = new ArrayList<>();
+        for (ThriftFieldMetadata field : struct.getFields(FieldKind.THRIFT_FIELD)) {
+            if (depth < MAX_DEPTH || field.getRequiredness() == Requiredness.REQUIRED) {
+                fields.add(field);
+            }
+        }
+        if (struct.isUnion() && !fields.isEmpty()) {
+            fields = ImmutableList.of(fields.get(random.nextInt(fields.size())));
+        }
+
+        protocol.writeStructBegin(new TStruct(struct.getStructName()));
+        for (ThriftFieldMetadata field : fields) {
+            ThriftType fieldType = field.getThriftType();
+            protocol.writeFieldBegin(new TField(field.getName(), fieldType.getProtocolType().getType(), field.getId()));
+            writeRandomValue(fieldType, protocol, depth + 1);
+            protocol.writeFieldEnd();
+        }
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+    }
+
+    private int randomEnumValue(ThriftType type)
+    {
+        if (type.getEnumMetadata().hasExplicitThriftValue()) {
+            Collection<Integer> values = type.getEnumMetadata().getByEnumConstant().values();
+            return ImmutableList.copyOf(values).get(random.nextInt(values.size()));
+        }
+        return random.nextInt(type.getEnumMetadata().getEnumClass().getEnumConstants().length);
+    }
+
+    private String randomString(int length)
+    {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(chars);
+    }
+
+    private int nextPayloadSize()
+    {
+        return (int) Math.round(AbstractClientWorker.logNormalSample(payloadAverage, payloadSigma));
+    }
+
+    private int nextContainerSize(int depth)
+    {
+        if (depth >= MAX_DEPTH) {
+            return 0;
+        }
+        return random.nextInt((int) Math.round(containerAverage * 2) + 1);
+    }
+
+    /**
+     * A method of the service under test, with the argument sets of its requests
+     */
+    public static class ServiceMethod
+    {
+        private final ThriftMethodMetadata metadata;
+        private final int weight;
+        private final List<Object[]> arguments;
+
+        private ServiceMethod(ThriftMethodMetadata metadata, int weight, List<Object[]> arguments)
+        {
+            this.metadata = metadata;
+            this.weight = weight;
+            this.arguments = ImmutableList.copyOf(arguments);
+        }
+
+        public String getName()
+        {
+            return metadata.getName();
+        }
+
+        public Method getMethod()
+        {
+            return metadata.getMethod();
+        }
+
+        public int getWeight()
+        {
+            return weight;
+        }
+
+        public Object[] nextArguments()
+        {
+            return arguments.get(ThreadLocalRandom.current().nextInt(arguments.size()));
+        }
+
+        /**
+         * Returns true if the exception is one the method declares, so the call completed
+         * normally from the point of view of the protocol
+         */
+        public boolean isDeclaredException(Throwable t)
+        {
+            for (ThriftType exceptionType : metadata.getExceptions().values()) {
+                if (((Class<?>) exceptionType.getJavaType()).isInstance(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -66,7 +66,7 @@ public class SyncClientWorker extends AbstractClientWorker
                         try (SyncLoadTest client = SyncClientWorker.this.client.open(connector).get()) {
                             logger.debug("Worker connected");
                             for (int i = 0; i < getOperationsPerConnection(); i++) {
-                                sendRequest(client);
+                                sendRequest(client, awaitNextRequestTime());
                             }
                         }
                     }
@@ -83,11 +83,11 @@ public class SyncClientWorker extends AbstractClientWorker
         }).start();
     }
 
-    private void sendRequest(SyncLoadTest client)
+    private void sendRequest(SyncLoadTest client, long startTime)
             throws TException
     {
+        Operation operation = nextOperation();
         try {
-            Operation operation = nextOperation();
             switch (operation) {
                 case NOOP:
                     client.noop();
@@ -169,6 +169,7 @@ public class SyncClientWorker extends AbstractClientWorker
             throw ex;
         }
 
+        latencies.record(operation, startTime);
         requestsProcessed.incrementAndGet();
     }
 }
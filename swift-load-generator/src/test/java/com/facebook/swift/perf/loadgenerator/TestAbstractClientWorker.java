@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import org.testng.annotations.Test;
+
+import static com.facebook.swift.perf.loadgenerator.AbstractClientWorker.logNormalSample;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestAbstractClientWorker
+{
+    private static final int SAMPLES = 100_000;
+
+    @Test
+    public void testLogNormalMean()
+    {
+        double sum = 0;
+        boolean variable = false;
+        for (int i = 0; i < SAMPLES; i++) {
+            double sample = logNormalSample(1000, 0.5);
+            assertTrue(sample > 0);
+            variable |= Math.abs(sample - 1000) > 100;
+            sum += sample;
+        }
+
+        // the standard deviation is about 530, so the standard error of the mean is about 1.7
+        assertEquals(sum / SAMPLES, 1000, 20);
+        assertTrue(variable, "samples are not distributed");
+    }
+
+    @Test
+    public void testNoSigmaReturnsMean()
+    {
+        assertEquals(logNormalSample(1000, -1), 1000.0);
+        assertEquals(logNormalSample(1000, 0), 1000.0);
+    }
+}
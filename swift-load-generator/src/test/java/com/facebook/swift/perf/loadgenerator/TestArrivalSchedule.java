@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestArrivalSchedule
+{
+    private static final int ARRIVALS = 100_000;
+
+    @Test
+    public void testUniformInterval()
+    {
+        ArrivalSchedule schedule = new ArrivalSchedule(ArrivalDistribution.UNIFORM, 1000);
+        long last = schedule.next();
+        for (int i = 0; i < ARRIVALS; i++) {
+            long time = schedule.next();
+            assertEquals(time - last, 1_000_000, 1);
+            last = time;
+        }
+    }
+
+    @Test
+    public void testPoissonMeanInterval()
+    {
+        ArrivalSchedule schedule = new ArrivalSchedule(ArrivalDistribution.POISSON, 1000);
+        long first = schedule.next();
+        long last = first;
+        boolean variable = false;
+        for (int i = 0; i < ARRIVALS; i++) {
+            long time = schedule.next();
+            assertTrue(time >= last);
+            variable |= Math.abs(time - last - 1_000_000) > 100_000;
+            last = time;
+        }
+
+        // the standard error of the mean interval is 1ms / sqrt(ARRIVALS), about 0.3%
+        double meanInterval = (last - first) / (double) ARRIVALS;
+        assertEquals(meanInterval, 1_000_000, 30_000);
+        assertTrue(variable, "intervals are not exponentially distributed");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testRateMustBePositive()
+    {
+        new ArrivalSchedule(ArrivalDistribution.UNIFORM, 0);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.perf.loadgenerator;
+
+import com.facebook.swift.perf.loadgenerator.CompareResults.Metric;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestCompareResults
+{
+    @Test
+    public void testThreshold()
+    {
+        assertTrue(new Metric("latency", 100, 106, false, 0).isRegression(5));
+        assertFalse(new Metric("latency", 100, 104, false, 0).isRegression(5));
+        assertFalse(new Metric("latency", 100, 106, false, 0).isRegression(10));
+    }
+
+    @Test
+    public void testMinDelta()
+    {
+        assertFalse(new Metric("latency", 100, 200, false, 100).isRegression(5));
+        assertTrue(new Metric("latency", 100, 201, false, 100).isRegression(5));
+    }
+
+    @Test
+    public void testZeroBaseline()
+    {
+        assertFalse(new Metric("failure rate", 0, 0, false, 0).isRegression(5));
+        assertTrue(new Metric("failure rate", 0, 1, false, 0).isRegression(5));
+        assertFalse(new Metric("failure rate", 0, 1, false, 1).isRegression(5));
+        assertFalse(new Metric("throughput", 0, 1, true, 0).isRegression(5));
+    }
+
+    @Test
+    public void testHigherIsBetter()
+    {
+        assertTrue(new Metric("throughput", 100, 90, true, 0).isRegression(5));
+        assertFalse(new Metric("throughput", 100, 110, true, 0).isRegression(5));
+        assertFalse(new Metric("latency", 100, 90, false, 0).isRegression(5));
+    }
+
+    @Test
+    public void testJmhResults()
+            throws IOException
+    {
+        File baselineFile = writeJmhResults(1000, 10, 200);
+        File candidateFile = writeJmhResults(900, 10, 200);
+        File loadGeneratorFile = File.createTempFile("results", ".json");
+        try {
+            Files.write(loadGeneratorFile.toPath(), "{\"config\": {}}".getBytes(UTF_8));
+            assertTrue(JmhResult.isJmhResult(baselineFile));
+            assertFalse(JmhResult.isJmhResult(loadGeneratorFile));
+
+            List<JmhResult> baseline = JmhResult.readJson(baselineFile);
+            assertEquals(baseline.size(), 2);
+            JmhResult throughput = baseline.get(0);
+            assertEquals(throughput.getName(), "CodecBenchmark.read{shape=flat}");
+            assertTrue(throughput.isHigherBetter());
+            assertEquals(throughput.getAllocationPerOperation().getScore(), 200.0);
+            assertTrue(Double.isNaN(baseline.get(1).getPrimaryMetric().getScoreError()));
+            assertFalse(baseline.get(1).isHigherBetter());
+            assertNull(baseline.get(1).getAllocationPerOperation());
+
+            CompareResults compareResults = new CompareResults();
+            assertFalse(compareResults.compareJmh(baseline, JmhResult.readJson(baselineFile)));
+            assertTrue(compareResults.compareJmh(baseline, JmhResult.readJson(candidateFile)));
+
+            // a drop within the error of the scores is noise
+            assertFalse(compareResults.compareJmh(baseline, JmhResult.readJson(writeJmhResults(985, 10, 200))));
+        }
+        finally {
+            baselineFile.delete();
+            candidateFile.delete();
+            loadGeneratorFile.delete();
+        }
+    }
+
+    private static File writeJmhResults(double throughput, double error, double allocation)
+            throws IOException
+    {
+        String json = "[\n" +
+                "  {\n" +
+                "    \"jmhVersion\" : \"1.21\",\n" +
+                "    \"benchmark\" : \"com.facebook.swift.perf.benchmarks.codec.CodecBenchmark.read\",\n" +
+                "    \"mode\" : \"thrpt\",\n" +
+                "    \"threads\" : 1,\n" +
+                "    \"params\" : { \"shape\" : \"flat\" },\n" +
+                "    \"primaryMetric\" : { \"score\" : " + throughput + ", \"scoreError\" : " + error + ", \"scoreUnit\" : \"ops/s\", \"rawData\" : [ [ 1.0 ] ] },\n" +
+                "    \"secondaryMetrics\" : {\n" +
+                "      \"\u00b7gc.alloc.rate.norm\" : { \"score\" : " + allocation + ", \"scoreError\" : \"NaN\", \"scoreUnit\" : \"B/op\" }\n" +
+                "    }\n" +
+                "  },\n" +
+                "  {\n" +
+                "    \"benchmark\" : \"com.facebook.swift.perf.benchmarks.rpc.RpcBenchmark.call\",\n" +
+                "    \"mode\" : \"avgt\",\n" +
+                "    \"primaryMetric\" : { \"score\" : 50.0, \"scoreError\" : \"NaN\", \"scoreUnit\" : \"us/op\" },\n" +
+                "    \"secondaryMetrics\" : { }\n" +
+                "  }\n" +
+                "]\n";
+        File file = File.createTempFile("jmh", ".json");
+        Files.write(file.toPath(), json.getBytes(UTF_8));
+        return file;
+    }
+}
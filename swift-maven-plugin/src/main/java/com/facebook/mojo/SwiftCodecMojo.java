@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.mojo;
+
+import com.facebook.swift.codec.internal.compiler.ThriftCodecPrecompiler;
+import com.facebook.swift.codec.metadata.ThriftCatalog;
+import com.google.common.base.Throwables;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+
+/**
+ * Generates the codecs of all compiled {@code @ThriftStruct} and {@code @ThriftUnion} classes
+ * ahead of time, so that they do not need to be generated when they are first used at runtime.
+ */
+@Mojo(name = "generate-codecs", defaultPhase = LifecyclePhase.PROCESS_CLASSES, requiresDependencyResolution = ResolutionScope.COMPILE)
+public class SwiftCodecMojo extends AbstractMojo
+{
+    /**
+     * Skip the plugin execution.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean skip = false;
+
+    /**
+     * The folder holding the compiled classes to generate codecs for.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File classesFolder = null;
+
+    /**
+     * Set the Output folder for the generated codec classes and the codec registry. The folder
+     * must end up on the runtime class path, next to the classes.
+     */
+    @Parameter(defaultValue = "${project.build.outputDirectory}", required = true)
+    private File outputFolder = null;
+
+    /**
+     * Classes holding additional default type coercions used by the structs at runtime.
+     */
+    @Parameter
+    private List<String> coercions = new ArrayList<>();
+
+    /**
+     * Fail the build if the codec for one of the classes can not be generated. If false, the
+     * class is skipped and its codec is generated at runtime.
+     */
+    @Parameter(defaultValue = "false")
+    private boolean failOnError = false;
+
+    @Parameter(defaultValue = "${project}", required = true, readonly = true)
+    private MavenProject project = null;
+
+    @Override
+    public final void execute() throws MojoExecutionException, MojoFailureException
+    {
+        if (skip || !classesFolder.isDirectory())
+        {
+            return;
+        }
+
+        try (URLClassLoader classLoader = createClassLoader())
+        {
+            ThriftCatalog catalog = new ThriftCatalog();
+            for (String coercion : coercions)
+            {
+                catalog.addDefaultCoercions(classLoader.loadClass(coercion));
+            }
+
+            ThriftCodecPrecompiler precompiler = new ThriftCodecPrecompiler(classLoader, catalog);
+            for (String className : getClassNames())
+            {
+                Class<?> type;
+                try
+                {
+                    type = Class.forName(className, false, classLoader);
+                }
+                catch (ClassNotFoundException | LinkageError e)
+                {
+                    getLog().debug(format("Skipping class %s: %s", className, e));
+                    continue;
+                }
+
+                if (!ThriftCatalog.isStructType(type) || type.getTypeParameters().length > 0)
+                {
+                    continue;
+                }
+
+                try
+                {
+                    precompiler.compile(type);
+                }
+                catch (RuntimeException | LinkageError e)
+                {
+                    if (failOnError)
+                    {
+                        throw new MojoFailureException(format("Could not generate the codec for %s", className), e);
+                    }
+                    getLog().warn(format("Could not generate the codec for %s, it will be generated at runtime: %s", className, e));
+                }
+            }
+
+            int written = precompiler.write(outputFolder);
+            getLog().info(format("Generated %d Thrift codecs in %s", written, outputFolder));
+        }
+        catch (Exception e)
+        {
+            Throwables.propagateIfInstanceOf(e, MojoExecutionException.class);
+            Throwables.propagateIfInstanceOf(e, MojoFailureException.class);
+
+            getLog().error(format("While executing Mojo %s", this.getClass().getSimpleName()), e);
+            throw new MojoExecutionException("Failure:", e);
+        }
+    }
+
+    private URLClassLoader createClassLoader() throws Exception
+    {
+        List<URL> urls = new ArrayList<>();
+        urls.add(classesFolder.toURI().toURL());
+        for (String element : project.getCompileClasspathElements())
+        {
+            urls.add(new File(element).toURI().toURL());
+        }
+
+        // the plugin class loader provides the swift classes, so the annotations and
+        // coercions seen by the codec generator are the ones used by the project classes
+        return new URLClassLoader(urls.toArray(new URL[urls.size()]), getClass().getClassLoader());
+    }
+
+    private List<String> getClassNames() throws Exception
+    {
+        List<String> classNames = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        List<String> files = FileUtils.getFileNames(classesFolder, "**/*.class", "$wift/**", false);
+        for (String file : files)
+        {
+            String name = file.substring(0, file.length() - ".class".length());
+            classNames.add(name.replace(File.separatorChar, '.').replace('/', '.'));
+        }
+        return classNames;
+    }
+}
@@ -28,6 +28,7 @@ import java.io.File;
 import java.util.List;
 
 import static java.nio.file.Files.readAllLines;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(MavenJUnitTestRunner.class)
@@ -67,6 +68,35 @@ public class SwiftIntegrationTest
         assertOutcomes("namespace_fallback", "com/facebook/swift/service/scribe");
     }
 
+    @Test
+    public void testGenerateCodecs()
+        throws Exception
+    {
+        File basedir = resources.getBasedir("codecs");
+        maven.forProject(basedir)
+                .execute("process-classes")
+                .assertErrorFreeLog();
+
+        File classes = new File(basedir, "target/classes");
+        List<String> registry = readAllLines(classes.toPath().resolve("META-INF/swift/codecs"));
+        assertCodec(classes, registry, "com.facebook.swift.its.codecs.Point");
+        assertCodec(classes, registry, "com.facebook.swift.its.codecs.Path");
+    }
+
+    private static void assertCodec(File classes, List<String> registry, String structClassName)
+    {
+        // struct-class codec-class fingerprint generator-fingerprint, where the codec class name
+        // ends with the fingerprint
+        String[] entry = registry.stream()
+                .filter(line -> line.startsWith(structClassName + " "))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No codec registered for " + structClassName))
+                .split(" ");
+        assertEquals(4, entry.length);
+        assertEquals("$wift." + structClassName + "Codec$" + entry[2], entry[1]);
+        assertTrue(new File(classes, entry[1].replace('.', '/') + ".class").isFile());
+    }
+
     private void assertOutcomes(String project, String expectedJavaNamespace)
         throws Exception
     {
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.its.codecs;
+
+import com.facebook.swift.codec.ThriftConstructor;
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftStruct;
+
+@ThriftStruct
+public final class Path
+{
+    private final Point start;
+    private final Point end;
+
+    @ThriftConstructor
+    public Path(Point start, Point end)
+    {
+        this.start = start;
+        this.end = end;
+    }
+
+    @ThriftField(1)
+    public Point getStart()
+    {
+        return start;
+    }
+
+    @ThriftField(2)
+    public Point getEnd()
+    {
+        return end;
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.its.codecs;
+
+import com.facebook.swift.codec.ThriftConstructor;
+import com.facebook.swift.codec.ThriftField;
+import com.facebook.swift.codec.ThriftStruct;
+
+import java.util.List;
+
+@ThriftStruct
+public final class Point
+{
+    private final int x;
+    private final int y;
+    private final List<Point> neighbours;
+
+    @ThriftConstructor
+    public Point(int x, int y, List<Point> neighbours)
+    {
+        this.x = x;
+        this.y = y;
+        this.neighbours = neighbours;
+    }
+
+    @ThriftField(1)
+    public int getX()
+    {
+        return x;
+    }
+
+    @ThriftField(2)
+    public int getY()
+    {
+        return y;
+    }
+
+    @ThriftField(value = 3, isRecursive = ThriftField.Recursiveness.TRUE)
+    public List<Point> getNeighbours()
+    {
+        return neighbours;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A request frame captured by a {@link ThriftServer}, with the name of the method called and
+ * the wall-clock time the frame arrived. The frame is the Thrift message without transport
+ * framing, encoded in the protocol of the server that captured it.
+ */
+public final class CapturedRequest
+{
+    private final long timestampMicros;
+    private final String methodName;
+    private final byte[] frame;
+
+    public CapturedRequest(long timestampMicros, String methodName, byte[] frame)
+    {
+        this.timestampMicros = timestampMicros;
+        this.methodName = checkNotNull(methodName, "methodName is null");
+        this.frame = checkNotNull(frame, "frame is null");
+    }
+
+    /**
+     * Returns the time the request arrived, in microseconds since the epoch
+     */
+    public long getTimestampMicros()
+    {
+        return timestampMicros;
+    }
+
+    public String getMethodName()
+    {
+        return methodName;
+    }
+
+    public byte[] getFrame()
+    {
+        return frame;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("timestampMicros", timestampMicros)
+                .add("methodName", methodName)
+                .add("frameSize", frame.length)
+                .toString();
+    }
+}
@@ -17,71 +17,89 @@ package com.facebook.swift.service;
 
 import com.facebook.nifty.client.ClientRequestContext;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class ClientContextChain
 {
-    private final List<? extends ThriftClientEventHandler> handlers;
+    private static final Object[] NO_CONTEXTS = new Object[0];
+
+    private final ThriftClientEventHandler[] handlers;
     private final String methodName;
-    private final List<Object> contexts;
+    private final Object[] contexts;
 
-    ClientContextChain(List<? extends ThriftClientEventHandler> handlers, String methodName, ClientRequestContext requestContext)
+    /**
+     * @param handlers the handlers bound to the method, see {@link ThriftClientEventHandler#bind}
+     */
+    ClientContextChain(ThriftClientEventHandler[] handlers, String methodName, ClientRequestContext requestContext)
     {
         this.handlers = handlers;
         this.methodName = methodName;
-        this.contexts = new ArrayList<>();
-        for (ThriftClientEventHandler h: this.handlers) {
-            this.contexts.add(h.getContext(methodName, requestContext));
+        if (handlers.length == 0) {
+            this.contexts = NO_CONTEXTS;
+        }
+        else {
+            this.contexts = new Object[handlers.length];
+            for (int i = 0; i < handlers.length; i++) {
+                contexts[i] = handlers[i].getContext(methodName, requestContext);
+            }
+        }
+    }
+
+    static ThriftClientEventHandler[] bind(List<? extends ThriftClientEventHandler> handlers, String methodName)
+    {
+        ThriftClientEventHandler[] boundHandlers = new ThriftClientEventHandler[handlers.size()];
+        for (int i = 0; i < boundHandlers.length; i++) {
+            boundHandlers[i] = handlers.get(i).bind(methodName);
         }
+        return boundHandlers;
     }
 
     public void preWrite(Object[] args)
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).preWrite(contexts.get(i), methodName, args);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].preWrite(contexts[i], methodName, args);
         }
     }
 
     public void postWrite(Object[] args)
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).postWrite(contexts.get(i), methodName, args);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].postWrite(contexts[i], methodName, args);
         }
     }
 
     public void preRead()
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).preRead(contexts.get(i), methodName);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].preRead(contexts[i], methodName);
         }
     }
 
     public void preReadException(Throwable t)
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).preReadException(contexts.get(i), methodName, t);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].preReadException(contexts[i], methodName, t);
         }
     }
 
     public void postRead(Object result)
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).postRead(contexts.get(i), methodName, result);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].postRead(contexts[i], methodName, result);
         }
     }
 
     public void postReadException(Throwable t)
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).postReadException(contexts.get(i), methodName, t);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].postReadException(contexts[i], methodName, t);
         }
     }
 
     public void done()
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).done(contexts.get(i), methodName);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].done(contexts[i], methodName);
         }
     }
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.core.TChannelBufferInputTransport;
+import com.facebook.nifty.core.TChannelBufferOutputTransport;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
+import com.facebook.nifty.duplex.TProtocolPair;
+import com.google.common.base.Preconditions;
+import org.apache.thrift.protocol.TProtocol;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import static com.facebook.nifty.duplex.TTransportPair.fromSeparateTransports;
+
+/**
+ * The transports and protocols a client uses to encode requests and decode responses. A client
+ * keeps one instance per thread, see {@link #threadLocal}, so concurrent calls on the same client
+ * never share them: requests are encoded on the calling thread, and responses are decoded on the
+ * thread that receives them.
+ */
+@NotThreadSafe
+public final class ClientTransports
+{
+    private final TChannelBufferInputTransport inputTransport;
+    private final TChannelBufferOutputTransport outputTransport;
+    private final TProtocol inputProtocol;
+    private final TProtocol outputProtocol;
+
+    public ClientTransports(
+            TChannelBufferInputTransport inputTransport,
+            TChannelBufferOutputTransport outputTransport,
+            TProtocol inputProtocol,
+            TProtocol outputProtocol)
+    {
+        this.inputTransport = Preconditions.checkNotNull(inputTransport, "inputTransport is null");
+        this.outputTransport = Preconditions.checkNotNull(outputTransport, "outputTransport is null");
+        this.inputProtocol = Preconditions.checkNotNull(inputProtocol, "inputProtocol is null");
+        this.outputProtocol = Preconditions.checkNotNull(outputProtocol, "outputProtocol is null");
+    }
+
+    public static ClientTransports create(TDuplexProtocolFactory protocolFactory)
+    {
+        TChannelBufferSliceInputTransport inputTransport = new TChannelBufferSliceInputTransport();
+        TChannelBufferCompositeOutputTransport outputTransport = new TChannelBufferCompositeOutputTransport();
+        TProtocolPair protocolPair = protocolFactory.getProtocolPair(fromSeparateTransports(inputTransport, outputTransport));
+        return new ClientTransports(inputTransport, outputTransport, protocolPair.getInputProtocol(), protocolPair.getOutputProtocol());
+    }
+
+    public static ThreadLocal<ClientTransports> threadLocal(final TDuplexProtocolFactory protocolFactory)
+    {
+        Preconditions.checkNotNull(protocolFactory, "protocolFactory is null");
+        return new ThreadLocal<ClientTransports>()
+        {
+            @Override
+            protected ClientTransports initialValue()
+            {
+                return create(protocolFactory);
+            }
+        };
+    }
+
+    public TChannelBufferInputTransport getInputTransport()
+    {
+        return inputTransport;
+    }
+
+    public TChannelBufferOutputTransport getOutputTransport()
+    {
+        return outputTransport;
+    }
+
+    public TProtocol getInputProtocol()
+    {
+        return inputProtocol;
+    }
+
+    public TProtocol getOutputProtocol()
+    {
+        return outputProtocol;
+    }
+}
@@ -18,87 +18,105 @@ package com.facebook.swift.service;
 import com.facebook.nifty.core.RequestContext;
 import com.facebook.swift.codec.ThriftCodec;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.thrift.TException;
 
 public class ContextChain
 {
-    private final List<ThriftEventHandler> handlers;
+    private static final Object[] NO_CONTEXTS = new Object[0];
+
+    private final ThriftEventHandler[] handlers;
     private final String methodName;
-    private final List<Object> contexts;
+    private final Object[] contexts;
 
-    ContextChain(List<ThriftEventHandler> handlers, String methodName, RequestContext requestContext)
+    /**
+     * @param handlers the handlers bound to the method, see {@link ThriftEventHandler#bind}
+     */
+    ContextChain(ThriftEventHandler[] handlers, String methodName, RequestContext requestContext)
     {
         this.handlers = handlers;
         this.methodName = methodName;
-        this.contexts = new ArrayList<>();
-        for (ThriftEventHandler h: this.handlers) {
-            this.contexts.add(h.getContext(methodName, requestContext));
+        if (handlers.length == 0) {
+            this.contexts = NO_CONTEXTS;
+        }
+        else {
+            this.contexts = new Object[handlers.length];
+            for (int i = 0; i < handlers.length; i++) {
+                contexts[i] = handlers[i].getContext(methodName, requestContext);
+            }
+        }
+    }
+
+    static ThriftEventHandler[] bind(List<? extends ThriftEventHandler> handlers, String methodName)
+    {
+        ThriftEventHandler[] boundHandlers = new ThriftEventHandler[handlers.size()];
+        for (int i = 0; i < boundHandlers.length; i++) {
+            boundHandlers[i] = handlers.get(i).bind(methodName);
         }
+        return boundHandlers;
     }
 
     public void preRead() throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).preRead(contexts.get(i), methodName);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].preRead(contexts[i], methodName);
         }
     }
 
     public void postRead(Object[] args) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).postRead(contexts.get(i), methodName, args);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].postRead(contexts[i], methodName, args);
         }
     }
 
     public void preWrite(Object result) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).preWrite(contexts.get(i), methodName, result);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].preWrite(contexts[i], methodName, result);
         }
     }
 
     public void preWriteException(Throwable t) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).preWriteException(contexts.get(i), methodName, t);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].preWriteException(contexts[i], methodName, t);
         }
     }
 
     public void postWrite(Object result) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).postWrite(contexts.get(i), methodName, result);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].postWrite(contexts[i], methodName, result);
         }
     }
 
     public void postWriteException(Throwable t) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).postWriteException(contexts.get(i), methodName, t);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].postWriteException(contexts[i], methodName, t);
         }
     }
 
     public void declaredUserException(Throwable t, ThriftCodec<?> exceptionCodec) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).declaredUserException(contexts.get(i), methodName, t, exceptionCodec);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].declaredUserException(contexts[i], methodName, t, exceptionCodec);
         }
     }
 
     public void undeclaredUserException(Throwable t) throws TException
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).undeclaredUserException(contexts.get(i), methodName, t);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].undeclaredUserException(contexts[i], methodName, t);
         }
     }
 
     public void done()
     {
-        for (int i = 0; i < handlers.size(); i++) {
-            handlers.get(i).done(contexts.get(i), methodName);
+        for (int i = 0; i < handlers.length; i++) {
+            handlers[i].done(contexts[i], methodName);
         }
     }
 }
@@ -0,0 +1,448 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.apache.thrift.transport.TTransportException.NOT_OPEN;
+
+/**
+ * A {@link RequestChannel} that spreads requests over a pool of connections to the same server.
+ * Each request is sent on the healthy connection with the fewest outstanding requests, and a new
+ * connection is opened, up to the maximum, when every connection is busy. Connections that report
+ * an error are closed and replaced, and connections that have been idle for longer than the idle
+ * timeout are closed as long as the pool keeps its minimum size.
+ * <p/>
+ * All clients sharing a pool must take their sequence ids from {@link #nextSequenceId}, because a
+ * connection matches responses to requests by sequence id.
+ */
+@ThreadSafe
+public class PooledRequestChannel
+        implements RequestChannel
+{
+    private final String description;
+    private final Supplier<? extends ListenableFuture<? extends RequestChannel>> connectionFactory;
+    private final TDuplexProtocolFactory protocolFactory;
+    private final int minConnections;
+    private final int maxConnections;
+    private final long idleTimeoutNanos;
+    private final Ticker ticker;
+    private final AtomicInteger sequenceId = new AtomicInteger(1);
+    private final List<PooledConnection> connections = new CopyOnWriteArrayList<>();
+    private final ScheduledFuture<?> evictionTask;
+
+    @GuardedBy("this")
+    private final List<ListenableFuture<PooledConnection>> pendingConnections = new ArrayList<>();
+
+    private volatile boolean closed;
+
+    /**
+     * @param description describes the server in error messages
+     * @param connectionFactory opens a new connection to the server
+     * @param protocolFactory the protocol used by the connections
+     * @param evictionExecutor runs the periodic eviction of idle connections
+     */
+    public PooledRequestChannel(
+            String description,
+            Supplier<? extends ListenableFuture<? extends RequestChannel>> connectionFactory,
+            TDuplexProtocolFactory protocolFactory,
+            int minConnections,
+            int maxConnections,
+            Duration idleTimeout,
+            ScheduledExecutorService evictionExecutor)
+    {
+        this(description, connectionFactory, protocolFactory, minConnections, maxConnections, idleTimeout, evictionExecutor, Ticker.systemTicker());
+    }
+
+    PooledRequestChannel(
+            String description,
+            Supplier<? extends ListenableFuture<? extends RequestChannel>> connectionFactory,
+            TDuplexProtocolFactory protocolFactory,
+            int minConnections,
+            int maxConnections,
+            Duration idleTimeout,
+            ScheduledExecutorService evictionExecutor,
+            Ticker ticker)
+    {
+        Preconditions.checkArgument(minConnections >= 0, "minConnections is negative");
+        Preconditions.checkArgument(maxConnections >= 1, "maxConnections must be at least 1");
+        Preconditions.checkArgument(minConnections <= maxConnections, "minConnections is greater than maxConnections");
+        Preconditions.checkNotNull(idleTimeout, "idleTimeout is null");
+        Preconditions.checkNotNull(evictionExecutor, "evictionExecutor is null");
+
+        this.description = Preconditions.checkNotNull(description, "description is null");
+        this.connectionFactory = Preconditions.checkNotNull(connectionFactory, "connectionFactory is null");
+        this.protocolFactory = Preconditions.checkNotNull(protocolFactory, "protocolFactory is null");
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.idleTimeoutNanos = idleTimeout.roundTo(NANOSECONDS);
+        this.ticker = Preconditions.checkNotNull(ticker, "ticker is null");
+
+        long evictionPeriodNanos = Math.max(idleTimeoutNanos / 2, 1);
+        this.evictionTask = evictionExecutor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                evictIdleConnections();
+            }
+        }, evictionPeriodNanos, evictionPeriodNanos, NANOSECONDS);
+
+        synchronized (this) {
+            openMinimumConnections();
+        }
+    }
+
+    public int nextSequenceId()
+    {
+        return sequenceId.getAndIncrement();
+    }
+
+    public int getConnectionCount()
+    {
+        return connections.size();
+    }
+
+    public int getOutstandingRequests()
+    {
+        int outstanding = 0;
+        for (PooledConnection connection : connections) {
+            outstanding += Math.max(connection.outstanding.get(), 0);
+        }
+        return outstanding;
+    }
+
+    @Override
+    public void sendAsynchronousRequest(final ChannelBuffer request, final boolean oneway, final Listener listener)
+            throws TException
+    {
+        if (closed) {
+            throw new TTransportException(NOT_OPEN, "Connection pool for " + description + " is closed");
+        }
+
+        PooledConnection connection = acquireConnection();
+        if (connection != null) {
+            connection.send(request, oneway, listener);
+            return;
+        }
+
+        // no connection is established yet, so the request waits for the next one
+        Futures.addCallback(awaitConnection(), new FutureCallback<PooledConnection>()
+        {
+            @Override
+            public void onSuccess(PooledConnection connection)
+            {
+                try {
+                    if (connection.acquire()) {
+                        connection.send(request, oneway, listener);
+                    }
+                    else {
+                        sendAsynchronousRequest(request, oneway, listener);
+                    }
+                }
+                catch (TException e) {
+                    listener.onChannelError(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                if (t instanceof TException) {
+                    listener.onChannelError((TException) t);
+                }
+                else {
+                    listener.onChannelError(new TTransportException(NOT_OPEN, "Could not connect to " + description, t));
+                }
+            }
+        });
+    }
+
+    /**
+     * Closes connections that have an error, and connections beyond the minimum that have been
+     * idle for longer than the idle timeout. This runs periodically.
+     */
+    public void evictIdleConnections()
+    {
+        long now = ticker.read();
+        for (PooledConnection connection : connections) {
+            if (connection.channel.hasError()) {
+                removeConnection(connection);
+            }
+            else if (connection.isIdle(now)) {
+                synchronized (this) {
+                    if (connections.size() > minConnections && connection.retire()) {
+                        removeConnection(connection);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        closed = true;
+        evictionTask.cancel(false);
+        synchronized (this) {
+            for (PooledConnection connection : connections) {
+                connection.channel.close();
+            }
+            connections.clear();
+        }
+    }
+
+    @Override
+    public boolean hasError()
+    {
+        return closed;
+    }
+
+    @Override
+    public TException getError()
+    {
+        if (closed) {
+            return new TTransportException(NOT_OPEN, "Connection pool for " + description + " is closed");
+        }
+        return null;
+    }
+
+    @Override
+    public TDuplexProtocolFactory getProtocolFactory()
+    {
+        return protocolFactory;
+    }
+
+    private PooledConnection acquireConnection()
+    {
+        boolean rescanned = false;
+        while (true) {
+            PooledConnection best = null;
+            for (PooledConnection connection : connections) {
+                if (connection.channel.hasError()) {
+                    removeConnection(connection);
+                }
+                else if (best == null || connection.outstanding.get() < best.outstanding.get()) {
+                    best = connection;
+                }
+            }
+
+            if (best == null || best.outstanding.get() > 0) {
+                // every connection is busy
+                synchronized (this) {
+                    if (pendingConnections.isEmpty() && connections.size() < maxConnections) {
+                        openConnection();
+                    }
+                }
+            }
+
+            if (best == null) {
+                if (rescanned || connections.isEmpty()) {
+                    return null;
+                }
+                // a connection was established while the pool was scanned
+                rescanned = true;
+                continue;
+            }
+            if (best.acquire()) {
+                return best;
+            }
+            // the connection was retired after it was selected
+        }
+    }
+
+    private synchronized ListenableFuture<PooledConnection> awaitConnection()
+    {
+        if (!pendingConnections.isEmpty()) {
+            return pendingConnections.get(0);
+        }
+        return openConnection();
+    }
+
+    @GuardedBy("this")
+    private void openMinimumConnections()
+    {
+        while (!closed && connections.size() + pendingConnections.size() < minConnections) {
+            openConnection();
+        }
+    }
+
+    @GuardedBy("this")
+    private ListenableFuture<PooledConnection> openConnection()
+    {
+        final ListenableFuture<PooledConnection> connectionFuture = Futures.transform(connectionFactory.get(), new Function<RequestChannel, PooledConnection>()
+        {
+            @Override
+            public PooledConnection apply(RequestChannel channel)
+            {
+                return new PooledConnection(channel);
+            }
+        });
+        pendingConnections.add(connectionFuture);
+
+        Futures.addCallback(connectionFuture, new FutureCallback<PooledConnection>()
+        {
+            @Override
+            public void onSuccess(PooledConnection connection)
+            {
+                synchronized (PooledRequestChannel.this) {
+                    pendingConnections.remove(connectionFuture);
+                    if (closed) {
+                        connection.channel.close();
+                    }
+                    else {
+                        connections.add(connection);
+                    }
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                synchronized (PooledRequestChannel.this) {
+                    pendingConnections.remove(connectionFuture);
+                }
+            }
+        });
+        return connectionFuture;
+    }
+
+    private synchronized void removeConnection(PooledConnection connection)
+    {
+        if (connections.remove(connection)) {
+            connection.channel.close();
+            openMinimumConnections();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("PooledRequestChannel");
+        sb.append("{server=").append(description);
+        sb.append(", connections=").append(connections.size());
+        sb.append(", maxConnections=").append(maxConnections);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private class PooledConnection
+    {
+        private static final int RETIRED = -1;
+
+        private final RequestChannel channel;
+        // the number of outstanding requests, or RETIRED once the connection is being closed
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private volatile long lastUsed = ticker.read();
+
+        private PooledConnection(RequestChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        public boolean acquire()
+        {
+            while (true) {
+                int current = outstanding.get();
+                if (current == RETIRED) {
+                    return false;
+                }
+                if (outstanding.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public boolean isIdle(long now)
+        {
+            return outstanding.get() == 0 && now - lastUsed >= idleTimeoutNanos;
+        }
+
+        public boolean retire()
+        {
+            return outstanding.compareAndSet(0, RETIRED);
+        }
+
+        public void send(ChannelBuffer request, final boolean oneway, final Listener listener)
+                throws TException
+        {
+            final AtomicBoolean released = new AtomicBoolean();
+            try {
+                channel.sendAsynchronousRequest(request, oneway, new Listener()
+                {
+                    @Override
+                    public void onRequestSent()
+                    {
+                        if (oneway) {
+                            release(released);
+                        }
+                        listener.onRequestSent();
+                    }
+
+                    @Override
+                    public void onResponseReceived(ChannelBuffer message)
+                    {
+                        release(released);
+                        listener.onResponseReceived(message);
+                    }
+
+                    @Override
+                    public void onChannelError(TException requestException)
+                    {
+                        release(released);
+                        listener.onChannelError(requestException);
+                    }
+                });
+            }
+            catch (TException | RuntimeException e) {
+                release(released);
+                throw e;
+            }
+        }
+
+        private void release(AtomicBoolean released)
+        {
+            if (released.compareAndSet(false, true)) {
+                lastUsed = ticker.read();
+                outstanding.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads the requests captured by a {@link ThriftServer} configured with
+ * {@link ThriftServerConfig#setCaptureFile}, in the order they arrived.
+ * <p>
+ * A capture file starts with a header holding the name of the protocol of the captured frames.
+ * Each request follows as its arrival time in microseconds since the epoch, the method name,
+ * the length of the frame and the frame bytes.
+ */
+public class RequestCaptureReader
+        implements Closeable
+{
+    static final int MAGIC = 0x53574350;
+    static final int VERSION = 1;
+
+    private final DataInputStream input;
+    private final String protocolName;
+
+    public RequestCaptureReader(File file)
+            throws IOException
+    {
+        input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            protocolName = readHeader(input);
+        }
+        catch (IOException | RuntimeException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    static String readHeader(DataInputStream input)
+            throws IOException
+    {
+        checkArgument(input.readInt() == MAGIC, "Not a request capture file");
+        int version = input.readUnsignedByte();
+        checkArgument(version == VERSION, "Unsupported request capture file version %s", version);
+        return input.readUTF();
+    }
+
+    /**
+     * Returns the name of the protocol of the captured frames, as configured with
+     * {@link ThriftServerConfig#setProtocolName}
+     */
+    public String getProtocolName()
+    {
+        return protocolName;
+    }
+
+    /**
+     * Returns the next captured request, or null at the end of the file. A request cut short by
+     * the server stopping during a write is treated as the end of the file.
+     */
+    public CapturedRequest read()
+            throws IOException
+    {
+        long timestampMicros;
+        try {
+            timestampMicros = input.readLong();
+        }
+        catch (EOFException e) {
+            return null;
+        }
+
+        try {
+            String methodName = input.readUTF();
+            byte[] frame = new byte[input.readInt()];
+            input.readFully(frame);
+            return new CapturedRequest(timestampMicros, methodName, frame);
+        }
+        catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        input.close();
+    }
+}
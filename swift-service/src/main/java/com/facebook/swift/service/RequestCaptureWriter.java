@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.core.ThriftMessage;
+import com.facebook.nifty.core.ThriftTransportType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import io.airlift.units.DataSize;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.currentTimeMillis;
+import static java.lang.System.nanoTime;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Appends a sample of the requests received by a {@link ThriftServer} to a capture file, which
+ * {@link RequestCaptureReader} reads back. The IO thread only copies a sampled frame onto a
+ * bounded queue; a writer thread decodes the method name and writes the file, so a slow disk
+ * drops requests from the capture rather than delaying the server.
+ */
+final class RequestCaptureWriter
+        implements Closeable
+{
+    private static final Logger log = Logger.get(RequestCaptureWriter.class);
+    private static final int QUEUE_SIZE = 4096;
+
+    private final TProtocolFactory protocolFactory;
+    private final double sampleRate;
+    private final long maxFileSize;
+    private final long startMillis = currentTimeMillis();
+    private final long startNanos = nanoTime();
+    private final BlockingQueue<PendingRequest> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final DataOutputStream output;
+    private final Thread writerThread;
+
+    private final AtomicLong capturedRequests = new AtomicLong();
+    private final AtomicLong droppedRequests = new AtomicLong();
+    private volatile long fileSize;
+    private volatile boolean stopped;
+
+    RequestCaptureWriter(File file, String protocolName, TProtocolFactory protocolFactory, double sampleRate, DataSize maxFileSize)
+            throws IOException
+    {
+        checkNotNull(file, "file is null");
+        checkNotNull(protocolName, "protocolName is null");
+        checkArgument(sampleRate >= 0 && sampleRate <= 1, "sampleRate must be between 0 and 1");
+
+        this.protocolFactory = checkNotNull(protocolFactory, "protocolFactory is null");
+        this.sampleRate = sampleRate;
+        this.maxFileSize = maxFileSize.toBytes();
+
+        // captures are appended to an existing file, as long as the frames can be read the same way
+        boolean newFile = file.length() == 0;
+        if (!newFile) {
+            try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                String fileProtocolName = RequestCaptureReader.readHeader(input);
+                checkArgument(fileProtocolName.equals(protocolName),
+                              "Capture file %s holds %s requests, not %s", file, fileProtocolName, protocolName);
+            }
+        }
+
+        output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        if (newFile) {
+            output.writeInt(RequestCaptureReader.MAGIC);
+            output.writeByte(RequestCaptureReader.VERSION);
+            output.writeUTF(protocolName);
+            output.flush();
+        }
+        fileSize = file.length();
+
+        writerThread = new ThreadFactoryBuilder()
+                .setNameFormat("thrift-capture-writer")
+                .setDaemon(true)
+                .build()
+                .newThread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        writeRequests();
+                    }
+                });
+        writerThread.start();
+    }
+
+    /**
+     * Captures a message decoded from a connection, before it is passed to the dispatcher.
+     * Header transport frames carry headers in the frame, so only plain messages are captured.
+     */
+    void captureMessage(Object message)
+    {
+        if (message instanceof ThriftMessage) {
+            ThriftMessage thriftMessage = (ThriftMessage) message;
+            if (thriftMessage.getTransportType() == ThriftTransportType.FRAMED || thriftMessage.getTransportType() == ThriftTransportType.UNFRAMED) {
+                capture(thriftMessage.getBuffer());
+            }
+        }
+    }
+
+    public long getCapturedRequests()
+    {
+        return capturedRequests.get();
+    }
+
+    public long getDroppedRequests()
+    {
+        return droppedRequests.get();
+    }
+
+    private void capture(ChannelBuffer frame)
+    {
+        if (stopped || fileSize >= maxFileSize) {
+            return;
+        }
+        if (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+
+        byte[] bytes = new byte[frame.readableBytes()];
+        frame.getBytes(frame.readerIndex(), bytes);
+        long timestampMicros = startMillis * 1000 + (nanoTime() - startNanos) / 1000;
+        if (!queue.offer(new PendingRequest(timestampMicros, bytes))) {
+            droppedRequests.incrementAndGet();
+        }
+    }
+
+    private void writeRequests()
+    {
+        try {
+            while (!stopped || !queue.isEmpty()) {
+                PendingRequest request = queue.poll(100, MILLISECONDS);
+                if (request == null) {
+                    output.flush();
+                }
+                else {
+                    write(request);
+                }
+            }
+            output.flush();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            log.error(e, "Request capture failed; no further requests will be captured");
+            stopped = true;
+        }
+    }
+
+    private void write(PendingRequest request)
+            throws IOException
+    {
+        TMessage message;
+        try {
+            message = protocolFactory.getProtocol(new TMemoryInputTransport(request.frame)).readMessageBegin();
+        }
+        catch (TException | RuntimeException e) {
+            // not a message the server can process either, so there is nothing to replay
+            droppedRequests.incrementAndGet();
+            return;
+        }
+
+        long recordSize = 8 + 2 + message.name.getBytes(UTF_8).length + 4 + request.frame.length;
+        if (fileSize + recordSize > maxFileSize) {
+            droppedRequests.incrementAndGet();
+            return;
+        }
+
+        output.writeLong(request.timestampMicros);
+        output.writeUTF(message.name);
+        output.writeInt(request.frame.length);
+        output.write(request.frame);
+        fileSize += recordSize;
+        capturedRequests.incrementAndGet();
+    }
+
+    /**
+     * Stops capturing, and writes the requests already captured before closing the file
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        stopped = true;
+        try {
+            writerThread.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    private static class PendingRequest
+    {
+        private final long timestampMicros;
+        private final byte[] frame;
+
+        private PendingRequest(long timestampMicros, byte[] frame)
+        {
+            this.timestampMicros = timestampMicros;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.google.common.base.Preconditions;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records values into HdrHistograms striped by thread, so threads recording at the same time
+ * rarely write to the same counts. Values are recorded without locking, and are merged into
+ * the interval and total histograms only when a snapshot is taken. Quantiles are exact up to
+ * the precision of the histogram, with no decay, so the tail and the maximum are never hidden.
+ * <p/>
+ * Stripes are created by the first thread that records into them, and grow with the largest
+ * value recorded, so unused histograms take little memory.
+ */
+@ThreadSafe
+public class StripedHistogram
+{
+    public static final int DEFAULT_SIGNIFICANT_DIGITS = 2;
+    private static final int MAX_DEFAULT_STRIPES = 8;
+
+    private final int significantDigits;
+    private final AtomicReferenceArray<Recorder> stripes;
+    private final int stripeMask;
+
+    @GuardedBy("this")
+    private final Histogram scratch;
+    @GuardedBy("this")
+    private final Histogram interval;
+    @GuardedBy("this")
+    private final Histogram total;
+
+    public StripedHistogram()
+    {
+        this(defaultStripes(), DEFAULT_SIGNIFICANT_DIGITS);
+    }
+
+    /**
+     * @param stripes the number of stripes, a power of two
+     * @param significantDigits the number of significant decimal digits kept for each value
+     */
+    public StripedHistogram(int stripes, int significantDigits)
+    {
+        Preconditions.checkArgument(stripes > 0 && Integer.bitCount(stripes) == 1, "stripes must be a power of two");
+        Preconditions.checkArgument(significantDigits >= 0 && significantDigits <= 5, "significantDigits must be between 0 and 5");
+
+        this.significantDigits = significantDigits;
+        this.stripes = new AtomicReferenceArray<>(stripes);
+        this.stripeMask = stripes - 1;
+        this.scratch = new Histogram(significantDigits);
+        this.interval = new Histogram(significantDigits);
+        this.total = new Histogram(significantDigits);
+    }
+
+    private static int defaultStripes()
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Math.min(Integer.highestOneBit(processors * 2 - 1), MAX_DEFAULT_STRIPES);
+    }
+
+    public void record(long value)
+    {
+        getStripe().recordValue(Math.max(value, 0));
+    }
+
+    private Recorder getStripe()
+    {
+        int index = (int) Thread.currentThread().getId() & stripeMask;
+        Recorder stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new Recorder(significantDigits));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    /**
+     * Returns the values recorded since the previous call to this method
+     */
+    public synchronized Histogram getIntervalHistogram()
+    {
+        harvest();
+        Histogram snapshot = interval.copy();
+        interval.reset();
+        return snapshot;
+    }
+
+    /**
+     * Returns all values recorded
+     */
+    public synchronized Histogram getTotalHistogram()
+    {
+        harvest();
+        return total.copy();
+    }
+
+    @GuardedBy("this")
+    private void harvest()
+    {
+        for (int i = 0; i < stripes.length(); i++) {
+            Recorder stripe = stripes.get(i);
+            if (stripe != null) {
+                stripe.getIntervalHistogramInto(scratch);
+                interval.add(scratch);
+                total.add(scratch);
+            }
+        }
+    }
+
+    @Managed
+    public synchronized long getCount()
+    {
+        harvest();
+        return total.getTotalCount();
+    }
+
+    @Managed
+    public synchronized double getMean()
+    {
+        harvest();
+        return total.getMean();
+    }
+
+    @Managed
+    public long getP50()
+    {
+        return getPercentile(50);
+    }
+
+    @Managed
+    public long getP90()
+    {
+        return getPercentile(90);
+    }
+
+    @Managed
+    public long getP99()
+    {
+        return getPercentile(99);
+    }
+
+    @Managed
+    public long getP999()
+    {
+        return getPercentile(99.9);
+    }
+
+    @Managed
+    public synchronized long getMax()
+    {
+        harvest();
+        return total.getMaxValue();
+    }
+
+    public synchronized long getPercentile(double percentile)
+    {
+        harvest();
+        return total.getValueAtPercentile(percentile);
+    }
+}
@@ -16,16 +16,34 @@
 package com.facebook.swift.service;
 
 import com.facebook.nifty.client.RequestChannel;
+import io.airlift.units.Duration;
 import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
 import org.jboss.netty.buffer.ChannelBuffer;
 
-import java.util.concurrent.CountDownLatch;
+import javax.annotation.Nullable;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.apache.thrift.transport.TTransportException.TIMED_OUT;
 
 /**
  * Helper class simulating synchronous operations on asynchronous {@link RequestChannel}
  */
 class SyncClientHelpers
 {
+    // spinning briefly before parking avoids a context switch for responses that arrive quickly
+    private static final int SPIN_ITERATIONS = 1000;
+
+    private static final ThreadLocal<SyncCompletion> COMPLETION = new ThreadLocal<SyncCompletion>()
+    {
+        @Override
+        protected SyncCompletion initialValue()
+        {
+            return new SyncCompletion();
+        }
+    };
+
     /**
      * Sends a single message synchronously, and blocks until the responses is received.
      * <p/>
@@ -42,42 +60,32 @@ class SyncClientHelpers
                                                              final ChannelBuffer request)
             throws TException, InterruptedException
     {
-        final ChannelBuffer[] responseHolder = new ChannelBuffer[1];
-        final TException[] exceptionHolder = new TException[1];
-        final CountDownLatch latch = new CountDownLatch(1);
-
-        responseHolder[0] = null;
-        exceptionHolder[0] = null;
-
-        channel.sendAsynchronousRequest(request, false, new RequestChannel.Listener()
-        {
-            @Override
-            public void onRequestSent()
-            {
-            }
-
-            @Override
-            public void onResponseReceived(ChannelBuffer response)
-            {
-                responseHolder[0] = response;
-                latch.countDown();
-            }
-
-            @Override
-            public void onChannelError(TException e)
-            {
-                exceptionHolder[0] = e;
-                latch.countDown();
-            }
-        });
-
-        latch.await();
+        return sendSynchronousTwoWayMessage(channel, request, null);
+    }
 
-        if (exceptionHolder[0] != null) {
-            throw exceptionHolder[0];
+    /**
+     * Sends a single message synchronously, and blocks until the responses is received or the
+     * timeout expires.
+     *
+     * @param timeout how long to wait for the response, or null to wait until the channel
+     *                delivers the response or an error
+     * @throws TTransportException  with type {@code TIMED_OUT} if the timeout expires first
+     * @see #sendSynchronousTwoWayMessage(RequestChannel, ChannelBuffer)
+     */
+    public static ChannelBuffer sendSynchronousTwoWayMessage(RequestChannel channel,
+                                                             final ChannelBuffer request,
+                                                             @Nullable Duration timeout)
+            throws TException, InterruptedException
+    {
+        SyncCompletion completion = acquireCompletion(false);
+        try {
+            channel.sendAsynchronousRequest(request, false, completion);
+            completion.await(timeout);
+            return completion.getResponse();
+        }
+        finally {
+            releaseCompletion(completion);
         }
-
-        return responseHolder[0];
     }
 
     /**
@@ -96,37 +104,160 @@ class SyncClientHelpers
                                                     final ChannelBuffer request)
             throws TException, InterruptedException
     {
+        sendSynchronousOneWayMessage(channel, request, null);
+    }
+
+    /**
+     * Sends a single message synchronously, blocking until the send is complete or the timeout
+     * expires. Does not wait for a response.
+     *
+     * @param timeout how long to wait for the send, or null to wait until the channel reports
+     *                that the request was sent or failed
+     * @throws TTransportException  with type {@code TIMED_OUT} if the timeout expires first
+     * @see #sendSynchronousOneWayMessage(RequestChannel, ChannelBuffer)
+     */
+    public static void sendSynchronousOneWayMessage(RequestChannel channel,
+                                                    final ChannelBuffer request,
+                                                    @Nullable Duration timeout)
+            throws TException, InterruptedException
+    {
+        SyncCompletion completion = acquireCompletion(true);
+        try {
+            channel.sendAsynchronousRequest(request, true, completion);
+            completion.await(timeout);
+            completion.getResponse();
+        }
+        finally {
+            releaseCompletion(completion);
+        }
+    }
+
+    private static SyncCompletion acquireCompletion(boolean oneway)
+    {
+        SyncCompletion completion = COMPLETION.get();
+        if (completion.inUse) {
+            // a synchronous call made while this thread waits, e.g. from a listener that runs
+            // on the calling thread
+            completion = new SyncCompletion();
+        }
+        completion.reset(Thread.currentThread(), oneway);
+        return completion;
+    }
+
+    private static void releaseCompletion(SyncCompletion completion)
+    {
+        if (!completion.done || completion.error != null) {
+            // the channel may still call the listener, for example to fail the request again when
+            // the connection closes, so it must not be used for another call
+            if (COMPLETION.get() == completion) {
+                COMPLETION.remove();
+            }
+            return;
+        }
+        completion.clear();
+    }
+
+    /**
+     * Listener for one synchronous call at a time. The calling thread spins briefly and then parks
+     * until the channel completes the call. Only the first callback counts, and the thread reuses
+     * the listener for its next call only if the call succeeded.
+     */
+    private static class SyncCompletion
+            implements RequestChannel.Listener
+    {
+        private boolean inUse;
+        private boolean oneway;
+        private volatile Thread waiter;
+        private volatile boolean done;
+        private ChannelBuffer response;
+        private TException error;
+
+        public void reset(Thread waiter, boolean oneway)
+        {
+            this.inUse = true;
+            this.oneway = oneway;
+            this.waiter = waiter;
+            this.done = false;
+        }
 
-        final TException[] exceptionHolder = new TException[1];
-        final CountDownLatch latch = new CountDownLatch(1);
+        public void clear()
+        {
+            inUse = false;
+            waiter = null;
+            response = null;
+            error = null;
+        }
 
-        exceptionHolder[0] = null;
+        @Override
+        public void onRequestSent()
+        {
+            if (oneway && !done) {
+                complete();
+            }
+        }
 
-        channel.sendAsynchronousRequest(request, true, new RequestChannel.Listener()
+        @Override
+        public void onResponseReceived(ChannelBuffer message)
         {
-            @Override
-            public void onRequestSent()
-            {
-                latch.countDown();
+            if (!done) {
+                response = message;
+                complete();
             }
+        }
 
-            @Override
-            public void onResponseReceived(ChannelBuffer response)
-            {
+        @Override
+        public void onChannelError(TException requestException)
+        {
+            if (!done) {
+                error = requestException;
+                complete();
             }
+        }
 
-            @Override
-            public void onChannelError(TException e)
-            {
-                exceptionHolder[0] = e;
-                latch.countDown();
+        public void await(@Nullable Duration timeout)
+                throws InterruptedException, TTransportException
+        {
+            for (int i = 0; i < SPIN_ITERATIONS; i++) {
+                if (done) {
+                    return;
+                }
             }
-        });
 
-        latch.await();
+            long deadline = timeout == null ? 0 : System.nanoTime() + timeout.roundTo(NANOSECONDS);
+            while (!done) {
+                if (timeout == null) {
+                    LockSupport.park(this);
+                }
+                else {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        throw new TTransportException(TIMED_OUT, "Timed out waiting " + timeout + " for the response");
+                    }
+                    LockSupport.parkNanos(this, remaining);
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        }
+
+        public ChannelBuffer getResponse()
+                throws TException
+        {
+            if (error != null) {
+                throw error;
+            }
+            return response;
+        }
 
-        if (exceptionHolder[0] != null) {
-            throw exceptionHolder[0];
+        private void complete()
+        {
+            // the volatile write publishes the result to the waiter
+            done = true;
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
         }
     }
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.core.TChannelBufferOutputTransport;
+import com.facebook.swift.codec.protocol.ZeroCopyOutputTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * A {@link TChannelBufferOutputTransport} that can add caller buffers to the request by
+ * reference. {@link #getOutputBuffer} then returns a composite of the written bytes and the
+ * appended buffers, in the order they were written.
+ */
+@NotThreadSafe
+public class TChannelBufferCompositeOutputTransport
+        extends TChannelBufferOutputTransport
+        implements ZeroCopyOutputTransport
+{
+    // appended buffers, and the output buffer writer index each one was appended at
+    private final List<ChannelBuffer> appendedBuffers = new ArrayList<>();
+    private final List<Integer> appendedIndexes = new ArrayList<>();
+
+    @Override
+    public void writeBuffer(ByteBuffer buffer)
+    {
+        appendedIndexes.add(super.getOutputBuffer().writerIndex());
+        appendedBuffers.add(wrappedBuffer(buffer));
+    }
+
+    @Override
+    public void resetOutputBuffer()
+    {
+        super.resetOutputBuffer();
+        appendedBuffers.clear();
+        appendedIndexes.clear();
+    }
+
+    @Override
+    public ChannelBuffer getOutputBuffer()
+    {
+        return buildOutputBuffer(false);
+    }
+
+    /**
+     * Returns a copy of the output that can outlive the next call on this transport. Bytes
+     * written to the transport are copied, but appended buffers are still shared with the caller.
+     */
+    public ChannelBuffer copyOutputBuffer()
+    {
+        return buildOutputBuffer(true);
+    }
+
+    private ChannelBuffer buildOutputBuffer(boolean copy)
+    {
+        ChannelBuffer outputBuffer = super.getOutputBuffer();
+        if (appendedBuffers.isEmpty()) {
+            return copy ? outputBuffer.copy() : outputBuffer;
+        }
+
+        ChannelBuffer[] components = new ChannelBuffer[appendedBuffers.size() * 2 + 1];
+        int start = outputBuffer.readerIndex();
+        for (int i = 0; i < appendedBuffers.size(); i++) {
+            int end = appendedIndexes.get(i);
+            components[i * 2] = copy ? outputBuffer.copy(start, end - start) : outputBuffer.slice(start, end - start);
+            components[i * 2 + 1] = appendedBuffers.get(i);
+            start = end;
+        }
+        int end = outputBuffer.writerIndex();
+        components[components.length - 1] = copy ? outputBuffer.copy(start, end - start) : outputBuffer.slice(start, end - start);
+        return wrappedBuffer(components);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.core.TChannelBufferInputTransport;
+import com.facebook.swift.codec.protocol.ZeroCopyInputTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link TChannelBufferInputTransport} that can hand out binary values as slices of the
+ * response frame. Slices stay valid after the next response is set, because every response
+ * arrives in its own buffer.
+ */
+@NotThreadSafe
+public class TChannelBufferSliceInputTransport
+        extends TChannelBufferInputTransport
+        implements ZeroCopyInputTransport
+{
+    private ChannelBuffer inputBuffer;
+
+    public TChannelBufferSliceInputTransport()
+    {
+    }
+
+    public TChannelBufferSliceInputTransport(ChannelBuffer inputBuffer)
+    {
+        super(inputBuffer);
+    }
+
+    @Override
+    public void setInputBuffer(ChannelBuffer inputBuffer)
+    {
+        super.setInputBuffer(inputBuffer);
+        this.inputBuffer = inputBuffer;
+    }
+
+    @Override
+    public ByteBuffer readSlice(int length)
+    {
+        if (inputBuffer == null || inputBuffer.readableBytes() < length) {
+            return null;
+        }
+        return inputBuffer.readSlice(length).toByteBuffer().asReadOnlyBuffer();
+    }
+}
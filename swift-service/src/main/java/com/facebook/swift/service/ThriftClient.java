@@ -15,15 +15,18 @@
  */
 package com.facebook.swift.service;
 
+import com.facebook.nifty.client.FramedClientConnector;
 import com.facebook.nifty.client.NiftyClientChannel;
 import com.facebook.nifty.client.NiftyClientConnector;
 import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.inject.Inject;
 import io.airlift.units.Duration;
+import org.apache.thrift.protocol.TBinaryProtocol;
 import org.weakref.jmx.Managed;
 
 import javax.annotation.Nullable;
@@ -43,6 +46,9 @@ public class ThriftClient<T>
     private final HostAndPort socksProxy;
     private final int maxFrameSize;
     private final List<? extends ThriftClientEventHandler> eventHandlers;
+    private final int minConnections;
+    private final int maxConnections;
+    private final Duration idleConnectionTimeout;
 
     @Inject
     public ThriftClient(ThriftClientManager clientManager, Class<T> clientType)
@@ -75,7 +81,10 @@ public class ThriftClient<T>
                 clientConfig.getWriteTimeout(),
                 clientConfig.getSocksProxy(),
                 clientConfig.getMaxFrameSize(),
-                eventHandlers);
+                eventHandlers,
+                clientConfig.getMinConnections(),
+                clientConfig.getMaxConnections(),
+                clientConfig.getIdleConnectionTimeout());
     }
 
     public ThriftClient(
@@ -89,6 +98,36 @@ public class ThriftClient<T>
             @Nullable HostAndPort socksProxy,
             int maxFrameSize,
             List<? extends ThriftClientEventHandler> eventHandlers)
+    {
+        this(clientManager,
+                clientType,
+                clientName,
+                connectTimeout,
+                receiveTimeout,
+                readTimeout,
+                writeTimeout,
+                socksProxy,
+                maxFrameSize,
+                eventHandlers,
+                ThriftClientConfig.DEFAULT_MIN_CONNECTIONS,
+                ThriftClientConfig.DEFAULT_MAX_CONNECTIONS,
+                ThriftClientConfig.DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    }
+
+    public ThriftClient(
+            ThriftClientManager clientManager,
+            Class<T> clientType,
+            String clientName,
+            Duration connectTimeout,
+            Duration receiveTimeout,
+            Duration readTimeout,
+            Duration writeTimeout,
+            @Nullable HostAndPort socksProxy,
+            int maxFrameSize,
+            List<? extends ThriftClientEventHandler> eventHandlers,
+            int minConnections,
+            int maxConnections,
+            Duration idleConnectionTimeout)
     {
         Preconditions.checkNotNull(clientManager, "clientManager is null");
         Preconditions.checkNotNull(clientType, "clientInterface is null");
@@ -99,6 +138,10 @@ public class ThriftClient<T>
         Preconditions.checkNotNull(writeTimeout, "writeTimeout is null");
         Preconditions.checkArgument(maxFrameSize >= 0, "maxFrameSize cannot be negative");
         Preconditions.checkNotNull(eventHandlers, "eventHandlers is null");
+        Preconditions.checkArgument(minConnections >= 0, "minConnections cannot be negative");
+        Preconditions.checkArgument(maxConnections >= 1, "maxConnections must be at least 1");
+        Preconditions.checkArgument(minConnections <= maxConnections, "minConnections cannot be greater than maxConnections");
+        Preconditions.checkNotNull(idleConnectionTimeout, "idleConnectionTimeout is null");
 
         this.clientManager = clientManager;
         this.clientType = clientType;
@@ -110,6 +153,9 @@ public class ThriftClient<T>
         this.socksProxy = socksProxy;
         this.maxFrameSize = maxFrameSize;
         this.eventHandlers = eventHandlers;
+        this.minConnections = minConnections;
+        this.maxConnections = maxConnections;
+        this.idleConnectionTimeout = idleConnectionTimeout;
     }
 
     public ThriftClient<T> withConnectTimeout(Duration connectTimeout)
@@ -124,7 +170,10 @@ public class ThriftClient<T>
                 this.writeTimeout,
                 this.socksProxy,
                 this.maxFrameSize,
-                this.eventHandlers);
+                this.eventHandlers,
+                this.minConnections,
+                this.maxConnections,
+                this.idleConnectionTimeout);
     }
 
     public ThriftClient<T> withReceiveTimeout(Duration receiveTimeout)
@@ -139,7 +188,10 @@ public class ThriftClient<T>
                 this.writeTimeout,
                 this.socksProxy,
                 this.maxFrameSize,
-                this.eventHandlers);
+                this.eventHandlers,
+                this.minConnections,
+                this.maxConnections,
+                this.idleConnectionTimeout);
     }
 
     public ThriftClient<T> withReadTimeout(Duration readTimeout)
@@ -154,7 +206,10 @@ public class ThriftClient<T>
                 this.writeTimeout,
                 this.socksProxy,
                 this.maxFrameSize,
-                this.eventHandlers);
+                this.eventHandlers,
+                this.minConnections,
+                this.maxConnections,
+                this.idleConnectionTimeout);
     }
 
     public ThriftClient<T> withWriteTimeout(Duration writeTimeout)
@@ -169,7 +224,10 @@ public class ThriftClient<T>
                 writeTimeout,
                 this.socksProxy,
                 this.maxFrameSize,
-                this.eventHandlers);
+                this.eventHandlers,
+                this.minConnections,
+                this.maxConnections,
+                this.idleConnectionTimeout);
     }
 
     @Managed
@@ -223,6 +281,24 @@ public class ThriftClient<T>
         return maxFrameSize;
     }
 
+    @Managed
+    public int getMinConnections()
+    {
+        return minConnections;
+    }
+
+    @Managed
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    @Managed
+    public String getIdleConnectionTimeout()
+    {
+        return idleConnectionTimeout.toString();
+    }
+
     /***
      * Asynchronously connect to a service to create a new client
      * @param connector Connector used to establish the new connection
@@ -253,6 +329,45 @@ public class ThriftClient<T>
         return clientManager.createClient(channel, clientType, clientName, eventHandlers);
     }
 
+    /***
+     * Create a client that shares a pool of framed binary connections with the other pooled
+     * clients of this type for the same address
+     * @param address Address of the service
+     * @return The new client
+     */
+    public T openPooled(HostAndPort address)
+    {
+        return openPooled(address, new FramedClientConnector(address), TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()));
+    }
+
+    /***
+     * Create a client that shares a pool of connections with the other pooled clients of this
+     * type for the same address
+     * @param address Address of the service
+     * @param connector Connector used to establish the connections of the pool
+     * @param protocolFactory Protocol used by the connections opened by the connector
+     * @return The new client
+     */
+    public T openPooled(HostAndPort address, NiftyClientConnector<? extends NiftyClientChannel> connector, TDuplexProtocolFactory protocolFactory)
+    {
+        return clientManager.createPooledClient(
+                address,
+                connector,
+                protocolFactory,
+                clientType,
+                connectTimeout,
+                receiveTimeout,
+                readTimeout,
+                writeTimeout,
+                maxFrameSize,
+                clientName,
+                eventHandlers,
+                getSocksProxyOrDefault(),
+                minConnections,
+                maxConnections,
+                idleConnectionTimeout);
+    }
+
     private HostAndPort getSocksProxyOrDefault()
     {
         return (socksProxy != null) ? socksProxy : clientManager.getDefaultSocksProxy();
@@ -35,6 +35,9 @@ public class ThriftClientConfig
     public static final Duration DEFAULT_WRITE_TIMEOUT = new Duration(1, TimeUnit.MINUTES);
     // Default max frame size of 16 MB
     public static final int DEFAULT_MAX_FRAME_SIZE = 16777216;
+    public static final int DEFAULT_MIN_CONNECTIONS = 1;
+    public static final int DEFAULT_MAX_CONNECTIONS = 8;
+    public static final Duration DEFAULT_IDLE_CONNECTION_TIMEOUT = new Duration(1, TimeUnit.MINUTES);
 
     private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
     private Duration connectTimeout = DEFAULT_CONNECT_TIMEOUT;
@@ -42,6 +45,9 @@ public class ThriftClientConfig
     private Duration readTimeout = DEFAULT_READ_TIMEOUT;
     private Duration writeTimeout = DEFAULT_WRITE_TIMEOUT;
     private HostAndPort socksProxy;
+    private int minConnections = DEFAULT_MIN_CONNECTIONS;
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+    private Duration idleConnectionTimeout = DEFAULT_IDLE_CONNECTION_TIMEOUT;
 
     @MinDuration("1ms")
     public Duration getConnectTimeout()
@@ -121,4 +127,43 @@ public class ThriftClientConfig
         this.maxFrameSize = maxFrameSize;
         return this;
     }
+
+    @Min(0)
+    public int getMinConnections()
+    {
+        return minConnections;
+    }
+
+    @Config("thrift.client.pool.min-connections")
+    public ThriftClientConfig setMinConnections(int minConnections)
+    {
+        this.minConnections = minConnections;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxConnections()
+    {
+        return maxConnections;
+    }
+
+    @Config("thrift.client.pool.max-connections")
+    public ThriftClientConfig setMaxConnections(int maxConnections)
+    {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    @MinDuration("1ms")
+    public Duration getIdleConnectionTimeout()
+    {
+        return idleConnectionTimeout;
+    }
+
+    @Config("thrift.client.pool.idle-timeout")
+    public ThriftClientConfig setIdleConnectionTimeout(Duration idleConnectionTimeout)
+    {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+        return this;
+    }
 }
@@ -19,6 +19,16 @@ import com.facebook.nifty.client.ClientRequestContext;
 
 public abstract class ThriftClientEventHandler
 {
+    /**
+     * Returns the handler that receives the events of calls to one method. It is called once
+     * per method and client type for global handlers, and once per method when a client is
+     * created for client handlers. By default, this handler receives the events of all methods.
+     */
+    public ThriftClientEventHandler bind(String methodName)
+    {
+        return this;
+    }
+
     public Object getContext(String methodName, ClientRequestContext requestContext)
     {
         return null;
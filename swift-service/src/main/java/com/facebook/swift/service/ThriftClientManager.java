@@ -16,13 +16,13 @@
 package com.facebook.swift.service;
 
 import com.facebook.nifty.client.ClientRequestContext;
+import com.facebook.nifty.client.FramedClientConnector;
 import com.facebook.nifty.client.NiftyClient;
 import com.facebook.nifty.client.NiftyClientChannel;
 import com.facebook.nifty.client.NiftyClientConnector;
 import com.facebook.nifty.client.NiftyClientRequestContext;
 import com.facebook.nifty.client.RequestChannel;
-import com.facebook.nifty.core.TChannelBufferInputTransport;
-import com.facebook.nifty.core.TChannelBufferOutputTransport;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
 import com.facebook.nifty.duplex.TProtocolPair;
 import com.facebook.nifty.duplex.TTransportPair;
 import com.facebook.swift.codec.ThriftCodecManager;
@@ -31,26 +31,32 @@ import com.facebook.swift.service.metadata.ThriftServiceMetadata;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
+import com.google.common.base.Supplier;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ObjectArrays;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
 import io.airlift.units.Duration;
 import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
 import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolException;
+import org.apache.thrift.transport.TMemoryBuffer;
 import org.apache.thrift.transport.TTransportException;
 import org.jboss.netty.channel.Channel;
 
 import javax.annotation.Nullable;
 import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.Immutable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.validation.constraints.NotNull;
@@ -61,18 +67,27 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import static com.facebook.nifty.duplex.TTransportPair.fromSeparateTransports;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_CONNECT_TIMEOUT;
+import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_IDLE_CONNECTION_TIMEOUT;
+import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_MAX_CONNECTIONS;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_MAX_FRAME_SIZE;
+import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_MIN_CONNECTIONS;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_READ_TIMEOUT;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_RECEIVE_TIMEOUT;
 import static com.facebook.swift.service.ThriftClientConfig.DEFAULT_WRITE_TIMEOUT;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 import static org.apache.thrift.TApplicationException.UNKNOWN_METHOD;
 
 @ThreadSafe
@@ -83,6 +98,7 @@ public class ThriftClientManager implements Closeable
 
     private final ThriftCodecManager codecManager;
     private final NiftyClient niftyClient;
+    private final Duration syncCallTimeout;
     private final LoadingCache<TypeAndName, ThriftClientMetadata> clientMetadataCache = CacheBuilder.newBuilder()
             .build(new CacheLoader<TypeAndName, ThriftClientMetadata>()
             {
@@ -90,12 +106,19 @@ public class ThriftClientManager implements Closeable
                 public ThriftClientMetadata load(TypeAndName typeAndName)
                         throws Exception
                 {
-                    return new ThriftClientMetadata(typeAndName.getType(), typeAndName.getName(), codecManager);
+                    return new ThriftClientMetadata(typeAndName.getType(), typeAndName.getName(), codecManager, ImmutableList.copyOf(globalEventHandlers));
                 }
             });
 
     private final Set<ThriftClientEventHandler> globalEventHandlers;
 
+    @GuardedBy("pools")
+    private final Map<PoolKey, PooledRequestChannel> pools = new HashMap<>();
+    @GuardedBy("pools")
+    private ScheduledExecutorService poolEvictionExecutor;
+    @GuardedBy("pools")
+    private boolean closed;
+
     public ThriftClientManager()
     {
         this(new ThriftCodecManager());
@@ -111,12 +134,22 @@ public class ThriftClientManager implements Closeable
         this(codecManager, new NiftyClient(), ImmutableSet.<ThriftClientEventHandler>of());
     }
 
-    @Inject
     public ThriftClientManager(ThriftCodecManager codecManager, NiftyClient niftyClient, Set<ThriftClientEventHandler> globalEventHandlers)
+    {
+        this(codecManager, niftyClient, globalEventHandlers, new ThriftClientManagerConfig());
+    }
+
+    @Inject
+    public ThriftClientManager(
+            ThriftCodecManager codecManager,
+            NiftyClient niftyClient,
+            Set<ThriftClientEventHandler> globalEventHandlers,
+            ThriftClientManagerConfig config)
     {
         this.codecManager = checkNotNull(codecManager, "codecManager is null");
         this.niftyClient = checkNotNull(niftyClient, "niftyClient is null");
         this.globalEventHandlers = checkNotNull(globalEventHandlers, "globalEventHandlers is null");
+        this.syncCallTimeout = checkNotNull(config, "config is null").getSyncCallTimeout();
     }
 
     public <C extends NiftyClientChannel> ListenableFuture<C> createChannel(
@@ -244,6 +277,95 @@ public class ThriftClientManager implements Closeable
         return clientFuture;
     }
 
+    public <T> T createPooledClient(HostAndPort address, Class<T> type)
+    {
+        return createPooledClient(
+                address,
+                new FramedClientConnector(address),
+                TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()),
+                type,
+                DEFAULT_CONNECT_TIMEOUT,
+                DEFAULT_RECEIVE_TIMEOUT,
+                DEFAULT_READ_TIMEOUT,
+                DEFAULT_WRITE_TIMEOUT,
+                DEFAULT_MAX_FRAME_SIZE,
+                DEFAULT_NAME,
+                ImmutableList.<ThriftClientEventHandler>of(),
+                getDefaultSocksProxy(),
+                DEFAULT_MIN_CONNECTIONS,
+                DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_IDLE_CONNECTION_TIMEOUT);
+    }
+
+    /**
+     * Creates a client that sends its requests over a pool of connections to {@code address}.
+     * There is one pool for each address, client type, connector type, protocol and connection
+     * settings, which is shared by every pooled client for them and sized with the settings of
+     * the first one, so creating a pooled client is cheap once the pool exists. Closing a pooled
+     * client does not close the pool; pools are closed with the client manager, after which no
+     * pooled clients can be created.
+     *
+     * @param connector opens the connections of the pool
+     * @param protocolFactory the protocol used by the connections opened by {@code connector}
+     */
+    public <T, C extends NiftyClientChannel> T createPooledClient(
+            HostAndPort address,
+            final NiftyClientConnector<C> connector,
+            TDuplexProtocolFactory protocolFactory,
+            Class<T> type,
+            @Nullable final Duration connectTimeout,
+            @Nullable final Duration receiveTimeout,
+            @Nullable final Duration readTimeout,
+            @Nullable final Duration writeTimeout,
+            final int maxFrameSize,
+            @Nullable String clientName,
+            List<? extends ThriftClientEventHandler> eventHandlers,
+            @Nullable final HostAndPort socksProxy,
+            int minConnections,
+            int maxConnections,
+            Duration idleConnectionTimeout)
+    {
+        checkNotNull(address, "address is null");
+        checkNotNull(connector, "connector is null");
+        checkNotNull(protocolFactory, "protocolFactory is null");
+        checkNotNull(type, "type is null");
+        checkNotNull(eventHandlers, "eventHandlers is null");
+
+        PooledRequestChannel pool;
+        synchronized (pools) {
+            checkState(!closed, "client manager is closed");
+            PoolKey poolKey = new PoolKey(type, address, connector, protocolFactory, connectTimeout, receiveTimeout, readTimeout, writeTimeout, maxFrameSize, socksProxy);
+            pool = pools.get(poolKey);
+            if (pool == null) {
+                if (poolEvictionExecutor == null) {
+                    poolEvictionExecutor = newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                            .setNameFormat("thrift-client-pool-%s")
+                            .setDaemon(true)
+                            .build());
+                }
+                pool = new PooledRequestChannel(
+                        address.toString(),
+                        new Supplier<ListenableFuture<C>>()
+                        {
+                            @Override
+                            public ListenableFuture<C> get()
+                            {
+                                return createChannel(connector, connectTimeout, receiveTimeout, readTimeout, writeTimeout, maxFrameSize, socksProxy);
+                            }
+                        },
+                        protocolFactory,
+                        minConnections,
+                        maxConnections,
+                        idleConnectionTimeout,
+                        poolEvictionExecutor);
+                pools.put(poolKey, pool);
+            }
+        }
+
+        String name = Strings.isNullOrEmpty(clientName) ? DEFAULT_NAME : clientName;
+        return createClient(pool, type, name, eventHandlers);
+    }
+
     public <T> T createClient(NiftyClientChannel channel, Class<T> type)
     {
         return createClient(channel, type, DEFAULT_NAME, ImmutableList.<ThriftClientEventHandler>of());
@@ -266,8 +388,9 @@ public class ThriftClientManager implements Closeable
         String clientDescription = clientMetadata.getName() + " " + channel.toString();
 
         ThriftInvocationHandler handler = new ThriftInvocationHandler(clientDescription, channel,
-                clientMetadata.getMethodHandlers(),
-                ImmutableList.<ThriftClientEventHandler>builder().addAll(globalEventHandlers).addAll(eventHandlers).build());
+                clientMetadata,
+                eventHandlers,
+                syncCallTimeout);
 
         return type.cast(Proxy.newProxyInstance(
                 type.getClassLoader(),
@@ -284,6 +407,17 @@ public class ThriftClientManager implements Closeable
     @PreDestroy
     public void close()
     {
+        synchronized (pools) {
+            for (PooledRequestChannel pool : pools.values()) {
+                pool.close();
+            }
+            pools.clear();
+            if (poolEvictionExecutor != null) {
+                poolEvictionExecutor.shutdownNow();
+                poolEvictionExecutor = null;
+            }
+            closed = true;
+        }
         niftyClient.close();
     }
 
@@ -347,6 +481,11 @@ public class ThriftClientManager implements Closeable
         }
     }
 
+    /**
+     * Returns the output protocol a Swift client uses on the calling thread
+     *
+     * @throws IllegalArgumentException if the client is not a Swift client
+     */
     public TProtocol getOutputProtocol(Object client)
     {
         try {
@@ -359,6 +498,11 @@ public class ThriftClientManager implements Closeable
         }
     }
 
+    /**
+     * Returns the input protocol a Swift client uses on the calling thread
+     *
+     * @throws IllegalArgumentException if the client is not a Swift client
+     */
     public TProtocol getInputProtocol(Object client)
     {
         try {
@@ -371,18 +515,21 @@ public class ThriftClientManager implements Closeable
         }
     }
 
-    @Immutable
+    @ThreadSafe
     public static class ThriftClientMetadata
     {
         private final String clientType;
         private final String clientName;
         private final ThriftServiceMetadata thriftServiceMetadata;
         private final Map<Method, ThriftMethodHandler> methodHandlers;
+        private final List<ThriftClientEventHandler> globalEventHandlers;
+        private final ConcurrentMap<ThriftMethodHandler, ThriftClientEventHandler[]> boundGlobalEventHandlers = new ConcurrentHashMap<>();
 
         private ThriftClientMetadata(
                 Class<?> clientType,
                 String clientName,
-                ThriftCodecManager codecManager)
+                ThriftCodecManager codecManager,
+                List<ThriftClientEventHandler> globalEventHandlers)
         {
             Preconditions.checkNotNull(clientType, "clientType is null");
             Preconditions.checkNotNull(clientName, "clientName is null");
@@ -397,6 +544,7 @@ public class ThriftClientManager implements Closeable
                 methods.put(methodMetadata.getMethod(), methodHandler);
             }
             methodHandlers = methods.build();
+            this.globalEventHandlers = globalEventHandlers;
         }
 
         public String getClientType()
@@ -418,6 +566,25 @@ public class ThriftClientManager implements Closeable
         {
             return methodHandlers;
         }
+
+        /**
+         * Returns the global event handlers followed by the client event handlers, bound to the method.
+         * The global handlers are bound once for all clients of this type, when the method is first called.
+         */
+        ThriftClientEventHandler[] bindEventHandlers(ThriftMethodHandler methodHandler, List<? extends ThriftClientEventHandler> clientEventHandlers)
+        {
+            ThriftClientEventHandler[] globalHandlers = boundGlobalEventHandlers.get(methodHandler);
+            if (globalHandlers == null) {
+                boundGlobalEventHandlers.putIfAbsent(methodHandler, ClientContextChain.bind(globalEventHandlers, methodHandler.getQualifiedName()));
+                globalHandlers = boundGlobalEventHandlers.get(methodHandler);
+            }
+
+            if (clientEventHandlers.isEmpty()) {
+                return globalHandlers;
+            }
+            ThriftClientEventHandler[] clientHandlers = ClientContextChain.bind(clientEventHandlers, methodHandler.getQualifiedName());
+            return ObjectArrays.concat(globalHandlers, clientHandlers, ThriftClientEventHandler.class);
+        }
     }
 
     private static class ThriftInvocationHandler implements InvocationHandler
@@ -429,30 +596,26 @@ public class ThriftClientManager implements Closeable
 
         private final Map<Method, ThriftMethodHandler> methods;
         private final AtomicInteger sequenceId = new AtomicInteger(1);
-        private final List<? extends ThriftClientEventHandler> eventHandlers;
-        private final TChannelBufferInputTransport inputTransport;
-        private final TChannelBufferOutputTransport outputTransport;
-        private final TProtocol inputProtocol;
-        private final TProtocol outputProtocol;
+        private final ThriftClientMetadata clientMetadata;
+        private final List<? extends ThriftClientEventHandler> clientEventHandlers;
+        private final ConcurrentMap<ThriftMethodHandler, ThriftClientEventHandler[]> eventHandlers = new ConcurrentHashMap<>();
+        private final ThreadLocal<ClientTransports> transports;
+        private final Duration syncCallTimeout;
 
         private ThriftInvocationHandler(
                 String clientDescription,
                 RequestChannel channel,
-                Map<Method, ThriftMethodHandler> methods,
-                List<? extends ThriftClientEventHandler> eventHandlers)
+                ThriftClientMetadata clientMetadata,
+                List<? extends ThriftClientEventHandler> clientEventHandlers,
+                @Nullable Duration syncCallTimeout)
         {
             this.clientDescription = clientDescription;
             this.channel = channel;
-            this.methods = methods;
-            this.eventHandlers = eventHandlers;
-
-            this.inputTransport = new TChannelBufferInputTransport();
-            this.outputTransport = new TChannelBufferOutputTransport();
-
-            TTransportPair transportPair = fromSeparateTransports(this.inputTransport, this.outputTransport);
-            TProtocolPair protocolPair = channel.getProtocolFactory().getProtocolPair(transportPair);
-            this.inputProtocol = protocolPair.getInputProtocol();
-            this.outputProtocol = protocolPair.getOutputProtocol();
+            this.methods = clientMetadata.getMethodHandlers();
+            this.clientMetadata = clientMetadata;
+            this.clientEventHandlers = ImmutableList.copyOf(clientEventHandlers);
+            this.syncCallTimeout = syncCallTimeout;
+            this.transports = ClientTransports.threadLocal(channel.getProtocolFactory());
         }
 
         public RequestChannel getChannel()
@@ -462,12 +625,32 @@ public class ThriftClientManager implements Closeable
 
         public TProtocol getOutputProtocol()
         {
-            return outputProtocol;
+            return transports.get().getOutputProtocol();
         }
 
         public TProtocol getInputProtocol()
         {
-            return inputProtocol;
+            return transports.get().getInputProtocol();
+        }
+
+        private ThriftClientEventHandler[] getEventHandlers(ThriftMethodHandler methodHandler)
+        {
+            // handlers are bound on the first call, so methods that are never called get no stats
+            ThriftClientEventHandler[] handlers = eventHandlers.get(methodHandler);
+            if (handlers == null) {
+                eventHandlers.putIfAbsent(methodHandler, clientMetadata.bindEventHandlers(methodHandler, clientEventHandlers));
+                handlers = eventHandlers.get(methodHandler);
+            }
+            return handlers;
+        }
+
+        private int nextSequenceId()
+        {
+            if (channel instanceof PooledRequestChannel) {
+                // clients sharing a pool must not reuse each other's sequence ids
+                return ((PooledRequestChannel) channel).nextSequenceId();
+            }
+            return sequenceId.getAndIncrement();
         }
 
         @Override
@@ -492,7 +675,10 @@ public class ThriftClientManager implements Closeable
             }
 
             if (args.length == 0 && "close".equals(method.getName())) {
-                channel.close();
+                // pools are shared by many clients, and are closed with the client manager
+                if (!(channel instanceof PooledRequestChannel)) {
+                    channel.close();
+                }
                 return null;
             }
 
@@ -515,15 +701,14 @@ public class ThriftClientManager implements Closeable
                     remoteAddress = niftyClientChannel.getNettyChannel().getRemoteAddress();
                 }
 
-                ClientRequestContext requestContext = new NiftyClientRequestContext(getInputProtocol(), getOutputProtocol(), channel, remoteAddress);
-                ClientContextChain context = new ClientContextChain(eventHandlers, methodHandler.getQualifiedName(), requestContext);
+                ClientTransports callTransports = transports.get();
+                ClientRequestContext requestContext = new NiftyClientRequestContext(callTransports.getInputProtocol(), callTransports.getOutputProtocol(), channel, remoteAddress);
+                ClientContextChain context = new ClientContextChain(getEventHandlers(methodHandler), methodHandler.getQualifiedName(), requestContext);
                 return methodHandler.invoke(channel,
-                                            inputTransport,
-                                            outputTransport,
-                                            inputProtocol,
-                                            outputProtocol,
-                                            sequenceId.getAndIncrement(),
+                                            transports,
+                                            nextSequenceId(),
                                             context,
+                                            syncCallTimeout,
                                             args);
             }
             catch (InterruptedException e) {
@@ -621,4 +806,79 @@ public class ThriftClientManager implements Closeable
             return sb.toString();
         }
     }
+
+    /**
+     * Identifies a connection pool. Connectors and protocol factories are created for each
+     * client, so they are identified by the types of the connector and of the protocols made.
+     */
+    private static class PoolKey
+    {
+        private final Class<?> type;
+        private final HostAndPort address;
+        private final Class<?> connectorType;
+        private final Class<?> inputProtocolType;
+        private final Class<?> outputProtocolType;
+        private final Duration connectTimeout;
+        private final Duration receiveTimeout;
+        private final Duration readTimeout;
+        private final Duration writeTimeout;
+        private final int maxFrameSize;
+        private final HostAndPort socksProxy;
+
+        private PoolKey(
+                Class<?> type,
+                HostAndPort address,
+                NiftyClientConnector<?> connector,
+                TDuplexProtocolFactory protocolFactory,
+                @Nullable Duration connectTimeout,
+                @Nullable Duration receiveTimeout,
+                @Nullable Duration readTimeout,
+                @Nullable Duration writeTimeout,
+                int maxFrameSize,
+                @Nullable HostAndPort socksProxy)
+        {
+            this.type = type;
+            this.address = address;
+            this.connectorType = connector.getClass();
+            TProtocolPair protocols = protocolFactory.getProtocolPair(TTransportPair.fromSingleTransport(new TMemoryBuffer(0)));
+            this.inputProtocolType = protocols.getInputProtocol().getClass();
+            this.outputProtocolType = protocols.getOutputProtocol().getClass();
+            this.connectTimeout = connectTimeout;
+            this.receiveTimeout = receiveTimeout;
+            this.readTimeout = readTimeout;
+            this.writeTimeout = writeTimeout;
+            this.maxFrameSize = maxFrameSize;
+            this.socksProxy = socksProxy;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            PoolKey that = (PoolKey) o;
+            return type.equals(that.type) &&
+                    address.equals(that.address) &&
+                    connectorType.equals(that.connectorType) &&
+                    inputProtocolType.equals(that.inputProtocolType) &&
+                    outputProtocolType.equals(that.outputProtocolType) &&
+                    Objects.equals(connectTimeout, that.connectTimeout) &&
+                    Objects.equals(receiveTimeout, that.receiveTimeout) &&
+                    Objects.equals(readTimeout, that.readTimeout) &&
+                    Objects.equals(writeTimeout, that.writeTimeout) &&
+                    maxFrameSize == that.maxFrameSize &&
+                    Objects.equals(socksProxy, that.socksProxy);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(type, address, connectorType, inputProtocolType, outputProtocolType, connectTimeout, receiveTimeout, readTimeout, writeTimeout, maxFrameSize, socksProxy);
+        }
+    }
 }
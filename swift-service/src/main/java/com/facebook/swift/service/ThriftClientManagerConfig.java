@@ -18,12 +18,15 @@ package com.facebook.swift.service;
 import com.facebook.nifty.ssl.SslClientConfiguration;
 import com.google.common.net.HostAndPort;
 import io.airlift.configuration.Config;
+import io.airlift.units.Duration;
 
 public class ThriftClientManagerConfig
 {
     private HostAndPort defaultSocksProxyAddress = null;
     private Integer workerThreadCount = null;
     private SslClientConfiguration sslClientConfiguration = null;
+    private boolean statsHistograms = false;
+    private Duration syncCallTimeout = null;
 
     public HostAndPort getDefaultSocksProxyAddress()
     {
@@ -49,4 +52,33 @@ public class ThriftClientManagerConfig
     public void setSslClientConfiguration(SslClientConfiguration sslClientConfiguration) {
         this.sslClientConfiguration = sslClientConfiguration;
     }
+
+    public Duration getSyncCallTimeout()
+    {
+        return syncCallTimeout;
+    }
+
+    /**
+     * Fails synchronous calls that wait longer than this for their response, in addition to the
+     * read and receive timeouts of the channel
+     */
+    @Config("thrift.clientmanager.sync-call-timeout")
+    public void setSyncCallTimeout(Duration syncCallTimeout)
+    {
+        this.syncCallTimeout = syncCallTimeout;
+    }
+
+    public boolean isStatsHistograms()
+    {
+        return statsHistograms;
+    }
+
+    /**
+     * Records the client method stats into histograms rather than airlift stats, see {@link ThriftMethodStats}
+     */
+    @Config("thrift.clientmanager.stats-histograms")
+    public void setStatsHistograms(boolean statsHistograms)
+    {
+        this.statsHistograms = statsHistograms;
+    }
 }
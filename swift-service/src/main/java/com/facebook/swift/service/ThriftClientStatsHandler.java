@@ -16,31 +16,43 @@
 package com.facebook.swift.service;
 
 import com.facebook.nifty.client.ClientRequestContext;
-import io.airlift.units.Duration;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
 
-import static io.airlift.units.Duration.nanosSince;
 import static java.lang.System.nanoTime;
 
 public class ThriftClientStatsHandler extends ThriftClientEventHandler
 {
     private final ConcurrentHashMap<String, ThriftMethodStats> stats = new ConcurrentHashMap<>();
+    private final boolean histograms;
+
+    public ThriftClientStatsHandler()
+    {
+        this(false);
+    }
+
+    /**
+     * @param histograms whether to record into histograms rather than airlift stats, see {@link ThriftMethodStats}
+     */
+    public ThriftClientStatsHandler(boolean histograms)
+    {
+        this.histograms = histograms;
+    }
 
     private static class PerCallMethodStats
     {
+        public final ThriftMethodStats methodStats;
         public boolean success = true;
         public long startTime = nanoTime();
         public long preReadTime;
         public long preWriteTime;
         public long postWriteTime;
-    }
 
-    private static Duration nanosBetween(long start, long end)
-    {
-        return new Duration(end - start, TimeUnit.NANOSECONDS);
+        public PerCallMethodStats(ThriftMethodStats methodStats)
+        {
+            this.methodStats = methodStats;
+        }
     }
 
     public ConcurrentMap<String, ThriftMethodStats> getStats()
@@ -48,11 +60,30 @@ public class ThriftClientStatsHandler extends ThriftClientEventHandler
         return stats;
     }
 
+    @Override
+    public ThriftClientEventHandler bind(String methodName)
+    {
+        if (getClass() != ThriftClientStatsHandler.class) {
+            // a subclass may override getContext or any hook, so it handles its calls unbound
+            return this;
+        }
+        return new BoundStatsHandler(getMethodStats(methodName));
+    }
+
     @Override
     public Object getContext(String methodName, ClientRequestContext requestContext)
     {
-        stats.putIfAbsent(methodName, new ThriftMethodStats());
-        return new PerCallMethodStats();
+        return new PerCallMethodStats(getMethodStats(methodName));
+    }
+
+    public ThriftMethodStats getMethodStats(String methodName)
+    {
+        ThriftMethodStats methodStats = stats.get(methodName);
+        if (methodStats == null) {
+            stats.putIfAbsent(methodName, new ThriftMethodStats(histograms));
+            methodStats = stats.get(methodName);
+        }
+        return methodStats;
     }
 
     @Override
@@ -67,7 +98,7 @@ public class ThriftClientStatsHandler extends ThriftClientEventHandler
         long now = nanoTime();
         PerCallMethodStats ctx = (PerCallMethodStats)context;
         ctx.postWriteTime = now;
-        stats.get(methodName).addWriteTime(nanosBetween(ctx.preWriteTime, now));
+        ctx.methodStats.addWriteTime(now - ctx.preWriteTime);
     }
 
     @Override
@@ -76,7 +107,7 @@ public class ThriftClientStatsHandler extends ThriftClientEventHandler
         long now = nanoTime();
         PerCallMethodStats ctx = (PerCallMethodStats)context;
         ctx.preReadTime = now;
-        stats.get(methodName).addInvokeTime(nanosBetween(ctx.postWriteTime, now));
+        ctx.methodStats.addInvokeTime(now - ctx.postWriteTime);
     }
 
     @Override
@@ -89,7 +120,8 @@ public class ThriftClientStatsHandler extends ThriftClientEventHandler
     @Override
     public void postRead(Object context, String methodName, Object result)
     {
-        stats.get(methodName).addReadTime(nanosSince(((PerCallMethodStats) context).preReadTime));
+        PerCallMethodStats ctx = (PerCallMethodStats) context;
+        ctx.methodStats.addReadTime(nanoTime() - ctx.preReadTime);
     }
 
     @Override
@@ -103,11 +135,73 @@ public class ThriftClientStatsHandler extends ThriftClientEventHandler
     public void done(Object context, String methodName)
     {
         PerCallMethodStats ctx = (PerCallMethodStats)context;
-        Duration duration = nanosSince(ctx.startTime);
+        long duration = nanoTime() - ctx.startTime;
         if (ctx.success) {
-            stats.get(methodName).addSuccessTime(duration);
+            ctx.methodStats.addSuccessTime(duration);
         } else {
-            stats.get(methodName).addErrorTime(duration);
+            ctx.methodStats.addErrorTime(duration);
+        }
+    }
+
+    /**
+     * Handles the calls of one method, without looking up its stats
+     */
+    private class BoundStatsHandler
+            extends ThriftClientEventHandler
+    {
+        private final ThriftMethodStats methodStats;
+
+        private BoundStatsHandler(ThriftMethodStats methodStats)
+        {
+            this.methodStats = methodStats;
+        }
+
+        @Override
+        public Object getContext(String methodName, ClientRequestContext requestContext)
+        {
+            return new PerCallMethodStats(methodStats);
+        }
+
+        @Override
+        public void preWrite(Object context, String methodName, Object[] args)
+        {
+            ThriftClientStatsHandler.this.preWrite(context, methodName, args);
+        }
+
+        @Override
+        public void postWrite(Object context, String methodName, Object[] args)
+        {
+            ThriftClientStatsHandler.this.postWrite(context, methodName, args);
+        }
+
+        @Override
+        public void preRead(Object context, String methodName)
+        {
+            ThriftClientStatsHandler.this.preRead(context, methodName);
+        }
+
+        @Override
+        public void preReadException(Object context, String methodName, Throwable t)
+        {
+            ThriftClientStatsHandler.this.preReadException(context, methodName, t);
+        }
+
+        @Override
+        public void postRead(Object context, String methodName, Object result)
+        {
+            ThriftClientStatsHandler.this.postRead(context, methodName, result);
+        }
+
+        @Override
+        public void postReadException(Object context, String methodName, Throwable t)
+        {
+            ThriftClientStatsHandler.this.postReadException(context, methodName, t);
+        }
+
+        @Override
+        public void done(Object context, String methodName)
+        {
+            ThriftClientStatsHandler.this.done(context, methodName);
         }
     }
 }
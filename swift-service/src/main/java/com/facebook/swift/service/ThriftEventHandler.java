@@ -22,6 +22,16 @@ import org.apache.thrift.TException;
 
 public abstract class ThriftEventHandler
 {
+    /**
+     * Returns the handler that receives the events of calls to one method. The processor calls
+     * this once per method when it is created, so a handler can look up its per-method state
+     * once instead of on every call. By default, this handler receives the events of all methods.
+     */
+    public ThriftEventHandler bind(String methodName)
+    {
+        return this;
+    }
+
     public Object getContext(String methodName, RequestContext requestContext)
     {
         return null;
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.core.RequestContext;
+import com.facebook.nifty.core.TChannelBufferInputTransport;
+import com.facebook.nifty.core.TChannelBufferOutputTransport;
+import com.facebook.nifty.core.TNiftyTransport;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.thrift.TApplicationException.INTERNAL_ERROR;
+import static org.jboss.netty.buffer.ChannelBuffers.wrappedBuffer;
+
+/**
+ * Relays requests received by a {@link ThriftServiceProcessor} to a backend {@link RequestChannel}
+ * without decoding them. Only the message header is rewritten, to give the request a sequence id
+ * that is unique on the backend channel; the arguments are sent from the received frame, and the
+ * body of the response is appended to the reply by reference.
+ * <p/>
+ * The backend channel must use the same binary or compact protocol as the clients of the server,
+ * because the message body is copied without being parsed, and the channel must not be shared
+ * with other clients, since its sequence ids are allocated here. Frames must be in heap
+ * buffers, which is the Nifty default. Event handlers are not invoked for forwarded requests.
+ * <p/>
+ * A request is forwarded as oneway if it has the ONEWAY message type, as sent by Swift clients,
+ * or if the server implements the method as oneway.
+ */
+@ThreadSafe
+public class ThriftFrameForwarder
+{
+    private final RequestChannel channel;
+    private final Set<String> forwardedMethods;
+    private final boolean forwardUnknownMethods;
+    private final AtomicInteger nextSequenceId = new AtomicInteger(1);
+
+    /**
+     * @param channel the backend channel requests are relayed to
+     * @param forwardedMethods methods that are forwarded even if the server implements them
+     * @param forwardUnknownMethods whether to forward methods the server does not implement
+     */
+    public ThriftFrameForwarder(RequestChannel channel, Set<String> forwardedMethods, boolean forwardUnknownMethods)
+    {
+        this.channel = Preconditions.checkNotNull(channel, "channel is null");
+        this.forwardedMethods = ImmutableSet.copyOf(Preconditions.checkNotNull(forwardedMethods, "forwardedMethods is null"));
+        this.forwardUnknownMethods = forwardUnknownMethods;
+    }
+
+    public RequestChannel getChannel()
+    {
+        return channel;
+    }
+
+    public boolean isForwarded(String methodName, boolean implemented)
+    {
+        return forwardedMethods.contains(methodName) || (forwardUnknownMethods && !implemented);
+    }
+
+    /**
+     * Forwards the rest of the request, whose message header has already been read from
+     * {@code in}, and writes the response to {@code out} when it arrives.
+     */
+    public ListenableFuture<Boolean> forward(
+            TProtocol in,
+            final TProtocol out,
+            final TMessage message,
+            final boolean oneway,
+            final RequestContext requestContext)
+            throws TException
+    {
+        TTransport inputTransport = in.getTransport();
+        if (inputTransport.getBuffer() == null) {
+            throw new TApplicationException(INTERNAL_ERROR, "Can not forward " + message.name + ": the request frame is not in a heap buffer");
+        }
+
+        // the arguments are forwarded straight from the received frame
+        int argumentsLength = inputTransport.getBytesRemainingInBuffer();
+        ChannelBuffer arguments = wrappedBuffer(inputTransport.getBuffer(), inputTransport.getBufferPosition(), argumentsLength);
+        inputTransport.consumeBuffer(argumentsLength);
+
+        TChannelBufferOutputTransport headerTransport = new TChannelBufferOutputTransport(message.name.length() + 16);
+        TProtocol headerProtocol = channel.getProtocolFactory().getOutputProtocolFactory().getProtocol(headerTransport);
+        headerProtocol.writeMessageBegin(new TMessage(message.name, message.type, nextSequenceId.getAndIncrement()));
+        ChannelBuffer request = wrappedBuffer(headerTransport.getOutputBuffer(), arguments);
+
+        final SettableFuture<Boolean> resultFuture = SettableFuture.create();
+        channel.sendAsynchronousRequest(request, oneway, new RequestChannel.Listener()
+        {
+            @Override
+            public void onRequestSent()
+            {
+                if (oneway) {
+                    resultFuture.set(true);
+                }
+            }
+
+            @Override
+            public void onResponseReceived(ChannelBuffer response)
+            {
+                try {
+                    TChannelBufferInputTransport responseTransport = new TChannelBufferInputTransport(response);
+                    TMessage responseMessage = channel.getProtocolFactory().getInputProtocolFactory().getProtocol(responseTransport).readMessageBegin();
+
+                    // reading the header advanced the response buffer to the body, which
+                    // includes the end of the message
+                    out.writeMessageBegin(new TMessage(responseMessage.name, responseMessage.type, message.seqid));
+                    writeBody(out.getTransport(), response);
+                    out.getTransport().flush();
+
+                    resultFuture.set(true);
+                }
+                catch (Exception e) {
+                    resultFuture.setException(e);
+                }
+            }
+
+            @Override
+            public void onChannelError(TException cause)
+            {
+                if (oneway) {
+                    // oneway clients don't read a response
+                    resultFuture.set(true);
+                    return;
+                }
+                try {
+                    ThriftServiceProcessor.createAndWriteApplicationException(
+                            out,
+                            requestContext,
+                            message.name,
+                            message.seqid,
+                            INTERNAL_ERROR,
+                            "Error forwarding " + message.name + ": " + cause.getMessage(),
+                            cause);
+                    resultFuture.set(true);
+                }
+                catch (Exception e) {
+                    resultFuture.setException(e);
+                }
+            }
+        });
+
+        return resultFuture;
+    }
+
+    private static void writeBody(TTransport transport, ChannelBuffer body)
+            throws TException
+    {
+        if (transport instanceof TNiftyTransport) {
+            TNiftyTransport niftyTransport = (TNiftyTransport) transport;
+            niftyTransport.setOutputBuffer(wrappedBuffer(niftyTransport.getOutputBuffer(), body));
+            return;
+        }
+
+        byte[] bytes = new byte[body.readableBytes()];
+        body.readBytes(bytes);
+        transport.write(bytes);
+    }
+}
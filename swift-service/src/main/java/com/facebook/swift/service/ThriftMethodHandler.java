@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.AbstractFuture;
 import com.google.common.util.concurrent.ListenableFuture;
+import io.airlift.units.Duration;
 import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.protocol.TMessage;
@@ -108,27 +109,29 @@ public class ThriftMethodHandler
         return qualifiedName;
     }
 
+    /**
+     * @param syncTimeout how long a synchronous call waits for its response, or null to wait
+     *                    until the channel delivers the response or fails the call
+     */
     public Object invoke(
             final RequestChannel channel,
-            final TChannelBufferInputTransport inputTransport,
-            final TChannelBufferOutputTransport outputTransport,
-            final TProtocol inputProtocol,
-            final TProtocol outputProtocol,
+            final ThreadLocal<ClientTransports> transports,
             final int sequenceId,
             final ClientContextChain contextChain,
+            @Nullable final Duration syncTimeout,
             final Object... args)
             throws Exception
     {
         if (invokeAsynchronously)
         {
             // This method declares a Future return value: run it asynchronously
-            return asynchronousInvoke(channel, inputTransport, outputTransport, inputProtocol, outputProtocol, sequenceId, contextChain, args);
+            return asynchronousInvoke(channel, transports, sequenceId, contextChain, args);
         }
         else
         {
             try {
                 // This method declares an immediate return value: run it synchronously
-                return synchronousInvoke(channel, inputTransport, outputTransport, inputProtocol, outputProtocol, sequenceId, contextChain, args);
+                return synchronousInvoke(channel, transports.get(), sequenceId, contextChain, syncTimeout, args);
             }
             finally {
                 contextChain.done();
@@ -136,14 +139,31 @@ public class ThriftMethodHandler
         }
     }
 
+    /**
+     * @deprecated Use {@link #invoke(RequestChannel, ThreadLocal, int, ClientContextChain, Duration, Object...)},
+     * which can be called concurrently on one client.
+     */
+    @Deprecated
+    public Object invoke(
+            final RequestChannel channel,
+            final TChannelBufferInputTransport inputTransport,
+            final TChannelBufferOutputTransport outputTransport,
+            final TProtocol inputProtocol,
+            final TProtocol outputProtocol,
+            final int sequenceId,
+            final ClientContextChain contextChain,
+            final Object... args)
+            throws Exception
+    {
+        return invoke(channel, fixedTransports(inputTransport, outputTransport, inputProtocol, outputProtocol), sequenceId, contextChain, null, args);
+    }
+
     private Object synchronousInvoke(
             RequestChannel channel,
-            TChannelBufferInputTransport inputTransport,
-            TChannelBufferOutputTransport outputTransport,
-            TProtocol inputProtocol,
-            TProtocol outputProtocol,
+            ClientTransports transports,
             int sequenceId,
             ClientContextChain contextChain,
+            @Nullable Duration syncTimeout,
             Object[] args)
             throws Exception
     {
@@ -151,17 +171,17 @@ public class ThriftMethodHandler
 
         // write request
         contextChain.preWrite(args);
-        outputTransport.resetOutputBuffer();
-        writeArguments(outputProtocol, sequenceId, args);
+        transports.getOutputTransport().resetOutputBuffer();
+        writeArguments(transports.getOutputProtocol(), sequenceId, args);
         // Don't need to copy the output buffer for sync case
-        ChannelBuffer requestBuffer = outputTransport.getOutputBuffer();
+        ChannelBuffer requestBuffer = transports.getOutputTransport().getOutputBuffer();
         contextChain.postWrite(args);
 
         if (!this.oneway) {
             ChannelBuffer responseBuffer;
 
             try {
-                responseBuffer = SyncClientHelpers.sendSynchronousTwoWayMessage(channel, requestBuffer);
+                responseBuffer = SyncClientHelpers.sendSynchronousTwoWayMessage(channel, requestBuffer, syncTimeout);
             } catch (Exception e) {
                 contextChain.preReadException(e);
                 throw e;
@@ -170,7 +190,8 @@ public class ThriftMethodHandler
             // read results
             contextChain.preRead();
             try {
-                inputTransport.setInputBuffer(responseBuffer);
+                TProtocol inputProtocol = transports.getInputProtocol();
+                transports.getInputTransport().setInputBuffer(responseBuffer);
                 waitForResponse(inputProtocol, sequenceId);
                 results = readResponse(inputProtocol);
                 contextChain.postRead(results);
@@ -180,7 +201,7 @@ public class ThriftMethodHandler
             }
         } else {
             try {
-                SyncClientHelpers.sendSynchronousOneWayMessage(channel, requestBuffer);
+                SyncClientHelpers.sendSynchronousOneWayMessage(channel, requestBuffer, syncTimeout);
             } catch (Exception e) {
                 throw e;
             }
@@ -191,10 +212,7 @@ public class ThriftMethodHandler
 
     public ListenableFuture<Object> asynchronousInvoke(
             final RequestChannel channel,
-            final TChannelBufferInputTransport inputTransport,
-            final TChannelBufferOutputTransport outputTransport,
-            final TProtocol inputProtocol,
-            final TProtocol outputProtocol,
+            final ThreadLocal<ClientTransports> transports,
             final int sequenceId,
             final ClientContextChain contextChain,
             final Object[] args)
@@ -203,10 +221,13 @@ public class ThriftMethodHandler
         final AsyncMethodCallFuture<Object> future = AsyncMethodCallFuture.create(contextChain);
         final RequestContext requestContext = RequestContexts.getCurrentContext();
 
+        // the request is encoded with the transports of the calling thread, and copied because
+        // the next call on this thread reuses them
+        ClientTransports requestTransports = transports.get();
         contextChain.preWrite(args);
-        outputTransport.resetOutputBuffer();
-        writeArguments(outputProtocol, sequenceId, args);
-        ChannelBuffer requestBuffer = outputTransport.getOutputBuffer().copy();
+        requestTransports.getOutputTransport().resetOutputBuffer();
+        writeArguments(requestTransports.getOutputProtocol(), sequenceId, args);
+        ChannelBuffer requestBuffer = copyOutputBuffer(requestTransports.getOutputTransport());
         contextChain.postWrite(args);
 
         // send message and setup listener to handle the response
@@ -228,10 +249,12 @@ public class ThriftMethodHandler
                 RequestContext oldRequestContext = RequestContexts.getCurrentContext();
                 RequestContexts.setCurrentContext(requestContext);
                 try {
+                    // the response is decoded with the transports of the receiving thread
+                    ClientTransports responseTransports = transports.get();
                     contextChain.preRead();
-                    inputTransport.setInputBuffer(message);
-                    waitForResponse(inputProtocol, sequenceId);
-                    Object results = readResponse(inputProtocol);
+                    responseTransports.getInputTransport().setInputBuffer(message);
+                    waitForResponse(responseTransports.getInputProtocol(), sequenceId);
+                    Object results = readResponse(responseTransports.getInputProtocol());
                     contextChain.postRead(results);
                     future.set(results);
                 }
@@ -260,10 +283,56 @@ public class ThriftMethodHandler
         return future;
     }
 
+    /**
+     * @deprecated Use {@link #asynchronousInvoke(RequestChannel, ThreadLocal, int, ClientContextChain, Object[])},
+     * which can be called concurrently on one client.
+     */
+    @Deprecated
+    public ListenableFuture<Object> asynchronousInvoke(
+            final RequestChannel channel,
+            final TChannelBufferInputTransport inputTransport,
+            final TChannelBufferOutputTransport outputTransport,
+            final TProtocol inputProtocol,
+            final TProtocol outputProtocol,
+            final int sequenceId,
+            final ClientContextChain contextChain,
+            final Object[] args)
+        throws Exception
+    {
+        return asynchronousInvoke(channel, fixedTransports(inputTransport, outputTransport, inputProtocol, outputProtocol), sequenceId, contextChain, args);
+    }
+
+    private static ThreadLocal<ClientTransports> fixedTransports(
+            TChannelBufferInputTransport inputTransport,
+            TChannelBufferOutputTransport outputTransport,
+            TProtocol inputProtocol,
+            TProtocol outputProtocol)
+    {
+        final ClientTransports transports = new ClientTransports(inputTransport, outputTransport, inputProtocol, outputProtocol);
+        return new ThreadLocal<ClientTransports>()
+        {
+            @Override
+            protected ClientTransports initialValue()
+            {
+                return transports;
+            }
+        };
+    }
+
+    private static ChannelBuffer copyOutputBuffer(TChannelBufferOutputTransport outputTransport)
+    {
+        // the transport is reused by the next call, but buffers the caller appended by reference
+        // can be sent as they are
+        if (outputTransport instanceof TChannelBufferCompositeOutputTransport) {
+            return ((TChannelBufferCompositeOutputTransport) outputTransport).copyOutputBuffer();
+        }
+        return outputTransport.getOutputBuffer().copy();
+    }
+
     private Object readResponse(TProtocol in)
             throws Exception
     {
-        TProtocolReader reader = new TProtocolReader(in);
+        TProtocolReader reader = TProtocolReader.forProtocol(in);
         reader.readStructBegin();
         Object results = null;
         Exception exception = null;
@@ -309,7 +378,7 @@ public class ThriftMethodHandler
         out.writeMessageBegin(new TMessage(name, oneway ? ONEWAY : CALL, sequenceId));
 
         // write the parameters
-        TProtocolWriter writer = new TProtocolWriter(out);
+        TProtocolWriter writer = TProtocolWriter.forProtocol(out);
         writer.writeStructBegin(name + "_args");
         for (int i = 0; i < args.length; i++) {
             Object value = args[i];
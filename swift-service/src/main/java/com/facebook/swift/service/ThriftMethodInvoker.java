@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+/**
+ * Calls a service method with arguments decoded by a {@link ThriftMethodProcessor}.
+ */
+public interface ThriftMethodInvoker
+{
+    /**
+     * Invokes the method on {@code service}. Exceptions thrown by the method are thrown
+     * unchanged, and not wrapped as they would be by {@link java.lang.reflect.Method#invoke}.
+     */
+    Object invoke(Object service, Object[] args)
+            throws Exception;
+}
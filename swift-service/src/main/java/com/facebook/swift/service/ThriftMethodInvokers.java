@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.internal.compiler.DynamicClassLoader;
+import com.facebook.swift.codec.internal.compiler.byteCode.ClassDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.MethodDefinition;
+import com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Primitives;
+import io.airlift.log.Logger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.FINAL;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.PUBLIC;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.SUPER;
+import static com.facebook.swift.codec.internal.compiler.byteCode.Access.a;
+import static com.facebook.swift.codec.internal.compiler.byteCode.NamedParameterDefinition.arg;
+import static com.facebook.swift.codec.internal.compiler.byteCode.ParameterizedType.type;
+
+/**
+ * Creates {@link ThriftMethodInvoker}s that call the service method directly from generated
+ * byte code, so requests do not go through the argument checks and exception wrapping of
+ * {@link Method#invoke}. Methods the generated class can not call, because they or their class
+ * are not public, are invoked by reflection.
+ */
+final class ThriftMethodInvokers
+{
+    private static final Logger LOG = Logger.get(ThriftMethodInvokers.class);
+
+    private static final String PACKAGE = "$wift";
+
+    private ThriftMethodInvokers()
+    {
+    }
+
+    public static ThriftMethodInvoker create(Method method)
+    {
+        Preconditions.checkNotNull(method, "method is null");
+
+        ClassLoader classLoader = method.getDeclaringClass().getClassLoader();
+        if (!isAccessible(method) || !canLoadInvoker(classLoader)) {
+            return new ReflectionInvoker(method);
+        }
+
+        try {
+            return generateInvoker(method, classLoader);
+        }
+        catch (Exception | LinkageError e) {
+            LOG.warn(e, "Could not generate an invoker for %s, it will be called by reflection", method);
+            return new ReflectionInvoker(method);
+        }
+    }
+
+    private static ThriftMethodInvoker generateInvoker(Method method, ClassLoader parent)
+            throws ReflectiveOperationException
+    {
+        Class<?> serviceClass = method.getDeclaringClass();
+        ParameterizedType invokerType = type(PACKAGE + "/" + type(serviceClass).getClassName() + "$" + method.getName() + "Invoker");
+
+        ClassDefinition classDefinition = new ClassDefinition(
+                a(PUBLIC, FINAL, SUPER),
+                invokerType.getClassName(),
+                type(Object.class),
+                type(ThriftMethodInvoker.class));
+
+        classDefinition.addMethod(
+                new MethodDefinition(a(PUBLIC), "<init>", type(void.class))
+                        .loadThis()
+                        .invokeConstructor(type(Object.class))
+                        .ret());
+
+        MethodDefinition invoke = new MethodDefinition(
+                a(PUBLIC),
+                "invoke",
+                type(Object.class),
+                arg("service", Object.class),
+                arg("args", Object[].class))
+                .addException(Exception.class);
+
+        // ((Service) service).method((A) args[0], ((Integer) args[1]).intValue(), ...)
+        invoke.loadVariable("service").checkCast(type(serviceClass));
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        for (int i = 0; i < parameterTypes.length; i++) {
+            invoke.loadVariable("args").loadConstant(i).loadObjectArrayElement();
+            Class<?> parameterType = parameterTypes[i];
+            if (parameterType.isPrimitive()) {
+                Class<?> wrapperType = Primitives.wrap(parameterType);
+                invoke.checkCast(type(wrapperType))
+                        .invokeVirtual(wrapperType, parameterType.getName() + "Value", parameterType);
+            }
+            else {
+                invoke.checkCast(type(parameterType));
+            }
+        }
+        if (serviceClass.isInterface()) {
+            invoke.invokeInterface(method);
+        }
+        else {
+            invoke.invokeVirtual(method);
+        }
+
+        // box the result, or return null for void methods
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            invoke.loadNull();
+        }
+        else if (returnType.isPrimitive()) {
+            invoke.invokeStatic(Primitives.wrap(returnType), "valueOf", Primitives.wrap(returnType), returnType);
+        }
+        invoke.retObject();
+        classDefinition.addMethod(invoke);
+
+        DynamicClassLoader classLoader = new DynamicClassLoader(parent);
+        Class<?> invokerClass = classLoader.defineClass(invokerType.getClassName().replace('/', '.'), classDefinition.toByteCode());
+        return (ThriftMethodInvoker) invokerClass.getConstructor().newInstance();
+    }
+
+    private static boolean isAccessible(Method method)
+    {
+        if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())) {
+            return false;
+        }
+        for (Class<?> type = method.getDeclaringClass(); type != null; type = type.getEnclosingClass()) {
+            if (!Modifier.isPublic(type.getModifiers())) {
+                return false;
+            }
+        }
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            if (!isAccessible(parameterType)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAccessible(Class<?> type)
+    {
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        for (; type != null; type = type.getEnclosingClass()) {
+            if (!type.isPrimitive() && !Modifier.isPublic(type.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean canLoadInvoker(ClassLoader classLoader)
+    {
+        // the generated class is defined under the class loader of the service, which must
+        // resolve ThriftMethodInvoker to this class
+        if (classLoader == null) {
+            return false;
+        }
+        try {
+            return Class.forName(ThriftMethodInvoker.class.getName(), false, classLoader) == ThriftMethodInvoker.class;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static class ReflectionInvoker
+            implements ThriftMethodInvoker
+    {
+        private final Method method;
+
+        private ReflectionInvoker(Method method)
+        {
+            this.method = method;
+        }
+
+        @Override
+        public Object invoke(Object service, Object[] args)
+                throws Exception
+        {
+            try {
+                return method.invoke(service, args);
+            }
+            catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw e;
+            }
+        }
+    }
+}
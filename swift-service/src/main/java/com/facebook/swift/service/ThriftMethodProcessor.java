@@ -43,7 +43,6 @@ import org.apache.thrift.protocol.TProtocolException;
 import org.weakref.jmx.Managed;
 
 import javax.annotation.concurrent.ThreadSafe;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.Map;
@@ -58,6 +57,7 @@ public class ThriftMethodProcessor
     private final String qualifiedName;
     private final Object service;
     private final Method method;
+    private final ThriftMethodInvoker invoker;
     private final String resultStructName;
     private final boolean oneway;
     private final ImmutableList<ThriftFieldMetadata> parameters;
@@ -81,6 +81,7 @@ public class ThriftMethodProcessor
         resultStructName = name + "_result";
 
         method = methodMetadata.getMethod();
+        invoker = ThriftMethodInvokers.create(method);
         oneway = methodMetadata.getOneway();
 
         parameters = ImmutableList.copyOf(methodMetadata.getParameters());
@@ -116,6 +117,11 @@ public class ThriftMethodProcessor
         return name;
     }
 
+    public boolean isOneway()
+    {
+        return oneway;
+    }
+
     public Class<?> getServiceClass() {
         return service.getClass();
     }
@@ -254,23 +260,14 @@ public class ThriftMethodProcessor
     private ListenableFuture<?> invokeMethod(Object[] args)
     {
         try {
-            Object response = method.invoke(service, args);
+            Object response = invoker.invoke(service, args);
             if (response instanceof ListenableFuture) {
                 return (ListenableFuture<?>) response;
             }
             return Futures.immediateFuture(response);
         }
-        catch (IllegalAccessException | IllegalArgumentException e) {
-            // These really should never happen, since the method metadata should have prevented it
-            return Futures.immediateFailedFuture(e);
-        }
-        catch (InvocationTargetException e) {
-            Throwable cause = e.getCause();
-            if (cause != null) {
-                return Futures.immediateFailedFuture(cause);
-            }
-
-            return Futures.immediateFailedFuture(e);
+        catch (Throwable t) {
+            return Futures.immediateFailedFuture(t);
         }
     }
 
@@ -280,7 +277,7 @@ public class ThriftMethodProcessor
         try {
             int numArgs = method.getParameterTypes().length;
             Object[] args = new Object[numArgs];
-            TProtocolReader reader = new TProtocolReader(in);
+            TProtocolReader reader = TProtocolReader.forProtocol(in);
 
             // Map incoming arguments from the ID passed in on the wire to the position in the
             // java argument list we expect to see a parameter with that ID.
@@ -338,7 +335,7 @@ public class ThriftMethodProcessor
     {
         out.writeMessageBegin(new TMessage(name, responseType, sequenceId));
 
-        TProtocolWriter writer = new TProtocolWriter(out);
+        TProtocolWriter writer = TProtocolWriter.forProtocol(out);
         writer.writeStructBegin(resultStructName);
         writer.writeField(responseFieldName, (short) responseFieldId, responseCodec, result);
         writer.writeStructEnd();
@@ -22,17 +22,86 @@ import io.airlift.units.Duration;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Per-method call statistics. By default they are recorded into airlift stats, which give
+ * decayed distributions. Stats created with {@code histograms} set are recorded instead into
+ * {@link StripedHistogram}s, which do not lock when recording and keep exact tails; times are
+ * recorded in microseconds and sizes in bytes. Only the stats of the backend in use are created,
+ * and the getters of the other backend return null, so JMX only exports the backend in use.
+ * <p/>
+ * On the server, a call waits in the worker queue, is dispatched to the method, reads its
+ * arguments, invokes the method, serializes the response (the write time) and finally flushes
+ * the response to the socket. The queue wait, dispatch and flush times are only known for calls
+ * of methods exported by a {@link ThriftServer}, and the flush time only for responses written
+ * by the worker that ran the call.
+ */
 public class ThriftMethodStats
 {
-    private final TimeStat success = new TimeStat();
-    private final TimeStat read = new TimeStat();
-    private final TimeStat invoke = new TimeStat();
-    private final TimeStat write = new TimeStat();
-    private final TimeStat error = new TimeStat();
-    private final DistributionStat readSize = new DistributionStat();
-    private final DistributionStat writeSize = new DistributionStat();
-    private final CounterStat readSizeTotal = new CounterStat();
-    private final CounterStat writeSizeTotal = new CounterStat();
+    private final boolean histograms;
+    private final TimeStat success;
+    private final TimeStat read;
+    private final TimeStat invoke;
+    private final TimeStat write;
+    private final TimeStat error;
+    private final TimeStat queueWait;
+    private final TimeStat dispatch;
+    private final TimeStat flush;
+    private final DistributionStat readSize;
+    private final DistributionStat writeSize;
+    private final CounterStat readSizeTotal;
+    private final CounterStat writeSizeTotal;
+
+    private final StripedHistogram readTime;
+    private final StripedHistogram invokeTime;
+    private final StripedHistogram writeTime;
+    private final StripedHistogram successTime;
+    private final StripedHistogram errorTime;
+    private final StripedHistogram queueWaitTime;
+    private final StripedHistogram dispatchTime;
+    private final StripedHistogram flushTime;
+    private final StripedHistogram readBytes;
+    private final StripedHistogram writeBytes;
+
+    public ThriftMethodStats()
+    {
+        this(false);
+    }
+
+    public ThriftMethodStats(boolean histograms)
+    {
+        this.histograms = histograms;
+
+        success = histograms ? null : new TimeStat();
+        read = histograms ? null : new TimeStat();
+        invoke = histograms ? null : new TimeStat();
+        write = histograms ? null : new TimeStat();
+        error = histograms ? null : new TimeStat();
+        queueWait = histograms ? null : new TimeStat();
+        dispatch = histograms ? null : new TimeStat();
+        flush = histograms ? null : new TimeStat();
+        readSize = histograms ? null : new DistributionStat();
+        writeSize = histograms ? null : new DistributionStat();
+        readSizeTotal = histograms ? null : new CounterStat();
+        writeSizeTotal = histograms ? null : new CounterStat();
+
+        readTime = histograms ? new StripedHistogram() : null;
+        invokeTime = histograms ? new StripedHistogram() : null;
+        writeTime = histograms ? new StripedHistogram() : null;
+        successTime = histograms ? new StripedHistogram() : null;
+        errorTime = histograms ? new StripedHistogram() : null;
+        queueWaitTime = histograms ? new StripedHistogram() : null;
+        dispatchTime = histograms ? new StripedHistogram() : null;
+        flushTime = histograms ? new StripedHistogram() : null;
+        readBytes = histograms ? new StripedHistogram() : null;
+        writeBytes = histograms ? new StripedHistogram() : null;
+    }
+
+    public boolean isHistograms()
+    {
+        return histograms;
+    }
 
     @Managed
     @Nested
@@ -69,6 +138,27 @@ public class ThriftMethodStats
         return error;
     }
 
+    @Managed
+    @Nested
+    public TimeStat getQueueWait()
+    {
+        return queueWait;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getDispatch()
+    {
+        return dispatch;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getFlush()
+    {
+        return flush;
+    }
+
     @Managed
     @Nested
     public DistributionStat getReadSize()
@@ -97,40 +187,168 @@ public class ThriftMethodStats
         return writeSizeTotal;
     }
 
+    @Managed
+    @Nested
+    public StripedHistogram getReadTimeHistogram()
+    {
+        return readTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getInvokeTimeHistogram()
+    {
+        return invokeTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getWriteTimeHistogram()
+    {
+        return writeTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getSuccessTimeHistogram()
+    {
+        return successTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getErrorTimeHistogram()
+    {
+        return errorTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getQueueWaitTimeHistogram()
+    {
+        return queueWaitTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getDispatchTimeHistogram()
+    {
+        return dispatchTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getFlushTimeHistogram()
+    {
+        return flushTime;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getReadSizeHistogram()
+    {
+        return readBytes;
+    }
+
+    @Managed
+    @Nested
+    public StripedHistogram getWriteSizeHistogram()
+    {
+        return writeBytes;
+    }
+
     public void addReadTime(Duration duration)
     {
-        read.add(duration);
+        addReadTime(duration.roundTo(NANOSECONDS));
+    }
+
+    public void addReadTime(long nanos)
+    {
+        addTime(read, readTime, nanos);
     }
 
     public void addInvokeTime(Duration duration)
     {
-        invoke.add(duration);
+        addInvokeTime(duration.roundTo(NANOSECONDS));
+    }
+
+    public void addInvokeTime(long nanos)
+    {
+        addTime(invoke, invokeTime, nanos);
     }
 
     public void addWriteTime(Duration duration)
     {
-        write.add(duration);
+        addWriteTime(duration.roundTo(NANOSECONDS));
+    }
+
+    public void addWriteTime(long nanos)
+    {
+        addTime(write, writeTime, nanos);
     }
 
     public void addSuccessTime(Duration duration)
     {
-        success.add(duration);
+        addSuccessTime(duration.roundTo(NANOSECONDS));
+    }
+
+    public void addSuccessTime(long nanos)
+    {
+        addTime(success, successTime, nanos);
     }
 
     public void addErrorTime(Duration duration)
     {
-        error.add(duration);
+        addErrorTime(duration.roundTo(NANOSECONDS));
+    }
+
+    public void addErrorTime(long nanos)
+    {
+        addTime(error, errorTime, nanos);
+    }
+
+    public void addQueueWaitTime(long nanos)
+    {
+        addTime(queueWait, queueWaitTime, nanos);
+    }
+
+    public void addDispatchTime(long nanos)
+    {
+        addTime(dispatch, dispatchTime, nanos);
+    }
+
+    public void addFlushTime(long nanos)
+    {
+        addTime(flush, flushTime, nanos);
     }
 
     public void addReadByteCount(int readByteCount)
     {
+        if (histograms) {
+            readBytes.record(readByteCount);
+            return;
+        }
         readSizeTotal.update(readByteCount);
         readSize.add(readByteCount);
     }
 
     public void addWriteByteCount(int writeByteCount)
     {
+        if (histograms) {
+            writeBytes.record(writeByteCount);
+            return;
+        }
         writeSizeTotal.update(writeByteCount);
         writeSize.add(writeByteCount);
     }
+
+    private void addTime(TimeStat stat, StripedHistogram histogram, long nanos)
+    {
+        if (histograms) {
+            histogram.record(NANOSECONDS.toMicros(nanos));
+        }
+        else {
+            stat.add(nanos, NANOSECONDS);
+        }
+    }
 }
@@ -29,12 +29,14 @@ import com.facebook.nifty.processor.NiftyProcessor;
 import com.facebook.nifty.processor.NiftyProcessorFactory;
 import com.facebook.nifty.ssl.SslServerConfiguration;
 import com.facebook.nifty.ssl.TransportAttachObserver;
+import com.facebook.swift.codec.protocol.SwiftBinaryProtocol;
+import com.facebook.swift.codec.protocol.SwiftCompactProtocol;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Inject;
+import io.airlift.log.Logger;
 
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.transport.TTransport;
 import org.jboss.netty.channel.ServerChannelFactory;
 import org.jboss.netty.channel.group.DefaultChannelGroup;
@@ -45,10 +47,12 @@ import org.jboss.netty.util.ThreadNameDeterminer;
 import org.jboss.netty.util.Timer;
 import org.weakref.jmx.Managed;
 
+import javax.annotation.Nullable;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.Map;
@@ -65,10 +69,11 @@ import static java.util.concurrent.Executors.newCachedThreadPool;
 
 public class ThriftServer implements Closeable
 {
+    private static final Logger log = Logger.get(ThriftServer.class);
 
     public static final ImmutableMap<String,TDuplexProtocolFactory> DEFAULT_PROTOCOL_FACTORIES = ImmutableMap.of(
-            "binary", TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()),
-            "compact", TDuplexProtocolFactory.fromSingleFactory(new TCompactProtocol.Factory())
+            "binary", TDuplexProtocolFactory.fromSingleFactory(new SwiftBinaryProtocol.Factory()),
+            "compact", TDuplexProtocolFactory.fromSingleFactory(new SwiftCompactProtocol.Factory())
     );
     public static final ImmutableMap<String,ThriftFrameCodecFactory> DEFAULT_FRAME_CODEC_FACTORIES = ImmutableMap.of(
             "buffered", (ThriftFrameCodecFactory) new DefaultThriftFrameCodecFactory(),
@@ -89,9 +94,13 @@ public class ThriftServer implements Closeable
 
     private final NettyServerTransport transport;
     private final int configuredPort;
-    private final DefaultChannelGroup allChannels = new DefaultChannelGroup();
+    private final DefaultChannelGroup allChannels;
 
     private final Executor workerExecutor;
+    @Nullable
+    private final TimedWorkerExecutor timedWorkerExecutor;
+    @Nullable
+    private final RequestCaptureWriter requestCapture;
     private final ExecutorService acceptorExecutor;
     private final ExecutorService ioExecutor;
     private final int acceptorThreads;
@@ -185,6 +194,25 @@ public class ThriftServer implements Closeable
         configuredPort = config.getPort();
 
         workerExecutor = config.getOrBuildWorkerExecutor(availableWorkerExecutors);
+        timedWorkerExecutor = new TimedWorkerExecutor(workerExecutor);
+
+        if (config.getCaptureFile() != null) {
+            try {
+                requestCapture = new RequestCaptureWriter(
+                        config.getCaptureFile(),
+                        protocolName,
+                        availableProtocolFactories.get(protocolName).getInputProtocolFactory(),
+                        config.getCaptureSampleRate(),
+                        config.getCaptureMaxFileSize());
+            }
+            catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        else {
+            requestCapture = null;
+        }
+        allChannels = new DefaultChannelGroup();
 
         acceptorExecutor = newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("thrift-acceptor-%s").build());
         acceptorThreads = config.getAcceptorThreadCount();
@@ -206,10 +234,10 @@ public class ThriftServer implements Closeable
                                                          .withProcessorFactory(processorFactory)
                                                          .limitConnectionsTo(config.getConnectionLimit())
                                                          .limitQueuedResponsesPerConnection(config.getMaxQueuedResponsesPerConnection())
-                                                         .thriftFrameCodecFactory(availableFrameCodecFactories.get(transportName))
+                                                         .thriftFrameCodecFactory(new TimedFrameCodecFactory(availableFrameCodecFactories.get(transportName), requestCapture))
                                                          .protocol(availableProtocolFactories.get(protocolName))
                                                          .withSecurityFactory(securityFactoryHolder.niftySecurityFactory)
-                                                         .using(workerExecutor)
+                                                         .using(timedWorkerExecutor)
                                                          .taskTimeout(config.getTaskExpirationTimeout())
                                                          .queueTimeout(config.getQueueTimeout())
                                                          .withSSLConfiguration(sslServerConfiguration)
@@ -238,6 +266,10 @@ public class ThriftServer implements Closeable
     {
         configuredPort = thriftServerDef.getServerPort();
         workerExecutor = thriftServerDef.getExecutor();
+        // the executor is already set in the server definition, so requests cannot be timed
+        timedWorkerExecutor = null;
+        requestCapture = null;
+        allChannels = new DefaultChannelGroup();
         acceptorExecutor = nettyServerConfig.getBossExecutor();
         acceptorThreads = nettyServerConfig.getBossThreadCount();
         ioExecutor = nettyServerConfig.getWorkerExecutor();
@@ -273,6 +305,74 @@ public class ThriftServer implements Closeable
         return 0;
     }
 
+    /**
+     * Returns the number of requests waiting for a worker thread
+     */
+    @Managed
+    public int getQueuedRequests()
+    {
+        if (timedWorkerExecutor != null) {
+            return timedWorkerExecutor.getQueuedRequests();
+        }
+        if (workerExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) workerExecutor).getQueue().size();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of worker threads running requests
+     */
+    @Managed
+    public int getActiveWorkerThreads()
+    {
+        if (timedWorkerExecutor != null) {
+            return timedWorkerExecutor.getActiveRequests();
+        }
+        if (workerExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) workerExecutor).getActiveCount();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of requests the worker executor rejected, for which the client was
+     * sent an exception instead
+     */
+    @Managed
+    public long getRejectedRequests()
+    {
+        if (timedWorkerExecutor != null) {
+            return timedWorkerExecutor.getRejectedRequests();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of requests written to the capture file
+     */
+    @Managed
+    public long getCapturedRequests()
+    {
+        if (requestCapture != null) {
+            return requestCapture.getCapturedRequests();
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the number of sampled requests left out of the capture file, because the writer
+     * fell behind or the file reached its maximum size
+     */
+    @Managed
+    public long getDroppedCaptureRequests()
+    {
+        if (requestCapture != null) {
+            return requestCapture.getDroppedRequests();
+        }
+        return 0;
+    }
+
     public Executor getWorkerExecutor()
     {
         return workerExecutor;
@@ -347,6 +447,15 @@ public class ThriftServer implements Closeable
             Thread.currentThread().interrupt();
         }
 
+        if (requestCapture != null) {
+            try {
+                requestCapture.close();
+            }
+            catch (IOException e) {
+                log.error(e, "Error closing request capture file");
+            }
+        }
+
         state = State.CLOSED;
     }
 
@@ -23,6 +23,7 @@ import io.airlift.units.Duration;
 import io.airlift.units.MaxDataSize;
 import io.airlift.units.MinDataSize;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
@@ -30,6 +31,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
@@ -37,6 +40,7 @@ import javax.validation.constraints.NotNull;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
 import static io.airlift.units.DataSize.Unit.MEGABYTE;
 
 public class ThriftServerConfig
@@ -71,6 +75,10 @@ public class ThriftServerConfig
      * that, it should be a conscious decision (something you must manually configure).
      */
     private DataSize maxFrameSize = new DataSize(64, MEGABYTE);
+    private File captureFile;
+    private double captureSampleRate = 1.0;
+    private DataSize captureMaxFileSize = new DataSize(1, GIGABYTE);
+    private boolean statsHistograms;
 
     public String getBindAddress()
     {
@@ -483,4 +491,91 @@ public class ThriftServerConfig
     {
         return protocolName;
     }
+
+    public File getCaptureFile()
+    {
+        return captureFile;
+    }
+
+    /**
+     * Sets a file to append a sample of the incoming requests to, for replay by a load generator.
+     * Requests are captured with the method name and arrival time, as the frames of the
+     * configured protocol. Requests of the header transport are not captured.
+     *
+     * The default is not to capture requests.
+     *
+     * @param captureFile The capture file
+     * @return This {@link ThriftServerConfig} instance
+     */
+    @Config("thrift.capture.file")
+    public ThriftServerConfig setCaptureFile(File captureFile)
+    {
+        this.captureFile = captureFile;
+        return this;
+    }
+
+    @DecimalMin("0")
+    @DecimalMax("1")
+    public double getCaptureSampleRate()
+    {
+        return captureSampleRate;
+    }
+
+    /**
+     * Sets the fraction of the incoming requests that are captured.
+     *
+     * The default is to capture every request.
+     *
+     * @param captureSampleRate The fraction of requests to capture, from 0 to 1
+     * @return This {@link ThriftServerConfig} instance
+     */
+    @Config("thrift.capture.sample-rate")
+    public ThriftServerConfig setCaptureSampleRate(double captureSampleRate)
+    {
+        this.captureSampleRate = captureSampleRate;
+        return this;
+    }
+
+    @NotNull
+    public DataSize getCaptureMaxFileSize()
+    {
+        return captureMaxFileSize;
+    }
+
+    /**
+     * Sets the size at which the capture file stops growing. Requests received after that are
+     * not captured.
+     *
+     * The default is 1GB.
+     *
+     * @param captureMaxFileSize The maximum size of the capture file
+     * @return This {@link ThriftServerConfig} instance
+     */
+    @Config("thrift.capture.max-file-size")
+    public ThriftServerConfig setCaptureMaxFileSize(DataSize captureMaxFileSize)
+    {
+        this.captureMaxFileSize = captureMaxFileSize;
+        return this;
+    }
+
+    public boolean isStatsHistograms()
+    {
+        return statsHistograms;
+    }
+
+    /**
+     * Sets whether the method stats exported by {@code ThriftServerStatsModule} are recorded into
+     * histograms rather than airlift stats, see {@link ThriftMethodStats}.
+     *
+     * The default is to record into airlift stats.
+     *
+     * @param statsHistograms Whether to record the method stats into histograms
+     * @return This {@link ThriftServerConfig} instance
+     */
+    @Config("thrift.stats.histograms")
+    public ThriftServerConfig setStatsHistograms(boolean statsHistograms)
+    {
+        this.statsHistograms = statsHistograms;
+        return this;
+    }
 }
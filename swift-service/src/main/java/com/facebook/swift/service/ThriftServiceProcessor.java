@@ -38,6 +38,7 @@ import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolUtil;
 import org.apache.thrift.protocol.TType;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.util.List;
@@ -56,7 +57,9 @@ public class ThriftServiceProcessor implements NiftyProcessor
     private static final Logger LOG = Logger.get(ThriftServiceProcessor.class);
 
     private final Map<String, ThriftMethodProcessor> methods;
+    private final Map<String, BoundMethod> boundMethods;
     private final List<ThriftEventHandler> eventHandlers;
+    private final ThriftFrameForwarder forwarder;
 
     /**
      * @param eventHandlers event handlers to attach to services
@@ -68,10 +71,19 @@ public class ThriftServiceProcessor implements NiftyProcessor
     }
 
     public ThriftServiceProcessor(ThriftCodecManager codecManager, List<? extends ThriftEventHandler> eventHandlers, List<?> services)
+    {
+        this(codecManager, eventHandlers, services, null);
+    }
+
+    /**
+     * @param forwarder relays the methods it selects to a backend without decoding them; when
+     * present, services may be empty
+     */
+    public ThriftServiceProcessor(ThriftCodecManager codecManager, List<? extends ThriftEventHandler> eventHandlers, List<?> services, @Nullable ThriftFrameForwarder forwarder)
     {
         Preconditions.checkNotNull(codecManager, "codecManager is null");
         Preconditions.checkNotNull(services, "service is null");
-        Preconditions.checkArgument(!services.isEmpty(), "services is empty");
+        Preconditions.checkArgument(!services.isEmpty() || forwarder != null, "services is empty");
 
         Map<String, ThriftMethodProcessor> processorMap = newHashMap();
         for (Object service : services) {
@@ -87,6 +99,15 @@ public class ThriftServiceProcessor implements NiftyProcessor
         }
         methods = ImmutableMap.copyOf(processorMap);
         this.eventHandlers = ImmutableList.copyOf(eventHandlers);
+        this.forwarder = forwarder;
+
+        // handlers are bound to each method once, rather than looking up per-method state on every call
+        ImmutableMap.Builder<String, BoundMethod> boundMethods = ImmutableMap.builder();
+        for (Map.Entry<String, ThriftMethodProcessor> entry : methods.entrySet()) {
+            ThriftMethodProcessor method = entry.getValue();
+            boundMethods.put(entry.getKey(), new BoundMethod(method, ContextChain.bind(this.eventHandlers, method.getQualifiedName())));
+        }
+        this.boundMethods = boundMethods.build();
     }
 
     public Map<String, ThriftMethodProcessor> getMethods()
@@ -109,8 +130,10 @@ public class ThriftServiceProcessor implements NiftyProcessor
             sequenceId = message.seqid;
 
             // lookup method
-            ThriftMethodProcessor method = methods.get(methodName);
-            if (method == null) {
+            BoundMethod boundMethod = boundMethods.get(methodName);
+            final ThriftMethodProcessor method = boundMethod == null ? null : boundMethod.getProcessor();
+            boolean forwarded = forwarder != null && forwarder.isForwarded(methodName, method != null);
+            if (method == null && !forwarded) {
                 TProtocolUtil.skip(in, TType.STRUCT);
                 createAndWriteApplicationException(out, requestContext, methodName, sequenceId, UNKNOWN_METHOD, "Invalid method name: '" + methodName + "'", null);
                 return Futures.immediateFuture(true);
@@ -132,8 +155,13 @@ public class ThriftServiceProcessor implements NiftyProcessor
                     return Futures.immediateFuture(true);
             }
 
+            if (forwarded) {
+                boolean oneway = message.type == TMessageType.ONEWAY || (method != null && method.isOneway());
+                return forwarder.forward(in, out, message, oneway, requestContext);
+            }
+
             // invoke method
-            final ContextChain context = new ContextChain(eventHandlers, method.getQualifiedName(), requestContext);
+            final ContextChain context = new ContextChain(boundMethod.getEventHandlers(), method.getQualifiedName(), requestContext);
             ListenableFuture<Boolean> processResult = method.process(in, out, sequenceId, context);
 
             Futures.addCallback(
@@ -212,4 +240,26 @@ public class ThriftServiceProcessor implements NiftyProcessor
 
         return applicationException;
     }
+
+    private static class BoundMethod
+    {
+        private final ThriftMethodProcessor processor;
+        private final ThriftEventHandler[] eventHandlers;
+
+        private BoundMethod(ThriftMethodProcessor processor, ThriftEventHandler[] eventHandlers)
+        {
+            this.processor = processor;
+            this.eventHandlers = eventHandlers;
+        }
+
+        public ThriftMethodProcessor getProcessor()
+        {
+            return processor;
+        }
+
+        public ThriftEventHandler[] getEventHandlers()
+        {
+            return eventHandlers;
+        }
+    }
 }
@@ -17,21 +17,35 @@ package com.facebook.swift.service;
 
 import com.facebook.nifty.core.NiftyRequestContext;
 import com.facebook.nifty.core.RequestContext;
-import io.airlift.units.Duration;
+import com.facebook.swift.codec.ThriftCodec;
+import org.apache.thrift.TException;
 
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.TimeUnit;
 
-import static io.airlift.units.Duration.nanosSince;
 import static java.lang.System.nanoTime;
 
 public class ThriftServiceStatsHandler extends ThriftEventHandler
 {
     private final ConcurrentHashMap<String, ThriftMethodStats> stats = new ConcurrentHashMap<>();
+    private final boolean histograms;
+
+    public ThriftServiceStatsHandler()
+    {
+        this(false);
+    }
+
+    /**
+     * @param histograms whether to record into histograms rather than airlift stats, see {@link ThriftMethodStats}
+     */
+    public ThriftServiceStatsHandler(boolean histograms)
+    {
+        this.histograms = histograms;
+    }
 
     private static class PerCallMethodStats
     {
+        public final ThriftMethodStats methodStats;
         public final RequestContext requestContext;
         public boolean success = true;
         public long startTime = nanoTime();
@@ -39,33 +53,56 @@ public class ThriftServiceStatsHandler extends ThriftEventHandler
         public long postReadTime;
         public long preWriteTime;
 
-        public PerCallMethodStats(RequestContext requestContext)
+        public PerCallMethodStats(ThriftMethodStats methodStats, RequestContext requestContext)
         {
+            this.methodStats = methodStats;
             this.requestContext = requestContext;
         }
     }
 
-    private static Duration nanosBetween(long start, long end)
+    public ConcurrentMap<String, ThriftMethodStats> getStats()
     {
-        return new Duration(end - start, TimeUnit.NANOSECONDS);
+        return stats;
     }
 
-    public ConcurrentMap<String, ThriftMethodStats> getStats()
+    @Override
+    public ThriftEventHandler bind(String methodName)
     {
-        return stats;
+        if (getClass() != ThriftServiceStatsHandler.class) {
+            // a subclass may override getContext or any hook, so it handles its calls unbound
+            return this;
+        }
+        return new BoundStatsHandler(getMethodStats(methodName));
     }
 
     @Override
     public Object getContext(String methodName, RequestContext requestContext)
     {
-        stats.putIfAbsent(methodName, new ThriftMethodStats());
-        return new PerCallMethodStats(requestContext);
+        return new PerCallMethodStats(getMethodStats(methodName), requestContext);
+    }
+
+    public ThriftMethodStats getMethodStats(String methodName)
+    {
+        ThriftMethodStats methodStats = stats.get(methodName);
+        if (methodStats == null) {
+            stats.putIfAbsent(methodName, new ThriftMethodStats(histograms));
+            methodStats = stats.get(methodName);
+        }
+        return methodStats;
     }
 
     @Override
     public void preRead(Object context, String methodName)
     {
-        ((PerCallMethodStats)context).preReadTime = nanoTime();
+        long now = nanoTime();
+        PerCallMethodStats ctx = (PerCallMethodStats)context;
+        ctx.preReadTime = now;
+
+        TimedWorkerExecutor.TimedRequest request = TimedWorkerExecutor.currentRequest();
+        if (request != null) {
+            ctx.methodStats.addQueueWaitTime(request.getStartTime() - request.getQueuedTime());
+            ctx.methodStats.addDispatchTime(now - request.getStartTime());
+        }
     }
 
     @Override
@@ -74,8 +111,8 @@ public class ThriftServiceStatsHandler extends ThriftEventHandler
         long now = nanoTime();
         PerCallMethodStats ctx = (PerCallMethodStats)context;
         ctx.postReadTime = now;
-        stats.get(methodName).addReadTime(nanosBetween(ctx.preReadTime, now));
-        stats.get(methodName).addReadByteCount(getBytesRead(ctx));
+        ctx.methodStats.addReadTime(now - ctx.preReadTime);
+        ctx.methodStats.addReadByteCount(getBytesRead(ctx));
     }
 
     @Override
@@ -84,7 +121,7 @@ public class ThriftServiceStatsHandler extends ThriftEventHandler
         long now = nanoTime();
         PerCallMethodStats ctx = (PerCallMethodStats)context;
         ctx.preWriteTime = now;
-        stats.get(methodName).addInvokeTime(nanosBetween(ctx.postReadTime, now));
+        ctx.methodStats.addInvokeTime(now - ctx.postReadTime);
     }
 
     @Override
@@ -98,8 +135,8 @@ public class ThriftServiceStatsHandler extends ThriftEventHandler
     public void postWrite(Object context, String methodName, Object result)
     {
         PerCallMethodStats ctx = (PerCallMethodStats) context;
-        stats.get(methodName).addWriteTime(nanosSince(ctx.preWriteTime));
-        stats.get(methodName).addWriteByteCount(getBytesWritten(ctx));
+        ctx.methodStats.addWriteTime(nanoTime() - ctx.preWriteTime);
+        ctx.methodStats.addWriteByteCount(getBytesWritten(ctx));
     }
 
     @Override
@@ -112,11 +149,16 @@ public class ThriftServiceStatsHandler extends ThriftEventHandler
     public void done(Object context, String methodName)
     {
         PerCallMethodStats ctx = (PerCallMethodStats)context;
-        Duration duration = nanosSince(ctx.startTime);
+        long duration = nanoTime() - ctx.startTime;
         if (ctx.success) {
-            stats.get(methodName).addSuccessTime(duration);
+            ctx.methodStats.addSuccessTime(duration);
         } else {
-            stats.get(methodName).addErrorTime(duration);
+            ctx.methodStats.addErrorTime(duration);
+        }
+
+        TimedWorkerExecutor.TimedRequest request = TimedWorkerExecutor.currentRequest();
+        if (request != null) {
+            request.responseReady(ctx.methodStats);
         }
     }
 
@@ -141,4 +183,80 @@ public class ThriftServiceStatsHandler extends ThriftEventHandler
         NiftyRequestContext requestContext = (NiftyRequestContext) ctx.requestContext;
         return requestContext.getNiftyTransport().getWrittenByteCount();
     }
+
+    /**
+     * Handles the calls of one method, without looking up its stats
+     */
+    private class BoundStatsHandler
+            extends ThriftEventHandler
+    {
+        private final ThriftMethodStats methodStats;
+
+        private BoundStatsHandler(ThriftMethodStats methodStats)
+        {
+            this.methodStats = methodStats;
+        }
+
+        @Override
+        public Object getContext(String methodName, RequestContext requestContext)
+        {
+            return new PerCallMethodStats(methodStats, requestContext);
+        }
+
+        @Override
+        public void preRead(Object context, String methodName)
+        {
+            ThriftServiceStatsHandler.this.preRead(context, methodName);
+        }
+
+        @Override
+        public void postRead(Object context, String methodName, Object[] args)
+        {
+            ThriftServiceStatsHandler.this.postRead(context, methodName, args);
+        }
+
+        @Override
+        public void preWrite(Object context, String methodName, Object result)
+        {
+            ThriftServiceStatsHandler.this.preWrite(context, methodName, result);
+        }
+
+        @Override
+        public void preWriteException(Object context, String methodName, Throwable t)
+        {
+            ThriftServiceStatsHandler.this.preWriteException(context, methodName, t);
+        }
+
+        @Override
+        public void postWrite(Object context, String methodName, Object result)
+        {
+            ThriftServiceStatsHandler.this.postWrite(context, methodName, result);
+        }
+
+        @Override
+        public void postWriteException(Object context, String methodName, Throwable t)
+        {
+            ThriftServiceStatsHandler.this.postWriteException(context, methodName, t);
+        }
+
+        @Override
+        public void declaredUserException(Object context, String methodName, Throwable t, ThriftCodec<?> exceptionCodec)
+                throws TException
+        {
+            ThriftServiceStatsHandler.this.declaredUserException(context, methodName, t, exceptionCodec);
+        }
+
+        @Override
+        public void undeclaredUserException(Object context, String methodName, Throwable t)
+                throws TException
+        {
+            ThriftServiceStatsHandler.this.undeclaredUserException(context, methodName, t);
+        }
+
+        @Override
+        public void done(Object context, String methodName)
+        {
+            ThriftServiceStatsHandler.this.done(context, methodName);
+        }
+    }
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.codec.ThriftCodecWarmup;
+import com.facebook.swift.codec.metadata.ThriftFieldMetadata;
+import com.facebook.swift.codec.metadata.ThriftType;
+import com.facebook.swift.service.metadata.ThriftMethodMetadata;
+import com.facebook.swift.service.metadata.ThriftServiceMetadata;
+import com.google.common.base.Throwables;
+import io.airlift.log.Logger;
+import io.airlift.units.Duration;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Builds the metadata and codecs of every type used by a set of Thrift services before the first
+ * request, instead of on the first call of each method.  The service classes may be service
+ * implementations or client interfaces.
+ */
+@ThreadSafe
+public class ThriftServiceWarmup
+{
+    private static final Logger log = Logger.get(ThriftServiceWarmup.class);
+
+    private final ThriftCodecManager codecManager;
+    private final ForkJoinPool pool;
+
+    public ThriftServiceWarmup(ThriftCodecManager codecManager)
+    {
+        this(codecManager, ForkJoinPool.commonPool());
+    }
+
+    public ThriftServiceWarmup(ThriftCodecManager codecManager, ForkJoinPool pool)
+    {
+        this.codecManager = checkNotNull(codecManager, "codecManager is null");
+        this.pool = checkNotNull(pool, "pool is null");
+    }
+
+    public ThriftCodecWarmup.Report warmUp(Iterable<? extends Class<?>> serviceClasses)
+    {
+        long start = System.nanoTime();
+
+        List<Future<ThriftServiceMetadata>> metadataTasks = new ArrayList<>();
+        for (final Class<?> serviceClass : serviceClasses) {
+            metadataTasks.add(pool.submit(new Callable<ThriftServiceMetadata>()
+            {
+                @Override
+                public ThriftServiceMetadata call()
+                {
+                    return new ThriftServiceMetadata(serviceClass, codecManager.getCatalog());
+                }
+            }));
+        }
+
+        Set<Type> types = new LinkedHashSet<>();
+        for (Future<ThriftServiceMetadata> task : metadataTasks) {
+            addTypes(getUnchecked(task), types);
+        }
+
+        ThriftCodecWarmup.Report report = new ThriftCodecWarmup(codecManager, pool).warmUp(types);
+
+        log.info("Warmed up %s Thrift types of %s services in %s (struct codecs: %s)",
+                types.size(),
+                metadataTasks.size(),
+                new Duration(System.nanoTime() - start, NANOSECONDS).convertToMostSuccinctTimeUnit(),
+                report.getTypeCodecNanos().size());
+        if (log.isDebugEnabled()) {
+            for (Map.Entry<Type, Long> entry : report.getTypeCodecNanos().entrySet()) {
+                log.debug("Built codec for %s in %s", entry.getKey(), new Duration(entry.getValue(), NANOSECONDS).convertToMostSuccinctTimeUnit());
+            }
+        }
+        return report;
+    }
+
+    private static void addTypes(ThriftServiceMetadata service, Set<Type> types)
+    {
+        for (ThriftMethodMetadata method : service.getMethods().values()) {
+            types.add(method.getReturnType().getJavaType());
+            for (ThriftFieldMetadata parameter : method.getParameters()) {
+                types.add(parameter.getThriftType().getJavaType());
+            }
+            for (ThriftType exception : method.getExceptions().values()) {
+                types.add(exception.getJavaType());
+            }
+        }
+        for (ThriftServiceMetadata parent : service.getParentServices()) {
+            addTypes(parent, types);
+        }
+    }
+
+    private static <T> T getUnchecked(Future<T> future)
+    {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.codec.ThriftFrameCodecFactory;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelDownstreamHandler;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandler;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelPipeline;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+
+import javax.annotation.Nullable;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wraps the frame codec that nifty installs in the pipeline of each connection accepted by a
+ * {@link ThriftServer}, to time the writes of responses and to capture the decoded requests.
+ * Nifty puts the frame codec above the handler that hands writes to the IO thread, so the codec
+ * sees each write on the worker thread, and each request before it reaches the dispatcher.
+ */
+final class TimedFrameCodecFactory
+        implements ThriftFrameCodecFactory
+{
+    private final ThriftFrameCodecFactory frameCodecFactory;
+    @Nullable
+    private final RequestCaptureWriter requestCapture;
+
+    TimedFrameCodecFactory(ThriftFrameCodecFactory frameCodecFactory, @Nullable RequestCaptureWriter requestCapture)
+    {
+        this.frameCodecFactory = checkNotNull(frameCodecFactory, "frameCodecFactory is null");
+        this.requestCapture = requestCapture;
+    }
+
+    @Override
+    public ChannelHandler create(int maxFrameSize, TProtocolFactory defaultProtocolFactory)
+    {
+        return new TimedFrameCodec(frameCodecFactory.create(maxFrameSize, defaultProtocolFactory), requestCapture);
+    }
+
+    private static class TimedFrameCodec
+            implements ChannelUpstreamHandler, ChannelDownstreamHandler
+    {
+        private final ChannelHandler codec;
+        @Nullable
+        private final RequestCaptureWriter requestCapture;
+
+        // upstream events of a connection are handled by its IO thread
+        private ChannelHandlerContext captureContext;
+
+        private TimedFrameCodec(ChannelHandler codec, @Nullable RequestCaptureWriter requestCapture)
+        {
+            this.codec = codec;
+            this.requestCapture = requestCapture;
+        }
+
+        @Override
+        public void handleUpstream(ChannelHandlerContext ctx, ChannelEvent e)
+                throws Exception
+        {
+            if (requestCapture != null) {
+                if (captureContext == null) {
+                    captureContext = new CaptureContext(ctx, requestCapture);
+                }
+                ctx = captureContext;
+            }
+
+            if (codec instanceof ChannelUpstreamHandler) {
+                ((ChannelUpstreamHandler) codec).handleUpstream(ctx, e);
+            }
+            else {
+                ctx.sendUpstream(e);
+            }
+        }
+
+        @Override
+        public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent e)
+                throws Exception
+        {
+            if (e instanceof MessageEvent) {
+                TimedWorkerExecutor.timeResponseWrite((MessageEvent) e);
+            }
+
+            if (codec instanceof ChannelDownstreamHandler) {
+                ((ChannelDownstreamHandler) codec).handleDownstream(ctx, e);
+            }
+            else {
+                ctx.sendDownstream(e);
+            }
+        }
+    }
+
+    /**
+     * Captures the messages the codec decodes as it sends them up the pipeline
+     */
+    private static class CaptureContext
+            implements ChannelHandlerContext
+    {
+        private final ChannelHandlerContext context;
+        private final RequestCaptureWriter requestCapture;
+
+        private CaptureContext(ChannelHandlerContext context, RequestCaptureWriter requestCapture)
+        {
+            this.context = context;
+            this.requestCapture = requestCapture;
+        }
+
+        @Override
+        public void sendUpstream(ChannelEvent e)
+        {
+            if (e instanceof MessageEvent) {
+                requestCapture.captureMessage(((MessageEvent) e).getMessage());
+            }
+            context.sendUpstream(e);
+        }
+
+        @Override
+        public void sendDownstream(ChannelEvent e)
+        {
+            context.sendDownstream(e);
+        }
+
+        @Override
+        public Channel getChannel()
+        {
+            return context.getChannel();
+        }
+
+        @Override
+        public ChannelPipeline getPipeline()
+        {
+            return context.getPipeline();
+        }
+
+        @Override
+        public String getName()
+        {
+            return context.getName();
+        }
+
+        @Override
+        public ChannelHandler getHandler()
+        {
+            return context.getHandler();
+        }
+
+        @Override
+        public boolean canHandleUpstream()
+        {
+            return context.canHandleUpstream();
+        }
+
+        @Override
+        public boolean canHandleDownstream()
+        {
+            return context.canHandleDownstream();
+        }
+
+        @Override
+        public Object getAttachment()
+        {
+            return context.getAttachment();
+        }
+
+        @Override
+        public void setAttachment(Object attachment)
+        {
+            context.setAttachment(attachment);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
+import org.jboss.netty.channel.MessageEvent;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.lang.System.nanoTime;
+
+/**
+ * Runs requests on the worker executor of a {@link ThriftServer}, counting the queued, running
+ * and rejected requests, and timing when each request was queued and when a worker started it.
+ * While a worker runs a request, the request is available from {@link #currentRequest()}, so
+ * the event handlers of the method called can attribute the queue wait to it.
+ */
+final class TimedWorkerExecutor
+        implements Executor
+{
+    private static final ThreadLocal<TimedRequest> CURRENT_REQUEST = new ThreadLocal<>();
+
+    private final Executor executor;
+    private final AtomicInteger queuedRequests = new AtomicInteger();
+    private final AtomicInteger activeRequests = new AtomicInteger();
+    private final AtomicLong rejectedRequests = new AtomicLong();
+
+    TimedWorkerExecutor(Executor executor)
+    {
+        this.executor = checkNotNull(executor, "executor is null");
+    }
+
+    /**
+     * Returns the request the current thread is running, or null if the thread is not running
+     * a request of a {@link ThriftServer}
+     */
+    @Nullable
+    static TimedRequest currentRequest()
+    {
+        return CURRENT_REQUEST.get();
+    }
+
+    @Override
+    public void execute(Runnable command)
+    {
+        queuedRequests.incrementAndGet();
+        try {
+            executor.execute(new TimedRequest(command));
+        }
+        catch (RejectedExecutionException e) {
+            queuedRequests.decrementAndGet();
+            rejectedRequests.incrementAndGet();
+            throw e;
+        }
+    }
+
+    public int getQueuedRequests()
+    {
+        return queuedRequests.get();
+    }
+
+    public int getActiveRequests()
+    {
+        return activeRequests.get();
+    }
+
+    public long getRejectedRequests()
+    {
+        return rejectedRequests.get();
+    }
+
+    final class TimedRequest
+            implements Runnable
+    {
+        private final Runnable command;
+        private final long queuedTime = nanoTime();
+        private long startTime;
+        private List<ThriftMethodStats> responseStats;
+        private long responseTime;
+
+        private TimedRequest(Runnable command)
+        {
+            this.command = command;
+        }
+
+        public long getQueuedTime()
+        {
+            return queuedTime;
+        }
+
+        public long getStartTime()
+        {
+            return startTime;
+        }
+
+        /**
+         * Records the flush time of the response into the given stats, if the response is
+         * written to the channel before the worker finishes the request. The flush time starts
+         * when the first handler reports the response ready.
+         */
+        public void responseReady(ThriftMethodStats stats)
+        {
+            if (responseStats == null) {
+                responseStats = new ArrayList<>(1);
+                responseTime = nanoTime();
+            }
+            responseStats.add(stats);
+        }
+
+        @Override
+        public void run()
+        {
+            startTime = nanoTime();
+            queuedRequests.decrementAndGet();
+            activeRequests.incrementAndGet();
+            CURRENT_REQUEST.set(this);
+            try {
+                command.run();
+            }
+            finally {
+                CURRENT_REQUEST.remove();
+                activeRequests.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Times the write of the response of the current request to the socket. It must see the
+     * write on the worker thread, before nifty hands the write to the IO thread; the write
+     * completes when the bytes have been written to the socket.
+     */
+    static void timeResponseWrite(MessageEvent e)
+    {
+        TimedRequest request = currentRequest();
+        if (request != null && request.responseStats != null) {
+            final List<ThriftMethodStats> stats = request.responseStats;
+            final long responseTime = request.responseTime;
+            request.responseStats = null;
+            e.getFuture().addListener(new ChannelFutureListener()
+            {
+                @Override
+                public void operationComplete(ChannelFuture future)
+                {
+                    long flushTime = nanoTime() - responseTime;
+                    for (ThriftMethodStats methodStats : stats) {
+                        methodStats.addFlushTime(flushTime);
+                    }
+                }
+            });
+        }
+    }
+}
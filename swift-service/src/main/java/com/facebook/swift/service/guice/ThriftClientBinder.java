@@ -22,6 +22,7 @@ import com.facebook.swift.service.ThriftClientManager;
 import com.facebook.swift.service.ThriftClientManager.ThriftClientMetadata;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
 import com.google.common.reflect.TypeParameter;
 import com.google.common.reflect.TypeToken;
 import com.google.inject.Binder;
@@ -132,6 +133,36 @@ public class ThriftClientBinder
         return new ClientEventHandlersBinder(eventHandlersBinder);
     }
 
+    /**
+     * Binds {@code ThriftClient<T>} as {@link #bindThriftClient(Class)} does, and binds the client
+     * interface to a client that uses a pool of connections to {@code address}, sized by the
+     * {@code thrift.client.pool} properties of the client configuration.
+     */
+    public <T> ClientEventHandlersBinder bindPooledThriftClient(Class<T> clientInterface, HostAndPort address)
+    {
+        ClientEventHandlersBinder eventHandlersBinder = bindThriftClient(clientInterface);
+        Key<ThriftClient<T>> thriftClientKey = Key.get(toThriftClientTypeLiteral(clientInterface));
+        binder.bind(clientInterface).toProvider(new PooledClientProvider<>(thriftClientKey, address)).in(Scopes.SINGLETON);
+        return eventHandlersBinder;
+    }
+
+    public <T> ClientEventHandlersBinder bindPooledThriftClient(Class<T> clientInterface, Class<? extends Annotation> annotationType, HostAndPort address)
+    {
+        ClientEventHandlersBinder eventHandlersBinder = bindThriftClient(clientInterface, annotationType);
+        Key<ThriftClient<T>> thriftClientKey = Key.get(toThriftClientTypeLiteral(clientInterface), annotationType);
+        binder.bind(Key.get(clientInterface, annotationType)).toProvider(new PooledClientProvider<>(thriftClientKey, address)).in(Scopes.SINGLETON);
+        return eventHandlersBinder;
+    }
+
+    /**
+     * Builds the codecs of all bound clients while the injector is created, instead of on the
+     * first call of each method.
+     */
+    public void warmUpCodecs()
+    {
+        binder.install(new ThriftCodecWarmupModule());
+    }
+
     private static String getServiceName(Class<?> clientInterface)
     {
         String serviceName = getThriftServiceAnnotation(clientInterface).value();
@@ -154,6 +185,32 @@ public class ThriftClientBinder
         return (TypeLiteral<ThriftClient<T>>) TypeLiteral.get(javaType);
     }
 
+    private static class PooledClientProvider<T> implements Provider<T>
+    {
+        private final Key<ThriftClient<T>> thriftClientKey;
+        private final HostAndPort address;
+        private Injector injector;
+
+        private PooledClientProvider(Key<ThriftClient<T>> thriftClientKey, HostAndPort address)
+        {
+            this.thriftClientKey = Preconditions.checkNotNull(thriftClientKey, "thriftClientKey is null");
+            this.address = Preconditions.checkNotNull(address, "address is null");
+        }
+
+        @Inject
+        public void setInjector(Injector injector)
+        {
+            this.injector = injector;
+        }
+
+        @Override
+        public T get()
+        {
+            Preconditions.checkState(injector != null, "injector has not been set");
+            return injector.getInstance(thriftClientKey).openPooled(address);
+        }
+    }
+
     public static class ThriftClientProvider<T> implements Provider<ThriftClient<T>>
     {
         private final Class<T> clientType;
@@ -198,6 +255,11 @@ public class ThriftClientBinder
             return new ThriftClient<>(clientManager, clientType, clientConfig, clientName, ImmutableList.copyOf(handlersSet));
         }
 
+        public Class<T> getClientType()
+        {
+            return clientType;
+        }
+
         public ThriftClientMetadata getClientMetadata()
         {
             Preconditions.checkState(clientManager != null, "clientManager has not been set");
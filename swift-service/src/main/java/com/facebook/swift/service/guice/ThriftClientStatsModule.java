@@ -21,7 +21,6 @@ import com.google.common.collect.ImmutableMap;
 import com.google.inject.Binder;
 import com.google.inject.Module;
 import com.google.inject.Provides;
-import com.google.inject.Scopes;
 import org.weakref.jmx.guice.ExportBinder;
 import org.weakref.jmx.guice.MapObjectNameFunction;
 
@@ -31,7 +30,6 @@ import javax.management.ObjectName;
 
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 
 import static com.facebook.swift.service.guice.ClientEventHandlersBinder.clientEventHandlersBinder;
 import static com.google.inject.multibindings.Multibinder.newSetBinder;
@@ -44,7 +42,6 @@ public class ThriftClientStatsModule implements Module
     {
         // We bind the ThriftClientProviderProviders in a Set so below we can export the thrift methods to JMX
         newSetBinder(binder, ThriftClientBinder.ThriftClientProvider.class).permitDuplicates();
-        binder.bind(ThriftClientStatsHandler.class).in(Scopes.SINGLETON);
         clientEventHandlersBinder(binder).addHandler(ThriftClientStatsHandler.class);
         ExportBinder.newExporter(binder)
                 .exportMap(ObjectName.class, ThriftMethodStats.class)
@@ -58,20 +55,27 @@ public class ThriftClientStatsModule implements Module
                 });
     }
 
+    @Provides
+    @Singleton
+    public ThriftClientStatsHandler getClientStatsHandler(ThriftClientManagerConfig config)
+    {
+        return new ThriftClientStatsHandler(config.isStatsHistograms());
+    }
+
     @Provides
     @Singleton
     public Map<ObjectName, ThriftMethodStats> getClientStats(Set<ThriftClientBinder.ThriftClientProvider> clientProviders,
                                                              Set<ThriftClientEventHandler> eventHandlers)
     {
         // find a ThriftClientStatsHandler in eventHandlers
-        ConcurrentMap<String, ThriftMethodStats> stats = null;
+        ThriftClientStatsHandler statsHandler = null;
         for (ThriftClientEventHandler h: eventHandlers) {
             if (h instanceof ThriftClientStatsHandler) {
-                stats = ((ThriftClientStatsHandler)h).getStats();
+                statsHandler = (ThriftClientStatsHandler) h;
                 break;
             }
         }
-        if (stats == null) {
+        if (statsHandler == null) {
             return ImmutableMap.of();
         }
         try {
@@ -84,8 +88,7 @@ public class ThriftClientStatsModule implements Module
                             clientMetadata.getClientType(),
                             clientMetadata.getClientName(),
                             methodHandler.getName());
-                    stats.putIfAbsent(methodHandler.getQualifiedName(), new ThriftMethodStats());
-                    builder.put(ObjectName.getInstance(name), stats.get(methodHandler.getQualifiedName()));
+                    builder.put(ObjectName.getInstance(name), statsHandler.getMethodStats(methodHandler.getQualifiedName()));
                 }
             }
             return builder.build();
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service.guice;
+
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.service.ThriftServiceWarmup;
+import com.facebook.swift.service.guice.ThriftClientBinder.ThriftClientProvider;
+import com.facebook.swift.service.guice.ThriftServiceExporter.ThriftServiceExport;
+import com.google.common.collect.ImmutableSet;
+import com.google.inject.Binder;
+import com.google.inject.Inject;
+import com.google.inject.Module;
+
+import java.util.Set;
+
+import static com.google.inject.multibindings.Multibinder.newSetBinder;
+
+/**
+ * Builds the codecs of all exported services and bound clients while the injector is created,
+ * so that they are ready before the server starts and the clients are first used.  Installed by
+ * {@link ThriftServiceExporter#warmUpCodecs()} and {@link ThriftClientBinder#warmUpCodecs()}.
+ */
+class ThriftCodecWarmupModule implements Module
+{
+    @Override
+    public void configure(Binder binder)
+    {
+        newSetBinder(binder, ThriftServiceExport.class).permitDuplicates();
+        newSetBinder(binder, ThriftClientProvider.class);
+        binder.bind(CodecWarmup.class).asEagerSingleton();
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        // allow the module to be installed by both binders
+        return o != null && getClass() == o.getClass();
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return getClass().hashCode();
+    }
+
+    static class CodecWarmup
+    {
+        @Inject
+        public CodecWarmup(ThriftCodecManager codecManager, Set<ThriftServiceExport> serviceExports, Set<ThriftClientProvider> clientProviders)
+        {
+            ImmutableSet.Builder<Class<?>> serviceClasses = ImmutableSet.builder();
+            for (ThriftServiceExport serviceExport : serviceExports) {
+                serviceClasses.add(serviceExport.getKey().getTypeLiteral().getRawType());
+            }
+            for (ThriftClientProvider<?> clientProvider : clientProviders) {
+                serviceClasses.add(clientProvider.getClientType());
+            }
+            new ThriftServiceWarmup(codecManager).warmUp(serviceClasses.build());
+        }
+    }
+}
@@ -22,6 +22,8 @@ import com.facebook.nifty.duplex.TDuplexProtocolFactory;
 import com.facebook.nifty.processor.NiftyProcessor;
 import com.facebook.nifty.ssl.SslServerConfiguration;
 import com.facebook.nifty.ssl.TransportAttachObserver;
+import com.facebook.swift.codec.protocol.SwiftBinaryProtocol;
+import com.facebook.swift.codec.protocol.SwiftCompactProtocol;
 import com.facebook.swift.service.ThriftEventHandler;
 import com.facebook.swift.service.ThriftServer;
 import com.facebook.swift.service.ThriftServerConfig;
@@ -40,8 +42,6 @@ import com.google.inject.Singleton;
 import com.google.inject.binder.ScopedBindingBuilder;
 
 import com.google.inject.multibindings.MapBinder;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.protocol.TCompactProtocol;
 import org.jboss.netty.util.Timer;
 
 import java.util.concurrent.ExecutorService;
@@ -70,9 +70,10 @@ public class ThriftServerModule implements Module
         // Setup binder for protocols...
         newMapBinder(binder, String.class, TDuplexProtocolFactory.class).permitDuplicates();
 
-        // ...and bind binary and compact protocols by default
-        bindProtocolFactory(binder, "binary", TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()));
-        bindProtocolFactory(binder, "compact", TDuplexProtocolFactory.fromSingleFactory(new TCompactProtocol.Factory()));
+        // ...and bind binary and compact protocols by default. These are wire compatible with the
+        // libthrift protocols, but decode field and container headers without allocating.
+        bindProtocolFactory(binder, "binary", TDuplexProtocolFactory.fromSingleFactory(new SwiftBinaryProtocol.Factory()));
+        bindProtocolFactory(binder, "compact", TDuplexProtocolFactory.fromSingleFactory(new SwiftCompactProtocol.Factory()));
 
         newSetBinder(binder, ThriftServiceExport.class).permitDuplicates();
         newSetBinder(binder, ThriftEventHandler.class).permitDuplicates();
@@ -17,13 +17,13 @@ package com.facebook.swift.service.guice;
 
 import com.facebook.swift.service.ThriftMethodProcessor;
 import com.facebook.swift.service.ThriftMethodStats;
+import com.facebook.swift.service.ThriftServerConfig;
 import com.facebook.swift.service.ThriftServiceProcessor;
 import com.facebook.swift.service.ThriftServiceStatsHandler;
 import com.google.common.base.Throwables;
 import com.google.inject.Binder;
 import com.google.inject.Module;
 import com.google.inject.Provides;
-import com.google.inject.Scopes;
 import org.weakref.jmx.guice.ExportBinder;
 import org.weakref.jmx.guice.MapObjectNameFunction;
 
@@ -42,7 +42,6 @@ public class ThriftServerStatsModule implements Module
     @Override
     public void configure(Binder binder)
     {
-        binder.bind(ThriftServiceStatsHandler.class).in(Scopes.SINGLETON);
         thriftServerBinder(binder).addEventHandler(ThriftServiceStatsHandler.class);
 
         ExportBinder.newExporter(binder).exportMap(ThriftMethodStats.class).withGeneratedName(
@@ -67,6 +66,13 @@ public class ThriftServerStatsModule implements Module
                 });
     }
 
+    @Provides
+    @Singleton
+    public ThriftServiceStatsHandler getServiceStatsHandler(ThriftServerConfig config)
+    {
+        return new ThriftServiceStatsHandler(config.isStatsHistograms());
+    }
+
     @Provides
     @Singleton
     public Map<String, ThriftMethodStats> getMethodStats(ThriftServiceProcessor thriftServiceProcessor,
@@ -75,7 +81,7 @@ public class ThriftServerStatsModule implements Module
         // populate stats map with method names mapped to empty stat objects and tell JMX to export that
         final ConcurrentMap<String, ThriftMethodStats> stats = serviceStatsHandler.getStats();
         for (Map.Entry<String, ThriftMethodProcessor> entry: thriftServiceProcessor.getMethods().entrySet()) {
-            stats.putIfAbsent(entry.getValue().getQualifiedName(), new ThriftMethodStats());
+            serviceStatsHandler.getMethodStats(entry.getValue().getQualifiedName());
         }
         return stats;
     }
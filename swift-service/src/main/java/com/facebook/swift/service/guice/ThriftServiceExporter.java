@@ -63,6 +63,15 @@ public class ThriftServiceExporter
         newSetBinder(binder, ThriftServiceExport.class).addBinding().toInstance(new ThriftServiceExport(key));
     }
 
+    /**
+     * Builds the codecs of all exported services while the injector is created, instead of on
+     * the first call of each method.
+     */
+    public void warmUpCodecs()
+    {
+        binder.install(new ThriftCodecWarmupModule());
+    }
+
     public void addEventHandler(ThriftEventHandler handler)
     {
         Preconditions.checkNotNull(handler, "handler is null");
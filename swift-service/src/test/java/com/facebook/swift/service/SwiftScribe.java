@@ -15,12 +15,12 @@
  */
 package com.facebook.swift.service;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class SwiftScribe implements Scribe
 {
-    private final List<LogEntry> messages = new ArrayList<>();
+    private final List<LogEntry> messages = new CopyOnWriteArrayList<>();
 
     public List<LogEntry> getMessages()
     {
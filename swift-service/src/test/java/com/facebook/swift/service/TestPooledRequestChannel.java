@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestPooledRequestChannel
+{
+    private static final ChannelBuffer REQUEST = ChannelBuffers.wrappedBuffer(new byte[] {1, 2, 3});
+
+    private ScheduledExecutorService executor;
+    private List<FakeChannel> channels;
+    private FakeTicker ticker;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newSingleThreadScheduledExecutor();
+        channels = new ArrayList<>();
+        ticker = new FakeTicker();
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLeastOutstandingSelection()
+            throws Exception
+    {
+        PooledRequestChannel pool = createPool(2, 3);
+        assertEquals(pool.getConnectionCount(), 2);
+
+        // the two requests go to different connections
+        RecordingListener first = send(pool);
+        RecordingListener second = send(pool);
+        assertEquals(channels.get(0).listeners.size(), 1);
+        assertEquals(channels.get(1).listeners.size(), 1);
+        assertEquals(pool.getOutstandingRequests(), 2);
+
+        channels.get(0).respond(0);
+        assertSame(first.response, REQUEST);
+        assertEquals(pool.getOutstandingRequests(), 1);
+
+        // the first connection is idle again, so it is chosen
+        send(pool);
+        assertEquals(channels.get(0).listeners.size(), 2);
+        assertEquals(pool.getConnectionCount(), 2);
+
+        // every connection is busy, so a third one is opened and used by the next request
+        send(pool);
+        assertEquals(pool.getConnectionCount(), 3);
+        send(pool);
+        assertEquals(channels.get(2).listeners.size(), 1);
+
+        channels.get(1).fail(0);
+        assertTrue(second.error instanceof TTransportException);
+        assertEquals(pool.getOutstandingRequests(), 3);
+    }
+
+    @Test
+    public void testMaxConnections()
+            throws Exception
+    {
+        PooledRequestChannel pool = createPool(0, 2);
+        assertEquals(pool.getConnectionCount(), 0);
+
+        for (int i = 0; i < 5; i++) {
+            send(pool);
+        }
+        assertEquals(pool.getConnectionCount(), 2);
+        assertEquals(channels.size(), 2);
+        assertEquals(pool.getOutstandingRequests(), 5);
+    }
+
+    @Test
+    public void testFailedConnectionIsReplaced()
+            throws Exception
+    {
+        PooledRequestChannel pool = createPool(1, 1);
+        FakeChannel failed = channels.get(0);
+        failed.error = new TTransportException("broken");
+
+        send(pool);
+        assertTrue(failed.closed);
+        assertEquals(channels.size(), 2);
+        assertEquals(failed.listeners.size(), 0);
+        assertEquals(channels.get(1).listeners.size(), 1);
+    }
+
+    @Test
+    public void testIdleEviction()
+            throws Exception
+    {
+        PooledRequestChannel pool = createPool(1, 3);
+        for (int i = 0; i < 4; i++) {
+            send(pool);
+        }
+        assertEquals(pool.getConnectionCount(), 3);
+        assertEquals(channels.get(0).listeners.size(), 2);
+        assertEquals(channels.get(1).listeners.size(), 2);
+
+        channels.get(0).respond(0);
+        channels.get(0).respond(1);
+        ticker.advance(2, MINUTES);
+
+        // idle connections are closed, and the busy connection is kept
+        pool.evictIdleConnections();
+        assertEquals(pool.getConnectionCount(), 1);
+        assertTrue(channels.get(0).closed);
+        assertFalse(channels.get(1).closed);
+        assertTrue(channels.get(2).closed);
+
+        channels.get(1).respond(0);
+        channels.get(1).respond(1);
+        ticker.advance(2, MINUTES);
+
+        // the last connection is kept to honor the minimum
+        pool.evictIdleConnections();
+        assertEquals(pool.getConnectionCount(), 1);
+        assertFalse(channels.get(1).closed);
+    }
+
+    @Test
+    public void testRequestWaitsForConnection()
+            throws Exception
+    {
+        final SettableFuture<RequestChannel> connectFuture = SettableFuture.create();
+        PooledRequestChannel pool = new PooledRequestChannel(
+                "test",
+                new Supplier<ListenableFuture<RequestChannel>>()
+                {
+                    @Override
+                    public ListenableFuture<RequestChannel> get()
+                    {
+                        return connectFuture;
+                    }
+                },
+                TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()),
+                0,
+                1,
+                new Duration(1, HOURS),
+                executor,
+                ticker);
+
+        RecordingListener listener = send(pool);
+        FakeChannel channel = new FakeChannel();
+        connectFuture.set(channel);
+
+        assertEquals(channel.listeners.size(), 1);
+        channel.respond(0);
+        assertSame(listener.response, REQUEST);
+    }
+
+    @Test
+    public void testClose()
+            throws Exception
+    {
+        PooledRequestChannel pool = createPool(2, 2);
+        pool.close();
+
+        assertTrue(pool.hasError());
+        assertTrue(channels.get(0).closed);
+        assertTrue(channels.get(1).closed);
+        assertEquals(pool.getConnectionCount(), 0);
+    }
+
+    private PooledRequestChannel createPool(int minConnections, int maxConnections)
+    {
+        return new PooledRequestChannel(
+                "test",
+                new Supplier<ListenableFuture<RequestChannel>>()
+                {
+                    @Override
+                    public ListenableFuture<RequestChannel> get()
+                    {
+                        FakeChannel channel = new FakeChannel();
+                        channels.add(channel);
+                        return Futures.<RequestChannel>immediateFuture(channel);
+                    }
+                },
+                TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()),
+                minConnections,
+                maxConnections,
+                new Duration(1, MINUTES),
+                executor,
+                ticker);
+    }
+
+    private static RecordingListener send(PooledRequestChannel pool)
+            throws TException
+    {
+        RecordingListener listener = new RecordingListener();
+        pool.sendAsynchronousRequest(REQUEST, false, listener);
+        return listener;
+    }
+
+    private static class FakeChannel
+            implements RequestChannel
+    {
+        private final List<Listener> listeners = new ArrayList<>();
+        private TException error;
+        private boolean closed;
+
+        @Override
+        public void sendAsynchronousRequest(ChannelBuffer request, boolean oneway, Listener listener)
+        {
+            listeners.add(listener);
+            listener.onRequestSent();
+        }
+
+        public void respond(int index)
+        {
+            listeners.get(index).onResponseReceived(REQUEST);
+        }
+
+        public void fail(int index)
+        {
+            listeners.get(index).onChannelError(new TTransportException("failed"));
+        }
+
+        @Override
+        public void close()
+        {
+            closed = true;
+        }
+
+        @Override
+        public boolean hasError()
+        {
+            return error != null;
+        }
+
+        @Override
+        public TException getError()
+        {
+            return error;
+        }
+
+        @Override
+        public TDuplexProtocolFactory getProtocolFactory()
+        {
+            return TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory());
+        }
+    }
+
+    private static class RecordingListener
+            implements RequestChannel.Listener
+    {
+        private ChannelBuffer response;
+        private TException error;
+
+        @Override
+        public void onRequestSent()
+        {
+        }
+
+        @Override
+        public void onResponseReceived(ChannelBuffer message)
+        {
+            response = message;
+        }
+
+        @Override
+        public void onChannelError(TException requestException)
+        {
+            error = requestException;
+        }
+    }
+
+    private static class FakeTicker
+            extends Ticker
+    {
+        private long nanos;
+
+        @Override
+        public long read()
+        {
+            return nanos;
+        }
+
+        public void advance(long duration, TimeUnit unit)
+        {
+            nanos += unit.toNanos(duration);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.swift.codec.ThriftCodecManager;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.collect.Iterables.concat;
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.net.HostAndPort.fromParts;
+import static org.apache.thrift.protocol.TMessageType.CALL;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestRequestCapture
+{
+    private File captureFile;
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception
+    {
+        captureFile = File.createTempFile("capture", ".bin");
+    }
+
+    @AfterMethod
+    public void tearDown()
+    {
+        captureFile.delete();
+    }
+
+    @Test
+    public void testCaptureAndReplay()
+            throws Exception
+    {
+        List<LogEntry> messages = ImmutableList.of(new LogEntry("hello", "world"), new LogEntry("bye", "world"));
+
+        ThriftServerConfig config = new ThriftServerConfig().setCaptureFile(captureFile);
+        try (
+                ThriftServer server = new ThriftServer(newProcessor(new SwiftScribe()), config).start();
+                ThriftClientManager clientManager = new ThriftClientManager();
+                Scribe scribe = clientManager.createClient(new FramedClientConnector(fromParts("localhost", server.getPort())), Scribe.class).get()
+        ) {
+            scribe.log(messages);
+            scribe.log(messages);
+        }
+
+        // the capture is complete once the server is closed
+        List<CapturedRequest> requests = readCapture(captureFile);
+        assertEquals(requests.size(), 2);
+        for (CapturedRequest request : requests) {
+            assertEquals(request.getMethodName(), "Log");
+            TMessage message = new TBinaryProtocol(new TMemoryInputTransport(request.getFrame())).readMessageBegin();
+            assertEquals(message.name, "Log");
+            assertEquals(message.type, CALL);
+        }
+        assertTrue(requests.get(0).getTimestampMicros() <= requests.get(1).getTimestampMicros());
+
+        // sending the captured frames to another server repeats the calls
+        SwiftScribe replayScribe = new SwiftScribe();
+        try (
+                ThriftServer server = new ThriftServer(newProcessor(replayScribe)).start();
+                ThriftClientManager clientManager = new ThriftClientManager()
+        ) {
+            RequestChannel channel = clientManager.createChannel(new FramedClientConnector(fromParts("localhost", server.getPort()))).get();
+            try {
+                for (CapturedRequest request : requests) {
+                    sendRequest(channel, request.getFrame());
+                }
+            }
+            finally {
+                channel.close();
+            }
+        }
+        assertEquals(replayScribe.getMessages(), newArrayList(concat(messages, messages)));
+    }
+
+    @Test
+    public void testSampling()
+            throws Exception
+    {
+        ThriftServerConfig config = new ThriftServerConfig()
+                .setCaptureFile(captureFile)
+                .setCaptureSampleRate(0);
+        try (
+                ThriftServer server = new ThriftServer(newProcessor(new SwiftScribe()), config).start();
+                ThriftClientManager clientManager = new ThriftClientManager();
+                Scribe scribe = clientManager.createClient(new FramedClientConnector(fromParts("localhost", server.getPort())), Scribe.class).get()
+        ) {
+            scribe.log(ImmutableList.of(new LogEntry("hello", "world")));
+            server.close();
+            assertEquals(server.getCapturedRequests(), 0);
+        }
+
+        assertEquals(readCapture(captureFile), ImmutableList.of());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = ".*holds binary requests, not compact")
+    public void testAppendWithDifferentProtocol()
+            throws Exception
+    {
+        new ThriftServer(newProcessor(new SwiftScribe()), new ThriftServerConfig().setCaptureFile(captureFile)).close();
+        new ThriftServer(newProcessor(new SwiftScribe()), new ThriftServerConfig().setCaptureFile(captureFile).setProtocolName("compact")).close();
+    }
+
+    private static ThriftServiceProcessor newProcessor(SwiftScribe scribe)
+    {
+        return new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.<ThriftEventHandler>of(), scribe);
+    }
+
+    private static List<CapturedRequest> readCapture(File file)
+            throws Exception
+    {
+        List<CapturedRequest> requests = new ArrayList<>();
+        try (RequestCaptureReader reader = new RequestCaptureReader(file)) {
+            assertEquals(reader.getProtocolName(), "binary");
+            for (CapturedRequest request = reader.read(); request != null; request = reader.read()) {
+                requests.add(request);
+            }
+        }
+        return requests;
+    }
+
+    private static ChannelBuffer sendRequest(RequestChannel channel, byte[] frame)
+            throws Exception
+    {
+        final SettableFuture<ChannelBuffer> response = SettableFuture.create();
+        channel.sendAsynchronousRequest(ChannelBuffers.wrappedBuffer(frame), false, new RequestChannel.Listener()
+        {
+            @Override
+            public void onRequestSent()
+            {
+            }
+
+            @Override
+            public void onResponseReceived(ChannelBuffer message)
+            {
+                response.set(message);
+            }
+
+            @Override
+            public void onChannelError(TException cause)
+            {
+                response.setException(cause);
+            }
+        });
+        return response.get();
+    }
+}
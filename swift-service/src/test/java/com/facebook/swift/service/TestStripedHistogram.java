@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import org.HdrHistogram.Histogram;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestStripedHistogram
+{
+    @Test
+    public void testPercentiles()
+    {
+        StripedHistogram histogram = new StripedHistogram(4, 3);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        histogram.record(100_000);
+
+        assertEquals(histogram.getCount(), 1001);
+        assertEquals(histogram.getP50(), 501);
+        assertEquals(histogram.getP99(), 991);
+        assertEquals(histogram.getP999(), 1000);
+        assertEquals(histogram.getMax(), 100_000, 100);
+    }
+
+    @Test
+    public void testIntervals()
+    {
+        StripedHistogram histogram = new StripedHistogram();
+        histogram.record(10);
+        histogram.record(20);
+
+        Histogram interval = histogram.getIntervalHistogram();
+        assertEquals(interval.getTotalCount(), 2);
+
+        histogram.record(30);
+        interval = histogram.getIntervalHistogram();
+        assertEquals(interval.getTotalCount(), 1);
+        assertEquals(interval.getMinValue(), 30);
+
+        assertEquals(histogram.getIntervalHistogram().getTotalCount(), 0);
+        assertEquals(histogram.getTotalHistogram().getTotalCount(), 3);
+    }
+
+    @Test
+    public void testConcurrentRecording()
+            throws Exception
+    {
+        final StripedHistogram histogram = new StripedHistogram(2, 2);
+        ExecutorService executor = newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        for (int j = 0; j < 10_000; j++) {
+                            histogram.record(j);
+                            if (j % 1000 == 0) {
+                                histogram.getIntervalHistogram();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(histogram.getCount(), 80_000);
+        assertTrue(histogram.getMax() >= 9_999);
+    }
+}
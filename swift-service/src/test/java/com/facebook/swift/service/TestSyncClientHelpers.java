@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
+import io.airlift.units.Duration;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransportException;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+public class TestSyncClientHelpers
+{
+    private static final ChannelBuffer REQUEST = ChannelBuffers.wrappedBuffer(new byte[] {1});
+    private static final ChannelBuffer RESPONSE = ChannelBuffers.wrappedBuffer(new byte[] {2});
+
+    @Test
+    public void testImmediateResponse()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel(0);
+        for (int i = 0; i < 10; i++) {
+            assertSame(SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST), RESPONSE);
+        }
+        SyncClientHelpers.sendSynchronousOneWayMessage(channel, REQUEST);
+    }
+
+    @Test
+    public void testDelayedResponse()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel(50);
+        try {
+            assertSame(SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST), RESPONSE);
+            SyncClientHelpers.sendSynchronousOneWayMessage(channel, REQUEST);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testError()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel(0);
+        channel.error = new TTransportException("failed");
+        try {
+            SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST);
+            fail("expected exception");
+        }
+        catch (TTransportException e) {
+            assertSame(e, channel.error);
+        }
+    }
+
+    @Test
+    public void testTimeout()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel(500);
+        try {
+            SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST, new Duration(10, MILLISECONDS));
+            fail("expected timeout");
+        }
+        catch (TTransportException e) {
+            assertEquals(e.getType(), TTransportException.TIMED_OUT);
+        }
+
+        try {
+            SyncClientHelpers.sendSynchronousOneWayMessage(channel, REQUEST, new Duration(10, MILLISECONDS));
+            fail("expected timeout");
+        }
+        catch (TTransportException e) {
+            assertEquals(e.getType(), TTransportException.TIMED_OUT);
+        }
+
+        // the late responses to the timed out calls must not complete the next call
+        try {
+            channel.error = new TTransportException("second call");
+            SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST);
+            fail("expected exception");
+        }
+        catch (TTransportException e) {
+            assertSame(e, channel.error);
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testResponseWithinTimeout()
+            throws Exception
+    {
+        TestingChannel channel = new TestingChannel(10);
+        try {
+            assertSame(SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST, new Duration(10, SECONDS)), RESPONSE);
+            SyncClientHelpers.sendSynchronousOneWayMessage(channel, REQUEST, new Duration(10, SECONDS));
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testLateCallbackAfterError()
+            throws Exception
+    {
+        // the channel fails the call, and later calls the listener again
+        TestingChannel channel = new TestingChannel(0);
+        channel.error = new TTransportException("failed");
+        channel.lateResponseMillis = 20;
+        try {
+            SyncClientHelpers.sendSynchronousTwoWayMessage(channel, REQUEST);
+            fail("expected exception");
+        }
+        catch (TTransportException e) {
+            assertSame(e, channel.error);
+        }
+
+        // the late response to the failed call must not complete the next call
+        TestingChannel slowChannel = new TestingChannel(200);
+        slowChannel.error = new TTransportException("second call");
+        try {
+            SyncClientHelpers.sendSynchronousTwoWayMessage(slowChannel, REQUEST);
+            fail("expected exception");
+        }
+        catch (TTransportException e) {
+            assertSame(e, slowChannel.error);
+        }
+        finally {
+            channel.close();
+            slowChannel.close();
+        }
+    }
+
+    private static class TestingChannel
+            implements RequestChannel
+    {
+        private final long delayMillis;
+        private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        private volatile TException error;
+        private volatile long lateResponseMillis = -1;
+
+        private TestingChannel(long delayMillis)
+        {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void sendAsynchronousRequest(ChannelBuffer request, final boolean oneway, final Listener listener)
+        {
+            final TException error = this.error;
+            if (error != null && lateResponseMillis >= 0) {
+                executor.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        listener.onResponseReceived(RESPONSE);
+                    }
+                }, lateResponseMillis, MILLISECONDS);
+            }
+            Runnable completion = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (error != null) {
+                        listener.onChannelError(error);
+                        return;
+                    }
+                    listener.onRequestSent();
+                    if (!oneway) {
+                        listener.onResponseReceived(RESPONSE);
+                    }
+                }
+            };
+
+            if (delayMillis == 0) {
+                completion.run();
+            }
+            else {
+                executor.schedule(completion, delayMillis, MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            executor.shutdownNow();
+        }
+
+        @Override
+        public boolean hasError()
+        {
+            return false;
+        }
+
+        @Override
+        public TException getError()
+        {
+            return null;
+        }
+
+        @Override
+        public TDuplexProtocolFactory getProtocolFactory()
+        {
+            return null;
+        }
+    }
+}
@@ -43,7 +43,10 @@ public class TestThriftClientConfig
                                                 .setReadTimeout(Duration.valueOf("10s"))
                                                 .setWriteTimeout(Duration.valueOf("1m"))
                                                 .setSocksProxy(null)
-                                                .setMaxFrameSize(16777216));
+                                                .setMaxFrameSize(16777216)
+                                                .setMinConnections(1)
+                                                .setMaxConnections(8)
+                                                .setIdleConnectionTimeout(Duration.valueOf("1m")));
     }
 
     @Test
@@ -56,6 +59,9 @@ public class TestThriftClientConfig
             .put("thrift.client.write-timeout", "1s")
             .put("thrift.client.socks-proxy", "localhost:8080")
             .put("thrift.client.max-frame-size", "200")
+            .put("thrift.client.pool.min-connections", "2")
+            .put("thrift.client.pool.max-connections", "20")
+            .put("thrift.client.pool.idle-timeout", "5m")
             .build();
 
         ThriftClientConfig expected = new ThriftClientConfig()
@@ -64,7 +70,10 @@ public class TestThriftClientConfig
             .setReadTimeout(Duration.valueOf("10h"))
             .setWriteTimeout(Duration.valueOf("1s"))
             .setSocksProxy(HostAndPort.fromParts("localhost", 8080))
-            .setMaxFrameSize(200);
+            .setMaxFrameSize(200)
+            .setMinConnections(2)
+            .setMaxConnections(20)
+            .setIdleConnectionTimeout(Duration.valueOf("5m"));
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestThriftMethodInvokers
+{
+    @Test
+    public void testInterfaceMethod()
+            throws Exception
+    {
+        ThriftMethodInvoker invoker = ThriftMethodInvokers.create(Calculator.class.getMethod("add", int.class, long.class));
+        assertGenerated(invoker);
+        assertEquals(invoker.invoke(new CalculatorImpl(), new Object[] {3, 4L}), 7L);
+    }
+
+    @Test
+    public void testClassMethod()
+            throws Exception
+    {
+        ThriftMethodInvoker invoker = ThriftMethodInvokers.create(CalculatorImpl.class.getMethod("join", String.class, List.class, byte[].class));
+        assertGenerated(invoker);
+        assertEquals(invoker.invoke(new CalculatorImpl(), new Object[] {"-", asList("a", "b"), new byte[] {1, 2}}), "a-b-2");
+    }
+
+    @Test
+    public void testVoidMethod()
+            throws Exception
+    {
+        ThriftMethodInvoker invoker = ThriftMethodInvokers.create(Calculator.class.getMethod("reset", boolean.class));
+        assertGenerated(invoker);
+        CalculatorImpl calculator = new CalculatorImpl();
+        assertNull(invoker.invoke(calculator, new Object[] {true}));
+        assertTrue(calculator.reset);
+    }
+
+    @Test
+    public void testExceptionIsNotWrapped()
+            throws Exception
+    {
+        ThriftMethodInvoker invoker = ThriftMethodInvokers.create(Calculator.class.getMethod("fail", String.class));
+        assertGenerated(invoker);
+        try {
+            invoker.invoke(new CalculatorImpl(), new Object[] {"boom"});
+            fail("expected exception");
+        }
+        catch (IOException e) {
+            assertEquals(e.getMessage(), "boom");
+        }
+    }
+
+    @Test
+    public void testNonPublicClassUsesReflection()
+            throws Exception
+    {
+        ThriftMethodInvoker invoker = ThriftMethodInvokers.create(HiddenCalculator.class.getMethod("fail", String.class));
+        assertFalse(invoker.getClass().getName().startsWith("$wift."));
+        try {
+            invoker.invoke(new HiddenCalculator(), new Object[] {"hidden"});
+            fail("expected exception");
+        }
+        catch (IOException e) {
+            assertEquals(e.getMessage(), "hidden");
+        }
+    }
+
+    private static void assertGenerated(ThriftMethodInvoker invoker)
+    {
+        assertTrue(invoker.getClass().getName().startsWith("$wift."), invoker.getClass().getName());
+    }
+
+    public interface Calculator
+    {
+        long add(int a, long b);
+
+        void reset(boolean clear);
+
+        String fail(String message)
+                throws IOException;
+    }
+
+    public static class CalculatorImpl
+            implements Calculator
+    {
+        private boolean reset;
+
+        @Override
+        public long add(int a, long b)
+        {
+            return a + b;
+        }
+
+        @Override
+        public void reset(boolean clear)
+        {
+            reset = clear;
+        }
+
+        @Override
+        public String fail(String message)
+                throws IOException
+        {
+            throw new IOException(message);
+        }
+
+        public String join(String separator, List<String> values, byte[] bytes)
+        {
+            return values.get(0) + separator + values.get(1) + separator + bytes.length;
+        }
+    }
+
+    static class HiddenCalculator
+            extends CalculatorImpl
+    {
+        @Override
+        public String fail(String message)
+                throws IOException
+        {
+            throw new IOException(message);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 
+import java.io.File;
 import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -66,6 +67,10 @@ public class TestThriftServerConfig
                         .setMaxQueuedRequests(null)
                         .setMaxQueuedResponsesPerConnection(16)
                         .setTrafficClass(0)
+                        .setCaptureFile(null)
+                        .setCaptureSampleRate(1.0)
+                        .setCaptureMaxFileSize(DataSize.valueOf("1GB"))
+                        .setStatsHistograms(false)
         );
     }
 
@@ -90,6 +95,10 @@ public class TestThriftServerConfig
                 .put("thrift.max-queued-responses-per-connection", "32")
                 .put("thrift.queue-timeout", "167ms")
                 .put("thrift.traffic-class", "35")
+                .put("thrift.capture.file", "/tmp/capture.bin")
+                .put("thrift.capture.sample-rate", "0.25")
+                .put("thrift.capture.max-file-size", "10MB")
+                .put("thrift.stats.histograms", "true")
                 .build();
 
         ThriftServerConfig expected = new ThriftServerConfig()
@@ -109,7 +118,11 @@ public class TestThriftServerConfig
                 .setMaxQueuedRequests(1000)
                 .setMaxQueuedResponsesPerConnection(32)
                 .setQueueTimeout(Duration.valueOf("167ms"))
-                .setTrafficClass(35);
+                .setTrafficClass(35)
+                .setCaptureFile(new File("/tmp/capture.bin"))
+                .setCaptureSampleRate(0.25)
+                .setCaptureMaxFileSize(DataSize.valueOf("10MB"))
+                .setStatsHistograms(true);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
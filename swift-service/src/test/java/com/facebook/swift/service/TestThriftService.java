@@ -16,34 +16,55 @@
 package com.facebook.swift.service;
 
 import com.facebook.nifty.client.FramedClientConnector;
+import com.facebook.nifty.client.NiftyClient;
+import com.facebook.nifty.client.RequestChannel;
+import com.facebook.nifty.client.UnframedClientConnector;
 import com.facebook.nifty.core.RequestContext;
+import com.facebook.nifty.duplex.TDuplexProtocolFactory;
 import com.facebook.nifty.processor.NiftyProcessor;
 import com.facebook.nifty.processor.NiftyProcessorAdapters;
+import com.facebook.swift.codec.ThriftCodec;
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.swift.service.exceptions.ExceptionServiceClient;
+import com.facebook.swift.service.exceptions.ExceptionServiceHandler;
+import com.facebook.swift.service.exceptions.ThriftCheckedException;
 import com.facebook.swift.service.scribe.LogEntry;
 import com.facebook.swift.service.scribe.ResultCode;
 import com.facebook.swift.service.scribe.scribe;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.net.HostAndPort;
+import org.apache.thrift.TApplicationException;
 import org.apache.thrift.TException;
 import org.apache.thrift.TProcessor;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
 import org.apache.thrift.transport.TFramedTransport;
 import org.apache.thrift.transport.TSocket;
 import org.testng.annotations.Test;
 
 import javax.annotation.Nullable;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.collect.Iterables.concat;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.net.HostAndPort.fromParts;
+import static java.util.concurrent.Executors.newFixedThreadPool;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
 import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 /**
  * Demonstrates creating a Thrift service using Swift.
@@ -72,6 +93,295 @@ public class TestThriftService
         assertEquals(scribeService.getMessages(), newArrayList(concat(messages, messages)));
     }
 
+    @Test
+    public void testForwardedService()
+            throws Exception
+    {
+        SwiftScribe scribeService = new SwiftScribe();
+        NiftyProcessor backendProcessor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.<ThriftEventHandler>of(), scribeService);
+
+        try (
+                ThriftServer backend = new ThriftServer(backendProcessor).start();
+                ThriftClientManager clientManager = new ThriftClientManager()
+        ) {
+            RequestChannel channel = clientManager.createChannel(new FramedClientConnector(fromParts("localhost", backend.getPort()))).get();
+            try {
+                ThriftFrameForwarder forwarder = new ThriftFrameForwarder(channel, ImmutableSet.<String>of(), true);
+                NiftyProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.<ThriftEventHandler>of(), ImmutableList.of(), forwarder);
+
+                List<LogEntry> messages = testProcessor(processor);
+                assertEquals(scribeService.getMessages(), newArrayList(concat(toSwiftLogEntry(messages), toSwiftLogEntry(messages))));
+            }
+            finally {
+                channel.close();
+            }
+        }
+    }
+
+    @Test
+    public void testPooledClient()
+            throws Exception
+    {
+        NiftyProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.<ThriftEventHandler>of(), new SwiftScribe());
+        final AtomicInteger calls = new AtomicInteger();
+
+        try (
+                ThriftServer server = new ThriftServer(processor).start();
+                ThriftClientManager clientManager = new ThriftClientManager()
+        ) {
+            final ThriftClient<Scribe> thriftClient = new ThriftClient<>(clientManager, Scribe.class, new ThriftClientConfig().setMaxConnections(2), "pooled");
+            final HostAndPort address = fromParts("localhost", server.getPort());
+
+            List<Future<?>> futures = new ArrayList<>();
+            ExecutorService executor = newFixedThreadPool(4);
+            try {
+                for (int i = 0; i < 4; i++) {
+                    futures.add(executor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                                throws Exception
+                        {
+                            // closing a pooled client leaves the shared pool open
+                            try (Scribe scribe = thriftClient.openPooled(address)) {
+                                for (int j = 0; j < 10; j++) {
+                                    assertEquals(scribe.log(ImmutableList.of(new com.facebook.swift.service.LogEntry("hello", "world"))), com.facebook.swift.service.ResultCode.OK);
+                                    calls.incrementAndGet();
+                                }
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+
+            assertEquals(calls.get(), 40);
+
+            Scribe first = thriftClient.openPooled(address);
+            Scribe second = thriftClient.openPooled(address);
+            RequestChannel pool = clientManager.getRequestChannel(first);
+            assertSame(clientManager.getRequestChannel(second), pool);
+            assertTrue(((PooledRequestChannel) pool).getConnectionCount() <= 2);
+        }
+    }
+
+    @Test
+    public void testPooledClientSettings()
+            throws Exception
+    {
+        NiftyProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.<ThriftEventHandler>of(), new SwiftScribe());
+
+        try (ThriftServer server = new ThriftServer(processor).start()) {
+            HostAndPort address = fromParts("localhost", server.getPort());
+            ThriftClientManager clientManager = new ThriftClientManager();
+            ThriftClient<Scribe> thriftClient = new ThriftClient<>(clientManager, Scribe.class, new ThriftClientConfig(), "pooled");
+            try {
+                RequestChannel pool = clientManager.getRequestChannel(thriftClient.openPooled(address));
+                Scribe binary = thriftClient.openPooled(address, new FramedClientConnector(address), TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()));
+                assertSame(clientManager.getRequestChannel(binary), pool);
+
+                // clients that differ in protocol or framing cannot share connections
+                Scribe compact = thriftClient.openPooled(address, new FramedClientConnector(address), TDuplexProtocolFactory.fromSingleFactory(new TCompactProtocol.Factory()));
+                assertNotSame(clientManager.getRequestChannel(compact), pool);
+                Scribe unframed = thriftClient.openPooled(address, new UnframedClientConnector(address), TDuplexProtocolFactory.fromSingleFactory(new TBinaryProtocol.Factory()));
+                assertNotSame(clientManager.getRequestChannel(unframed), pool);
+            }
+            finally {
+                clientManager.close();
+            }
+
+            try {
+                thriftClient.openPooled(address);
+                fail("expected IllegalStateException");
+            }
+            catch (IllegalStateException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentCallsOnOneClient()
+            throws Exception
+    {
+        SwiftScribe scribeService = new SwiftScribe();
+        NiftyProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.<ThriftEventHandler>of(), scribeService);
+
+        try (
+                ThriftServer server = new ThriftServer(processor).start();
+                ThriftClientManager clientManager = new ThriftClientManager();
+                final Scribe scribe = clientManager.createClient(new FramedClientConnector(fromParts("localhost", server.getPort())), Scribe.class).get()
+        ) {
+            List<Future<?>> futures = new ArrayList<>();
+            ExecutorService executor = newFixedThreadPool(8);
+            try {
+                for (int i = 0; i < 8; i++) {
+                    final String category = "thread-" + i;
+                    futures.add(executor.submit(new Callable<Void>()
+                    {
+                        @Override
+                        public Void call()
+                                throws Exception
+                        {
+                            for (int j = 0; j < 50; j++) {
+                                List<com.facebook.swift.service.LogEntry> entries = ImmutableList.of(new com.facebook.swift.service.LogEntry(category, "message-" + j));
+                                assertEquals(scribe.log(entries), com.facebook.swift.service.ResultCode.OK);
+                            }
+                            return null;
+                        }
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        // every message arrives once, and the messages of each thread arrive in order
+        List<com.facebook.swift.service.LogEntry> messages = scribeService.getMessages();
+        assertEquals(messages.size(), 8 * 50);
+        for (int i = 0; i < 8; i++) {
+            List<String> threadMessages = new ArrayList<>();
+            for (com.facebook.swift.service.LogEntry message : messages) {
+                if (message.getCategory().equals("thread-" + i)) {
+                    threadMessages.add(message.getMessage());
+                }
+            }
+            List<String> expected = new ArrayList<>();
+            for (int j = 0; j < 50; j++) {
+                expected.add("message-" + j);
+            }
+            assertEquals(threadMessages, expected);
+        }
+    }
+
+    @Test
+    public void testStatsHandlers()
+            throws Exception
+    {
+        ThriftServiceStatsHandler serverStats = new ThriftServiceStatsHandler();
+        ThriftServiceStatsHandler serverHistograms = new ThriftServiceStatsHandler(true);
+        ThriftClientStatsHandler globalClientStats = new ThriftClientStatsHandler();
+        ThriftClientStatsHandler clientStats = new ThriftClientStatsHandler();
+        NiftyProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.of(serverStats, serverHistograms), new SwiftScribe());
+
+        try (
+                ThriftServer server = new ThriftServer(processor).start();
+                ThriftClientManager clientManager = new ThriftClientManager(new ThriftCodecManager(), new NiftyClient(), ImmutableSet.<ThriftClientEventHandler>of(globalClientStats))
+        ) {
+            RequestChannel channel = clientManager.createChannel(new FramedClientConnector(fromParts("localhost", server.getPort()))).get();
+            try (
+                    Scribe scribe = clientManager.createClient(channel, Scribe.class, "stats", ImmutableList.of(clientStats));
+                    Scribe globalScribe = clientManager.createClient(channel, Scribe.class, "stats", ImmutableList.<ThriftClientEventHandler>of())
+            ) {
+                List<com.facebook.swift.service.LogEntry> entries = ImmutableList.of(new com.facebook.swift.service.LogEntry("hello", "world"));
+                scribe.log(entries);
+                scribe.log(entries);
+                globalScribe.log(entries);
+            }
+            finally {
+                channel.close();
+            }
+            assertEquals(server.getQueuedRequests(), 0);
+            assertEquals(server.getRejectedRequests(), 0);
+        }
+
+        // the handlers bound to each method record into the same stats as the unbound handler
+        assertEquals(serverStats.getStats().keySet(), ImmutableSet.of("scribe.Log"));
+        assertEquals(serverStats.getStats().get("scribe.Log").getSuccess().getAllTime().getCount(), 3.0);
+        assertEquals(globalClientStats.getStats().get("scribe.Log").getSuccess().getAllTime().getCount(), 3.0);
+        assertEquals(clientStats.getStats().get("scribe.Log").getSuccess().getAllTime().getCount(), 2.0);
+
+        // the server's worker executor and connections time the calls outside the method processor
+        ThriftMethodStats methodStats = serverStats.getStats().get("scribe.Log");
+        assertEquals(methodStats.getQueueWait().getAllTime().getCount(), 3.0);
+        assertEquals(methodStats.getDispatch().getAllTime().getCount(), 3.0);
+        assertEquals(methodStats.getFlush().getAllTime().getCount(), 3.0);
+
+        ThriftMethodStats histogramStats = serverHistograms.getStats().get("scribe.Log");
+        assertEquals(histogramStats.getSuccessTimeHistogram().getCount(), 3);
+        assertEquals(histogramStats.getReadSizeHistogram().getCount(), 3);
+        assertNull(histogramStats.getSuccess());
+        assertNull(methodStats.getSuccessTimeHistogram());
+    }
+
+    @Test
+    public void testStatsHandlerSubclasses()
+            throws Exception
+    {
+        final AtomicInteger declaredExceptions = new AtomicInteger();
+        final AtomicInteger undeclaredExceptions = new AtomicInteger();
+        final AtomicInteger clientExceptions = new AtomicInteger();
+        ThriftServiceStatsHandler serverStats = new ThriftServiceStatsHandler()
+        {
+            @Override
+            public void declaredUserException(Object context, String methodName, Throwable t, ThriftCodec<?> exceptionCodec)
+            {
+                declaredExceptions.incrementAndGet();
+            }
+
+            @Override
+            public void undeclaredUserException(Object context, String methodName, Throwable t)
+            {
+                undeclaredExceptions.incrementAndGet();
+            }
+        };
+        ThriftClientStatsHandler clientStats = new ThriftClientStatsHandler()
+        {
+            @Override
+            public void postReadException(Object context, String methodName, Throwable t)
+            {
+                super.postReadException(context, methodName, t);
+                clientExceptions.incrementAndGet();
+            }
+        };
+        ThriftClientStatsHandler globalClientStats = new ThriftClientStatsHandler();
+        NiftyProcessor processor = new ThriftServiceProcessor(new ThriftCodecManager(), ImmutableList.of(serverStats), new ExceptionServiceHandler());
+
+        try (
+                ThriftServer server = new ThriftServer(processor).start();
+                ThriftClientManager clientManager = new ThriftClientManager(new ThriftCodecManager(), new NiftyClient(), ImmutableSet.<ThriftClientEventHandler>of(globalClientStats))
+        ) {
+            RequestChannel channel = clientManager.createChannel(new FramedClientConnector(fromParts("localhost", server.getPort()))).get();
+            try (ExceptionServiceClient client = clientManager.createClient(channel, ExceptionServiceClient.class, "stats", ImmutableList.of(clientStats))) {
+                try {
+                    client.throwExpectedThriftCheckedException();
+                    fail("expected ThriftCheckedException");
+                }
+                catch (ThriftCheckedException expected) {
+                }
+                try {
+                    client.throwUnexpectedNonThriftUncheckedException();
+                    fail("expected TApplicationException");
+                }
+                catch (TApplicationException expected) {
+                }
+            }
+            finally {
+                channel.close();
+            }
+        }
+
+        // subclasses handle their calls unbound, so their overrides see every event
+        assertEquals(declaredExceptions.get(), 1);
+        assertEquals(undeclaredExceptions.get(), 1);
+        assertEquals(clientExceptions.get(), 2);
+        assertEquals(clientStats.getStats().get("ExceptionServiceClient.throwExpectedThriftCheckedException").getError().getAllTime().getCount(), 1.0);
+
+        // the global client handlers are bound on the first call of each method, so other methods have no stats
+        assertEquals(globalClientStats.getStats().keySet(), ImmutableSet.of(
+                "ExceptionServiceClient.throwExpectedThriftCheckedException",
+                "ExceptionServiceClient.throwUnexpectedNonThriftUncheckedException"));
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Multiple @ThriftMethod-annotated methods named.*")
     public void testConflictingServices()
             throws Exception
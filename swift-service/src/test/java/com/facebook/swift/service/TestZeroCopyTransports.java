@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2012 Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.swift.service;
+
+import com.facebook.swift.codec.protocol.SwiftBinaryProtocol;
+import com.facebook.swift.codec.protocol.SwiftCompactProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolFactory;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestZeroCopyTransports
+{
+    @Test
+    public void testBinaryRoundTrip()
+            throws Exception
+    {
+        testBinaryRoundTrip(new SwiftBinaryProtocol.Factory(false, true, true));
+        testBinaryRoundTrip(new SwiftCompactProtocol.Factory(true));
+    }
+
+    @Test
+    public void testCopyOutputBuffer()
+            throws Exception
+    {
+        byte[] large = createBytes(64 * 1024);
+
+        TChannelBufferCompositeOutputTransport outputTransport = new TChannelBufferCompositeOutputTransport();
+        TProtocol outputProtocol = new SwiftCompactProtocol(outputTransport, true);
+        outputProtocol.writeString("first");
+        outputProtocol.writeBinary(ByteBuffer.wrap(large));
+        ChannelBuffer copy = outputTransport.copyOutputBuffer();
+
+        // reusing the transport must not change the copy
+        outputTransport.resetOutputBuffer();
+        outputProtocol.writeString("other");
+
+        TProtocol inputProtocol = new SwiftCompactProtocol(new TChannelBufferSliceInputTransport(copy), true);
+        assertEquals(inputProtocol.readString(), "first");
+        assertEquals(inputProtocol.readBinary(), ByteBuffer.wrap(large));
+    }
+
+    private static void testBinaryRoundTrip(TProtocolFactory protocolFactory)
+            throws Exception
+    {
+        byte[] large = createBytes(64 * 1024);
+        byte[] small = createBytes(16);
+        ByteBuffer largeBuffer = ByteBuffer.wrap(large);
+
+        TChannelBufferCompositeOutputTransport outputTransport = new TChannelBufferCompositeOutputTransport();
+        TProtocol outputProtocol = protocolFactory.getProtocol(outputTransport);
+        outputProtocol.writeString("before");
+        outputProtocol.writeBinary(largeBuffer);
+        outputProtocol.writeBinary(ByteBuffer.wrap(small));
+        outputProtocol.writeString("after");
+        assertEquals(largeBuffer.position(), 0);
+
+        // the large buffer is sent by reference, so later changes to it show up in the frame
+        ChannelBuffer frame = outputTransport.getOutputBuffer();
+        large[0] = 42;
+
+        TProtocol inputProtocol = protocolFactory.getProtocol(new TChannelBufferSliceInputTransport(frame));
+        assertEquals(inputProtocol.readString(), "before");
+
+        ByteBuffer largeRead = inputProtocol.readBinary();
+        assertTrue(largeRead.isReadOnly());
+        assertEquals(largeRead.get(0), 42);
+        assertEquals(largeRead, ByteBuffer.wrap(large));
+
+        ByteBuffer smallRead = inputProtocol.readBinary();
+        assertTrue(smallRead.isReadOnly());
+        assertEquals(smallRead, ByteBuffer.wrap(small));
+
+        assertEquals(inputProtocol.readString(), "after");
+        assertFalse(frame.readable());
+    }
+
+    private static byte[] createBytes(int size)
+    {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) 7);
+        for (int i = 0; i < size; i += 13) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+}
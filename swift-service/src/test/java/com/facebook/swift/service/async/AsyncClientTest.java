@@ -16,14 +16,19 @@
 package com.facebook.swift.service.async;
 
 import com.facebook.swift.codec.ThriftCodecManager;
+import com.facebook.nifty.client.NiftyClient;
+import com.facebook.swift.service.ThriftClientEventHandler;
 import com.facebook.swift.service.ThriftClientManager;
+import com.facebook.swift.service.ThriftClientManagerConfig;
 import com.facebook.swift.service.ThriftServer;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.Uninterruptibles;
+import io.airlift.units.Duration;
 import org.apache.thrift.TException;
 import org.apache.thrift.transport.TTransportException;
 import org.jboss.netty.handler.timeout.ReadTimeoutException;
@@ -56,6 +61,27 @@ public class AsyncClientTest extends AsyncTestBase
         }
     }
 
+    @Test
+    public void testSyncCallTimeout()
+            throws Exception
+    {
+        // the read timeout of the channel is one second, the timeout of synchronous calls is shorter
+        clientManager.close();
+        ThriftClientManagerConfig config = new ThriftClientManagerConfig();
+        config.setSyncCallTimeout(new Duration(100, TimeUnit.MILLISECONDS));
+        clientManager = new ThriftClientManager(codecManager, new NiftyClient(), ImmutableSet.<ThriftClientEventHandler>of(), config);
+
+        try (DelayedMap.Client client = createClient(DelayedMap.Client.class, syncServer).get()) {
+            try {
+                client.getValueSlowly(500, TimeUnit.MILLISECONDS, "testKey");
+                fail("expected timeout");
+            }
+            catch (TTransportException e) {
+                assertEquals(e.getType(), TTransportException.TIMED_OUT);
+            }
+        }
+    }
+
     @Test
     public void testAsyncClient()
             throws Exception
@@ -19,19 +19,23 @@ import com.facebook.nifty.client.FramedClientConnector;
 import com.facebook.nifty.client.NiftyClientChannel;
 import com.facebook.nifty.client.NiftyClientConnector;
 import com.facebook.nifty.core.RequestContext;
+import com.facebook.swift.codec.ThriftCodecManager;
 import com.facebook.swift.codec.guice.ThriftCodecModule;
 import com.facebook.swift.service.LogEntry;
 import com.facebook.swift.service.ResultCode;
 import com.facebook.swift.service.Scribe;
 import com.facebook.swift.service.SwiftScribe;
 import com.facebook.swift.service.ThriftClient;
+import com.facebook.swift.service.ThriftClientStatsHandler;
 import com.facebook.swift.service.ThriftClientConfig;
 import com.facebook.swift.service.ThriftEventHandler;
 import com.facebook.swift.service.ThriftServer;
+import com.facebook.swift.service.ThriftServiceStatsHandler;
 import com.facebook.swift.service.puma.TestPuma;
 import com.facebook.swift.service.puma.swift.PumaReadServer;
 import com.facebook.swift.service.puma.swift.PumaReadService;
 import com.facebook.swift.service.puma.swift.ReadResultQueryInfoTimeString;
+import com.facebook.swift.service.puma.swift.ReadSemanticException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.net.HostAndPort;
@@ -51,9 +55,15 @@ import io.airlift.units.Duration;
 import org.testng.annotations.Test;
 import org.weakref.jmx.guice.MBeanModule;
 
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static com.facebook.swift.service.guice.ThriftClientBinder.thriftClientBinder;
 import static com.facebook.swift.service.guice.ThriftServiceExporter.thriftServerBinder;
@@ -65,6 +75,9 @@ import static java.lang.annotation.ElementType.METHOD;
 import static java.lang.annotation.ElementType.PARAMETER;
 import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
 
 public class TestThriftClientAndServerModules
 {
@@ -152,6 +165,83 @@ public class TestThriftClientAndServerModules
         }
     }
 
+    @Test
+    public void testStatsHistograms()
+            throws Exception
+    {
+        Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                new ConfigurationModule(new ConfigurationFactory(ImmutableMap.of(
+                        "thrift.stats.histograms", "true",
+                        "thrift.clientmanager.stats-histograms", "true"))),
+                new ThriftCodecModule(),
+                new ThriftClientModule(),
+                new ThriftClientStatsModule(),
+                new ThriftServerModule(),
+                new ThriftServerStatsModule(),
+                new TestingJmxModule(),
+                new MBeanModule(),
+                new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        thriftClientBinder(binder).bindThriftClient(Scribe.class);
+                        binder.bind(SwiftScribe.class).in(Scopes.SINGLETON);
+                        thriftServerBinder(binder).exportThriftService(SwiftScribe.class);
+                    }
+                });
+
+        try (ThriftServer server = injector.getInstance(ThriftServer.class).start()) {
+            ThriftClient<Scribe> scribeClient = injector.getInstance(Key.get(new TypeLiteral<ThriftClient<Scribe>>() {}));
+            try (Scribe scribe = scribeClient.open(localFramedConnector(server.getPort())).get()) {
+                assertEquals(scribe.log(MESSAGES), ResultCode.OK);
+            }
+        }
+
+        assertTrue(injector.getInstance(ThriftServiceStatsHandler.class).getMethodStats("scribe.Log").isHistograms());
+        assertTrue(injector.getInstance(ThriftClientStatsHandler.class).getMethodStats("scribe.Log").isHistograms());
+
+        // only the histograms are exported
+        MBeanServer mbeanServer = injector.getInstance(MBeanServer.class);
+        Set<String> attributes = new HashSet<>();
+        for (MBeanAttributeInfo attribute : mbeanServer.getMBeanInfo(new ObjectName("com.facebook.swift.server:type=scribe,name=Log")).getAttributes()) {
+            attributes.add(attribute.getName());
+        }
+        assertTrue(attributes.contains("SuccessTimeHistogram.Count"), attributes.toString());
+        assertFalse(attributes.contains("Success.AllTime.Count"), attributes.toString());
+        assertEquals(mbeanServer.getAttribute(new ObjectName("com.facebook.swift.server:type=scribe,name=Log"), "SuccessTimeHistogram.Count"), 1L);
+    }
+
+    @Test
+    public void testCodecWarmup()
+            throws Exception
+    {
+        Injector injector = Guice.createInjector(Stage.PRODUCTION,
+                new ConfigurationModule(new ConfigurationFactory(ImmutableMap.<String, String>of())),
+                new ThriftCodecModule(),
+                new ThriftClientModule(),
+                new ThriftServerModule(),
+                new Module()
+                {
+                    @Override
+                    public void configure(Binder binder)
+                    {
+                        // scribe is only used as a client, puma is only exported
+                        thriftClientBinder(binder).bindThriftClient(Scribe.class);
+                        thriftClientBinder(binder).warmUpCodecs();
+
+                        binder.bind(PumaReadServer.class).in(Scopes.SINGLETON);
+                        thriftServerBinder(binder).exportThriftService(PumaReadServer.class);
+                        thriftServerBinder(binder).warmUpCodecs();
+                    }
+                });
+
+        ThriftCodecManager codecManager = injector.getInstance(ThriftCodecManager.class);
+        assertNotNull(codecManager.getCachedCodecIfPresent(LogEntry.class));
+        assertNotNull(codecManager.getCachedCodecIfPresent(ReadResultQueryInfoTimeString.class));
+        assertNotNull(codecManager.getCachedCodecIfPresent(ReadSemanticException.class));
+    }
+
     @Test
     public void testThriftWithAnnotationBinding()
             throws Exception